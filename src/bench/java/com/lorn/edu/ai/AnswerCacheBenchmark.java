@@ -0,0 +1,81 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// AnswerCache 查找开销：缓存中已有 entries 条问题时，近似命中、完全相同和未命中三种情况
+// 运行：mvn -Pbench test-compile exec:exec -Djmh.args="AnswerCacheBenchmark"
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnswerCacheBenchmark {
+    private static final String MODEL = "glm-4";
+    private static final String PARAMS = ChatService.modelParams(ChatService.ModelType.GLM4, false);
+    private static final String[] TOPICS = {
+            "快速排序", "归并排序", "堆排序", "二叉搜索树", "红黑树", "哈希表", "链表反转", "动态规划", "贪心算法", "图的遍历"
+    };
+    private static final String[] TEMPLATES = {
+            "什么是%s？", "%s的时间复杂度是多少", "请用 Java 实现%s", "%s有哪些应用场景", "%s和第%d种写法有什么区别"
+    };
+
+    @Param({"100", "2000"})
+    public int entries;
+
+    private AnswerCache cache;
+    private List<JSONObject> nearDuplicate;
+    private List<JSONObject> exact;
+    private List<JSONObject> unrelated;
+
+    @Setup
+    public void setUp() {
+        cache = new AnswerCache(0.75, entries, Long.MAX_VALUE, TimeUnit.DAYS.toMillis(1), 200);
+        for (int i = 0; i < entries; i++) {
+            String topic = TOPICS[i % TOPICS.length];
+            String question = String.format(TEMPLATES[(i / TOPICS.length) % TEMPLATES.length], topic, i);
+            cache.put(MODEL, PARAMS, question(question), BenchData.answer(i));
+        }
+        cache.put(MODEL, PARAMS, question("什么是快速排序？"), BenchData.answer(entries));
+        nearDuplicate = question("快速排序是什么呢");
+        exact = question("什么是快速排序？");
+        unrelated = question("怎么用 Python 读取 CSV 文件");
+    }
+
+    private static List<JSONObject> question(String content) {
+        JSONObject message = new JSONObject();
+        message.put("role", "user");
+        message.put("content", content);
+        return Collections.singletonList(message);
+    }
+
+    @Benchmark
+    public String nearDuplicateHit() {
+        return cache.get(MODEL, PARAMS, nearDuplicate);
+    }
+
+    @Benchmark
+    public String exactHit() {
+        return cache.get(MODEL, PARAMS, exact);
+    }
+
+    @Benchmark
+    public String miss() {
+        return cache.get(MODEL, PARAMS, unrelated);
+    }
+}
@@ -0,0 +1,106 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// 基准测试共用的样例数据：中文问答夹杂代码片段，接近真实辅导对话
+final class BenchData {
+    private static final String[] QUESTIONS = {
+            "什么是快速排序？请用 Java 写一个示例并分析时间复杂度。",
+            "下面这段代码为什么会抛出 NullPointerException？\n```java\nString s = map.get(\"key\");\nSystem.out.println(s.length());\n```",
+            "HashMap 和 ConcurrentHashMap 有什么区别？在多线程环境下应该怎么选择？",
+            "请解释一下递归和迭代的区别，并举例说明什么时候应该用递归。",
+    };
+
+    private static final String ANSWER =
+            "好的，我们一步一步来看。\n\n" +
+            "1. **基本思路**：选择一个基准元素，把数组划分为小于基准和大于基准的两部分，再分别递归处理。\n" +
+            "2. **示例代码**：\n```java\n" +
+            "public static void quickSort(int[] a, int lo, int hi) {\n" +
+            "    if (lo >= hi) return;\n" +
+            "    int p = partition(a, lo, hi);\n" +
+            "    quickSort(a, lo, p - 1);\n" +
+            "    quickSort(a, p + 1, hi);\n" +
+            "}\n```\n" +
+            "3. **复杂度**：平均 O(n log n)，最坏 O(n^2)，可以通过随机选取基准来避免最坏情况。\n" +
+            "如果还有不清楚的地方，欢迎继续提问！";
+
+    private BenchData() {
+    }
+
+    static String question(int i) {
+        return QUESTIONS[i % QUESTIONS.length] + " (#" + i + ")";
+    }
+
+    static String answer(int i) {
+        return ANSWER + " (#" + i + ")";
+    }
+
+    // /chat/completions 的非流式响应，content 约为 contentChars 个字符，带 usage 块
+    static String chatResponse(int contentChars) {
+        StringBuilder content = new StringBuilder(contentChars + ANSWER.length());
+        for (int i = 0; content.length() < contentChars; i++) {
+            content.append(answer(i)).append("\n\n");
+        }
+        content.setLength(contentChars);
+
+        JSONObject message = new JSONObject();
+        message.put("role", "assistant");
+        message.put("content", content.toString());
+        JSONObject choice = new JSONObject();
+        choice.put("index", 0);
+        choice.put("finish_reason", "stop");
+        choice.put("message", message);
+        JSONObject usage = new JSONObject();
+        usage.put("prompt_tokens", 512);
+        usage.put("completion_tokens", contentChars / 2);
+        usage.put("total_tokens", 512 + contentChars / 2);
+
+        JSONObject response = new JSONObject(true);
+        response.put("created", 1718000000);
+        response.put("id", "8735641218421957468");
+        response.put("model", "glm-4");
+        response.put("request_id", "8735641218421957468");
+        response.put("choices", new JSONObject[]{choice});
+        response.put("usage", usage);
+        return response.toJSONString();
+    }
+
+    // OnlineCodeService 收到的典型回复：纯文本、带一个代码块、带错误说明和修改后代码
+    static String executionReply(String kind) {
+        switch (kind) {
+            case "plain":
+                return "这段代码没有输出，因为 main 方法中没有调用 System.out.println。";
+            case "codeBlock":
+                return "代码可以正常运行，运行结果如下：\n\n```java\n" +
+                        "排序前: [5, 3, 8, 1, 9, 2]\n排序后: [1, 2, 3, 5, 8, 9]\n```\n\n" +
+                        "时间复杂度为 O(n log n)，空间复杂度为 O(log n)。";
+            case "withErrors":
+                return "代码中有语法错误，第 5 行缺少分号，第 9 行变量 count 未声明。" +
+                        "编译器还会给出一个警告：List 使用了原始类型。以下是修改后的代码：\n\n" +
+                        "```java\npublic class Main {\n    public static void main(String[] args) {\n" +
+                        "        int count = 0;\n        List<String> names = new ArrayList<>();\n" +
+                        "        for (String name : names) {\n            count++;\n        }\n" +
+                        "        System.out.println(count);\n    }\n}\n```\n\n" +
+                        "运行结果：\n\n```\n0\n```\n\n" +
+                        "建议：声明泛型类型参数，并在使用前初始化所有局部变量。";
+            default:
+                throw new IllegalArgumentException(kind);
+        }
+    }
+
+    // 交替的 user/assistant 消息，最后一条为 user
+    static List<JSONObject> history(int size) {
+        List<JSONObject> messages = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            JSONObject msg = new JSONObject();
+            boolean user = (size - 1 - i) % 2 == 0;
+            msg.put("role", user ? "user" : "assistant");
+            msg.put("content", user ? question(i) : answer(i));
+            messages.add(msg);
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,125 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSONObject;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// ChatService.sendMessage 端到端：请求体编码、OkHttp 收发和响应提取，上游为进程内的 HTTP 模拟服务（无延迟），
+// 因此结果反映的是客户端本身的开销上限。
+// 运行：mvn -Pbench test-compile exec:exec -Djmh.args="ChatEndToEndBenchmark -prof gc"
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class ChatEndToEndBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Upstream {
+        @Param({"1", "50"})
+        public int historySize;
+
+        @Param({"4000"})
+        public int contentChars;
+
+        HttpServer server;
+        ExecutorService serverExecutor;
+        HttpTransport transport;
+        ChatService chatService;
+
+        @Setup(Level.Trial)
+        public void start() throws IOException {
+            // 关闭 Nagle，避免 JDK HttpServer 分段写响应时叠加 40ms 延迟确认
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+            // 只测调用路径本身，不注册 JMX
+            System.setProperty("zhipu.metrics.jmx", "false");
+            // 占位的中文 API Key 不是合法的请求头，需在 ChatService 加载前设置
+            System.setProperty("zhipu.api.key", "bench-key");
+
+            byte[] body = BenchData.chatResponse(contentChars).getBytes(StandardCharsets.UTF_8);
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            serverExecutor = Executors.newFixedThreadPool(16);
+            server.setExecutor(serverExecutor);
+            server.createContext("/api/paas/v4/chat/completions", exchange -> {
+                try {
+                    drain(exchange.getRequestBody());
+                    exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                } finally {
+                    exchange.close();
+                }
+            });
+            server.start();
+
+            transport = new HttpTransport(64, 16, 16, 300);
+            String url = "http://localhost:" + server.getAddress().getPort() + "/api/paas/v4/chat/completions";
+            chatService = new ChatService(transport.newClient(HttpTransport.Timeouts.DEFAULT), url);
+            chatService.setModel(ChatService.ModelType.GLM4);
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            transport.shutdown();
+            server.stop(0);
+            serverExecutor.shutdownNow();
+        }
+    }
+
+    // 每个线程一段独立的对话
+    @State(Scope.Thread)
+    public static class Conversation {
+        List<JSONObject> history;
+        int turn;
+
+        @Setup(Level.Trial)
+        public void setUp(Upstream upstream) {
+            history = BenchData.history(upstream.historySize);
+        }
+    }
+
+    @Benchmark
+    public int sendMessage(Upstream upstream, Conversation conversation) throws Exception {
+        // 每轮替换最后一条用户消息，与真实对话一样只有一条新消息需要编码
+        JSONObject latest = new JSONObject();
+        latest.put("role", "user");
+        latest.put("content", BenchData.question(conversation.turn++));
+        conversation.history.set(conversation.history.size() - 1, latest);
+        return upstream.chatService.sendMessage(conversation.history).length();
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[4096];
+        while (in.read(buffer) != -1) {
+            // 丢弃请求体
+        }
+        in.close();
+    }
+}
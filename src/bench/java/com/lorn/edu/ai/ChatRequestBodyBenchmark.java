@@ -0,0 +1,93 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSONObject;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// ChatService 请求体构建：原先每轮重建 JSONObject 树并 toString，对比按消息缓存 UTF-8 字节的增量编码。
+// 每次调用都把最后一条消息换成新对象，模拟“每轮只有一条新消息”的真实对话。
+// 运行：mvn -Pbench test-compile exec:exec -Djmh.args="ChatRequestBodyBenchmark -prof gc"
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatRequestBodyBenchmark {
+    @Param({"1", "10", "50", "200"})
+    public int historySize;
+
+    private List<JSONObject> history;
+    private ChatRequestEncoder encoder;
+    private final Buffer sink = new Buffer();
+    private int turn;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        history = BenchData.history(historySize);
+        encoder = new ChatRequestEncoder(8L * 1024 * 1024);
+    }
+
+    @Setup(Level.Invocation)
+    public void newTurn() {
+        JSONObject latest = new JSONObject();
+        latest.put("role", "user");
+        latest.put("content", BenchData.question(turn++));
+        history.set(history.size() - 1, latest);
+    }
+
+    // 原实现：逐条复制消息并做一次 UTF-8 往返，构建完整 JSON 树后 toString
+    @Benchmark
+    public long legacyJsonTree() throws IOException {
+        JSONObject requestBody = new JSONObject();
+        requestBody.put("model", ChatService.ModelType.GLM4.getValue());
+        List<JSONObject> encodedMessages = new ArrayList<>();
+        for (JSONObject msg : history) {
+            JSONObject encodedMsg = new JSONObject();
+            encodedMsg.put("role", msg.getString("role"));
+            String content = msg.getString("content");
+            encodedMsg.put("content", new String(content.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8));
+            encodedMessages.add(encodedMsg);
+        }
+        requestBody.put("messages", encodedMessages);
+        requestBody.put("temperature", 0.7);
+        requestBody.put("stream", false);
+
+        RequestBody body = RequestBody.create(
+                MediaType.parse("application/json; charset=utf-8"), requestBody.toString());
+        return writeOut(body);
+    }
+
+    @Benchmark
+    public long incrementalEncoder() throws IOException {
+        RequestBody body = encoder.encode(ChatService.ModelType.GLM4.getValue(), history,
+                ChatService.modelParams(ChatService.ModelType.GLM4, false));
+        return writeOut(body);
+    }
+
+    private long writeOut(RequestBody body) throws IOException {
+        body.writeTo(sink);
+        long size = sink.size();
+        sink.clear();
+        return size;
+    }
+}
@@ -0,0 +1,422 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// 本地模拟的智谱 BigModel 接口，用于离线压测，不消耗额度。
+// 提供 /chat/completions（含流式）、/images/generations、/videos/generations、/async-result
+// 以及假的图片/视频下载地址；延迟服从对数正态分布，可按比例注入 500 和 429，也可以像上游一样限制并发（maxConcurrent）。
+// 运行：mvn -Pbench test-compile exec:exec@fake-server -Dload.args="port=18080 latencyMs=800 rateLimitRate=0.05"
+// 然后让服务指向它：-Dzhipu.api.baseUrl=http://127.0.0.1:18080/api/paas/v4 -Dzhipu.api.key=test
+public class FakeBigModelServer {
+    static final String API_PREFIX = "/api/paas/v4";
+    private static final String MEDIA_PREFIX = "/media/";
+    private static final String ACTIVE_ATTRIBUTE = "fake.active";
+    private static final byte[] DONE_EVENT = "data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final String ANSWER_TEXT =
+            "这个问题可以分三步来理解。首先明确输入和输出，其次找出每一步不变的性质，" +
+            "最后用循环或递归把过程写出来。下面给出一个简单的 Java 示例：\n```java\n" +
+            "int sum = 0;\nfor (int i = 1; i <= n; i++) {\n    sum += i;\n}\n```\n" +
+            "时间复杂度为 O(n)，如果使用求和公式 n * (n + 1) / 2 可以降到 O(1)。";
+
+    public static final class Config {
+        int port = 0;
+        long latencyMillis = 800;          // 非流式响应、出图、视频提交的延迟中位数
+        double latencySigma = 0.5;         // 对数正态分布的 sigma，0 表示固定延迟
+        double errorRate = 0.0;            // 返回 500 的比例
+        double rateLimitRate = 0.0;        // 返回 429 的比例
+        int maxConcurrent = 0;             // 生成类接口同时处理的请求数上限，超出返回 429，0 表示不限
+        int answerChars = 600;
+        int streamChunks = 30;
+        long chunkIntervalMillis = 30;
+        int imageBytes = 256 * 1024;
+        int videoBytes = 4 * 1024 * 1024;
+        long videoReadyMillis = 15_000;    // 视频任务从提交到 SUCCESS 的时间中位数
+        double videoFailRate = 0.0;
+
+        static Config fromArgs(Map<String, String> args) {
+            Config config = new Config();
+            config.port = Integer.parseInt(args.getOrDefault("port", "0"));
+            config.latencyMillis = Long.parseLong(args.getOrDefault("latencyMs", "800"));
+            config.latencySigma = Double.parseDouble(args.getOrDefault("latencySigma", "0.5"));
+            config.errorRate = Double.parseDouble(args.getOrDefault("errorRate", "0"));
+            config.rateLimitRate = Double.parseDouble(args.getOrDefault("rateLimitRate", "0"));
+            config.maxConcurrent = Integer.parseInt(args.getOrDefault("maxConcurrent", "0"));
+            config.answerChars = Integer.parseInt(args.getOrDefault("answerChars", "600"));
+            config.streamChunks = Integer.parseInt(args.getOrDefault("streamChunks", "30"));
+            config.chunkIntervalMillis = Long.parseLong(args.getOrDefault("chunkIntervalMs", "30"));
+            config.imageBytes = Integer.parseInt(args.getOrDefault("imageBytes", String.valueOf(256 * 1024)));
+            config.videoBytes = Integer.parseInt(args.getOrDefault("videoBytes", String.valueOf(4 * 1024 * 1024)));
+            config.videoReadyMillis = Long.parseLong(args.getOrDefault("videoReadyMs", "15000"));
+            config.videoFailRate = Double.parseDouble(args.getOrDefault("videoFailRate", "0"));
+            return config;
+        }
+
+        @Override
+        public String toString() {
+            return "latencyMs=" + latencyMillis + " latencySigma=" + latencySigma + " errorRate=" + errorRate
+                    + " rateLimitRate=" + rateLimitRate + " maxConcurrent=" + maxConcurrent
+                    + " answerChars=" + answerChars
+                    + " streamChunks=" + streamChunks + " chunkIntervalMs=" + chunkIntervalMillis
+                    + " videoReadyMs=" + videoReadyMillis + " videoFailRate=" + videoFailRate;
+        }
+    }
+
+    private static final class VideoTask {
+        final long readyAt;
+        final boolean fails;
+
+        VideoTask(long readyAt, boolean fails) {
+            this.readyAt = readyAt;
+            this.fails = fails;
+        }
+    }
+
+    private final Config config;
+    private final String answer;
+    private final Map<String, VideoTask> videoTasks = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> requestCounts = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public FakeBigModelServer(Config config) {
+        this.config = config;
+        StringBuilder text = new StringBuilder(config.answerChars + ANSWER_TEXT.length());
+        while (text.length() < config.answerChars) {
+            text.append(ANSWER_TEXT);
+        }
+        text.setLength(config.answerChars);
+        this.answer = text.toString();
+    }
+
+    public void start() throws IOException {
+        // 关闭 Nagle，避免 JDK HttpServer 分段写响应时叠加 40ms 延迟确认
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), config.port), 1024);
+        // 模拟延迟靠 sleep 实现，每个在途请求占一个线程
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "fake-bigmodel");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + API_PREFIX;
+    }
+
+    // 各接口收到的请求数，按 "接口 状态码" 分组
+    public Map<String, Long> getRequestCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        requestCounts.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(e -> counts.put(e.getKey(), e.getValue().sum()));
+        return counts;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String endpoint = path;
+        int status;
+        try {
+            if (path.startsWith(MEDIA_PREFIX)) {
+                endpoint = "media";
+                status = serveMedia(exchange, path.substring(MEDIA_PREFIX.length()));
+            } else if (path.equals(API_PREFIX + "/chat/completions")) {
+                endpoint = "chat";
+                status = serveChat(exchange);
+            } else if (path.equals(API_PREFIX + "/images/generations")) {
+                endpoint = "image";
+                status = serveImage(exchange);
+            } else if (path.equals(API_PREFIX + "/videos/generations")) {
+                endpoint = "video";
+                status = serveVideoSubmit(exchange);
+            } else if (path.startsWith(API_PREFIX + "/async-result/")) {
+                endpoint = "async-result";
+                status = serveVideoQuery(exchange, path.substring((API_PREFIX + "/async-result/").length()));
+            } else {
+                status = sendError(exchange, 404, "1211", "接口不存在");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            status = -1;
+        } catch (IOException e) {
+            // 客户端取消或断开
+            status = -1;
+        } finally {
+            if (exchange.getAttribute(ACTIVE_ATTRIBUTE) != null) {
+                active.decrementAndGet();
+            }
+            exchange.close();
+        }
+        requestCounts.computeIfAbsent(endpoint + " " + status, k -> new LongAdder()).increment();
+    }
+
+    private int serveChat(HttpExchange exchange) throws IOException, InterruptedException {
+        JSONObject request = JSON.parseObject(readBody(exchange));
+        Integer injected = injectFailure(exchange);
+        if (injected != null) {
+            return injected;
+        }
+        String model = request.getString("model");
+        if (!request.getBooleanValue("stream")) {
+            Thread.sleep(sampleLatency(config.latencyMillis));
+            JSONObject message = new JSONObject();
+            message.put("role", "assistant");
+            message.put("content", answer);
+            JSONObject choice = new JSONObject();
+            choice.put("index", 0);
+            choice.put("finish_reason", "stop");
+            choice.put("message", message);
+            JSONObject response = completion(model);
+            response.put("choices", new JSONObject[]{choice});
+            response.put("usage", usage(request));
+            return sendJson(exchange, 200, response);
+        }
+
+        // 流式：首个分片前等待一次采样延迟的 1/3，之后按固定间隔逐片发送，最后一片带 usage
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        Thread.sleep(sampleLatency(config.latencyMillis) / 3);
+        String id = String.valueOf(ids.incrementAndGet());
+        int chunks = Math.max(1, Math.min(config.streamChunks, answer.length()));
+        int chunkSize = (answer.length() + chunks - 1) / chunks;
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (int start = 0; start < answer.length(); start += chunkSize) {
+                boolean last = start + chunkSize >= answer.length();
+                JSONObject delta = new JSONObject();
+                delta.put("role", "assistant");
+                delta.put("content", answer.substring(start, Math.min(answer.length(), start + chunkSize)));
+                JSONObject choice = new JSONObject();
+                choice.put("index", 0);
+                choice.put("delta", delta);
+                if (last) {
+                    choice.put("finish_reason", "stop");
+                }
+                JSONObject chunk = completion(model);
+                chunk.put("id", id);
+                chunk.put("choices", new JSONObject[]{choice});
+                if (last) {
+                    chunk.put("usage", usage(request));
+                }
+                out.write(("data: " + chunk.toJSONString() + "\n\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                if (!last) {
+                    Thread.sleep(config.chunkIntervalMillis);
+                }
+            }
+            out.write(DONE_EVENT);
+        }
+        return 200;
+    }
+
+    private int serveImage(HttpExchange exchange) throws IOException, InterruptedException {
+        readBody(exchange);
+        Integer injected = injectFailure(exchange);
+        if (injected != null) {
+            return injected;
+        }
+        Thread.sleep(sampleLatency(config.latencyMillis));
+        JSONObject image = new JSONObject();
+        image.put("url", mediaUrl(exchange, "image-" + ids.incrementAndGet() + ".png"));
+        JSONObject response = new JSONObject();
+        response.put("created", System.currentTimeMillis() / 1000);
+        response.put("data", new JSONObject[]{image});
+        return sendJson(exchange, 200, response);
+    }
+
+    private int serveVideoSubmit(HttpExchange exchange) throws IOException, InterruptedException {
+        JSONObject request = JSON.parseObject(readBody(exchange));
+        Integer injected = injectFailure(exchange);
+        if (injected != null) {
+            return injected;
+        }
+        Thread.sleep(sampleLatency(config.latencyMillis) / 4);
+        String taskId = "task-" + ids.incrementAndGet();
+        long readyAt = System.currentTimeMillis() + sampleLatency(config.videoReadyMillis);
+        videoTasks.put(taskId, new VideoTask(readyAt, ThreadLocalRandom.current().nextDouble() < config.videoFailRate));
+
+        JSONObject response = new JSONObject();
+        response.put("id", taskId);
+        response.put("model", request.getString("model"));
+        response.put("request_id", request.getString("request_id"));
+        response.put("task_status", "PROCESSING");
+        return sendJson(exchange, 200, response);
+    }
+
+    private int serveVideoQuery(HttpExchange exchange, String taskId) throws IOException {
+        VideoTask task = videoTasks.get(taskId);
+        if (task == null) {
+            return sendError(exchange, 404, "1214", "任务不存在: " + taskId);
+        }
+        JSONObject response = new JSONObject();
+        response.put("model", "cogvideox");
+        if (System.currentTimeMillis() < task.readyAt) {
+            response.put("task_status", "PROCESSING");
+        } else if (task.fails) {
+            response.put("task_status", "FAIL");
+            response.put("error", "模拟的生成失败");
+        } else {
+            JSONObject video = new JSONObject();
+            video.put("url", mediaUrl(exchange, "video-" + taskId + ".mp4"));
+            video.put("cover_image_url", mediaUrl(exchange, "cover-" + taskId + ".png"));
+            response.put("task_status", "SUCCESS");
+            response.put("video_result", new JSONObject[]{video});
+        }
+        return sendJson(exchange, 200, response);
+    }
+
+    // 按文件名前缀决定大小，内容为固定字节
+    private int serveMedia(HttpExchange exchange, String name) throws IOException {
+        long size = name.startsWith("video-") ? config.videoBytes : config.imageBytes;
+        exchange.getResponseHeaders().add("Content-Type", name.endsWith(".mp4") ? "video/mp4" : "image/png");
+        exchange.sendResponseHeaders(200, size);
+        byte[] block = new byte[64 * 1024];
+        Arrays.fill(block, (byte) 0x5a);
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (long remaining = size; remaining > 0; remaining -= block.length) {
+                out.write(block, 0, (int) Math.min(block.length, remaining));
+            }
+        }
+        return 200;
+    }
+
+    // 超出并发上限（与上游按 API Key 限制并发的行为一致）或按配置比例返回 429 或 500，出错响应只带很小的延迟。
+    // 并发计数在整个请求期间保持，由 handle 在请求结束时归还
+    private Integer injectFailure(HttpExchange exchange) throws IOException, InterruptedException {
+        if (config.maxConcurrent > 0) {
+            exchange.setAttribute(ACTIVE_ATTRIBUTE, Boolean.TRUE);
+            if (active.incrementAndGet() > config.maxConcurrent) {
+                Thread.sleep(5);
+                return sendError(exchange, 429, "1302", "您当前使用该API的并发数过高，请降低并发，或联系客服增加限额。");
+            }
+        }
+        double roll = ThreadLocalRandom.current().nextDouble();
+        if (roll < config.rateLimitRate) {
+            Thread.sleep(5);
+            return sendError(exchange, 429, "1302", "您当前使用该API的并发数过高，请降低并发，或联系客服增加限额。");
+        }
+        if (roll < config.rateLimitRate + config.errorRate) {
+            Thread.sleep(5);
+            return sendError(exchange, 500, "500", "服务内部错误，请稍后重试。");
+        }
+        return null;
+    }
+
+    private long sampleLatency(long median) {
+        if (config.latencySigma <= 0) {
+            return median;
+        }
+        double factor = Math.exp(config.latencySigma * ThreadLocalRandom.current().nextGaussian());
+        return Math.round(median * factor);
+    }
+
+    private JSONObject completion(String model) {
+        JSONObject response = new JSONObject();
+        response.put("id", String.valueOf(ids.incrementAndGet()));
+        response.put("created", System.currentTimeMillis() / 1000);
+        response.put("model", model);
+        return response;
+    }
+
+    // 粗略估算 token 数：按请求体和回答的字符数各除以 2
+    private JSONObject usage(JSONObject request) {
+        int promptTokens = request.getJSONArray("messages").toJSONString().length() / 2;
+        int completionTokens = answer.length() / 2;
+        JSONObject usage = new JSONObject();
+        usage.put("prompt_tokens", promptTokens);
+        usage.put("completion_tokens", completionTokens);
+        usage.put("total_tokens", promptTokens + completionTokens);
+        return usage;
+    }
+
+    private String mediaUrl(HttpExchange exchange, String name) {
+        return "http://127.0.0.1:" + exchange.getLocalAddress().getPort() + MEDIA_PREFIX + name;
+    }
+
+    private static int sendError(HttpExchange exchange, int status, String code, String message) throws IOException {
+        JSONObject error = new JSONObject();
+        error.put("code", code);
+        error.put("message", message);
+        JSONObject response = new JSONObject();
+        response.put("error", error);
+        return sendJson(exchange, status, response);
+    }
+
+    private static int sendJson(HttpExchange exchange, int status, JSONObject response) throws IOException {
+        byte[] body = response.toJSONString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+        return status;
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[8192];
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                body.write(buffer, 0, n);
+            }
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    // key=value 形式的命令行参数
+    static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> parsed = new LinkedHashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                parsed.put(arg.substring(0, eq).trim(), arg.substring(eq + 1).trim());
+            }
+        }
+        return parsed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.fromArgs(parseArgs(args));
+        FakeBigModelServer server = new FakeBigModelServer(config);
+        server.start();
+        System.out.println("模拟 BigModel 服务已启动: " + server.getBaseUrl());
+        System.out.println("配置: " + config);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("请求统计: " + server.getRequestCounts());
+            server.stop();
+        }));
+        Thread.currentThread().join();
+    }
+}
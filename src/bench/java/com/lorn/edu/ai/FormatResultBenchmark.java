@@ -0,0 +1,40 @@
+package com.lorn.edu.ai;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// OnlineCodeService.formatExecutionResult 对典型 markdown 回复的处理开销
+// 运行：mvn -Pbench test-compile exec:exec -Djmh.args="FormatResultBenchmark -prof gc"
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatResultBenchmark {
+    @Param({"plain", "codeBlock", "withErrors"})
+    public String reply;
+
+    private String aiResponse;
+
+    @Setup
+    public void setUp() {
+        aiResponse = BenchData.executionReply(reply);
+    }
+
+    @Benchmark
+    public String formatExecutionResult() {
+        return OnlineCodeService.formatExecutionResult(aiResponse);
+    }
+}
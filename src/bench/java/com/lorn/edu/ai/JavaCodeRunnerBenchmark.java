@@ -0,0 +1,78 @@
+package com.lorn.edu.ai;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// JavaCodeRunner 运行一段简单程序的耗时：字节码缓存命中（交给预先启动的子 JVM 加载、运行、收集输出）、
+// 每次都重新编译，以及只有语句、需要包装成 Main 类的代码
+// 运行：mvn -Pbench test-compile exec:exec -Djmh.args="JavaCodeRunnerBenchmark"
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JavaCodeRunnerBenchmark {
+    private static final String PROGRAM = "public class Fib {\n"
+            + "    static long fib(int n) { return n < 2 ? n : fib(n - 1) + fib(n - 2); }\n"
+            + "    public static void main(String[] args) {\n"
+            + "        for (int i = 0; i < 20; i++) {\n"
+            + "            System.out.println(\"fib(\" + i + \") = \" + fib(i));\n"
+            + "        }\n"
+            + "    }\n"
+            + "}\n";
+    private static final String STATEMENTS = "import java.util.*;\n"
+            + "List<Integer> xs = new ArrayList<>();\n"
+            + "for (int i = 0; i < 10; i++) xs.add(i * i);\n"
+            + "System.out.println(xs);\n";
+
+    private JavaCodeRunner runner;
+    private int sequence;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        runner = new JavaCodeRunner(ProcessSandbox.getDefault(), true,
+                System.getProperty("java.home") + "/bin/java", 5_000, 256L * 1024 * 1024, 64 * 1024, 1 << 16, 2);
+        runner.warmUp();
+        expectOk(runner.run(PROGRAM, null));
+    }
+
+    private static CodeRunResult expectOk(CodeRunResult result) {
+        if (!result.isSuccess()) {
+            throw new IllegalStateException(result.format());
+        }
+        return result;
+    }
+
+    @TearDown
+    public void tearDown() {
+        runner.shutdown();
+    }
+
+    @Benchmark
+    public CodeRunResult cachedRun() throws InterruptedException {
+        return expectOk(runner.run(PROGRAM, null));
+    }
+
+    // 末尾的注释不同，每次都是新的源码
+    @Benchmark
+    public CodeRunResult compileAndRun() throws InterruptedException {
+        return expectOk(runner.run(PROGRAM + "// " + sequence++, null));
+    }
+
+    @Benchmark
+    public CodeRunResult compileAndRunStatements() throws InterruptedException {
+        return expectOk(runner.run(STATEMENTS + "// " + sequence++, null));
+    }
+}
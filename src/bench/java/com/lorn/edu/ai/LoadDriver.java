@@ -0,0 +1,395 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// 离线压测驱动：按目标并发把录制的对话回放到 ChatService、CodeService、ImageService 和 VideoService，
+// 结束后报告各类操作的吞吐量、p50/p99 延迟和错误率，并附上 ModelMetrics 的按模型统计。
+// 默认在进程内启动 FakeBigModelServer（其参数同样可以在这里传入），也可以用 baseUrl= 指向已运行的模拟服务。
+// 运行：mvn -Pbench test-compile exec:exec@load -Dload.args="concurrency=50 durationSeconds=60 rateLimitRate=0.02"
+//
+// 参数（key=value）：
+//   concurrency=16          同时回放的对话数
+//   durationSeconds=30      压测时长，到时后不再开始新对话，等待进行中的对话结束
+//   conversations=<file>    录制的对话，每行一个 JSON：{"type":"chat","turns":["问题1","问题2"]}，
+//                           type 为 chat / code / image / video，image 和 video 只取第一个 turn 作为提示词；
+//                           不指定时使用内置对话并按 mix 随机抽取
+//   mix=chat:70,code:20,image:8,video:2
+//   stream=true             聊天和代码问答使用流式接口
+//   executor=platform       回放对话的线程：platform 每段对话一个平台线程；bounded / forkjoin / virtual 使用
+//                           ServiceExecutors 的对应实现（virtual 需 -Pjava21 构建），threads= 为前两者的线程数（默认 64）。
+//                           OkHttp 回调线程另由 zhipu.executor.mode 决定。报告中附峰值平台线程数和堆占用
+//   baseUrl=<url>           不启动内置模拟服务，直接压测该地址
+//   verbose=false           是否保留各服务自身的控制台输出
+//   zhipu.*=...             原样设置为系统属性，例如 zhipu.http.maxRequestsPerHost=64
+public class LoadDriver {
+    private static final String[] BUILTIN_QUESTIONS = {
+            "什么是快速排序？请用 Java 写一个示例。",
+            "它的时间复杂度是多少？最坏情况怎么避免？",
+            "HashMap 和 ConcurrentHashMap 有什么区别？",
+            "请解释一下递归和迭代的区别。",
+            "下面这段代码为什么会抛出 NullPointerException？\nString s = map.get(\"key\");\ns.length();",
+            "如何判断一个链表是否有环？",
+    };
+    private static final String[] BUILTIN_PROMPTS = {
+            "一只可爱的小狗在草地上奔跑",
+            "蓝天白云下的草原",
+            "夕阳下的海滩",
+    };
+
+    private static final class Conversation {
+        final String type;
+        final List<String> turns;
+
+        Conversation(String type, List<String> turns) {
+            this.type = type;
+            this.turns = turns;
+        }
+    }
+
+    // 一类操作（一轮问答、一次出图或一个视频）的统计
+    private static final class OperationStats {
+        final ModelMetrics.LatencyHistogram latency = new ModelMetrics.LatencyHistogram();
+        final LongAdder succeeded = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    }
+
+    private final Map<String, OperationStats> stats = new ConcurrentHashMap<>();
+    private final LongAdder completedOperations = new LongAdder();
+    private final AtomicInteger replayIndex = new AtomicInteger();
+
+    private final List<Conversation> recorded;
+    private final Map<String, Integer> mix;
+    private final boolean stream;
+
+    private ChatService chatService;
+    private CodeService codeService;
+    private ImageService imageService;
+    private VideoService videoService;
+
+    LoadDriver(List<Conversation> recorded, Map<String, Integer> mix, boolean stream) {
+        this.recorded = recorded;
+        this.mix = mix;
+        this.stream = stream;
+    }
+
+    // 服务在构造时读取 zhipu.api.* 等系统属性，因此必须在设置完属性之后创建
+    void createServices() {
+        chatService = new ChatService();
+        chatService.setModel(ChatService.ModelType.GLM4);
+        // 与线上一致使用答案缓存，zhipu.answerCache.enabled=false 时关闭
+        chatService.setAnswerCache(AnswerCache.fromSystemProperties());
+        codeService = new CodeService();
+        imageService = new ImageService();
+        videoService = new VideoService();
+    }
+
+    // executor 为 null 时每段对话一个平台线程
+    void run(int concurrency, long durationMillis, ExecutorService executor, PrintStream console)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + durationMillis;
+        ExecutorService workers = executor != null ? executor : Executors.newFixedThreadPool(concurrency, r -> {
+            Thread thread = new Thread(r, "load-driver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        long startNanos = System.nanoTime();
+        // 等所有对话结束后再 shutdown：JDK 19 起 ForkJoinPool.shutdown 会中断正在阻塞等待的任务
+        CountDownLatch finished = new CountDownLatch(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            workers.execute(() -> {
+                try {
+                    while (System.currentTimeMillis() < deadline) {
+                        replay(nextConversation());
+                    }
+                } finally {
+                    finished.countDown();
+                }
+            });
+        }
+
+        while (!finished.await(5, TimeUnit.SECONDS)) {
+            long elapsed = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos);
+            console.println("已运行 " + elapsed + " 秒，完成操作 " + completedOperations.sum() + " 次"
+                    + (System.currentTimeMillis() >= deadline ? "，等待进行中的对话结束..." : ""));
+        }
+        workers.shutdown();
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        console.print(report(seconds));
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        // 各内存池的峰值出现在不同时刻，相加是上限估计
+        console.printf("%n峰值平台线程 %d 个，堆占用峰值不超过 %.1f MB%n",
+                threads.getPeakThreadCount(), peakHeap / 1048576.0);
+    }
+
+    private Conversation nextConversation() {
+        if (!recorded.isEmpty()) {
+            return recorded.get(Math.floorMod(replayIndex.getAndIncrement(), recorded.size()));
+        }
+        int total = 0;
+        for (int weight : mix.values()) {
+            total += weight;
+        }
+        int roll = ThreadLocalRandom.current().nextInt(total);
+        String type = "chat";
+        for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+            roll -= entry.getValue();
+            if (roll < 0) {
+                type = entry.getKey();
+                break;
+            }
+        }
+        return builtinConversation(type);
+    }
+
+    private static Conversation builtinConversation(String type) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if ("image".equals(type) || "video".equals(type)) {
+            return new Conversation(type,
+                    Collections.singletonList(BUILTIN_PROMPTS[random.nextInt(BUILTIN_PROMPTS.length)]));
+        }
+        int turns = 1 + random.nextInt(4);
+        List<String> questions = new ArrayList<>(turns);
+        int first = random.nextInt(BUILTIN_QUESTIONS.length);
+        for (int i = 0; i < turns; i++) {
+            questions.add(BUILTIN_QUESTIONS[(first + i) % BUILTIN_QUESTIONS.length]);
+        }
+        return new Conversation(type, questions);
+    }
+
+    // 出错时放弃该对话的后续轮次，与学生看到报错后重新提问的行为一致
+    private void replay(Conversation conversation) {
+        List<JSONObject> history = new ArrayList<>();
+        for (String turn : conversation.turns) {
+            long start = System.nanoTime();
+            try {
+                switch (conversation.type) {
+                    case "chat":
+                    case "code":
+                        history.add(message("user", turn));
+                        String reply = ask(conversation.type, history);
+                        history.add(message("assistant", reply));
+                        break;
+                    case "image":
+                        imageService.generateImage(turn);
+                        break;
+                    case "video":
+                        videoService.generateVideo(turn);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("未知的对话类型: " + conversation.type);
+                }
+                record(conversation.type, start, null);
+            } catch (Exception e) {
+                record(conversation.type, start, e);
+                return;
+            }
+            if ("image".equals(conversation.type) || "video".equals(conversation.type)) {
+                return;
+            }
+        }
+    }
+
+    private String ask(String type, List<JSONObject> history) throws Exception {
+        if ("code".equals(type)) {
+            return stream ? codeService.askCodingQuestionStream(history, null) : codeService.askCodingQuestion(history);
+        }
+        return stream ? chatService.sendMessageStream(history, null) : chatService.sendMessage(history);
+    }
+
+    private void record(String type, long startNanos, Exception error) {
+        OperationStats s = stats.computeIfAbsent(type, k -> new OperationStats());
+        s.latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+        if (error == null) {
+            s.succeeded.increment();
+        } else {
+            s.failed.increment();
+            String message = String.valueOf(AsyncCalls.unwrap(error).getMessage());
+            String kind = message.length() > 40 ? message.substring(0, 40) + "..." : message;
+            s.errors.computeIfAbsent(kind, k -> new LongAdder()).increment();
+        }
+        completedOperations.increment();
+    }
+
+    private String report(double seconds) {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%n=== 压测结果（%.1f 秒）===%n", seconds));
+        report.append(String.format("%-6s %8s %8s %8s %8s %10s %9s %9s %9s%n",
+                "类型", "次数", "成功", "失败", "错误率", "吞吐(次/秒)", "p50(ms)", "p99(ms)", "max(ms)"));
+        for (String type : new String[]{"chat", "code", "image", "video"}) {
+            OperationStats s = stats.get(type);
+            if (s == null) {
+                continue;
+            }
+            long ok = s.succeeded.sum();
+            long failed = s.failed.sum();
+            report.append(String.format("%-6s %8d %8d %8d %7.2f%% %10.1f %9.1f %9.1f %9.1f%n",
+                    type, ok + failed, ok, failed, failed * 100.0 / Math.max(1, ok + failed), ok / seconds,
+                    s.latency.percentileMillis(0.50), s.latency.percentileMillis(0.99), s.latency.maxMillis()));
+        }
+        for (Map.Entry<String, OperationStats> entry : stats.entrySet()) {
+            for (Map.Entry<String, LongAdder> error : entry.getValue().errors.entrySet()) {
+                report.append("  ").append(entry.getKey()).append(" 错误 x").append(error.getValue().sum())
+                        .append(": ").append(error.getKey()).append('\n');
+            }
+        }
+        report.append("\n按模型统计（每次上游调用）:\n").append(ModelMetrics.getDefault().getReport());
+        return report.toString();
+    }
+
+    private static JSONObject message(String role, String content) {
+        JSONObject message = new JSONObject();
+        message.put("role", role);
+        message.put("content", content);
+        return message;
+    }
+
+    static List<Conversation> loadConversations(File file) throws IOException {
+        List<Conversation> conversations = new ArrayList<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            JSONObject json = JSON.parseObject(line);
+            JSONArray turns = json.getJSONArray("turns");
+            List<String> texts = new ArrayList<>(turns.size());
+            for (int i = 0; i < turns.size(); i++) {
+                texts.add(turns.getString(i));
+            }
+            conversations.add(new Conversation(json.getString("type"), texts));
+        }
+        return conversations;
+    }
+
+    static Map<String, Integer> parseMix(String spec) {
+        Map<String, Integer> mix = new LinkedHashMap<>();
+        for (String part : spec.split(",")) {
+            String[] kv = part.split(":");
+            mix.put(kv[0].trim(), Integer.parseInt(kv[1].trim()));
+        }
+        return mix;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = FakeBigModelServer.parseArgs(args);
+        PrintStream console = System.out;
+
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            if (option.getKey().startsWith("zhipu.")) {
+                System.setProperty(option.getKey(), option.getValue());
+            }
+        }
+
+        FakeBigModelServer server = null;
+        String baseUrl = options.get("baseUrl");
+        FakeBigModelServer.Config serverConfig = FakeBigModelServer.Config.fromArgs(options);
+        if (baseUrl == null) {
+            server = new FakeBigModelServer(serverConfig);
+            server.start();
+            baseUrl = server.getBaseUrl();
+            // 让轮询器按模拟服务的出片时间安排查询
+            if (System.getProperty("zhipu.video.expectedSeconds") == null) {
+                System.setProperty("zhipu.video.expectedSeconds",
+                        String.valueOf(Math.max(1, serverConfig.videoReadyMillis / 1000)));
+            }
+        }
+
+        File workDir = Files.createTempDirectory("zhipu-load").toFile();
+        System.setProperty("zhipu.api.baseUrl", baseUrl);
+        if (System.getProperty("zhipu.api.key") == null) {
+            System.setProperty("zhipu.api.key", "load-test");
+        }
+        System.setProperty("zhipu.image.saveDir", workDir + File.separator + "images" + File.separator);
+        System.setProperty("zhipu.video.saveDir", workDir + File.separator + "videos" + File.separator);
+        System.setProperty("zhipu.video.journal", workDir + File.separator + "video-tasks.journal");
+
+        List<Conversation> recorded = options.containsKey("conversations")
+                ? loadConversations(new File(options.get("conversations")))
+                : Collections.<Conversation>emptyList();
+        LoadDriver driver = new LoadDriver(recorded,
+                parseMix(options.getOrDefault("mix", "chat:70,code:20,image:8,video:2")),
+                Boolean.parseBoolean(options.getOrDefault("stream", "true")));
+        driver.createServices();
+
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "16"));
+        long durationMillis = Long.parseLong(options.getOrDefault("durationSeconds", "30")) * 1000;
+        console.println("压测目标: " + baseUrl + "，并发 " + concurrency + "，时长 " + durationMillis / 1000 + " 秒"
+                + "，对话线程 " + options.getOrDefault("executor", "platform")
+                + "，回调线程 " + ServiceExecutors.getMode().name().toLowerCase()
+                + (recorded.isEmpty() ? "，对话比例 " + driver.mix : "，回放 " + recorded.size() + " 段录制对话"));
+        if (server != null) {
+            console.println("内置模拟服务: " + serverConfig);
+        }
+
+        // 各服务会打印请求体、下载进度等，默认在压测期间屏蔽
+        if (!Boolean.parseBoolean(options.getOrDefault("verbose", "false"))) {
+            System.setOut(new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                }
+            }));
+        }
+        String executorMode = options.getOrDefault("executor", "platform");
+        ExecutorService executor = "platform".equals(executorMode) ? null
+                : ServiceExecutors.create(ServiceExecutors.Mode.parse(executorMode),
+                Integer.parseInt(options.getOrDefault("threads", "64")), concurrency, "load-driver");
+        try {
+            driver.run(concurrency, durationMillis, executor, console);
+        } finally {
+            System.setOut(console);
+        }
+
+        console.println("\n限流状态:\n" + AdaptiveLimiter.getReport());
+        console.println("\n请求合并:\n" + SingleFlight.getReport());
+        if (driver.chatService.getAnswerCache() != null) {
+            console.println("\n答案缓存: " + driver.chatService.getAnswerCache().getStats());
+        }
+        if (server != null) {
+            console.println("\n模拟服务收到的请求: " + server.getRequestCounts());
+            server.stop();
+        }
+        console.println("生成的媒体文件位于: " + workDir);
+        driver.videoService.shutdown();
+        HttpTransport.getDefault().shutdown();
+    }
+}
@@ -0,0 +1,98 @@
+package com.lorn.edu.ai;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// PythonCodeRunner、CppCodeRunner 运行一段简单程序的耗时：使用预先启动的解释器和每次临时启动解释器，
+// 可执行文件缓存命中，以及包含 <bits/stdc++.h> 的代码每次重新编译（使用预编译头）。
+// 交互模式下两次提交之间有间隔，解释器在这段时间里补充好；pythonPooled 每次运行前等待补充完成（不计入耗时），
+// 连续不停地提交时补充与运行争用 CPU，耗时接近 pythonColdStart
+// 运行：mvn -Pbench test-compile exec:exec -Djmh.args="ProcessCodeRunnerBenchmark"
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessCodeRunnerBenchmark {
+    private static final String PYTHON = "def fib(n):\n"
+            + "    return n if n < 2 else fib(n - 1) + fib(n - 2)\n"
+            + "for i in range(20):\n"
+            + "    print(f'fib({i}) = {fib(i)}')\n";
+    private static final String CPP = "#include <bits/stdc++.h>\n"
+            + "using namespace std;\n"
+            + "long fib(int n) { return n < 2 ? n : fib(n - 1) + fib(n - 2); }\n"
+            + "int main() {\n"
+            + "    for (int i = 0; i < 20; i++) cout << \"fib(\" << i << \") = \" << fib(i) << '\\n';\n"
+            + "}\n";
+
+    private PythonCodeRunner pooled;
+    private PythonCodeRunner unpooled;
+    private CppCodeRunner cpp;
+    private int sequence;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        ProcessSandbox sandbox = ProcessSandbox.getDefault();
+        pooled = new PythonCodeRunner(sandbox, true, "python3", 5_000, 64 * 1024, 2);
+        unpooled = new PythonCodeRunner(sandbox, true, "python3", 5_000, 64 * 1024, 0);
+        cpp = new CppCodeRunner(sandbox, true, "g++", Arrays.asList("-std=c++17", "-O2", "-pipe"), 5_000, 64 * 1024,
+                128, 30_000, 1024L * 1024 * 1024, 64L * 1024 * 1024, true);
+        pooled.warmUp();
+        cpp.warmUp();
+        expectOk(cpp.run(CPP, null));
+    }
+
+    @TearDown
+    public void tearDown() {
+        pooled.shutdown();
+    }
+
+    private static CodeRunResult expectOk(CodeRunResult result) {
+        if (!result.isSuccess()) {
+            throw new IllegalStateException(result.format());
+        }
+        return result;
+    }
+
+    @Setup(Level.Invocation)
+    public void awaitPool() throws InterruptedException {
+        while (pooled.getIdleWorkers() < 2) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Benchmark
+    public CodeRunResult pythonPooled() throws InterruptedException {
+        return expectOk(pooled.run(PYTHON, null));
+    }
+
+    @Benchmark
+    public CodeRunResult pythonColdStart() throws InterruptedException {
+        return expectOk(unpooled.run(PYTHON, null));
+    }
+
+    @Benchmark
+    public CodeRunResult cppCachedBinary() throws InterruptedException {
+        return expectOk(cpp.run(CPP, null));
+    }
+
+    // 末尾的注释不同，每次都是新的源码
+    @Benchmark
+    public CodeRunResult cppCompileWithPrecompiledHeader() throws InterruptedException {
+        return expectOk(cpp.run(CPP + "// " + sequence++ + "\n", null));
+    }
+}
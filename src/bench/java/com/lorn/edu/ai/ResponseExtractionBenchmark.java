@@ -0,0 +1,61 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// 从 /chat/completions 响应中取出 choices[0].message.content：
+// 原先先读成字符串再用 FastJSON 构建完整 JSON 树，对比 ResponseExtractor 直接在字节流上按需提取。
+// 运行：mvn -Pbench test-compile exec:exec -Djmh.args="ResponseExtractionBenchmark -prof gc"
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseExtractionBenchmark {
+    private static final MediaType JSON_TYPE = MediaType.parse("application/json; charset=utf-8");
+
+    @Param({"200", "4000", "32000"})
+    public int contentChars;
+
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        payload = BenchData.chatResponse(contentChars).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int legacyFastJson() throws IOException {
+        String responseBody = ResponseBody.create(payload, JSON_TYPE).string();
+        JSONObject jsonResponse = JSON.parseObject(responseBody);
+        String content = jsonResponse.getJSONArray("choices")
+                .getJSONObject(0)
+                .getJSONObject("message")
+                .getString("content");
+        return content.length();
+    }
+
+    @Benchmark
+    public int streamingExtractor() throws IOException {
+        return ResponseExtractor.parse(ResponseBody.create(payload, JSON_TYPE)).getContent().length();
+    }
+}
@@ -0,0 +1,196 @@
+package com.lorn.edu.ai;
+
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.tls.HandshakeCertificates;
+import okhttp3.tls.HeldCertificate;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// 对比“每个服务各自一个 OkHttpClient”（原实现）与共享 HttpTransport 的 TLS 握手次数和延迟分布。
+// 本地 HTTPS 桩服务模拟 /chat/completions，每次迭代重建客户端，以计入进程启动后的冷握手。
+// 运行：mvn -Pbench test-compile exec:exec -Djmh.args="TransportBenchmark -f 1"
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class TransportBenchmark {
+    private static final int SERVICE_COUNT = 6; // CloudEduAssistant 中的六个客户端
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+    private static final String RESPONSE =
+            "{\"choices\":[{\"message\":{\"role\":\"assistant\",\"content\":\"ok\"}}]}";
+
+    private static final ThreadLocal<Counters> CURRENT = new ThreadLocal<>();
+
+    @State(Scope.Benchmark)
+    public static class Upstream {
+        @Param({"perService", "shared"})
+        public String mode;
+
+        @Param({"2"})
+        public int serverLatencyMillis;
+
+        HttpsServer server;
+        ExecutorService serverExecutor;
+        HandshakeCertificates clientCertificates;
+        OkHttpClient[] clients;
+        HttpTransport transport;
+        String url;
+
+        @Setup(Level.Trial)
+        public void startServer() throws IOException {
+            // 关闭 Nagle，避免 JDK HttpServer 分段写响应时叠加 40ms 延迟确认
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+            HeldCertificate certificate = new HeldCertificate.Builder()
+                    .addSubjectAlternativeName("localhost")
+                    .build();
+            HandshakeCertificates serverCertificates = new HandshakeCertificates.Builder()
+                    .heldCertificate(certificate)
+                    .build();
+            clientCertificates = new HandshakeCertificates.Builder()
+                    .addTrustedCertificate(certificate.certificate())
+                    .build();
+
+            server = HttpsServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            server.setHttpsConfigurator(new HttpsConfigurator(serverCertificates.sslContext()));
+            serverExecutor = Executors.newFixedThreadPool(64);
+            server.setExecutor(serverExecutor);
+            byte[] body = RESPONSE.getBytes(StandardCharsets.UTF_8);
+            server.createContext("/api/paas/v4/chat/completions", exchange -> {
+                try {
+                    drain(exchange.getRequestBody());
+                    Thread.sleep(serverLatencyMillis);
+                    exchange.getResponseHeaders().add("Content-Type", "application/json");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    exchange.close();
+                }
+            });
+            server.start();
+            url = "https://localhost:" + server.getAddress().getPort() + "/api/paas/v4/chat/completions";
+        }
+
+        @Setup(Level.Iteration)
+        public void createClients() {
+            clients = new OkHttpClient[SERVICE_COUNT];
+            if ("shared".equals(mode)) {
+                transport = new HttpTransport(baseBuilder(), 64, 16, 16, 300);
+                for (int i = 0; i < SERVICE_COUNT; i++) {
+                    clients[i] = transport.newClient(HttpTransport.Timeouts.DEFAULT);
+                }
+            } else {
+                for (int i = 0; i < SERVICE_COUNT; i++) {
+                    clients[i] = baseBuilder()
+                            .connectTimeout(30, TimeUnit.SECONDS)
+                            .readTimeout(60, TimeUnit.SECONDS)
+                            .writeTimeout(30, TimeUnit.SECONDS)
+                            .retryOnConnectionFailure(true)
+                            .build();
+                }
+            }
+        }
+
+        @TearDown(Level.Iteration)
+        public void closeClients() {
+            if (transport != null) {
+                transport.shutdown();
+                transport = null;
+            }
+            for (OkHttpClient client : clients) {
+                client.dispatcher().executorService().shutdown();
+                client.connectionPool().evictAll();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void stopServer() {
+            server.stop(0);
+            serverExecutor.shutdownNow();
+        }
+
+        private OkHttpClient.Builder baseBuilder() {
+            return new OkHttpClient.Builder()
+                    .sslSocketFactory(clientCertificates.sslSocketFactory(), clientCertificates.trustManager())
+                    .eventListener(new EventListener() {
+                        @Override
+                        public void secureConnectEnd(Call call, Handshake handshake) {
+                            Counters counters = CURRENT.get();
+                            if (counters != null) {
+                                counters.handshakes++;
+                            }
+                        }
+                    });
+        }
+    }
+
+    // 每个线程各自计数，JMH 会汇总为 handshakes 事件总数
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long handshakes;
+
+        @Setup(Level.Iteration)
+        public void bind() {
+            CURRENT.set(this);
+        }
+    }
+
+    @Benchmark
+    public int chatCompletion(Upstream upstream, Counters counters) throws IOException {
+        // 随机挑选一个“服务”的客户端，模拟多个服务交替访问上游
+        OkHttpClient client = upstream.clients[ThreadLocalRandom.current().nextInt(SERVICE_COUNT)];
+        Request request = new Request.Builder()
+                .url(upstream.url)
+                .post(RequestBody.create(JSON, "{\"model\":\"glm-4\",\"messages\":[]}"))
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            return response.body().bytes().length;
+        }
+    }
+
+    private static void drain(java.io.InputStream in) throws IOException {
+        byte[] buffer = new byte[4096];
+        while (in.read(buffer) != -1) {
+            // 丢弃请求体
+        }
+        in.close();
+    }
+}
@@ -0,0 +1,14 @@
+package com.lorn.edu.ai;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+// 虚拟线程执行器，只在 -Pjava21 构建时编译，由 ServiceExecutors 按类名加载；
+// 每个任务一个虚拟线程，线程名为 <前缀>-virtual-<序号>
+public final class VirtualThreadExecutors implements Function<String, ExecutorService> {
+    @Override
+    public ExecutorService apply(String namePrefix) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix + "-virtual-", 1).factory());
+    }
+}
@@ -0,0 +1,266 @@
+package com.lorn.edu.ai;
+
+import okhttp3.Response;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 客户端自适应限流：每个 API Key + 接口一个实例，同时限制请求速率（令牌桶）和并发数。
+// 成功时加性增长（速率和并发上限都只在确实受限时增长），429 时速率和并发乘性减半、
+// 5xx 时并发乘性收缩，一次突发中的多个 429 在冷却时间内只收缩一次；响应带 Retry-After 时暂停发放许可。
+// 等待者按先来先到排队，许可不足时只是等待，不会失败；等待期间不占用线程，取消即离开队列。
+// 系统属性（可按接口覆盖，如 -Dzhipu.limit.images.rate=1）：
+//   -Dzhipu.limit.enabled=true -Dzhipu.limit.rate=5 -Dzhipu.limit.minRate=0.2 -Dzhipu.limit.maxRate=50
+//   -Dzhipu.limit.concurrency=8 -Dzhipu.limit.maxConcurrency=32
+public class AdaptiveLimiter {
+    private static final String PROPERTY_PREFIX = "zhipu.limit.";
+    private static final Map<String, AdaptiveLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    private static final double RATE_DECREASE = 0.5;
+    private static final double CONCURRENCY_DECREASE = 0.7;
+    private static final double MIN_CONCURRENCY = 1;
+    private static final long DECREASE_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_RETRY_AFTER_MILLIS = 60_000;
+
+    private final String name;
+    private final double minRate;
+    private final double maxRate;
+    private final double maxConcurrency;
+
+    // 以下状态都受 this 保护
+    private double rate;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+    private double concurrency;
+    private int inFlight;
+    private long pausedUntil;
+    private long lastDecrease;
+    private boolean wakeupScheduled;
+    private final Queue<CompletableFuture<Permit>> waiters = new ArrayDeque<>();
+
+    private final AtomicLong granted = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong overloaded = new AtomicLong();
+
+    public AdaptiveLimiter(String name, double rate, double minRate, double maxRate,
+                           int concurrency, int maxConcurrency) {
+        this.name = name;
+        this.rate = rate;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.concurrency = concurrency;
+        this.maxConcurrency = maxConcurrency;
+        this.tokens = burst();
+        this.lastDecrease = lastRefill - DECREASE_COOLDOWN_NANOS;
+    }
+
+    // 同一 API Key 的同一接口共用一个限流器；-Dzhipu.limit.enabled=false 时返回 null，表示不限流
+    public static AdaptiveLimiter forEndpoint(String apiKey, String endpoint) {
+        if (!Boolean.parseBoolean(System.getProperty(PROPERTY_PREFIX + "enabled", "true"))) {
+            return null;
+        }
+        // 名称用于统计输出，不包含 Key 原文
+        String name = endpoint + "@" + Integer.toHexString(apiKey.hashCode());
+        return LIMITERS.computeIfAbsent(name, k -> new AdaptiveLimiter(k,
+                doubleProperty(endpoint, "rate", 5),
+                doubleProperty(endpoint, "minRate", 0.2),
+                doubleProperty(endpoint, "maxRate", 50),
+                (int) doubleProperty(endpoint, "concurrency", 8),
+                (int) doubleProperty(endpoint, "maxConcurrency", 32)));
+    }
+
+    // 所有限流器的当前状态，每行一个
+    public static String getReport() {
+        if (LIMITERS.isEmpty()) {
+            return "暂无限流记录";
+        }
+        StringBuilder report = new StringBuilder();
+        for (AdaptiveLimiter limiter : LIMITERS.values()) {
+            report.append(limiter.getStats()).append('\n');
+        }
+        return report.toString().trim();
+    }
+
+    private static double doubleProperty(String endpoint, String key, double defaultValue) {
+        String value = System.getProperty(PROPERTY_PREFIX + endpoint + "." + key,
+                System.getProperty(PROPERTY_PREFIX + key));
+        return value != null ? Double.parseDouble(value) : defaultValue;
+    }
+
+    // 排队获取许可；返回的 future 被取消时离开队列。拿到的许可必须调用一次 release
+    public CompletableFuture<Permit> acquire() {
+        CompletableFuture<Permit> waiter = new CompletableFuture<>();
+        synchronized (this) {
+            waiters.add(waiter);
+        }
+        dispatch();
+        return waiter;
+    }
+
+    public synchronized String getStats() {
+        return String.format("%s 速率 %.2f/s，并发上限 %d（进行中 %d，排队 %d），已放行 %d，429 %d 次，5xx %d 次",
+                name, rate, (int) concurrency, inFlight, waiters.size(),
+                granted.get(), throttled.get(), overloaded.get());
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    public synchronized int getConcurrencyLimit() {
+        return (int) concurrency;
+    }
+
+    // 按排队顺序发放许可；令牌或暂停时间不够时安排一次定时唤醒
+    private void dispatch() {
+        List<CompletableFuture<Permit>> ready = new ArrayList<>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            refill(now);
+            CompletableFuture<Permit> head;
+            while ((head = waiters.peek()) != null) {
+                if (head.isDone()) {
+                    waiters.poll(); // 已取消
+                    continue;
+                }
+                if (inFlight >= (int) concurrency) {
+                    break; // 等待进行中的请求结束
+                }
+                if (now < pausedUntil) {
+                    scheduleWakeup(pausedUntil - now);
+                    break;
+                }
+                if (tokens < 1) {
+                    scheduleWakeup((long) ((1 - tokens) / rate * 1e9));
+                    break;
+                }
+                waiters.poll();
+                tokens -= 1;
+                inFlight++;
+                ready.add(head);
+            }
+        }
+        for (CompletableFuture<Permit> waiter : ready) {
+            Permit permit = new Permit();
+            if (waiter.complete(permit)) {
+                granted.incrementAndGet();
+            } else {
+                // 发放的同时被取消
+                permit.release();
+            }
+        }
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(burst(), tokens + (now - lastRefill) / 1e9 * rate);
+        lastRefill = now;
+    }
+
+    // 最多积攒一秒的令牌，至少一个
+    private double burst() {
+        return Math.max(1, rate);
+    }
+
+    private void scheduleWakeup(long nanos) {
+        if (wakeupScheduled) {
+            return;
+        }
+        wakeupScheduled = true;
+        AsyncCalls.delay(Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos) + 1)).thenRun(() -> {
+            synchronized (this) {
+                wakeupScheduled = false;
+            }
+            dispatch();
+        });
+    }
+
+    private void onComplete(int code, long retryAfterMillis) {
+        synchronized (this) {
+            inFlight--;
+            long now = System.nanoTime();
+            refill(now);
+            if (code == 429) {
+                throttled.incrementAndGet();
+                if (retryAfterMillis > 0) {
+                    pausedUntil = Math.max(pausedUntil,
+                            now + TimeUnit.MILLISECONDS.toNanos(Math.min(retryAfterMillis, MAX_RETRY_AFTER_MILLIS)));
+                }
+                if (now - lastDecrease >= DECREASE_COOLDOWN_NANOS) {
+                    lastDecrease = now;
+                    rate = Math.max(minRate, rate * RATE_DECREASE);
+                    concurrency = Math.max(MIN_CONCURRENCY, concurrency * CONCURRENCY_DECREASE);
+                    tokens = Math.min(tokens, burst());
+                }
+            } else if (code >= 500) {
+                overloaded.incrementAndGet();
+                if (now - lastDecrease >= DECREASE_COOLDOWN_NANOS) {
+                    lastDecrease = now;
+                    concurrency = Math.max(MIN_CONCURRENCY, concurrency * CONCURRENCY_DECREASE);
+                }
+            } else if (code >= 200 && code < 400) {
+                // 只有确实受限（有人排队或并发已满）时才增长，避免空闲期间把上限抬到与实际无关的高度
+                boolean saturated = !waiters.isEmpty();
+                if (saturated || inFlight + 1 >= (int) concurrency) {
+                    concurrency = Math.min(maxConcurrency, concurrency + 1 / concurrency);
+                }
+                if (saturated || tokens < 1) {
+                    rate = Math.min(maxRate, rate + 1 / rate);
+                }
+            }
+            // 其他 4xx 和网络错误与上游负载无关，只归还并发
+        }
+        dispatch();
+    }
+
+    // Retry-After 可能是秒数，也可能是 HTTP 日期（少见，忽略）
+    private static long retryAfterMillis(Response response) {
+        String value = response.header("Retry-After");
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return (long) (Double.parseDouble(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // 一次请求占用的许可，重复 release 无效
+    public final class Permit {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit() {
+        }
+
+        // 根据响应状态码调整速率和并发上限
+        public void release(Response response) {
+            if (released.compareAndSet(false, true)) {
+                onComplete(response.code(), response.code() == 429 ? retryAfterMillis(response) : 0);
+            }
+        }
+
+        // 未得到响应（网络错误、取消）时归还，不调整速率
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                onComplete(0, 0);
+            }
+        }
+    }
+
+    // 上游返回 429 时抛出，调用方据此区分限流和其他错误
+    public static class RateLimitedException extends ModelApiException {
+        private static final long serialVersionUID = 1L;
+
+        public RateLimitedException(String errorCode, String message) {
+            super(429, errorCode, message);
+        }
+    }
+}
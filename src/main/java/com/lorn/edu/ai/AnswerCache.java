@@ -0,0 +1,436 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSONObject;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// 首轮问题的近似重复答案缓存："什么是快速排序" 和 "快速排序是什么？" 共用一次上游调用的回答。
+// 只缓存不带对话历史的提问（除 system 消息外只有一条 user 消息），范围限定在同一模型、参数和 system 消息之内。
+// 问题先规范化（全角转半角、小写、去掉标点空白和"请问""什么是""吗"等虚词），取字符 2-gram 计算 64 个 MinHash，
+// 按 16 段 × 4 行做 LSH 分桶找候选，再按 2-gram 集合的精确 Jaccard 相似度确认：不低于阈值、
+// 数字和英文单词完全相同（"1 到 100 的和" 与 "1 到 1000 的和" 不算相同），
+// 且去掉虚词后的汉字集合完全相同（"进程与线程" 与 "进程与协程" 只差一个字，含义却不同）才命中，
+// 近似命中因此只覆盖语序和虚词的差别。含有"比""大于""转换成""到"等表示方向的词时，交换两边的内容含义就相反
+// （"快速排序比冒泡排序快吗" 与 "冒泡排序比快速排序快吗"），这类问题只在去掉虚词后的文本完全相同时命中。
+// 按条目数和答案总字符数做 LRU 淘汰并带 TTL。
+// 系统属性：-Dzhipu.answerCache.enabled=true -Dzhipu.answerCache.threshold=0.75
+//          -Dzhipu.answerCache.maxEntries=2048 -Dzhipu.answerCache.maxChars=8388608
+//          -Dzhipu.answerCache.ttlMinutes=1440 -Dzhipu.answerCache.maxQuestionChars=200
+public class AnswerCache {
+    private static final String PROPERTY_PREFIX = "zhipu.answerCache.";
+
+    private static final int NGRAM = 2;
+    private static final int BANDS = 16;
+    private static final int ROWS = 4;
+    private static final long[] SEEDS = new long[BANDS * ROWS];
+
+    // 按顺序匹配，"为什么" 整体保留，避免把 "为什么是" 中的 "什么是" 当作虚词去掉
+    private static final String KEEP = "为什么";
+    private static final String[] FILLERS = {
+            "请问", "请你", "请", "帮我", "一下", "什么是", "是什么", "啥是", "是啥", "是多少", "吗", "呢", "啊", "呀", "吧", "的"
+    };
+    private static final Pattern TOKEN = Pattern.compile("[a-z0-9_]+[+#]*");
+    // 在规范化文本中查找表示方向或先后的词（"比较" 除外），以及原文中的 <、>、→、- 和 than、to 等英文单词
+    private static final Pattern DIRECTIONAL = Pattern.compile(
+            "比(?!较)|[大小多少高低优先早晚]于|不如|之[前后]|转换|转[成为]|变[成为]|改[成为]|到|至|从|向|继承|调用|依赖|包含|属于|减|除以");
+    private static final Pattern DIRECTIONAL_SYMBOL = Pattern.compile("[<>→-]|\\b(?:than|to|into|from|minus)\\b");
+
+    static {
+        Random random = new Random(0x5EEDL);
+        for (int i = 0; i < SEEDS.length; i++) {
+            SEEDS[i] = random.nextLong();
+        }
+        // NFKC 规范化首次使用时加载字符数据，提前加载，避免第一批查找（和平均查找时间）被拖慢
+        Normalizer.normalize("ｗａｒｍ", Normalizer.Form.NFKC);
+    }
+
+    private final double threshold;
+    private final int maxEntries;
+    private final long maxChars;
+    private final long ttlMillis;
+    private final int maxQuestionChars;
+
+    // 以下状态受 this 保护
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Long, List<Entry>> buckets = new HashMap<>();
+    private long totalChars;
+
+    private final AtomicLong exactHits = new AtomicLong();
+    private final AtomicLong nearHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong lookupNanos = new AtomicLong();
+
+    private static final class Entry {
+        final String key;
+        final String scope;
+        final String tokens;
+        final String characters;
+        final long[] shingles;
+        final long[] bandKeys;
+        final String answer;
+        final long expiresAt;
+
+        Entry(String key, String scope, String tokens, String characters, long[] shingles, long[] bandKeys,
+              String answer, long expiresAt) {
+            this.key = key;
+            this.scope = scope;
+            this.tokens = tokens;
+            this.characters = characters;
+            this.shingles = shingles;
+            this.bandKeys = bandKeys;
+            this.answer = answer;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    // 一个问题规范化后的特征
+    private static final class Features {
+        final String scope;
+        final String normalized;
+        final String tokens;
+        final String characters;
+        final boolean directional;
+        final long[] shingles;
+        final long[] bandKeys;
+
+        Features(String scope, String normalized, String tokens, boolean directional, long[] shingles) {
+            this.scope = scope;
+            this.normalized = normalized;
+            this.tokens = tokens;
+            this.characters = characters(normalized);
+            this.directional = directional;
+            this.shingles = shingles;
+            this.bandKeys = bandKeys(scope, minHash(shingles));
+        }
+
+        String key() {
+            return scope + '\0' + normalized;
+        }
+    }
+
+    public AnswerCache(double threshold, int maxEntries, long maxChars, long ttlMillis, int maxQuestionChars) {
+        this.threshold = threshold;
+        this.maxEntries = maxEntries;
+        this.maxChars = maxChars;
+        this.ttlMillis = ttlMillis;
+        this.maxQuestionChars = maxQuestionChars;
+    }
+
+    // -Dzhipu.answerCache.enabled=false 时返回 null，表示不缓存
+    public static AnswerCache fromSystemProperties() {
+        if (!Boolean.parseBoolean(System.getProperty(PROPERTY_PREFIX + "enabled", "true"))) {
+            return null;
+        }
+        return new AnswerCache(
+                Double.parseDouble(System.getProperty(PROPERTY_PREFIX + "threshold", "0.75")),
+                Integer.getInteger(PROPERTY_PREFIX + "maxEntries", 2048),
+                Long.getLong(PROPERTY_PREFIX + "maxChars", 8L * 1024 * 1024),
+                Long.getLong(PROPERTY_PREFIX + "ttlMinutes", 24 * 60) * 60_000L,
+                Integer.getInteger(PROPERTY_PREFIX + "maxQuestionChars", 200));
+    }
+
+    // 返回近似问题的缓存回答；不是首轮提问或未命中时返回 null
+    public String get(String model, String params, List<JSONObject> messages) {
+        long start = System.nanoTime();
+        Features features = features(model, params, messages);
+        if (features == null) {
+            return null;
+        }
+        String answer = lookup(features, System.currentTimeMillis());
+        lookupNanos.addAndGet(System.nanoTime() - start);
+        return answer;
+    }
+
+    // 记录首轮提问的回答，其他请求忽略
+    public void put(String model, String params, List<JSONObject> messages, String answer) {
+        if (answer == null || answer.isEmpty()) {
+            return;
+        }
+        Features features = features(model, params, messages);
+        if (features == null) {
+            return;
+        }
+        Entry entry = new Entry(features.key(), features.scope, features.tokens, features.characters,
+                features.shingles, features.bandKeys, answer, System.currentTimeMillis() + ttlMillis);
+        synchronized (this) {
+            remove(entry.key);
+            entries.put(entry.key, entry);
+            totalChars += answer.length();
+            for (long bandKey : entry.bandKeys) {
+                buckets.computeIfAbsent(bandKey, k -> new ArrayList<>(1)).add(entry);
+            }
+            // 按访问顺序淘汰最久未使用的条目
+            Iterator<Entry> it = entries.values().iterator();
+            while ((entries.size() > maxEntries || totalChars > maxChars) && entries.size() > 1 && it.hasNext()) {
+                Entry eldest = it.next();
+                it.remove();
+                unlink(eldest);
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        buckets.clear();
+        totalChars = 0;
+    }
+
+    private synchronized String lookup(Features features, long now) {
+        Entry exact = entries.get(features.key());
+        if (exact != null) {
+            if (exact.expiresAt > now) {
+                exactHits.incrementAndGet();
+                return exact.answer;
+            }
+            remove(exact.key);
+        }
+        if (features.directional) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        Entry best = null;
+        double bestSimilarity = threshold;
+        Map<Entry, Boolean> seen = new IdentityHashMap<>();
+        for (long bandKey : features.bandKeys) {
+            List<Entry> bucket = buckets.get(bandKey);
+            if (bucket == null) {
+                continue;
+            }
+            for (Entry candidate : bucket) {
+                if (seen.put(candidate, Boolean.TRUE) != null || candidate.expiresAt <= now
+                        || !candidate.scope.equals(features.scope) || !candidate.tokens.equals(features.tokens)
+                        || !candidate.characters.equals(features.characters)) {
+                    continue;
+                }
+                double similarity = jaccard(features.shingles, candidate.shingles);
+                if (similarity >= bestSimilarity) {
+                    best = candidate;
+                    bestSimilarity = similarity;
+                }
+            }
+        }
+        if (best == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        entries.get(best.key); // 更新访问顺序
+        nearHits.incrementAndGet();
+        return best.answer;
+    }
+
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            unlink(removed);
+        }
+    }
+
+    private void unlink(Entry entry) {
+        totalChars -= entry.answer.length();
+        for (long bandKey : entry.bandKeys) {
+            List<Entry> bucket = buckets.get(bandKey);
+            if (bucket != null) {
+                bucket.remove(entry);
+                if (bucket.isEmpty()) {
+                    buckets.remove(bandKey);
+                }
+            }
+        }
+    }
+
+    private Features features(String model, String params, List<JSONObject> messages) {
+        String question = firstTurnQuestion(messages);
+        if (question == null || question.length() > maxQuestionChars) {
+            return null;
+        }
+        String text = Normalizer.normalize(question, Normalizer.Form.NFKC).toLowerCase();
+        String normalized = normalize(text);
+        if (normalized.isEmpty()) {
+            return null;
+        }
+        List<JSONObject> system = new ArrayList<>(messages.size() - 1);
+        for (JSONObject message : messages) {
+            if ("system".equals(message.getString("role"))) {
+                system.add(message);
+            }
+        }
+        return new Features(SingleFlight.key(system, model, params), normalized, tokens(text),
+                isDirectional(text, normalized), shingles(normalized));
+    }
+
+    // 问题是否带有方向，text 为规范化前（已转半角、小写）的原文
+    static boolean isDirectional(String text, String normalized) {
+        return DIRECTIONAL.matcher(normalized).find() || DIRECTIONAL_SYMBOL.matcher(text).find();
+    }
+
+    // 除 system 消息外只有一条 user 消息时返回其内容，否则返回 null
+    static String firstTurnQuestion(List<JSONObject> messages) {
+        String question = null;
+        for (JSONObject message : messages) {
+            String role = message.getString("role");
+            if ("system".equals(role)) {
+                continue;
+            }
+            if (!"user".equals(role) || question != null) {
+                return null;
+            }
+            question = message.getString("content");
+        }
+        return question;
+    }
+
+    // 去掉虚词、标点和空白，只保留字母和数字
+    static String normalize(String text) {
+        StringBuilder out = new StringBuilder(text.length());
+        int i = 0;
+        outer:
+        while (i < text.length()) {
+            if (text.startsWith(KEEP, i)) {
+                out.append(KEEP);
+                i += KEEP.length();
+                continue;
+            }
+            for (String filler : FILLERS) {
+                if (text.startsWith(filler, i)) {
+                    i += filler.length();
+                    continue outer;
+                }
+            }
+            char c = text.charAt(i++);
+            if (Character.isLetterOrDigit(c)) {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    // 问题中的数字和英文单词（含 c++、c# 这类写法），排序去重后拼接
+    private static String tokens(String text) {
+        TreeSet<String> tokens = new TreeSet<>();
+        Matcher matcher = TOKEN.matcher(text);
+        while (matcher.find()) {
+            tokens.add(matcher.group());
+        }
+        return String.join(" ", tokens);
+    }
+
+    // 规范化文本中除英文字母和数字以外的字符（主要是汉字），排序去重后拼接
+    static String characters(String normalized) {
+        TreeSet<Character> characters = new TreeSet<>();
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (c >= 0x80) {
+                characters.add(c);
+            }
+        }
+        StringBuilder out = new StringBuilder(characters.size());
+        for (char c : characters) {
+            out.append(c);
+        }
+        return out.toString();
+    }
+
+    // 字符 n-gram 的 64 位哈希，排序去重；不足 n 个字符时整体作为一个 n-gram
+    private static long[] shingles(String normalized) {
+        int count = Math.max(1, normalized.length() - NGRAM + 1);
+        long[] hashes = new long[count];
+        for (int i = 0; i < count; i++) {
+            long h = 0xCBF29CE484222325L;
+            for (int j = i; j < Math.min(normalized.length(), i + NGRAM); j++) {
+                h = (h ^ normalized.charAt(j)) * 0x100000001B3L;
+            }
+            hashes[i] = mix(h);
+        }
+        Arrays.sort(hashes);
+        int unique = 0;
+        for (int i = 0; i < hashes.length; i++) {
+            if (i == 0 || hashes[i] != hashes[i - 1]) {
+                hashes[unique++] = hashes[i];
+            }
+        }
+        return Arrays.copyOf(hashes, unique);
+    }
+
+    private static long[] minHash(long[] shingles) {
+        long[] signature = new long[SEEDS.length];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        for (long shingle : shingles) {
+            for (int i = 0; i < SEEDS.length; i++) {
+                long h = mix(shingle ^ SEEDS[i]);
+                if (h < signature[i]) {
+                    signature[i] = h;
+                }
+            }
+        }
+        return signature;
+    }
+
+    // 每段 ROWS 个 MinHash 合成一个桶键，不同范围、不同段的桶互不相交
+    private static long[] bandKeys(String scope, long[] signature) {
+        long[] keys = new long[BANDS];
+        long scopeHash = scope.hashCode();
+        for (int band = 0; band < BANDS; band++) {
+            long h = mix(scopeHash * 31 + band);
+            for (int row = 0; row < ROWS; row++) {
+                h = mix(h ^ signature[band * ROWS + row]);
+            }
+            keys[band] = h;
+        }
+        return keys;
+    }
+
+    // 两个已排序去重数组的 Jaccard 相似度
+    private static double jaccard(long[] a, long[] b) {
+        int i = 0;
+        int j = 0;
+        int common = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] == b[j]) {
+                common++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return (double) common / (a.length + b.length - common);
+    }
+
+    // SplitMix64 的混合函数
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public String getStats() {
+        long hits = exactHits.get() + nearHits.get();
+        long lookups = hits + misses.get();
+        return String.format("命中 %d 次（相同 %d，近似 %d），未命中 %d 次，命中率 %.1f%%，平均查找 %.1f 微秒，当前 %d 条，淘汰 %d 条",
+                hits, exactHits.get(), nearHits.get(), misses.get(),
+                lookups == 0 ? 0.0 : hits * 100.0 / lookups,
+                lookups == 0 ? 0.0 : lookupNanos.get() / 1000.0 / lookups, size(), evictions.get());
+    }
+}
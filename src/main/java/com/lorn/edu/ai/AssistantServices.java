@@ -0,0 +1,106 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSONObject;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+// Web 端共用的服务实例：由 AssistantServletListener 在应用启动时创建一次，放在 ServletContext 中供各个 Servlet 使用。
+// 所有服务共用 HttpTransport 的连接池和 Dispatcher，请求全部异步发出，不占用容器线程。
+public class AssistantServices {
+    static final String ATTRIBUTE = AssistantServices.class.getName();
+    // 停止时等待剩余对话记录写入数据库的最长时间
+    private static final long STORE_SHUTDOWN_TIMEOUT_MILLIS = 10_000;
+
+    private final ChatService chatService;
+    private final ChatService summaryService;
+    private final CodeService codeService;
+    private final OnlineCodeService onlineCodeService;
+    private final ImageService imageService;
+    private final VideoService videoService;
+    private final ConversationStore store;
+    private final SessionManager sessions;
+    private final ModelRouter router = ModelRouter.getDefault();
+    private final AtomicBoolean videosResumed = new AtomicBoolean();
+
+    public AssistantServices() {
+        this.chatService = new ChatService();
+        this.chatService.setModel(ChatService.ModelType.GLM4);
+        this.chatService.setAnswerCache(AnswerCache.fromSystemProperties());
+        // 旧对话用较便宜的 GLM-4 异步压缩成摘要
+        this.summaryService = new ChatService();
+        this.summaryService.setModel(ChatService.ModelType.GLM4);
+        this.codeService = new CodeService();
+        this.onlineCodeService = new OnlineCodeService();
+        this.imageService = new ImageService();
+        this.videoService = new VideoService();
+        // 配置了 -Dzhipu.db.url 时对话写入 MySQL，重启后可以恢复
+        this.store = ConversationStore.fromSystemProperties();
+        this.sessions = SessionManager.fromSystemProperties(this::newConversation, store);
+    }
+
+    public ConversationContext newConversation() {
+        return ConversationContext.withChatSummarizer(null, summaryService);
+    }
+
+    // 自动模式由 ModelRouter 按问题选择模型；手动时代码模式使用 CodeGeeX-4，否则使用会话选择的聊天模型。
+    // 按会话设置使用答案缓存；
+    // onDelta 在 OkHttp 回调线程中执行，答案缓存命中时在调用线程中执行
+    public CompletableFuture<String> chatStream(TutoringSession session, List<JSONObject> messages,
+                                                Consumer<String> onDelta) {
+        if (session.isAutoModel()) {
+            return chatService.sendMessageStreamAsync(router.route(messages), messages, onDelta,
+                    session.isAnswerCacheEnabled());
+        }
+        if (session.isCodeMode()) {
+            return codeService.askCodingQuestionStreamAsync(messages, onDelta);
+        }
+        return chatService.sendMessageStreamAsync(session.getChatModel(), messages, onDelta,
+                session.isAnswerCacheEnabled());
+    }
+
+    public SessionManager getSessions() {
+        return sessions;
+    }
+
+    public CodeService getCodeService() {
+        return codeService;
+    }
+
+    public OnlineCodeService getOnlineCodeService() {
+        return onlineCodeService;
+    }
+
+    public ImageService getImageService() {
+        return imageService;
+    }
+
+    public VideoService getVideoService() {
+        return videoService;
+    }
+
+    public void shutdown() {
+        sessions.shutdown();
+        onlineCodeService.shutdown();
+        videoService.shutdown();
+        if (store != null) {
+            store.shutdown(STORE_SHUTDOWN_TIMEOUT_MILLIS);
+        }
+    }
+
+    // 上次停止时仍在生成的视频在后台继续轮询并下载，只执行一次
+    public void resumeVideoTasks() {
+        if (!videosResumed.compareAndSet(false, true)) {
+            return;
+        }
+        videoService.resumeUnfinishedTasks().forEach((entry, future) -> future.whenComplete((path, error) -> {
+            if (error == null) {
+                System.out.println("视频「" + entry.getPrompt() + "」已生成并保存到: " + path);
+            } else {
+                System.out.println("视频「" + entry.getPrompt() + "」恢复失败: " + AsyncCalls.unwrap(error).getMessage());
+            }
+        }));
+    }
+}
@@ -0,0 +1,39 @@
+package com.lorn.edu.ai;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+import javax.servlet.http.HttpSessionEvent;
+import javax.servlet.http.HttpSessionListener;
+
+// 应用启动时创建共用的服务实例并恢复未完成的视频任务，停止时释放连接池、Dispatcher 线程和阻塞任务执行器；
+// HttpSession 失效时同时丢弃对应的辅导会话
+@WebListener
+public class AssistantServletListener implements ServletContextListener, HttpSessionListener {
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        AssistantServices services = new AssistantServices();
+        event.getServletContext().setAttribute(AssistantServices.ATTRIBUTE, services);
+        services.resumeVideoTasks();
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        AssistantServices services = (AssistantServices) event.getServletContext().getAttribute(AssistantServices.ATTRIBUTE);
+        event.getServletContext().removeAttribute(AssistantServices.ATTRIBUTE);
+        if (services != null) {
+            services.shutdown();
+        }
+        HttpTransport.getDefault().shutdown();
+        ServiceExecutors.shutdown();
+    }
+
+    @Override
+    public void sessionDestroyed(HttpSessionEvent event) {
+        AssistantServices services = (AssistantServices) event.getSession().getServletContext()
+                .getAttribute(AssistantServices.ATTRIBUTE);
+        if (services != null) {
+            services.getSessions().remove(event.getSession().getId());
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONException;
+import com.alibaba.fastjson.JSONObject;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+// Web 接口的公共部分：请求体为 JSON，上游调用期间通过 AsyncContext 释放容器线程，
+// 结果由 OkHttp 回调线程写回。超时或客户端断开时取消上游请求。
+public abstract class AsyncApiServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    private static final int MAX_BODY_BYTES = 256 * 1024;
+
+    protected AssistantServices services() {
+        return (AssistantServices) getServletContext().getAttribute(AssistantServices.ATTRIBUTE);
+    }
+
+    // 请求体不是合法 JSON 或超过大小限制时返回 null
+    protected static JSONObject readJson(HttpServletRequest req) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = req.getInputStream()) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                body.write(buffer, 0, n);
+                if (body.size() > MAX_BODY_BYTES) {
+                    return null;
+                }
+            }
+        }
+        try {
+            JSONObject json = JSON.parseObject(new String(body.toByteArray(), StandardCharsets.UTF_8));
+            return json != null ? json : new JSONObject();
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    protected static void sendJson(HttpServletResponse resp, int status, Object body) throws IOException {
+        resp.setStatus(status);
+        resp.setContentType("application/json; charset=UTF-8");
+        resp.getWriter().write(JSON.toJSONString(body));
+    }
+
+    protected static void sendError(HttpServletResponse resp, int status, String message) throws IOException {
+        JSONObject error = new JSONObject();
+        error.put("error", message);
+        sendJson(resp, status, error);
+    }
+
+    // 开始异步处理：call 发起上游调用，完成后把 toBody 的结果作为 JSON 返回
+    protected <T> void respondAsync(HttpServletRequest req, HttpServletResponse resp, long timeoutMillis,
+                                    CompletableFuture<T> call, Function<T, Object> toBody) {
+        Exchange exchange = startAsync(req, timeoutMillis);
+        exchange.track(call);
+        call.whenComplete((value, error) -> exchange.finish(() -> {
+            if (error == null) {
+                sendJson(resp, HttpServletResponse.SC_OK, toBody.apply(value));
+            } else {
+                sendError(resp, HttpServletResponse.SC_BAD_GATEWAY, AsyncCalls.unwrap(error).getMessage());
+            }
+        }));
+    }
+
+    protected Exchange startAsync(HttpServletRequest req, long timeoutMillis) {
+        AsyncContext context = req.startAsync();
+        context.setTimeout(timeoutMillis);
+        Exchange exchange = new Exchange(context);
+        context.addListener(exchange);
+        return exchange;
+    }
+
+    protected interface ResponseWriter {
+        void write() throws IOException;
+    }
+
+    // 一次异步请求：保证只完成一次，超时、出错或提前完成时取消仍在进行的上游调用。
+    // 对响应的写出都经过 write 或 finish，在 lock 下进行：complete 之后容器可能回收响应对象，不能再写
+    protected static final class Exchange implements AsyncListener {
+        private final AsyncContext context;
+        private final Object lock = new Object();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile Future<?> upstream;
+
+        Exchange(AsyncContext context) {
+            this.context = context;
+        }
+
+        public void track(Future<?> call) {
+            upstream = call;
+            if (finished.get()) {
+                call.cancel(true);
+            }
+        }
+
+        public boolean isFinished() {
+            return finished.get();
+        }
+
+        // 在请求结束前写出一部分响应（如流式回复的增量）；已经结束时什么也不做，写出失败时结束请求
+        public void write(ResponseWriter writer) {
+            synchronized (lock) {
+                if (finished.get()) {
+                    return;
+                }
+                try {
+                    writer.write();
+                } catch (IOException | RuntimeException e) {
+                    // 客户端已断开
+                    finish(() -> {
+                    });
+                }
+            }
+        }
+
+        // 写出响应并结束请求；已经结束（超时或断开）时什么也不做
+        public void finish(ResponseWriter writer) {
+            synchronized (lock) {
+                if (!finished.compareAndSet(false, true)) {
+                    return;
+                }
+                try {
+                    writer.write();
+                } catch (IOException | RuntimeException e) {
+                    // 客户端已断开，无法再写出响应
+                } finally {
+                    cancelUpstream();
+                    context.complete();
+                }
+            }
+        }
+
+        private void cancelUpstream() {
+            Future<?> call = upstream;
+            if (call != null && !call.isDone()) {
+                call.cancel(true);
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            HttpServletResponse resp = (HttpServletResponse) context.getResponse();
+            finish(() -> {
+                if (!resp.isCommitted()) {
+                    sendError(resp, HttpServletResponse.SC_GATEWAY_TIMEOUT, "上游响应超时");
+                }
+            });
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            finish(() -> {
+            });
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            finished.set(true);
+            cancelUpstream();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.lorn.edu.ai;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// 基于 OkHttp enqueue 的异步调用工具。
+// 返回的 CompletableFuture 支持取消：cancel 会一并取消底层 Call 或正在进行的后续阶段，
+// 因此调用方可以同时发起大量请求而不必为每个请求占用一个线程。
+public final class AsyncCalls {
+    // 仅用于延时（重试间隔、轮询间隔），不执行阻塞操作
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "zhipu-async-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private AsyncCalls() {
+    }
+
+    // 在 OkHttp 回调线程中处理响应，处理完后自动关闭 Response
+    public interface ResponseHandler<T> {
+        T handle(Response response) throws Exception;
+    }
+
+    public interface AsyncFunction<T, U> {
+        CompletableFuture<U> apply(T value) throws Exception;
+    }
+
+    public static <T> CompletableFuture<T> enqueue(Call call, ResponseHandler<T> handler) {
+        LinkedFuture<T> future = new LinkedFuture<>();
+        future.onCancel(call::cancel);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    future.complete(handler.handle(r));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    // 先在限流器中排队拿到许可再发出请求，响应处理完（流式响应读完）后按状态码归还许可。
+    // limiter 为 null 时等同于 enqueue(call, handler)；排队期间取消会直接离开队列
+    public static <T> CompletableFuture<T> enqueue(Call call, AdaptiveLimiter limiter, ResponseHandler<T> handler) {
+        if (limiter == null) {
+            return enqueue(call, handler);
+        }
+        LinkedFuture<T> future = new LinkedFuture<>();
+        CompletableFuture<AdaptiveLimiter.Permit> permit = limiter.acquire();
+        future.track(permit);
+        permit.whenComplete((p, error) -> {
+            if (error != null) {
+                future.completeExceptionally(unwrap(error));
+                return;
+            }
+            if (future.isDone()) {
+                p.release();
+                return;
+            }
+            future.onCancel(call::cancel);
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    p.release();
+                    future.completeExceptionally(e);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    try (Response r = response) {
+                        future.complete(handler.handle(r));
+                    } catch (Throwable e) {
+                        future.completeExceptionally(e);
+                    } finally {
+                        p.release(response);
+                    }
+                }
+            });
+        });
+        return future;
+    }
+
+    // 与 thenCompose 类似，但取消返回的 future 会同时取消当前正在执行的阶段
+    public static <T, U> CompletableFuture<U> then(CompletableFuture<T> first, AsyncFunction<? super T, U> next) {
+        LinkedFuture<U> result = new LinkedFuture<>();
+        result.track(first);
+        first.whenComplete((value, error) -> {
+            if (error != null) {
+                result.completeExceptionally(unwrap(error));
+                return;
+            }
+            if (result.isDone()) {
+                return;
+            }
+            CompletableFuture<U> second;
+            try {
+                second = next.apply(value);
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            result.track(second);
+            second.whenComplete((v, e) -> {
+                if (e != null) {
+                    result.completeExceptionally(unwrap(e));
+                } else {
+                    result.complete(v);
+                }
+            });
+        });
+        return result;
+    }
+
+    // 与 exceptionally 类似，但失败后可以发起新的异步阶段（如重试），取消同样会传递到当前阶段
+    public static <T> CompletableFuture<T> recover(CompletableFuture<T> first, AsyncFunction<Throwable, T> fallback) {
+        LinkedFuture<T> result = new LinkedFuture<>();
+        result.track(first);
+        first.whenComplete((value, error) -> {
+            if (result.isDone()) {
+                return;
+            }
+            if (error == null) {
+                result.complete(value);
+                return;
+            }
+            CompletableFuture<T> second;
+            try {
+                second = fallback.apply(unwrap(error));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            result.track(second);
+            second.whenComplete((v, e) -> {
+                if (e != null) {
+                    result.completeExceptionally(unwrap(e));
+                } else {
+                    result.complete(v);
+                }
+            });
+        });
+        return result;
+    }
+
+    public static CompletableFuture<Void> delay(long millis) {
+        LinkedFuture<Void> future = new LinkedFuture<>();
+        ScheduledFuture<?> scheduled = TIMER.schedule(() -> future.complete(null), millis, TimeUnit.MILLISECONDS);
+        future.track(scheduled);
+        return future;
+    }
+
+    public static <T> CompletableFuture<T> failed(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    // 同步等待结果，并还原异步阶段抛出的原始异常；等待线程被中断时取消请求
+    public static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    public static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException)
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    // 取消时联动取消当前跟踪的阶段
+    static final class LinkedFuture<T> extends CompletableFuture<T> {
+        private volatile Future<?> current;
+        private volatile Runnable cancelAction;
+
+        void track(Future<?> stage) {
+            current = stage;
+            if (isCancelled()) {
+                stage.cancel(true);
+            }
+        }
+
+        void onCancel(Runnable action) {
+            cancelAction = action;
+            if (isCancelled()) {
+                action.run();
+            }
+        }
+
+        // 已用其他方式结束（如超出时限）后，取消仍在进行的阶段
+        void cancelCurrent() {
+            Future<?> stage = current;
+            if (stage != null) {
+                stage.cancel(true);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                Future<?> stage = current;
+                if (stage != null) {
+                    stage.cancel(mayInterruptIfRunning);
+                }
+                Runnable action = cancelAction;
+                if (action != null) {
+                    action.run();
+                }
+            }
+            return cancelled;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSONObject;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// /chat/completions 请求体编码器。
+// 每条历史消息只序列化一次，缓存其 UTF-8 字节；之后每轮只编码新增的消息，
+// 请求体由缓存的字节片段直接写入 Okio sink，不再构建 JSONObject 树或中间字符串。
+// 缓存按消息对象身份（而非内容）查找，并校验 role/content 引用未被替换，按总字节数做 LRU 淘汰。
+public class ChatRequestEncoder {
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+    private static final byte[] MESSAGES_OPEN = "\",\"messages\":[".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] COMMA = {','};
+
+    private final long maxCachedBytes;
+    private final LinkedHashMap<IdentityKey, Encoded> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private long cachedBytes;
+
+    private static final class IdentityKey {
+        final JSONObject message;
+
+        IdentityKey(JSONObject message) {
+            this.message = message;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IdentityKey && ((IdentityKey) o).message == message;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(message);
+        }
+    }
+
+    private static final class Encoded {
+        final Object role;
+        final Object content;
+        final byte[] bytes;
+
+        Encoded(Object role, Object content, byte[] bytes) {
+            this.role = role;
+            this.content = content;
+            this.bytes = bytes;
+        }
+    }
+
+    public ChatRequestEncoder(long maxCachedBytes) {
+        this.maxCachedBytes = maxCachedBytes;
+    }
+
+    // params 为 messages 之后的其余字段，以逗号开头，例如 ,"temperature":0.7,"stream":false
+    public RequestBody encode(String model, List<JSONObject> messages, String params) {
+        byte[] head = ("{\"model\":\"" + escape(model)).getBytes(StandardCharsets.UTF_8);
+        byte[] tail = ("]" + params + "}").getBytes(StandardCharsets.UTF_8);
+
+        byte[][] parts = new byte[messages.size()][];
+        synchronized (cache) {
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = lookup(messages.get(i));
+            }
+            evict();
+        }
+        return new ChatRequestBody(head, parts, tail);
+    }
+
+    public int getCachedMessageCount() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    private byte[] lookup(JSONObject message) {
+        IdentityKey key = new IdentityKey(message);
+        Object role = message.get("role");
+        Object content = message.get("content");
+        Encoded encoded = cache.get(key);
+        if (encoded != null && encoded.role == role && encoded.content == content) {
+            return encoded.bytes;
+        }
+
+        byte[] bytes = encodeMessage(role, content);
+        Encoded previous = cache.put(key, new Encoded(role, content, bytes));
+        if (previous != null) {
+            cachedBytes -= previous.bytes.length;
+        }
+        cachedBytes += bytes.length;
+        return bytes;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<IdentityKey, Encoded>> it = cache.entrySet().iterator();
+        while (cachedBytes > maxCachedBytes && it.hasNext()) {
+            cachedBytes -= it.next().getValue().bytes.length;
+            it.remove();
+        }
+    }
+
+    static byte[] encodeMessage(Object role, Object content) {
+        StringBuilder json = new StringBuilder(32 + (content != null ? content.toString().length() : 0));
+        json.append("{\"role\":");
+        appendValue(json, role);
+        json.append(",\"content\":");
+        appendValue(json, content);
+        json.append('}');
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void appendValue(StringBuilder json, Object value) {
+        if (value == null) {
+            json.append("null");
+        } else {
+            json.append('"').append(escape(value.toString())).append('"');
+        }
+    }
+
+    static String escape(String value) {
+        StringBuilder out = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement;
+            switch (c) {
+                case '"': replacement = "\\\""; break;
+                case '\\': replacement = "\\\\"; break;
+                case '\n': replacement = "\\n"; break;
+                case '\r': replacement = "\\r"; break;
+                case '\t': replacement = "\\t"; break;
+                case '\b': replacement = "\\b"; break;
+                case '\f': replacement = "\\f"; break;
+                case '\u2028': replacement = "\\u2028"; break;
+                case '\u2029': replacement = "\\u2029"; break;
+                default:
+                    replacement = c < 0x20 ? String.format("\\u%04x", (int) c) : null;
+            }
+            if (replacement != null) {
+                if (out == null) {
+                    out = new StringBuilder(value.length() + 16).append(value, 0, i);
+                }
+                out.append(replacement);
+            } else if (out != null) {
+                out.append(c);
+            }
+        }
+        return out != null ? out.toString() : value;
+    }
+
+    // 由预先编码好的字节片段组成的请求体，长度已知，可重复写出（重试时复用）
+    static final class ChatRequestBody extends RequestBody {
+        private final byte[] head;
+        private final byte[][] parts;
+        private final byte[] tail;
+        private final long length;
+
+        ChatRequestBody(byte[] head, byte[][] parts, byte[] tail) {
+            this.head = head;
+            this.parts = parts;
+            this.tail = tail;
+            long total = head.length + MESSAGES_OPEN.length + tail.length + Math.max(parts.length - 1, 0);
+            for (byte[] part : parts) {
+                total += part.length;
+            }
+            this.length = total;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return JSON;
+        }
+
+        @Override
+        public long contentLength() {
+            return length;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            sink.write(head);
+            sink.write(MESSAGES_OPEN);
+            for (int i = 0; i < parts.length; i++) {
+                if (i > 0) {
+                    sink.write(COMMA);
+                }
+                sink.write(parts[i]);
+            }
+            sink.write(tail);
+        }
+    }
+}
@@ -1,19 +1,32 @@
 package com.lorn.edu.ai;
 
-import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import okhttp3.*;
 
-import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 public class ChatService {
-    private static final String API_KEY = "替换成您的API Key";
-    private static final String API_URL = "https://open.bigmodel.cn/api/paas/v4/chat/completions";
+    // 也可以通过 -Dzhipu.api.key 提供
+    private static final String API_KEY = System.getProperty("zhipu.api.key", "替换成您的API Key");
+    // 已序列化消息的缓存上限（字节）
+    private static final long ENCODER_CACHE_BYTES = Long.getLong("zhipu.chat.encoderCacheBytes", 8L * 1024 * 1024);
+    // 对冲阈值取成功调用延迟的 p95，样本不足时不对冲（-Dzhipu.retry.chat.hedge=true 开启）
+    private static final double HEDGE_QUANTILE = 0.95;
+    private static final long HEDGE_MIN_SAMPLES = 20;
+    // 并发的相同请求（同一接口、模型、参数和消息内容）只发一次
+    private static final SingleFlight<String> FLIGHTS = SingleFlight.named("chat");
     private ModelType currentModel;
     private final OkHttpClient client;
+    private final String apiUrl;
+    // chat/completions 接口的限流器，与同一 API Key 下的其他聊天类服务共用
+    private final AdaptiveLimiter limiter;
+    private final RetryPolicy retryPolicy = RetryPolicy.forService("chat", RetryPolicy.DEFAULT);
+    private final ChatRequestEncoder requestEncoder = new ChatRequestEncoder(ENCODER_CACHE_BYTES);
+    // 首轮提问的近似重复答案缓存，为 null 时不缓存（摘要等内部调用不应使用）
+    private volatile AnswerCache answerCache;
 
     public enum ModelType {
         GLM4("glm-4"),
@@ -32,12 +45,18 @@ public class ChatService {
     }
 
     public ChatService() {
-        this.client = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(60, TimeUnit.SECONDS)
-                .writeTimeout(30, TimeUnit.SECONDS)
-                .retryOnConnectionFailure(true)
-                .build();
+        this(HttpTransport.getDefault().newClient(
+                HttpTransport.Timeouts.forService("chat", HttpTransport.Timeouts.DEFAULT)));
+    }
+
+    public ChatService(OkHttpClient client) {
+        this(client, HttpTransport.apiUrl("chat", "/chat/completions"));
+    }
+
+    public ChatService(OkHttpClient client, String apiUrl) {
+        this.client = client;
+        this.apiUrl = apiUrl;
+        this.limiter = AdaptiveLimiter.forEndpoint(API_KEY, "chat");
         this.currentModel = ModelType.CODEGEEX4; // 默认使用 CodeGeeX-4
     }
 
@@ -45,59 +64,158 @@ public class ChatService {
         this.currentModel = model;
     }
 
+    public void setAnswerCache(AnswerCache answerCache) {
+        this.answerCache = answerCache;
+    }
+
+    public AnswerCache getAnswerCache() {
+        return answerCache;
+    }
+
     public String sendMessage(List<JSONObject> messages) throws Exception {
-        JSONObject requestBody = new JSONObject();
-        requestBody.put("model", currentModel.getValue());
-        
-        // 处理消息编码
-        List<JSONObject> encodedMessages = new ArrayList<>();
-        for (JSONObject msg : messages) {
-            JSONObject encodedMsg = new JSONObject();
-            encodedMsg.put("role", msg.getString("role"));
-            String content = msg.getString("content");
-            // 确保内容使用 UTF-8 编码
-            encodedMsg.put("content", new String(content.getBytes("UTF-8"), "UTF-8"));
-            encodedMessages.add(encodedMsg);
+        return AsyncCalls.await(sendMessageAsync(messages));
+    }
+
+    public CompletableFuture<String> sendMessageAsync(List<JSONObject> messages) {
+        return sendMessageAsync(currentModel, messages);
+    }
+
+    // 指定本次调用的模型，多个会话共用同一个实例时不受 setModel 影响。
+    // 失败按 RetryPolicy 重试；开启对冲时，超过该模型成功调用 p95 仍未返回会再发一个请求。
+    // 相同请求正在进行时直接等待它的结果（含重试），不重复调用上游
+    public CompletableFuture<String> sendMessageAsync(ModelType model, List<JSONObject> messages) {
+        return sendMessageAsync(model, messages, true);
+    }
+
+    // useAnswerCache 为 false 时（会话关闭了答案缓存）既不读取也不写入答案缓存
+    public CompletableFuture<String> sendMessageAsync(ModelType model, List<JSONObject> messages,
+                                                      boolean useAnswerCache) {
+        AnswerCache cache = useAnswerCache ? answerCache : null;
+        String cached = cache != null ? cache.get(model.getValue(), modelParams(model, false), messages) : null;
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return remember(cache, model, messages, send(model, messages));
+    }
+
+    private CompletableFuture<String> send(ModelType model, List<JSONObject> messages) {
+        String key = SingleFlight.key(messages, apiUrl, model.getValue(), modelParams(model, false));
+        return FLIGHTS.execute(key, () -> {
+            long hedgeAfter = (long) ModelMetrics.getDefault()
+                    .successLatencyMillis("chat", model.getValue(), HEDGE_QUANTILE, HEDGE_MIN_SAMPLES);
+            return retryPolicy.executeHedged(() -> sendOnce(model, messages), hedgeAfter);
+        });
+    }
+
+    private CompletableFuture<String> sendOnce(ModelType model, List<JSONObject> messages) {
+        Request request = buildRequest(model, messages, false);
+        // 流式和非流式分开统计，对冲阈值只取非流式调用的延迟
+        ModelMetrics.Timer timer = ModelMetrics.getDefault().start("chat", model.getValue());
+
+        return timer.track(AsyncCalls.enqueue(client.newCall(request), limiter, response -> {
+            timer.status(response.code());
+            if (!response.isSuccessful()) {
+                throw ModelApiException.from(response, "请求失败");
+            }
+
+            // 直接从响应字节流中提取 choices[0].message.content
+            ModelResponse result = ResponseExtractor.parse(response.body());
+            timer.usage(result);
+            return result.getContent();
+        }));
+    }
+
+    // 流式输出：每收到一段增量内容就回调 onDelta，返回拼接后的完整回复
+    public String sendMessageStream(List<JSONObject> messages, Consumer<String> onDelta) throws Exception {
+        return AsyncCalls.await(sendMessageStreamAsync(messages, onDelta));
+    }
+
+    public String sendMessageStream(List<JSONObject> messages, Consumer<String> onDelta,
+                                    boolean useAnswerCache) throws Exception {
+        return AsyncCalls.await(sendMessageStreamAsync(currentModel, messages, onDelta, useAnswerCache));
+    }
+
+    // onDelta 在 OkHttp 的回调线程中执行
+    public CompletableFuture<String> sendMessageStreamAsync(List<JSONObject> messages, Consumer<String> onDelta) {
+        return sendMessageStreamAsync(currentModel, messages, onDelta);
+    }
+
+    public CompletableFuture<String> sendMessageStreamAsync(ModelType model, List<JSONObject> messages,
+                                                            Consumer<String> onDelta) {
+        return sendMessageStreamAsync(model, messages, onDelta, true);
+    }
+
+    // 答案缓存命中时整段回复作为一次 onDelta 输出。
+    // 只在还没有输出任何内容时重试，避免调用方收到重复的片段
+    public CompletableFuture<String> sendMessageStreamAsync(ModelType model, List<JSONObject> messages,
+                                                            Consumer<String> onDelta, boolean useAnswerCache) {
+        AnswerCache cache = useAnswerCache ? answerCache : null;
+        String cached = cache != null ? cache.get(model.getValue(), modelParams(model, false), messages) : null;
+        if (cached != null) {
+            if (onDelta != null) {
+                onDelta.accept(cached);
+            }
+            return CompletableFuture.completedFuture(cached);
         }
-        requestBody.put("messages", encodedMessages);
-
-        // 设置模型参数
-        if (currentModel == ModelType.CODEGEEX4) {
-            requestBody.put("temperature", 0.8);
-            requestBody.put("top_p", 0.8);
-            requestBody.put("stream", false);
-            requestBody.put("max_tokens", 2048);
-            requestBody.put("stop", new String[]{"<|user|>", "<|assistant|>"});
-        } else {
-            // GLM4 和 GLM4PLUS 的参数
-            requestBody.put("temperature", 0.7);
-            requestBody.put("stream", false);
+        AtomicBoolean started = new AtomicBoolean();
+        Consumer<String> tracked = delta -> {
+            started.set(true);
+            if (onDelta != null) {
+                onDelta.accept(delta);
+            }
+        };
+        return remember(cache, model, messages,
+                retryPolicy.execute(() -> streamOnce(model, messages, tracked), () -> !started.get()));
+    }
+
+    // 流式和非流式的回答相同，缓存范围按非流式参数计算
+    private CompletableFuture<String> remember(AnswerCache cache, ModelType model, List<JSONObject> messages,
+                                               CompletableFuture<String> reply) {
+        if (cache != null) {
+            reply.thenAccept(answer -> cache.put(model.getValue(), modelParams(model, false), messages, answer));
         }
+        return reply;
+    }
 
-        Request request = new Request.Builder()
-                .url(API_URL)
-                .addHeader("Authorization", "Bearer " + API_KEY)
-                .addHeader("Content-Type", "application/json; charset=utf-8")
-                .post(RequestBody.create(
-                    MediaType.parse("application/json; charset=utf-8"), 
-                    requestBody.toString()
-                ))
-                .build();
+    private CompletableFuture<String> streamOnce(ModelType model, List<JSONObject> messages,
+                                                 Consumer<String> onDelta) {
+        Request request = buildRequest(model, messages, true);
+        ModelMetrics.Timer timer = ModelMetrics.getDefault().start("chat-stream", model.getValue());
 
-        try (Response response = client.newCall(request).execute()) {
+        return timer.track(AsyncCalls.enqueue(client.newCall(request), limiter, response -> {
+            timer.status(response.code());
             if (!response.isSuccessful()) {
-                throw new IOException("请求失败，状态码: " + response.code());
+                throw ModelApiException.from(response, "请求失败");
             }
+            ModelResponse result = ChatStreamReader.read(response.body(), onDelta);
+            timer.usage(result);
+            return result.getContent();
+        }));
+    }
+
+    private Request buildRequest(ModelType model, List<JSONObject> messages, boolean stream) {
+
+        // 历史消息的序列化结果会被缓存，每轮只编码新增消息，请求体直接写入连接
+        RequestBody body = requestEncoder.encode(model.getValue(), messages, modelParams(model, stream));
+
+        Request.Builder builder = new Request.Builder()
+                .url(apiUrl)
+                .addHeader("Authorization", "Bearer " + API_KEY)
+                .addHeader("Content-Type", "application/json; charset=utf-8")
+                .post(body);
+        if (stream) {
+            builder.addHeader("Accept", "text/event-stream");
+        }
+        return builder.build();
+    }
 
-            String responseBody = response.body().string();
-            JSONObject jsonResponse = JSON.parseObject(responseBody);
-            String content = jsonResponse.getJSONArray("choices")
-                    .getJSONObject(0)
-                    .getJSONObject("message")
-                    .getString("content");
-                    
-            // 确保返回内容使用正确的编码
-            return new String(content.getBytes("UTF-8"), "UTF-8");
+    // 设置模型参数，拼接在 messages 之后
+    static String modelParams(ModelType model, boolean stream) {
+        if (model == ModelType.CODEGEEX4) {
+            return ",\"temperature\":0.8,\"top_p\":0.8,\"stream\":" + stream
+                    + ",\"max_tokens\":2048,\"stop\":[\"<|user|>\",\"<|assistant|>\"]";
         }
+        // GLM4 和 GLM4PLUS 的参数
+        return ",\"temperature\":0.7,\"stream\":" + stream;
     }
-}
\ No newline at end of file
+}
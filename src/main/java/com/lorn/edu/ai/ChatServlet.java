@@ -0,0 +1,144 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSONObject;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// POST /api/chat  {"message": "...", "mode": "auto|chat|code", "model": "glm-4|glm-4-plus", "answerCache": true|false}
+// 新会话默认 auto，由 ModelRouter 按问题选择模型；指定 chat、code 或 model 后改为手动选择。
+// 回复以 chunked 方式流式返回纯文本，每收到一段增量内容就写出并 flush。
+// 对话历史由 SessionManager 按 HttpSession ID 保存，mode、model 和 answerCache 省略时沿用会话上一次的选择；
+// answerCache 为 false 时该会话的首轮提问不使用近似问题答案缓存；
+// 回复开始后出错时只能在末尾追加错误说明，无法再修改状态码。
+@WebServlet(urlPatterns = "/api/chat", asyncSupported = true)
+public class ChatServlet extends AsyncApiServlet {
+    private static final long serialVersionUID = 1L;
+
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(
+            Long.getLong("zhipu.web.chatTimeoutSeconds", 180));
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        JSONObject body = readJson(req);
+        String message = body != null ? body.getString("message") : null;
+        if (message == null || message.trim().isEmpty()) {
+            sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "message 不能为空");
+            return;
+        }
+
+        String modelName = body.getString("model");
+        ChatService.ModelType model = modelName != null ? chatModel(modelName) : null;
+        if (modelName != null && model == null) {
+            sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "不支持的模型: " + modelName);
+            return;
+        }
+
+        resp.setContentType("text/plain; charset=UTF-8");
+        resp.setHeader("Cache-Control", "no-cache");
+        // 关闭 nginx 等反向代理的响应缓冲，保证增量内容及时送达
+        resp.setHeader("X-Accel-Buffering", "no");
+        PrintWriter writer = resp.getWriter();
+
+        String sessionId = req.getSession().getId();
+        Exchange exchange = startAsync(req, TIMEOUT_MILLIS);
+        // 会话需要从数据库恢复时在 ServiceExecutors 中读取，容器线程到这里就返回
+        CompletableFuture<TutoringSession> restoring = services().getSessions().getOrCreateAsync(sessionId);
+        exchange.track(restoring);
+        restoring.whenComplete((session, error) -> {
+            if (error != null) {
+                exchange.finish(() -> sendError(resp, HttpServletResponse.SC_BAD_GATEWAY,
+                        "恢复会话失败: " + AsyncCalls.unwrap(error).getMessage()));
+                return;
+            }
+            stream(session, body, model, message, resp, writer, exchange);
+        });
+    }
+
+    private void stream(TutoringSession session, JSONObject body, ChatService.ModelType model, String message,
+                        HttpServletResponse resp, PrintWriter writer, Exchange exchange) {
+        if (exchange.isFinished()) {
+            // 恢复期间已经超时或客户端已断开
+            return;
+        }
+        SessionManager sessions = services().getSessions();
+        String mode = body.getString("mode");
+        if (mode != null) {
+            session.setAutoModel("auto".equals(mode));
+            session.setCodeMode("code".equals(mode));
+        }
+        if (model != null) {
+            session.setAutoModel(false);
+            session.setChatModel(model);
+        }
+        Boolean answerCache = body.getBoolean("answerCache");
+        if (answerCache != null) {
+            session.setAnswerCacheEnabled(answerCache);
+        }
+        ConversationContext context = session.getContext();
+        context.addUserMessage(message);
+        sessions.record(session, "user", message);
+        List<JSONObject> messages = context.buildRequestMessages();
+
+        // 增量在 OkHttp 线程上写出，与超时时的结束互斥
+        Consumer<String> onDelta = delta -> exchange.write(() -> {
+            writer.write(delta);
+            writer.flush();
+            if (writer.checkError()) {
+                // 客户端已断开，结束请求并取消上游
+                throw new IOException("客户端已断开");
+            }
+        });
+        CompletableFuture<String> reply = services().chatStream(session, messages, onDelta);
+        exchange.track(reply);
+
+        reply.whenComplete((text, error) -> {
+            if (error == null) {
+                context.addAssistantMessage(text);
+                sessions.record(session, "assistant", text);
+            }
+            sessions.updateUsage(session);
+            exchange.finish(() -> {
+                if (error == null) {
+                    return;
+                }
+                String reason = "发送消息失败: " + AsyncCalls.unwrap(error).getMessage();
+                if (!resp.isCommitted()) {
+                    resp.reset();
+                    sendError(resp, HttpServletResponse.SC_BAD_GATEWAY, reason);
+                } else {
+                    writer.write("\n\n[" + reason + "]");
+                    writer.flush();
+                }
+            });
+        });
+    }
+
+    // 通用聊天模式可选的模型；CodeGeeX-4 通过 mode=code 使用
+    private static ChatService.ModelType chatModel(String name) {
+        for (ChatService.ModelType type : ChatService.ModelType.values()) {
+            if (type != ChatService.ModelType.CODEGEEX4 && type.getValue().equals(name)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    // DELETE /api/chat 清空当前会话的对话历史，包括已持久化的记录
+    @Override
+    protected void doDelete(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        HttpSession session = req.getSession(false);
+        if (session != null) {
+            services().getSessions().clear(session.getId());
+        }
+        resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+}
@@ -0,0 +1,90 @@
+package com.lorn.edu.ai;
+
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+// 解析 /chat/completions 在 "stream": true 时返回的 server-sent events。
+// 直接从响应的 BufferedSource 逐行读取，每解析出一个事件就把 choices[0].delta.content 交给回调，
+// 同时拼接出完整回复供调用方写入对话历史。返回值的 content 为完整回复，
+// usage 和 finish_reason 取自最后一个携带它们的分片（智谱在最后一个分片中返回 usage）。
+public final class ChatStreamReader {
+    private static final String DATA_PREFIX = "data:";
+    private static final String DONE = "[DONE]";
+
+    private ChatStreamReader() {
+    }
+
+    public static ModelResponse read(ResponseBody body, Consumer<String> onDelta) throws IOException {
+        BufferedSource source = body.source();
+        ModelResponse result = new ModelResponse();
+        StringBuilder content = new StringBuilder();
+        StringBuilder data = new StringBuilder();
+
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            if (line.isEmpty()) {
+                // 空行表示一个事件结束
+                if (data.length() > 0) {
+                    if (!dispatch(data.toString(), result, content, onDelta)) {
+                        result.content = content.toString();
+                        return result;
+                    }
+                    data.setLength(0);
+                }
+                continue;
+            }
+            if (line.startsWith(DATA_PREFIX)) {
+                if (data.length() > 0) {
+                    data.append('\n');
+                }
+                String value = line.substring(DATA_PREFIX.length());
+                data.append(value.startsWith(" ") ? value.substring(1) : value);
+            }
+            // 忽略 event:、id:、retry: 和以 ':' 开头的注释行
+        }
+
+        // 服务器未以空行结束最后一个事件
+        if (data.length() > 0) {
+            dispatch(data.toString(), result, content, onDelta);
+        }
+        result.content = content.toString();
+        return result;
+    }
+
+    // 返回 false 表示收到 [DONE]，流已结束
+    private static boolean dispatch(String data, ModelResponse result, StringBuilder content,
+                                    Consumer<String> onDelta) throws IOException {
+        if (DONE.equals(data.trim())) {
+            return false;
+        }
+
+        ModelResponse chunk = ResponseExtractor.parse(data);
+        if (chunk.hasError()) {
+            throw new IOException("流式响应错误: " + chunk.getErrorCode() + " " + chunk.getErrorMessage());
+        }
+
+        if (result.id == null) {
+            result.id = chunk.getId();
+        }
+        if (chunk.getFinishReason() != null) {
+            result.finishReason = chunk.getFinishReason();
+        }
+        if (chunk.hasUsage()) {
+            result.promptTokens = chunk.getPromptTokens();
+            result.completionTokens = chunk.getCompletionTokens();
+            result.totalTokens = chunk.getTotalTokens();
+        }
+
+        String text = chunk.getContent();
+        if (text != null && !text.isEmpty()) {
+            content.append(text);
+            if (onDelta != null) {
+                onDelta.accept(text);
+            }
+        }
+        return true;
+    }
+}
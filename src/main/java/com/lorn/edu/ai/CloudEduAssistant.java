@@ -4,7 +4,10 @@ import com.alibaba.fastjson.JSONObject;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 public class CloudEduAssistant {
     private static final String ASSISTANT_NAME = "替换为您的xxx助手";
@@ -16,6 +19,10 @@ public class CloudEduAssistant {
                     "4. 知识解答和概念讲解\n" +
                     "输入'帮助'可以查看更多功能，输入'退出'结束对话。";
 
+    private static final String CONSOLE_SESSION_ID = "console";
+    private static final int RESTORE_MESSAGES = 40;
+    private static final long STORE_SHUTDOWN_TIMEOUT_MILLIS = 10_000;
+
     private static final boolean IMAGE_GENERATION_ENABLED = true;
     private static final boolean VIDEO_GENERATION_ENABLED = true;
 
@@ -24,18 +31,29 @@ public class CloudEduAssistant {
     private final VideoService videoService;
     private final CodeService codeService;
     private final OnlineCodeService onlineCodeService;
-    private final List<JSONObject> messages;
+    private final ConversationContext context;
+    // 配置 -Dzhipu.db.url 后对话写入 MySQL，下次启动时恢复；未配置时为 null
+    private final ConversationStore store;
     private boolean isCodeMode = false;
+    // 默认按问题自动选择模型，切换代码/聊天模式后改为手动
+    private boolean isAutoModel = true;
+    private final ModelRouter router = ModelRouter.getDefault();
     private boolean isInteractiveMode = false;
+    private boolean answerCacheEnabled = true;
     private final Scanner scanner;
 
     public CloudEduAssistant() {
         this.chatService = new ChatService();
+        this.chatService.setAnswerCache(AnswerCache.fromSystemProperties());
         this.imageService = new ImageService();
         this.videoService = new VideoService();
         this.codeService = new CodeService();
         this.onlineCodeService = new OnlineCodeService();
-        this.messages = new ArrayList<>();
+        // 旧对话用较便宜的 GLM-4 异步压缩成摘要，控制每轮请求大小
+        ChatService summaryService = new ChatService();
+        summaryService.setModel(ChatService.ModelType.GLM4);
+        this.context = ConversationContext.withChatSummarizer(null, summaryService);
+        this.store = ConversationStore.fromSystemProperties();
         this.scanner = new Scanner(System.in);
     }
 
@@ -44,6 +62,9 @@ public class CloudEduAssistant {
         System.out.println(WELCOME_MESSAGE);
         System.out.println("============================\n");
 
+        resumeVideoTasks();
+        restoreConversation();
+
         while (true) {
             System.out.print("你: ");
             String userInput = scanner.nextLine();
@@ -62,6 +83,11 @@ public class CloudEduAssistant {
     }
 
     private boolean handleSpecialCommands(String input) throws Exception {
+        if (input.startsWith("批量图片 ")) {
+            handleBatchImageGeneration(input.substring(5).trim());
+            return true;
+        }
+
         if (input.toLowerCase().startsWith("画图 ") ||
                 input.toLowerCase().startsWith("生成图片 ") ||
                 input.toLowerCase().startsWith("图片 ") ||
@@ -87,20 +113,34 @@ public class CloudEduAssistant {
         switch (input.toLowerCase()) {
             case "退出":
                 System.out.println("感谢使用" + ASSISTANT_NAME + "，再见！");
+                if (store != null) {
+                    store.shutdown(STORE_SHUTDOWN_TIMEOUT_MILLIS);
+                }
+                onlineCodeService.shutdown();
+                videoService.shutdown();
                 System.exit(0);
                 return true;
             case "清空":
-                messages.clear();
+                context.clear();
+                if (store != null) {
+                    store.deleteSession(CONSOLE_SESSION_ID);
+                }
                 System.out.println("对话历史已清空！");
                 return true;
             case "帮助":
                 showHelp();
                 return true;
+            case "自动选择模型":
+                isAutoModel = true;
+                System.out.println(ASSISTANT_NAME + ": 已切换到自动选择模型，按问题类型和各模型近期延迟选择");
+                return true;
             case "切换代码模式":
+                isAutoModel = false;
                 isCodeMode = true;
                 System.out.println(ASSISTANT_NAME + ": 已切换到代码问答模式 (CodeGeeX-4)");
                 return true;
             case "切换聊天模式":
+                isAutoModel = false;
                 isCodeMode = false;
                 System.out.println(ASSISTANT_NAME + ": 已切换到通用聊天模式 (GLM-4)");
                 return true;
@@ -110,6 +150,28 @@ public class CloudEduAssistant {
             case "优化代码":
                 handleCodeOptimization();
                 return true;
+            case "缓存统计":
+                System.out.println(ASSISTANT_NAME + ": 代码分析缓存 " + codeService.getResultCache().getStats());
+                if (chatService.getAnswerCache() != null) {
+                    System.out.println(ASSISTANT_NAME + ": 答案缓存 " + chatService.getAnswerCache().getStats());
+                }
+                return true;
+            case "关闭答案缓存":
+                answerCacheEnabled = false;
+                System.out.println(ASSISTANT_NAME + ": 已关闭答案缓存，相似问题也会重新请求模型");
+                return true;
+            case "开启答案缓存":
+                answerCacheEnabled = true;
+                System.out.println(ASSISTANT_NAME + ": 已开启答案缓存");
+                return true;
+            case "调用统计":
+                System.out.println(ASSISTANT_NAME + ": 模型调用统计\n" + ModelMetrics.getDefault().getReport());
+                System.out.println("限流状态\n" + AdaptiveLimiter.getReport());
+                System.out.println("请求合并\n" + SingleFlight.getReport());
+                System.out.println("模型路由\n" + router.getReport());
+                System.out.println("阻塞任务\n" + ServiceExecutors.getStats());
+                System.out.println("代码运行\n" + onlineCodeService.getRunnerStats());
+                return true;
             case "运行代码":
                 handleCodeExecution();
                 return true;
@@ -123,24 +185,30 @@ public class CloudEduAssistant {
 
     private void processUserInput(String input) {
         try {
-            JSONObject userMessage = new JSONObject();
-            userMessage.put("role", "user");
-            userMessage.put("content", input);
-            messages.add(userMessage);
-
+            context.addUserMessage(input);
+            persist("user", input);
+            List<JSONObject> messages = context.buildRequestMessages();
+
+            // 流式输出，收到一段就打印一段
+            ChatService.ModelType model = isAutoModel ? router.route(messages) : null;
+            System.out.print(ASSISTANT_NAME + (model != null ? "（" + model.getValue() + "）" : "") + ": ");
+            Consumer<String> printer = delta -> {
+                System.out.print(delta);
+                System.out.flush();
+            };
             String response;
-            if (isCodeMode) {
-                response = codeService.askCodingQuestion(messages);
+            if (model != null) {
+                response = AsyncCalls.await(
+                        chatService.sendMessageStreamAsync(model, messages, printer, answerCacheEnabled));
+            } else if (isCodeMode) {
+                response = codeService.askCodingQuestionStream(messages, printer);
             } else {
-                response = chatService.sendMessage(messages);
+                response = chatService.sendMessageStream(messages, printer, answerCacheEnabled);
             }
+            System.out.println();
 
-            System.out.println(ASSISTANT_NAME + ": " + response);
-
-            JSONObject assistantMessage = new JSONObject();
-            assistantMessage.put("role", "assistant");
-            assistantMessage.put("content", response);
-            messages.add(assistantMessage);
+            context.addAssistantMessage(response);
+            persist("assistant", response);
         } catch (Exception e) {
             System.out.println("发送消息失败: " + e.getMessage());
         }
@@ -171,6 +239,41 @@ public class CloudEduAssistant {
         }
     }
 
+    // 多个描述用 | 分隔，并行生成，单张失败不影响其他图片
+    private void handleBatchImageGeneration(String input) {
+        if (!IMAGE_GENERATION_ENABLED) {
+            System.out.println(ASSISTANT_NAME + ": 抱歉，图片生成功能当前不可用。");
+            return;
+        }
+        List<String> prompts = new ArrayList<>();
+        for (String prompt : input.split("\\|")) {
+            if (!prompt.trim().isEmpty()) {
+                prompts.add(prompt.trim());
+            }
+        }
+        if (prompts.isEmpty()) {
+            System.out.println(ASSISTANT_NAME + ": 请在'批量图片'后面添加描述，多个描述用 | 分隔");
+            return;
+        }
+
+        try {
+            System.out.println(ASSISTANT_NAME + ": 开始生成 " + prompts.size() + " 张图片...");
+            List<ImageService.BatchResult> results = imageService.generateImages(prompts);
+            int succeeded = 0;
+            for (ImageService.BatchResult result : results) {
+                if (result.isSuccess()) {
+                    succeeded++;
+                    System.out.println("- " + result.getPrompt() + ": " + result.getPath());
+                } else {
+                    System.out.println("- " + result.getPrompt() + ": 失败（" + result.getError().getMessage() + "）");
+                }
+            }
+            System.out.println(ASSISTANT_NAME + ": 完成 " + succeeded + "/" + results.size() + " 张");
+        } catch (Exception e) {
+            System.out.println("批量生成图片失败: " + e.getMessage());
+        }
+    }
+
     private void handleVideoGeneration(String prompt) {
         if (!VIDEO_GENERATION_ENABLED) {
             System.out.println(ASSISTANT_NAME + ": 抱歉，视频生成功能当前不可用。");
@@ -188,10 +291,52 @@ public class CloudEduAssistant {
             System.out.println(ASSISTANT_NAME + ": 视频已生成并保存到: " + videoPath);
         } catch (Exception e) {
             System.out.println("视频生成失败: " + e.getMessage());
-            System.out.println("如果是超时错误，视频可能仍在生成中，请稍后再试。");
+            System.out.println("如果是超时错误，视频可能仍在生成中，任务已记录，重新启动后会自动继续查询。");
+        }
+    }
+
+    // 恢复上次退出前的对话
+    private void restoreConversation() {
+        if (store == null) {
+            return;
+        }
+        try {
+            List<JSONObject> history = store.loadHistory(CONSOLE_SESSION_ID, RESTORE_MESSAGES);
+            if (!history.isEmpty()) {
+                context.restore(history);
+                System.out.println("已恢复上次的 " + history.size() + " 条对话记录，输入'清空'可以重新开始。");
+            }
+        } catch (Exception e) {
+            System.out.println("恢复对话历史失败: " + e.getMessage());
         }
     }
 
+    private void persist(String role, String content) {
+        if (store != null) {
+            store.append(CONSOLE_SESSION_ID, role, content);
+        }
+    }
+
+    // 上次退出时仍在生成的视频在后台继续轮询并下载
+    private void resumeVideoTasks() {
+        if (!VIDEO_GENERATION_ENABLED) {
+            return;
+        }
+        Map<VideoTaskJournal.Entry, CompletableFuture<String>> resumed = videoService.resumeUnfinishedTasks();
+        if (resumed.isEmpty()) {
+            return;
+        }
+        System.out.println(ASSISTANT_NAME + ": 发现" + resumed.size() + "个未完成的视频任务，正在后台继续生成...");
+        resumed.forEach((entry, future) -> future.whenComplete((videoPath, error) -> {
+            if (error == null) {
+                System.out.println("\n" + ASSISTANT_NAME + ": 视频「" + entry.getPrompt() + "」已生成并保存到: " + videoPath);
+            } else {
+                System.out.println("\n" + ASSISTANT_NAME + ": 视频「" + entry.getPrompt() + "」恢复失败: "
+                        + AsyncCalls.unwrap(error).getMessage());
+            }
+        }));
+    }
+
     private void handleCodeAnalysis() throws Exception {
         System.out.println(ASSISTANT_NAME + ": 请输入要分析的代码（输入'完成'结束）：");
         StringBuilder code = new StringBuilder();
@@ -319,16 +464,21 @@ public class CloudEduAssistant {
         System.out.println("     图片 [描述]  (例如：图片 一只可爱的小狗)");
         System.out.println("     图 [描述]    (例如：图 蓝天白云)");
         System.out.println("     画图 [描述]  (例如：画图 夕阳海滩)");
+        System.out.println("     批量图片 [描述1] | [描述2] ...  (并行生成多张)");
         System.out.println("3. 视频生成：" + (VIDEO_GENERATION_ENABLED ? "可用" : "暂不可用"));
         System.out.println("4. 代码功能：");
         System.out.println("   - 切换代码模式：使用CodeGeeX-4进行代码问答");
+        System.out.println("   - 自动选择模型：按问题类型和各模型近期延迟自动选择（默认）");
         System.out.println("   - 分析代码：分析代码并提供改进建议");
         System.out.println("   - 优化代码：优化代码并解释原因");
-        System.out.println("   - 运行代码：在线运行代码");
+        System.out.println("   - 运行代码：在线运行代码（Java、Python、C++ 在本机编译运行，出错时由模型解释）");
+        System.out.println("   - 缓存统计：查看代码分析/优化缓存和答案缓存命中情况");
         System.out.println("   - 交互模式：交互式编程环境");
         System.out.println("5. 其他命令：");
         System.out.println("   - 帮助：显示本帮助信息");
         System.out.println("   - 清空：清除对话历史");
+        System.out.println("   - 关闭答案缓存/开启答案缓存：相似的首轮提问是否直接使用已有回答");
+        System.out.println("   - 调用统计：查看各模型的调用次数、延迟分布、token 用量、限流状态和请求合并情况");
         System.out.println("   - 退出：结束对话");
         System.out.println("============================\n");
     }
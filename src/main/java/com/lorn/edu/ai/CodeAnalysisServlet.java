@@ -0,0 +1,38 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSONObject;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// POST /api/code/analyze  {"code": "...", "action": "analyze|optimize", "language": "java"}  ->  {"result": "..."}
+// 结果经过 CodeResultCache，重复提交同一段代码时直接返回缓存；language 可选，给出时缓存键忽略该语言的注释
+@WebServlet(urlPatterns = "/api/code/analyze", asyncSupported = true)
+public class CodeAnalysisServlet extends AsyncApiServlet {
+    private static final long serialVersionUID = 1L;
+
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(
+            Long.getLong("zhipu.web.codeTimeoutSeconds", 180));
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        JSONObject body = readJson(req);
+        String code = body != null ? body.getString("code") : null;
+        if (code == null || code.trim().isEmpty()) {
+            sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "code 不能为空");
+            return;
+        }
+
+        CodeService codeService = services().getCodeService();
+        String language = body.getString("language");
+        CompletableFuture<String> result = "optimize".equals(body.getString("action"))
+                ? codeService.optimizeCodeAsync(code, language)
+                : codeService.analyzeCodeAsync(code, language);
+        respondAsync(req, resp, TIMEOUT_MILLIS, result, text -> Collections.singletonMap("result", text));
+    }
+}
@@ -0,0 +1,404 @@
+package com.lorn.edu.ai;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// 代码分析/优化结果缓存。
+// 键为 操作 + 模型参数 + 规范化后代码（忽略该语言的注释和格式空白）的 SHA-256，
+// 内存层按条目数和总字符数做 LRU 淘汰并带 TTL，可选的磁盘层在重启后仍然有效。
+public class CodeResultCache {
+    private static final String PROPERTY_PREFIX = "zhipu.codeCache.";
+
+    private final int maxEntries;
+    private final long maxChars;
+    private final long ttlMillis;
+    private final File diskDir;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalChars;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong savedMillis = new AtomicLong();
+
+    private static final class Entry {
+        final String value;
+        final long expiresAt;
+        final long loadMillis; // 原始上游调用耗时，命中时计入节省时间
+
+        Entry(String value, long expiresAt, long loadMillis) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.loadMillis = loadMillis;
+        }
+    }
+
+    // diskDir 为 null 时仅使用内存缓存
+    public CodeResultCache(int maxEntries, long maxChars, long ttlMillis, File diskDir) {
+        this.maxEntries = maxEntries;
+        this.maxChars = maxChars;
+        this.ttlMillis = ttlMillis;
+        this.diskDir = diskDir;
+        if (diskDir != null && !diskDir.exists()) {
+            diskDir.mkdirs();
+        }
+    }
+
+    // -Dzhipu.codeCache.maxEntries=512 -Dzhipu.codeCache.maxChars=4194304
+    // -Dzhipu.codeCache.ttlMinutes=1440 -Dzhipu.codeCache.dir=/path/to/cache
+    public static CodeResultCache fromSystemProperties() {
+        String dir = System.getProperty(PROPERTY_PREFIX + "dir");
+        return new CodeResultCache(
+                Integer.getInteger(PROPERTY_PREFIX + "maxEntries", 512),
+                Long.getLong(PROPERTY_PREFIX + "maxChars", 4L * 1024 * 1024),
+                Long.getLong(PROPERTY_PREFIX + "ttlMinutes", 24 * 60) * 60_000L,
+                dir != null && !dir.isEmpty() ? new File(dir) : null);
+    }
+
+    // language 决定规范化时去掉哪种注释，未知（null）时只规范空白
+    public CompletableFuture<String> getOrCompute(String operation, String modelParams, String language, String code,
+                                                  Supplier<CompletableFuture<String>> loader) {
+        String key = key(operation, modelParams, language, code);
+        String cached = get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        misses.incrementAndGet();
+        long start = System.currentTimeMillis();
+        CompletableFuture<String> result = loader.get();
+        result.thenAccept(value -> {
+            if (value != null) {
+                put(key, value, System.currentTimeMillis() - start);
+            }
+        });
+        return result;
+    }
+
+    String get(String key) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt > now) {
+                    memoryHits.incrementAndGet();
+                    savedMillis.addAndGet(entry.loadMillis);
+                    return entry.value;
+                }
+                remove(key);
+            }
+        }
+
+        Entry entry = readDisk(key, now);
+        if (entry != null) {
+            diskHits.incrementAndGet();
+            savedMillis.addAndGet(entry.loadMillis);
+            synchronized (this) {
+                store(key, entry);
+            }
+            return entry.value;
+        }
+        return null;
+    }
+
+    void put(String key, String value, long loadMillis) {
+        Entry entry = new Entry(value, System.currentTimeMillis() + ttlMillis, loadMillis);
+        synchronized (this) {
+            store(key, entry);
+        }
+        writeDisk(key, entry);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        totalChars = 0;
+    }
+
+    private void store(String key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            totalChars -= previous.value.length();
+        }
+        totalChars += entry.value.length();
+
+        // 按访问顺序淘汰最久未使用的条目，直到条目数和总字符数都回到上限以内
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || totalChars > maxChars) && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            if (eldest.getKey().equals(key) && entries.size() == 1) {
+                break;
+            }
+            totalChars -= eldest.getValue().value.length();
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            totalChars -= removed.value.length();
+        }
+    }
+
+    // 磁盘文件格式：第一行 过期时间戳，第二行 上游耗时，其余为缓存内容
+    private Entry readDisk(String key, long now) {
+        if (diskDir == null) {
+            return null;
+        }
+        File file = new File(diskDir, key + ".txt");
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            int first = text.indexOf('\n');
+            int second = text.indexOf('\n', first + 1);
+            long expiresAt = Long.parseLong(text.substring(0, first));
+            if (expiresAt <= now) {
+                file.delete();
+                return null;
+            }
+            long loadMillis = Long.parseLong(text.substring(first + 1, second));
+            return new Entry(text.substring(second + 1), expiresAt, loadMillis);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("读取代码缓存失败: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeDisk(String key, Entry entry) {
+        if (diskDir == null) {
+            return;
+        }
+        File target = new File(diskDir, key + ".txt");
+        File temp = new File(diskDir, key + ".tmp");
+        try {
+            String text = entry.expiresAt + "\n" + entry.loadMillis + "\n" + entry.value;
+            Files.write(temp.toPath(), text.getBytes(StandardCharsets.UTF_8));
+            Files.move(temp.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("写入代码缓存失败: " + e.getMessage());
+            temp.delete();
+        }
+    }
+
+    static String key(String operation, String modelParams, String language, String code) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(operation.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(modelParams.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(normalize(code, language).getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // 注释语法：C_FAMILY 为 // 和 /* */，HASH 为 #（Python 和 shell），PLAIN 表示语言未知，不去注释
+    enum Syntax { C_FAMILY, HASH, PLAIN }
+
+    static Syntax syntaxOf(String language) {
+        if (language == null) {
+            return Syntax.PLAIN;
+        }
+        switch (language.trim().toLowerCase(Locale.ROOT)) {
+            case "java":
+            case "c":
+            case "cpp":
+            case "c++":
+            case "c#":
+            case "csharp":
+            case "go":
+            case "javascript":
+            case "js":
+            case "typescript":
+            case "ts":
+            case "kotlin":
+            case "scala":
+            case "swift":
+                return Syntax.C_FAMILY;
+            case "python":
+            case "python3":
+            case "py":
+            case "shell":
+            case "sh":
+            case "bash":
+            case "ruby":
+                return Syntax.HASH;
+            default:
+                return Syntax.PLAIN;
+        }
+    }
+
+    // 规范化代码：按语言去掉字符串字面量以外的注释（C 系语言的 // 和 /* */，Python/shell 的 #）；
+    // 语言未知时只规范空白，避免把 Python 的整除 // 或 C 的 # include 当作注释。
+    // 保留每行缩进宽度（Python 依赖缩进），行内空白只在两个标识符字符之间保留一个空格，空行丢弃；
+    // Python 的三引号字符串可以跨行，原样保留
+    static String normalize(String code, String language) {
+        Syntax syntax = syntaxOf(language);
+        StringBuilder out = new StringBuilder(code.length());
+        StringBuilder line = new StringBuilder();
+        int n = code.length();
+        int i = 0;
+        boolean inBlockComment = false;
+        char tripleQuote = 0;
+
+        while (i < n) {
+            int indent = 0;
+            if (!inBlockComment && tripleQuote == 0) {
+                while (i < n && (code.charAt(i) == ' ' || code.charAt(i) == '\t')) {
+                    indent += code.charAt(i) == '\t' ? 4 : 1;
+                    i++;
+                }
+            }
+            line.setLength(0);
+            boolean continuesString = tripleQuote != 0;
+            char quote = 0;
+            boolean pendingSpace = false;
+
+            for (; i < n && code.charAt(i) != '\n'; i++) {
+                char c = code.charAt(i);
+                if (inBlockComment) {
+                    if (c == '*' && i + 1 < n && code.charAt(i + 1) == '/') {
+                        inBlockComment = false;
+                        i++;
+                        pendingSpace = true;
+                    }
+                    continue;
+                }
+                if (tripleQuote != 0) {
+                    line.append(c);
+                    if (c == '\\' && i + 1 < n && code.charAt(i + 1) != '\n') {
+                        line.append(code.charAt(++i));
+                    } else if (startsTripleQuote(code, i, c) && c == tripleQuote) {
+                        line.append(c).append(c);
+                        i += 2;
+                        tripleQuote = 0;
+                    }
+                    continue;
+                }
+                if (quote != 0) {
+                    line.append(c);
+                    if (c == '\\' && i + 1 < n && code.charAt(i + 1) != '\n') {
+                        line.append(code.charAt(++i));
+                    } else if (c == quote) {
+                        quote = 0;
+                    }
+                    continue;
+                }
+                if (syntax == Syntax.C_FAMILY && c == '/' && i + 1 < n && code.charAt(i + 1) == '/') {
+                    break;
+                }
+                if (syntax == Syntax.C_FAMILY && c == '/' && i + 1 < n && code.charAt(i + 1) == '*') {
+                    inBlockComment = true;
+                    i++;
+                    continue;
+                }
+                // shell 的 $# 和 ${#name} 不是注释
+                if (syntax == Syntax.HASH && c == '#' && (line.length() == 0 || pendingSpace
+                        || (line.charAt(line.length() - 1) != '$' && line.charAt(line.length() - 1) != '{'))) {
+                    break;
+                }
+                if (c == ' ' || c == '\t' || c == '\r') {
+                    pendingSpace = true;
+                    continue;
+                }
+                if (pendingSpace && line.length() > 0
+                        && isIdentifierChar(line.charAt(line.length() - 1)) && isIdentifierChar(c)) {
+                    line.append(' ');
+                }
+                pendingSpace = false;
+                if (syntax == Syntax.HASH && startsTripleQuote(code, i, c)) {
+                    line.append(c).append(c).append(c);
+                    i += 2;
+                    tripleQuote = c;
+                    continue;
+                }
+                if (c == '"' || c == '\'') {
+                    quote = c;
+                }
+                line.append(c);
+            }
+            // 跳过注释剩余部分直到行尾
+            while (i < n && code.charAt(i) != '\n') {
+                i++;
+            }
+            i++;
+
+            // 三引号字符串中的行（包括空行）是字符串内容的一部分
+            if (line.length() > 0 || continuesString || tripleQuote != 0) {
+                for (int k = 0; k < indent; k++) {
+                    out.append(' ');
+                }
+                out.append(line).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    private static boolean startsTripleQuote(String code, int i, char c) {
+        return (c == '"' || c == '\'') && i + 2 < code.length()
+                && code.charAt(i + 1) == c && code.charAt(i + 2) == c;
+    }
+
+    private static boolean isIdentifierChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    // 命中缓存节省的上游调用耗时（按原始调用耗时估算）
+    public long getSavedMillis() {
+        return savedMillis.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public String getStats() {
+        long hits = memoryHits.get() + diskHits.get();
+        long total = hits + misses.get();
+        return String.format("命中 %d 次（内存 %d，磁盘 %d），未命中 %d 次，命中率 %.1f%%，" +
+                        "节省上游调用 %d 次、约 %.1f 秒，当前 %d 条，淘汰 %d 条",
+                hits, memoryHits.get(), diskHits.get(), misses.get(),
+                total == 0 ? 0.0 : hits * 100.0 / total,
+                hits, savedMillis.get() / 1000.0, size(), evictions.get());
+    }
+}
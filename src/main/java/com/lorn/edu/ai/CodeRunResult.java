@@ -0,0 +1,103 @@
+package com.lorn.edu.ai;
+
+// 一次本地代码运行的结果：程序输出、错误输出和结束状态
+public final class CodeRunResult {
+    public enum Status {
+        OK("运行成功"),
+        COMPILE_ERROR("编译错误"),
+        RUNTIME_ERROR("运行时错误"),
+        TIMEOUT("运行超时"),
+        MEMORY_LIMIT("超出内存限制"),
+        OUTPUT_LIMIT("输出超出限制"),
+        REJECTED("代码使用了运行环境不允许的功能");
+
+        private final String label;
+
+        Status(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private final Status status;
+    private final String stdout;
+    private final String stderr;
+    private final int exitCode;
+    private final long millis;
+    private final boolean cached;
+    private final boolean truncated;
+
+    public CodeRunResult(Status status, String stdout, String stderr, int exitCode, long millis,
+                         boolean cached, boolean truncated) {
+        this.status = status;
+        this.stdout = stdout != null ? stdout : "";
+        this.stderr = stderr != null ? stderr : "";
+        this.exitCode = exitCode;
+        this.millis = millis;
+        this.cached = cached;
+        this.truncated = truncated;
+    }
+
+    // 编译失败或代码被拒绝，没有运行
+    public static CodeRunResult notRun(Status status, String message, long millis, boolean cached) {
+        return new CodeRunResult(status, "", message, -1, millis, cached, false);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isSuccess() {
+        return status == Status.OK;
+    }
+
+    public String getStdout() {
+        return stdout;
+    }
+
+    public String getStderr() {
+        return stderr;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    // 从提交到结束的总耗时，含编译
+    public long getMillis() {
+        return millis;
+    }
+
+    // 编译结果（字节码或可执行文件）来自缓存；Python 为使用了预先启动的解释器
+    public boolean isCached() {
+        return cached;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    // 给学生看的结果：程序输出，之后是错误输出和失败原因
+    public String format() {
+        StringBuilder text = new StringBuilder(stdout.trim());
+        if (!stderr.trim().isEmpty()) {
+            if (text.length() > 0) {
+                text.append("\n\n");
+            }
+            text.append(stderr.trim());
+        }
+        if (truncated && status != Status.OUTPUT_LIMIT) {
+            text.append("\n\n（输出过长，已截断）");
+        }
+        if (status != Status.OK) {
+            text.append(text.length() > 0 ? "\n\n" : "").append(status.getLabel());
+            if (status == Status.RUNTIME_ERROR && exitCode > 0) {
+                text.append("（退出码 ").append(exitCode).append("）");
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,121 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSONObject;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// POST /api/code/run  {"code": "...", "language": "java|python3|cpp"}  ->  {"output": "..."}
+// 默认关闭（-Dzhipu.web.codeRun.enabled=true 开启，关闭时返回 404）。只接受容器已认证的用户（getRemoteUser 不为空，
+// 由 web.xml 的 login-config 或前置的认证代理提供），否则返回 401；代码都以子进程运行，
+// 没有配置 -Dzhipu.run.sandboxCommand 隔离时返回 403。
+// 每个 HttpSession 同时只运行一段代码，每分钟最多 perMinute 次（令牌桶，允许一次用完），超出时返回 429 和 Retry-After。
+// 系统属性：-Dzhipu.web.codeRun.enabled=false -Dzhipu.web.codeRun.perMinute=10 -Dzhipu.web.codeTimeoutSeconds=180
+@WebServlet(urlPatterns = "/api/code/run", asyncSupported = true)
+public class CodeRunServlet extends AsyncApiServlet {
+    private static final long serialVersionUID = 1L;
+
+    private static final List<String> LANGUAGES = Arrays.asList("java", "python3", "cpp");
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(
+            Long.getLong("zhipu.web.codeTimeoutSeconds", 180));
+    private static final boolean ENABLED = Boolean.getBoolean("zhipu.web.codeRun.enabled");
+    private static final int RUNS_PER_MINUTE = Math.max(1, Integer.getInteger("zhipu.web.codeRun.perMinute", 10));
+    private static final String QUOTA_ATTRIBUTE = CodeRunServlet.class.getName() + ".quota";
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        if (!ENABLED) {
+            sendError(resp, HttpServletResponse.SC_NOT_FOUND, "代码运行接口没有开启");
+            return;
+        }
+        if (req.getRemoteUser() == null) {
+            sendError(resp, HttpServletResponse.SC_UNAUTHORIZED, "请先登录");
+            return;
+        }
+        if (!ProcessSandbox.getDefault().isIsolated()) {
+            sendError(resp, HttpServletResponse.SC_FORBIDDEN, "服务器没有配置代码运行隔离，不能运行代码");
+            return;
+        }
+        JSONObject body = readJson(req);
+        String code = body != null ? body.getString("code") : null;
+        String language = body != null ? body.getString("language") : null;
+        if (code == null || code.trim().isEmpty()) {
+            sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "code 不能为空");
+            return;
+        }
+        if (!LANGUAGES.contains(language)) {
+            sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "language 只支持 " + LANGUAGES);
+            return;
+        }
+
+        RunQuota quota = quota(req.getSession());
+        long waitMillis = quota.tryAcquire(System.currentTimeMillis());
+        if (waitMillis != 0) {
+            if (waitMillis > 0) {
+                resp.setHeader("Retry-After", String.valueOf(Math.max(1, (waitMillis + 999) / 1000)));
+            }
+            sendError(resp, 429, waitMillis > 0 ? "运行太频繁，请稍后再试" : "上一段代码还在运行");
+            return;
+        }
+        CompletableFuture<String> call = services().getOnlineCodeService().executeCodeAsync(code, language);
+        call.whenComplete((output, error) -> quota.release());
+        respondAsync(req, resp, TIMEOUT_MILLIS, call, output -> Collections.singletonMap("output", output));
+    }
+
+    private static RunQuota quota(HttpSession session) {
+        // 同一会话的并发请求只创建一个配额
+        synchronized (RunQuota.class) {
+            RunQuota quota = (RunQuota) session.getAttribute(QUOTA_ATTRIBUTE);
+            if (quota == null) {
+                quota = new RunQuota(RUNS_PER_MINUTE);
+                session.setAttribute(QUOTA_ATTRIBUTE, quota);
+            }
+            return quota;
+        }
+    }
+
+    // 一个会话的运行配额：令牌桶每分钟补充 perMinute 个，最多攒 perMinute 个；同时只能有一次运行
+    static final class RunQuota implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int perMinute;
+        private double tokens;
+        private long updatedMillis;
+        private transient boolean running;
+
+        RunQuota(int perMinute) {
+            this.perMinute = perMinute;
+            this.tokens = perMinute;
+        }
+
+        // 取得一次运行的许可返回 0；正在运行返回 -1；令牌用完时返回还要等待的毫秒数
+        synchronized long tryAcquire(long nowMillis) {
+            if (updatedMillis > 0) {
+                tokens = Math.min(perMinute, tokens + (nowMillis - updatedMillis) * perMinute / 60_000.0);
+            }
+            updatedMillis = nowMillis;
+            if (running) {
+                return -1;
+            }
+            if (tokens < 1) {
+                return (long) Math.ceil((1 - tokens) * 60_000.0 / perMinute);
+            }
+            tokens -= 1;
+            running = true;
+            return 0;
+        }
+
+        synchronized void release() {
+            running = false;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.lorn.edu.ai;
+
+// 在本机编译并运行一段代码。run 会阻塞到程序结束或超出限制，应在 ServiceExecutors 中调用
+public interface CodeRunner {
+    // 运行环境缺少编译器或解释器时返回 false，调用方改为由模型分析代码
+    boolean isAvailable();
+
+    // 提前做好第一次运行前的准备（加载编译器、启动解释器等），可以重复调用
+    void warmUp();
+
+    // stdin 为程序的标准输入，可以为 null
+    CodeRunResult run(String code, String stdin) throws InterruptedException;
+
+    String getStats();
+
+    // 释放预先启动的进程等资源；之后仍可以运行，只是不再预热
+    default void shutdown() {
+    }
+}
@@ -1,89 +1,180 @@
 package com.lorn.edu.ai;
 
 
-import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import okhttp3.*;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 public class CodeService {
-    private static final String API_KEY = "替换成您的API Key";
-    private static final String API_URL = "https://open.bigmodel.cn/api/paas/v4/chat/completions";
+    // 也可以通过 -Dzhipu.api.key 提供
+    private static final String API_KEY = System.getProperty("zhipu.api.key", "替换成您的API Key");
     private static final String MODEL = "codegeex-4";
+    private static final double TEMPERATURE = 0.8;
+    private static final double TOP_P = 0.8;
+    private static final int MAX_TOKENS = 2048;
+    // 缓存键中的模型参数，参数变化后旧缓存自然失效
+    private static final String CACHE_PARAMS =
+            MODEL + "|temperature=" + TEMPERATURE + "|top_p=" + TOP_P + "|max_tokens=" + MAX_TOKENS;
+
+    // 并发的相同代码问答（如全班同时分析同一段代码）只发一次
+    private static final SingleFlight<String> FLIGHTS = SingleFlight.named("code");
+
+    private static final String ANALYZE_PROMPT = "请分析以下代码并指出可能的改进点：\n\n";
+    private static final String OPTIMIZE_PROMPT = "请优化以下代码，并解释优化原因：\n\n";
 
     private final OkHttpClient client;
+    private final String apiUrl;
+    // chat/completions 接口的限流器，与同一 API Key 下的其他聊天类服务共用
+    private final AdaptiveLimiter limiter;
+    private final RetryPolicy retryPolicy = RetryPolicy.forService("code", RetryPolicy.DEFAULT);
+    private final CodeResultCache resultCache;
 
     public CodeService() {
-        this.client = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(60, TimeUnit.SECONDS)
-                .writeTimeout(30, TimeUnit.SECONDS)
-                .retryOnConnectionFailure(true)
-                .build();
+        this(HttpTransport.getDefault().newClient(
+                HttpTransport.Timeouts.forService("code", HttpTransport.Timeouts.DEFAULT)),
+                CodeResultCache.fromSystemProperties());
+    }
+
+    public CodeService(OkHttpClient client) {
+        this(client, CodeResultCache.fromSystemProperties());
+    }
+
+    public CodeService(OkHttpClient client, CodeResultCache resultCache) {
+        this.client = client;
+        this.apiUrl = HttpTransport.apiUrl("code", "/chat/completions");
+        this.limiter = AdaptiveLimiter.forEndpoint(API_KEY, "chat");
+        this.resultCache = resultCache;
     }
 
     public String askCodingQuestion(List<JSONObject> messages) throws Exception {
+        return AsyncCalls.await(askCodingQuestionAsync(messages));
+    }
+
+    // 相同请求正在进行时直接等待它的结果，不重复调用上游
+    public CompletableFuture<String> askCodingQuestionAsync(List<JSONObject> messages) {
+        return FLIGHTS.execute(SingleFlight.key(messages, apiUrl, CACHE_PARAMS),
+                () -> retryPolicy.execute(() -> askOnce(messages)));
+    }
+
+    private CompletableFuture<String> askOnce(List<JSONObject> messages) {
+        Request request = buildRequest(messages, false);
+        ModelMetrics.Timer timer = ModelMetrics.getDefault().start("code", MODEL);
+
+        return timer.track(AsyncCalls.enqueue(client.newCall(request), limiter, response -> {
+            timer.status(response.code());
+            if (!response.isSuccessful()) {
+                throw ModelApiException.from(response, "请求失败");
+            }
+
+            ModelResponse result = ResponseExtractor.parse(response.body());
+            timer.usage(result);
+            return result.getContent();
+        }));
+    }
+
+    // 流式代码问答：每收到一段增量内容就回调 onDelta，返回拼接后的完整回复
+    public String askCodingQuestionStream(List<JSONObject> messages, Consumer<String> onDelta) throws Exception {
+        return AsyncCalls.await(askCodingQuestionStreamAsync(messages, onDelta));
+    }
+
+    // onDelta 在 OkHttp 的回调线程中执行
+    public CompletableFuture<String> askCodingQuestionStreamAsync(List<JSONObject> messages, Consumer<String> onDelta) {
+        // 只在还没有输出任何内容时重试
+        AtomicBoolean started = new AtomicBoolean();
+        Consumer<String> tracked = delta -> {
+            started.set(true);
+            if (onDelta != null) {
+                onDelta.accept(delta);
+            }
+        };
+        return retryPolicy.execute(() -> streamOnce(messages, tracked), () -> !started.get());
+    }
+
+    private CompletableFuture<String> streamOnce(List<JSONObject> messages, Consumer<String> onDelta) {
+        Request request = buildRequest(messages, true);
+        ModelMetrics.Timer timer = ModelMetrics.getDefault().start("code", MODEL);
+
+        return timer.track(AsyncCalls.enqueue(client.newCall(request), limiter, response -> {
+            timer.status(response.code());
+            if (!response.isSuccessful()) {
+                throw ModelApiException.from(response, "请求失败");
+            }
+            ModelResponse result = ChatStreamReader.read(response.body(), onDelta);
+            timer.usage(result);
+            return result.getContent();
+        }));
+    }
+
+    private Request buildRequest(List<JSONObject> messages, boolean stream) {
         JSONObject requestBody = new JSONObject();
         requestBody.put("model", MODEL);
         requestBody.put("messages", messages);
 
         // CodeGeeX-4特定参数
-        requestBody.put("temperature", 0.8);
-        requestBody.put("top_p", 0.8);
-        requestBody.put("stream", false);
-        requestBody.put("max_tokens", 2048);
+        requestBody.put("temperature", TEMPERATURE);
+        requestBody.put("top_p", TOP_P);
+        requestBody.put("stream", stream);
+        requestBody.put("max_tokens", MAX_TOKENS);
         requestBody.put("stop", new String[]{"<|user|>", "<|assistant|>"});
 
         System.out.println("代码问答请求体: " + requestBody.toString());
 
-        Request request = new Request.Builder()
-                .url(API_URL)
+        Request.Builder builder = new Request.Builder()
+                .url(apiUrl)
                 .addHeader("Authorization", "Bearer " + API_KEY)
                 .addHeader("Content-Type", "application/json")
-                .post(RequestBody.create(MediaType.parse("application/json"), requestBody.toString()))
-                .build();
-
-        try (Response response = client.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                throw new IOException("请求失败，状态码: " + response.code());
-            }
-
-            String responseBody = response.body().string();
-            System.out.println("代码问答响应: " + responseBody);
-
-            JSONObject jsonResponse = JSON.parseObject(responseBody);
-            return jsonResponse.getJSONArray("choices")
-                    .getJSONObject(0)
-                    .getJSONObject("message")
-                    .getString("content");
+                .post(RequestBody.create(MediaType.parse("application/json"), requestBody.toString()));
+        if (stream) {
+            builder.addHeader("Accept", "text/event-stream");
         }
+        return builder.build();
     }
 
     // 添加代码分析功能
     public String analyzeCode(String code) throws Exception {
-        JSONObject message = new JSONObject();
-        message.put("role", "user");
-        message.put("content", "请分析以下代码并指出可能的改进点：\n\n" + code);
+        return AsyncCalls.await(analyzeCodeAsync(code));
+    }
 
-        List<JSONObject> messages = new ArrayList<>();
-        messages.add(message);
+    public CompletableFuture<String> analyzeCodeAsync(String code) {
+        return analyzeCodeAsync(code, null);
+    }
 
-        return askCodingQuestion(messages);
+    // language 只用于缓存键的规范化（去掉哪种注释），未知时传 null
+    public CompletableFuture<String> analyzeCodeAsync(String code, String language) {
+        return resultCache.getOrCompute(ANALYZE_PROMPT, CACHE_PARAMS, language, code,
+                () -> askCodingQuestionAsync(singleMessage(ANALYZE_PROMPT + code)));
     }
 
     // 添加代码优化功能
     public String optimizeCode(String code) throws Exception {
+        return AsyncCalls.await(optimizeCodeAsync(code));
+    }
+
+    public CompletableFuture<String> optimizeCodeAsync(String code) {
+        return optimizeCodeAsync(code, null);
+    }
+
+    public CompletableFuture<String> optimizeCodeAsync(String code, String language) {
+        return resultCache.getOrCompute(OPTIMIZE_PROMPT, CACHE_PARAMS, language, code,
+                () -> askCodingQuestionAsync(singleMessage(OPTIMIZE_PROMPT + code)));
+    }
+
+    public CodeResultCache getResultCache() {
+        return resultCache;
+    }
+
+    private List<JSONObject> singleMessage(String content) {
         JSONObject message = new JSONObject();
         message.put("role", "user");
-        message.put("content", "请优化以下代码，并解释优化原因：\n\n" + code);
+        message.put("content", content);
 
         List<JSONObject> messages = new ArrayList<>();
         messages.add(message);
-
-        return askCodingQuestion(messages);
+        return messages;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,222 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+// 对话上下文管理：保证每轮发送给模型的消息不超过 token 预算。
+// 系统提示和最近 N 轮对话原样保留，更早的对话交给较便宜的模型异步压缩成摘要，
+// 摘要完成前先只发送最近的对话，因此长时间辅导时每轮请求的大小和延迟保持平稳。
+public class ConversationContext {
+    private static final String PROPERTY_PREFIX = "zhipu.context.";
+    private static final String SUMMARY_PROMPT =
+            "请将以下师生对话压缩为简洁的摘要，保留学生提出的问题、已经给出的关键结论和尚未解决的问题，" +
+            "不超过300字，只输出摘要内容：\n\n";
+
+    private static final int MESSAGE_OVERHEAD_BYTES = 256;
+
+    private final JSONObject systemMessage;
+    private final int maxTokens;
+    private final int keepTurns;
+    private final Function<List<JSONObject>, CompletableFuture<String>> summarizer;
+
+    // 尚未被摘要的消息，按时间顺序
+    private final List<JSONObject> history = new ArrayList<>();
+    private JSONObject summaryMessage;
+    private CompletableFuture<String> pendingSummary;
+    private int summarizing; // history 开头正在被摘要的消息数
+
+    // summarizer 为 null 时只保留滑动窗口，不生成摘要
+    public ConversationContext(String systemPrompt, int maxTokens, int keepTurns,
+                               Function<List<JSONObject>, CompletableFuture<String>> summarizer) {
+        this.systemMessage = systemPrompt != null ? message("system", systemPrompt) : null;
+        this.maxTokens = maxTokens;
+        this.keepTurns = keepTurns;
+        this.summarizer = summarizer;
+    }
+
+    // -Dzhipu.context.maxTokens=4000 -Dzhipu.context.keepTurns=6
+    public static ConversationContext withChatSummarizer(String systemPrompt, ChatService summaryService) {
+        return new ConversationContext(systemPrompt,
+                Integer.getInteger(PROPERTY_PREFIX + "maxTokens", 4000),
+                Integer.getInteger(PROPERTY_PREFIX + "keepTurns", 6),
+                summaryService::sendMessageAsync);
+    }
+
+    public synchronized void addUserMessage(String content) {
+        history.add(message("user", content));
+    }
+
+    public synchronized void addAssistantMessage(String content) {
+        history.add(message("assistant", content));
+        maybeSummarize();
+    }
+
+    // 恢复持久化的历史（按时间顺序），替换当前内容；超出窗口的部分照常交给摘要模型
+    public synchronized void restore(List<JSONObject> messages) {
+        clear();
+        for (JSONObject msg : messages) {
+            history.add(message(msg.getString("role"), msg.getString("content")));
+        }
+        maybeSummarize();
+    }
+
+    // 本轮请求要发送的消息：系统提示 + 摘要 + 预算内的最近对话
+    public synchronized List<JSONObject> buildRequestMessages() {
+        List<JSONObject> result = new ArrayList<>();
+        int budget = maxTokens;
+        if (systemMessage != null) {
+            result.add(systemMessage);
+            budget -= estimateTokens(systemMessage);
+        }
+        if (summaryMessage != null) {
+            result.add(summaryMessage);
+            budget -= estimateTokens(summaryMessage);
+        }
+
+        // 正在摘要的消息不再发送；其余从最新往前取，直到用完预算（最新一条总会保留）
+        int start = history.size();
+        while (start > summarizing) {
+            int cost = estimateTokens(history.get(start - 1));
+            if (start < history.size() && cost > budget) {
+                break;
+            }
+            budget -= cost;
+            start--;
+        }
+        // 不以助手回复开头，避免出现没有对应问题的回答
+        while (start < history.size() - 1 && !"user".equals(history.get(start).getString("role"))) {
+            start++;
+        }
+        result.addAll(history.subList(start, history.size()));
+        return result;
+    }
+
+    public synchronized void clear() {
+        history.clear();
+        summaryMessage = null;
+        summarizing = 0;
+        if (pendingSummary != null) {
+            pendingSummary.cancel(true);
+            pendingSummary = null;
+        }
+    }
+
+    public synchronized int size() {
+        return history.size();
+    }
+
+    // 估算本会话占用的堆内存：UTF-16 字符按 2 字节计，每条消息另加 JSONObject/HashMap 的固定开销
+    public synchronized long estimateRetainedBytes() {
+        long bytes = 0;
+        for (JSONObject msg : history) {
+            bytes += estimateRetainedBytes(msg);
+        }
+        if (summaryMessage != null) {
+            bytes += estimateRetainedBytes(summaryMessage);
+        }
+        return bytes;
+    }
+
+    private static long estimateRetainedBytes(JSONObject message) {
+        String content = message.getString("content");
+        return MESSAGE_OVERHEAD_BYTES + (content != null ? 2L * content.length() : 0);
+    }
+
+    public synchronized String getSummary() {
+        return summaryMessage != null ? summaryMessage.getString("content") : null;
+    }
+
+    // 超出保留轮数或 token 预算时，把窗口以外的旧消息交给摘要模型
+    private void maybeSummarize() {
+        if (pendingSummary != null) {
+            return;
+        }
+        int keepMessages = keepTurns * 2;
+        if (history.size() <= keepMessages && estimateTokens(history) <= maxTokens) {
+            return;
+        }
+        int foldCount = Math.max(history.size() - keepMessages, 0);
+        if (foldCount == 0) {
+            // 最近几轮本身就超出预算，保留最后一轮，其余压缩
+            foldCount = Math.max(history.size() - 2, 0);
+        }
+        if (foldCount == 0) {
+            return;
+        }
+
+        if (summarizer == null) {
+            history.subList(0, foldCount).clear();
+            return;
+        }
+
+        StringBuilder transcript = new StringBuilder(SUMMARY_PROMPT);
+        if (summaryMessage != null) {
+            transcript.append("此前的摘要：").append(summaryMessage.getString("content")).append("\n\n");
+        }
+        for (JSONObject msg : history.subList(0, foldCount)) {
+            transcript.append("user".equals(msg.getString("role")) ? "学生：" : "助手：")
+                    .append(msg.getString("content")).append("\n");
+        }
+        List<JSONObject> request = new ArrayList<>();
+        request.add(message("user", transcript.toString()));
+
+        summarizing = foldCount;
+        CompletableFuture<String> future = summarizer.apply(request);
+        pendingSummary = future;
+        future.whenComplete((summary, error) -> onSummaryComplete(future, summary, error));
+    }
+
+    private synchronized void onSummaryComplete(CompletableFuture<String> future, String summary, Throwable error) {
+        if (pendingSummary != future) {
+            // 期间对话已被清空
+            return;
+        }
+        pendingSummary = null;
+        if (error == null && summary != null && !summary.trim().isEmpty()) {
+            summaryMessage = message("system", "以下是之前对话的摘要，请结合摘要继续回答：\n" + summary.trim());
+        } else if (error != null) {
+            // 摘要失败时直接丢弃这些旧消息，保证上下文大小仍然受控
+            System.out.println("对话摘要生成失败: " + AsyncCalls.unwrap(error).getMessage());
+        }
+        history.subList(0, summarizing).clear();
+        summarizing = 0;
+        maybeSummarize();
+    }
+
+    private static JSONObject message(String role, String content) {
+        JSONObject msg = new JSONObject();
+        msg.put("role", role);
+        msg.put("content", content);
+        return msg;
+    }
+
+    private static int estimateTokens(List<JSONObject> messages) {
+        int total = 0;
+        for (JSONObject msg : messages) {
+            total += estimateTokens(msg);
+        }
+        return total;
+    }
+
+    // 粗略估算：中日韩字符约 1 token/字，其余约 4 字符/token，另加每条消息的固定开销
+    static int estimateTokens(JSONObject message) {
+        String content = message.getString("content");
+        if (content == null) {
+            return 4;
+        }
+        int cjk = 0;
+        int other = 0;
+        for (int i = 0; i < content.length(); i++) {
+            if (content.charAt(i) >= 0x2E80) {
+                cjk++;
+            } else {
+                other++;
+            }
+        }
+        return 4 + cjk + (other + 3) / 4;
+    }
+}
@@ -0,0 +1,373 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSONObject;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 对话持久化（write-behind）：聊天线程只把消息放进有界队列，立即返回，不等待数据库。
+// 后台写线程一次取出最多 batchSize 条，用一条多行 INSERT 在同一个事务中写入；
+// 队列满时丢弃新消息并计数，宁可少存几条也不拖慢对话。写入失败按指数退避重试，之后放弃该批。
+// 单个写线程按入队顺序写入，同一会话的消息顺序与自增 id 一致，加载历史时按 id 排序即可。
+// 系统属性：-Dzhipu.db.url=jdbc:mysql://localhost:3306/zhipu -Dzhipu.db.user=root -Dzhipu.db.password=
+//          -Dzhipu.db.poolSize=4 -Dzhipu.db.queueCapacity=10000 -Dzhipu.db.batchSize=200
+public class ConversationStore {
+    private static final String PROPERTY_PREFIX = "zhipu.db.";
+    private static final String TABLE = "conversation_message";
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS " + TABLE + " (" +
+            "id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
+            "session_id VARCHAR(128) NOT NULL, " +
+            "role VARCHAR(16) NOT NULL, " +
+            "content MEDIUMTEXT NOT NULL, " +
+            "created_at BIGINT NOT NULL, " +
+            "KEY idx_session_id (session_id, id)" +
+            ") DEFAULT CHARSET=utf8mb4";
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_BACKOFF_MILLIS = 500;
+    private static final long BORROW_TIMEOUT_MILLIS = 5_000;
+    // 批量加载时每条 SQL 的 IN 列表长度上限
+    private static final int LOAD_CHUNK_SIZE = 500;
+
+    private final JdbcConnectionPool pool;
+    private final BlockingQueue<PendingWrite> queue;
+    private final int batchSize;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private final Object progressLock = new Object();
+    private long enqueued;   // 受 progressLock 保护
+    private long processed;  // 已写入或已放弃的条数，受 progressLock 保护
+    // 各会话已入队、尚未处理的消息和删除条数，受 progressLock 保护
+    private final Map<String, Integer> pendingBySession = new HashMap<>();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    public ConversationStore(JdbcConnectionPool pool, int queueCapacity, int batchSize) {
+        this.pool = pool;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        try {
+            ensureSchema();
+        } catch (SQLException e) {
+            // 数据库暂时不可用时照常启动，写线程会继续重试
+            System.out.println("初始化对话表失败: " + e.getMessage());
+        }
+        this.writer = new Thread(this::drainLoop, "conversation-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // 未配置 zhipu.db.url 时返回 null，表示不持久化
+    public static ConversationStore fromSystemProperties() {
+        String url = System.getProperty(PROPERTY_PREFIX + "url");
+        if (url == null || url.trim().isEmpty()) {
+            return null;
+        }
+        JdbcConnectionPool pool = new JdbcConnectionPool(url,
+                System.getProperty(PROPERTY_PREFIX + "user", "root"),
+                System.getProperty(PROPERTY_PREFIX + "password", ""),
+                Integer.getInteger(PROPERTY_PREFIX + "poolSize", 4));
+        return new ConversationStore(pool,
+                Integer.getInteger(PROPERTY_PREFIX + "queueCapacity", 10_000),
+                Integer.getInteger(PROPERTY_PREFIX + "batchSize", 200));
+    }
+
+    // 追加一条消息，不阻塞；队列已满时返回 false
+    public boolean append(String sessionId, String role, String content) {
+        return enqueue(new PendingWrite(sessionId, role, content, System.currentTimeMillis()));
+    }
+
+    // 删除会话的全部历史；与追加共用同一个队列，保证删除前入队的消息不会在删除后才写入
+    public boolean deleteSession(String sessionId) {
+        return enqueue(new PendingWrite(sessionId, null, null, 0));
+    }
+
+    // 读取一个会话最近的 limit 条消息，按时间顺序
+    public List<JSONObject> loadHistory(String sessionId, int limit) throws SQLException {
+        List<JSONObject> history = loadHistories(Collections.singletonList(sessionId), limit).get(sessionId);
+        return history != null ? history : new ArrayList<>();
+    }
+
+    // 批量读取多个会话最近的消息（每个会话最多 limitPerSession 条），没有历史的会话不出现在结果中
+    public Map<String, List<JSONObject>> loadHistories(Collection<String> sessionIds, int limitPerSession)
+            throws SQLException {
+        Map<String, List<JSONObject>> result = new LinkedHashMap<>();
+        List<String> ids = new ArrayList<>(sessionIds);
+        if (ids.isEmpty()) {
+            return result;
+        }
+        Connection connection = pool.borrow(BORROW_TIMEOUT_MILLIS);
+        boolean broken = true;
+        try {
+            for (int from = 0; from < ids.size(); from += LOAD_CHUNK_SIZE) {
+                List<String> chunk = ids.subList(from, Math.min(from + LOAD_CHUNK_SIZE, ids.size()));
+                try (PreparedStatement statement = connection.prepareStatement(loadSql(chunk.size()))) {
+                    int index = 1;
+                    for (String id : chunk) {
+                        statement.setString(index++, id);
+                    }
+                    statement.setInt(index, limitPerSession);
+                    try (ResultSet rs = statement.executeQuery()) {
+                        while (rs.next()) {
+                            JSONObject msg = new JSONObject();
+                            msg.put("role", rs.getString(2));
+                            msg.put("content", rs.getString(3));
+                            result.computeIfAbsent(rs.getString(1), k -> new ArrayList<>()).add(msg);
+                        }
+                    }
+                }
+            }
+            broken = false;
+            return result;
+        } finally {
+            pool.release(connection, broken);
+        }
+    }
+
+    // 等待调用前已入队的消息全部处理完，超时返回 false
+    public boolean flush(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (progressLock) {
+            long target = enqueued;
+            while (processed < target) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || !writer.isAlive()) {
+                    return false;
+                }
+                progressLock.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    // 只等待这些会话在调用前已入队的消息和删除处理完，不等其他会话；超时返回 false
+    public boolean flush(Collection<String> sessionIds, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (progressLock) {
+            for (String sessionId : sessionIds) {
+                while (pendingBySession.containsKey(sessionId)) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0 || !writer.isAlive()) {
+                        return false;
+                    }
+                    progressLock.wait(remaining);
+                }
+            }
+            return true;
+        }
+    }
+
+    // 写完队列中剩余的消息后停止写线程并关闭连接
+    public void shutdown(long timeoutMillis) {
+        running = false;
+        try {
+            writer.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            writer.interrupt();
+            System.out.println("仍有 " + queue.size() + " 条对话记录未写入数据库");
+        }
+        pool.close();
+    }
+
+    public String getStats() {
+        return String.format("已写入 %d 条（%d 批），排队 %d 条，队列满丢弃 %d 条，写入失败 %d 条",
+                written.get(), batches.get(), queue.size(), dropped.get(), failed.get());
+    }
+
+    private boolean enqueue(PendingWrite write) {
+        if (!running) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        // 计数先于入队，否则写线程可能在 enqueued 增加前就处理完，flush 会提前返回
+        synchronized (progressLock) {
+            enqueued++;
+            pendingBySession.merge(write.sessionId, 1, Integer::sum);
+        }
+        if (queue.offer(write)) {
+            return true;
+        }
+        dropped.incrementAndGet();
+        markProcessed(Collections.singletonList(write));
+        return false;
+    }
+
+    private void drainLoop() {
+        List<PendingWrite> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                writeWithRetry(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                // 不让异常终止写线程
+                System.out.println("写入对话记录失败: " + e.getMessage());
+                failed.addAndGet(batch.size());
+            } finally {
+                markProcessed(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeWithRetry(List<PendingWrite> batch) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                writeBatch(batch);
+                batches.incrementAndGet();
+                return;
+            } catch (SQLException e) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    System.out.println("写入对话记录失败，放弃 " + batch.size() + " 条: " + e.getMessage());
+                    failed.addAndGet(batch.size());
+                    return;
+                }
+                Thread.sleep(RETRY_BACKOFF_MILLIS << (attempt - 1));
+            }
+        }
+    }
+
+    // 整批在一个事务中提交：连续的追加合并成多行 INSERT，遇到删除时先写出前面的追加
+    private void writeBatch(List<PendingWrite> batch) throws SQLException {
+        Connection connection = pool.borrow(BORROW_TIMEOUT_MILLIS);
+        boolean broken = true;
+        try {
+            connection.setAutoCommit(false);
+            int runStart = 0;
+            for (int i = 0; i <= batch.size(); i++) {
+                if (i < batch.size() && !batch.get(i).isDelete()) {
+                    continue;
+                }
+                if (i > runStart) {
+                    insertRows(connection, batch.subList(runStart, i));
+                }
+                if (i < batch.size()) {
+                    deleteSession(connection, batch.get(i).sessionId);
+                }
+                runStart = i + 1;
+            }
+            connection.commit();
+            // 恢复自动提交，否则之后借到这个连接的查询会停留在旧的一致性快照上
+            connection.setAutoCommit(true);
+            broken = false;
+        } catch (SQLException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException ignored) {
+                // 连接已失效，直接丢弃
+            }
+            throw e;
+        } finally {
+            pool.release(connection, broken);
+        }
+        int rows = 0;
+        for (PendingWrite write : batch) {
+            if (!write.isDelete()) {
+                rows++;
+            }
+        }
+        written.addAndGet(rows);
+    }
+
+    private static void insertRows(Connection connection, List<PendingWrite> rows) throws SQLException {
+        StringBuilder sql = new StringBuilder(64 + rows.size() * 14)
+                .append("INSERT INTO ").append(TABLE).append(" (session_id, role, content, created_at) VALUES ");
+        for (int i = 0; i < rows.size(); i++) {
+            sql.append(i == 0 ? "(?,?,?,?)" : ",(?,?,?,?)");
+        }
+        try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+            int index = 1;
+            for (PendingWrite row : rows) {
+                statement.setString(index++, row.sessionId);
+                statement.setString(index++, row.role);
+                statement.setString(index++, row.content);
+                statement.setLong(index++, row.createdAt);
+            }
+            statement.executeUpdate();
+        }
+    }
+
+    private static void deleteSession(Connection connection, String sessionId) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "DELETE FROM " + TABLE + " WHERE session_id = ?")) {
+            statement.setString(1, sessionId);
+            statement.executeUpdate();
+        }
+    }
+
+    // 每个会话取最近的 N 条：按 id 倒序编号后过滤，再按会话和 id 正序返回（需要 MySQL 8 的窗口函数）
+    private static String loadSql(int idCount) {
+        StringBuilder sql = new StringBuilder("SELECT session_id, role, content FROM (")
+                .append("SELECT id, session_id, role, content, ROW_NUMBER() OVER (PARTITION BY session_id ORDER BY id DESC) AS rn ")
+                .append("FROM ").append(TABLE).append(" WHERE session_id IN (");
+        for (int i = 0; i < idCount; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        return sql.append(")) t WHERE rn <= ? ORDER BY session_id, id").toString();
+    }
+
+    private void ensureSchema() throws SQLException {
+        Connection connection = pool.borrow(BORROW_TIMEOUT_MILLIS);
+        boolean broken = true;
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(CREATE_TABLE);
+            broken = false;
+        } finally {
+            pool.release(connection, broken);
+        }
+    }
+
+    private void markProcessed(List<PendingWrite> writes) {
+        synchronized (progressLock) {
+            processed += writes.size();
+            for (PendingWrite write : writes) {
+                pendingBySession.computeIfPresent(write.sessionId, (id, count) -> count > 1 ? count - 1 : null);
+            }
+            progressLock.notifyAll();
+        }
+    }
+
+    private static final class PendingWrite {
+        final String sessionId;
+        final String role;     // null 表示删除整个会话
+        final String content;
+        final long createdAt;
+
+        PendingWrite(String sessionId, String role, String content, long createdAt) {
+            this.sessionId = sessionId;
+            this.role = role;
+            this.content = content;
+            this.createdAt = createdAt;
+        }
+
+        boolean isDelete() {
+            return role == null;
+        }
+    }
+}
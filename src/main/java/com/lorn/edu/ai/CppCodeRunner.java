@@ -0,0 +1,441 @@
+package com.lorn.edu.ai;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// 在本机编译运行 C++ 代码：g++ 编译出的可执行文件以编译器版本、编译选项和源码的 SHA-256 为名保存在工作目录的 cpp 子目录中，
+// 同一段代码再次运行时不再编译（编译错误只缓存在内存中）；重启后磁盘上的可执行文件仍可复用，最多保留 cacheEntries 个。
+// 包含 <bits/stdc++.h> 的代码使用预编译头，预编译头在 warmUp 时于后台生成（约 4 秒、100 MB），
+// 这类代码的编译时间从两秒多降到 0.3 秒左右。同时编译的数量不超过 CPU 数。
+// 编译和运行都在 ProcessSandbox 中进行：编译限制时间（compileTimeoutSeconds）、内存（生成预编译头约需 400 MB）、
+// 写入文件的大小和输出，运行同时限制 CPU 时间、内存和输出。
+// 编译前检查源码：#include 只能使用相对路径（不能以 / 开头或包含 ..），不能用宏给出文件名，也不能使用内联汇编
+// （.incbin、.include 可以把任意文件编进程序）。这只防止编译器替学生读取文件，运行时的文件访问仍需 sandboxCommand 隔离。
+// 系统属性：-Dzhipu.run.cpp.enabled=true -Dzhipu.run.cpp.compiler=g++ -Dzhipu.run.cpp.flags="-std=c++17 -O2 -pipe"
+//          -Dzhipu.run.cpp.cacheEntries=128 -Dzhipu.run.cpp.compileTimeoutSeconds=30 -Dzhipu.run.cpp.precompiledHeader=true
+//          -Dzhipu.run.cpp.compileMemoryMb=1024 -Dzhipu.run.cpp.compileFileMb=64
+//          -Dzhipu.run.timeoutSeconds=5 -Dzhipu.run.maxOutputBytes=65536，其余见 ProcessSandbox
+public class CppCodeRunner implements CodeRunner {
+    private static final String PROPERTY_PREFIX = "zhipu.run.";
+    private static final String PRECOMPILED_HEADER = "bits/stdc++.h";
+    // 可执行文件在运行前被其他线程淘汰时重新编译的次数上限
+    private static final int MAX_ATTEMPTS = 3;
+
+    // 预处理指令前可以有空白和块注释；%: 是 # 的替代写法
+    private static final String SPACE = "(?:\\s|/\\*[\\s\\S]*?\\*/)*";
+    private static final Pattern INCLUDE = Pattern.compile(
+            "(?:#|%:)" + SPACE + "(include_next|include|import|embed)\\b" + SPACE + "(<[^>\\n]*>|\"[^\"\\n]*\"|\\S*)");
+    // C++20 的 import <header>; 不需要 #
+    private static final Pattern IMPORT = Pattern.compile(
+            "\\b(import)" + SPACE + "(<[^>\\n]*>|\"[^\"\\n]*\")");
+    // 反斜杠与换行之间的空白 g++ 同样忽略
+    private static final Pattern SPLICE = Pattern.compile("\\\\[ \\t\\f]*\\r?\\n");
+    private static final Pattern SAFE_HEADER = Pattern.compile("[A-Za-z0-9_+.-]+(?:/[A-Za-z0-9_+.-]+)*");
+    private static final Pattern ASM = Pattern.compile("\\b(?:asm|__asm|__asm__)\\b");
+
+    private static volatile CppCodeRunner defaultRunner;
+
+    private final ProcessSandbox sandbox;
+    private final String compiler;
+    private final List<String> flags;
+    private final String version; // 找不到编译器时为 null
+    private final long timeoutMillis;
+    private final int maxOutputBytes;
+    private final int cacheEntries;
+    private final long compileTimeoutMillis;
+    private final long compileMemoryBytes;
+    private final long compileFileBytes;
+    private final boolean precompiledHeader;
+    private final File cacheDir;
+    private final File headerDir; // 按编译器版本和编译选项区分，选项不同的预编译头不能使用
+
+    private final LinkedHashMap<String, Compiled> cache = new LinkedHashMap<>(16, 0.75f, true); // 受 cache 保护
+    private final Semaphore compiling = new Semaphore(Math.max(1, Runtime.getRuntime().availableProcessors()));
+    private final AtomicBoolean warmedUp = new AtomicBoolean();
+    private volatile boolean headerReady;
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong compiles = new AtomicLong();
+    private final AtomicLong compileNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong memoryLimits = new AtomicLong();
+
+    // 编译结果：成功时为可执行文件，否则为编译器的错误信息
+    private static final class Compiled {
+        final File binary;
+        final String error;
+
+        Compiled(File binary, String error) {
+            this.binary = binary;
+            this.error = error;
+        }
+    }
+
+    CppCodeRunner(ProcessSandbox sandbox, boolean enabled, String compiler, List<String> flags, long timeoutMillis,
+                  int maxOutputBytes, int cacheEntries, long compileTimeoutMillis, long compileMemoryBytes,
+                  long compileFileBytes, boolean precompiledHeader) {
+        this.sandbox = sandbox;
+        this.compiler = compiler;
+        this.flags = flags;
+        this.version = enabled && sandbox.isSupported()
+                ? ProcessSandbox.probe(Arrays.asList(compiler, "-dumpfullversion"), 5_000)
+                : null;
+        this.timeoutMillis = timeoutMillis;
+        this.maxOutputBytes = maxOutputBytes;
+        this.cacheEntries = cacheEntries;
+        this.compileTimeoutMillis = compileTimeoutMillis;
+        this.compileMemoryBytes = compileMemoryBytes;
+        this.compileFileBytes = compileFileBytes;
+        this.precompiledHeader = precompiledHeader;
+        this.cacheDir = new File(sandbox.getWorkDir(), "cpp");
+        this.headerDir = new File(cacheDir, "pch-" + SingleFlight.key(null, compiler, version, flags.toString())
+                .substring(0, 16));
+    }
+
+    public static CppCodeRunner getDefault() {
+        CppCodeRunner runner = defaultRunner;
+        if (runner == null) {
+            synchronized (CppCodeRunner.class) {
+                runner = defaultRunner;
+                if (runner == null) {
+                    runner = new CppCodeRunner(ProcessSandbox.getDefault(),
+                            Boolean.parseBoolean(System.getProperty(PROPERTY_PREFIX + "cpp.enabled", "true")),
+                            System.getProperty(PROPERTY_PREFIX + "cpp.compiler", "g++"),
+                            Arrays.asList(System.getProperty(PROPERTY_PREFIX + "cpp.flags", "-std=c++17 -O2 -pipe")
+                                    .trim().split("\\s+")),
+                            Long.getLong(PROPERTY_PREFIX + "timeoutSeconds", 5) * 1000,
+                            Integer.getInteger(PROPERTY_PREFIX + "maxOutputBytes", 64 * 1024),
+                            Integer.getInteger(PROPERTY_PREFIX + "cpp.cacheEntries", 128),
+                            Long.getLong(PROPERTY_PREFIX + "cpp.compileTimeoutSeconds", 30) * 1000,
+                            Long.getLong(PROPERTY_PREFIX + "cpp.compileMemoryMb", 1024) * 1024 * 1024,
+                            Long.getLong(PROPERTY_PREFIX + "cpp.compileFileMb", 64) * 1024 * 1024,
+                            Boolean.parseBoolean(System.getProperty(PROPERTY_PREFIX + "cpp.precompiledHeader", "true")));
+                    defaultRunner = runner;
+                }
+            }
+        }
+        return runner;
+    }
+
+    // 被关闭、没有 sh（Windows）或找不到编译器时不可用
+    @Override
+    public boolean isAvailable() {
+        return version != null;
+    }
+
+    // 清理上次留下的多余可执行文件，生成预编译头，再编译运行一次让编译器进入页缓存；重复调用无效
+    @Override
+    public void warmUp() {
+        if (!isAvailable() || !warmedUp.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Files.createDirectories(cacheDir.toPath());
+            pruneBinaries();
+            if (precompiledHeader) {
+                buildPrecompiledHeader();
+            }
+            run("#include <iostream>\nint main() { std::cout << 0 << std::endl; }\n", null);
+        } catch (IOException e) {
+            System.out.println("C++ 运行环境预热失败: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public CodeRunResult run(String code, String stdin) throws InterruptedException {
+        long start = System.nanoTime();
+        runs.incrementAndGet();
+        // 磁盘上的可执行文件可能由检查加入之前的版本编译，缓存命中时同样检查
+        String rejected = checkSource(code);
+        if (rejected != null) {
+            return CodeRunResult.notRun(CodeRunResult.Status.REJECTED, rejected,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), false);
+        }
+        String key = SingleFlight.key(null, "cpp", compiler, version, flags.toString(), code);
+        for (int attempt = 1; ; attempt++) {
+            Compiled compiled;
+            synchronized (cache) {
+                compiled = cache.get(key);
+            }
+            if (compiled != null && compiled.binary != null && !compiled.binary.isFile()) {
+                compiled = null;
+            }
+            if (compiled == null) {
+                // 上次运行留下的可执行文件
+                File binary = new File(cacheDir, key);
+                if (binary.isFile()) {
+                    compiled = new Compiled(binary, null);
+                    remember(key, compiled);
+                }
+            }
+            boolean cached = compiled != null;
+            if (cached) {
+                cacheHits.incrementAndGet();
+            } else {
+                compiled = compile(key, code);
+                remember(key, compiled);
+            }
+            if (compiled.binary == null) {
+                return CodeRunResult.notRun(CodeRunResult.Status.COMPILE_ERROR, compiled.error,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), cached);
+            }
+            try {
+                return execute(compiled.binary, stdin, start, cached);
+            } catch (NoSuchFileException e) {
+                // 查到缓存之后、运行之前可执行文件被其他线程淘汰删除，重新编译
+                forget(key, compiled);
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw new UncheckedIOException("无法运行 C++ 程序", e);
+                }
+            }
+        }
+    }
+
+    // 检查源码能否交给编译器，不能时返回给学生看的原因：#include 等指令只能使用相对路径的文件名
+    // （不能以 / 开头或包含 ..，不能用宏给出），不能使用内联汇编。
+    // 只做文本匹配，注释和字符串中的内容也会检查；同时检查把三字符组（??= 等）替换后的源码，不论编译选项是否启用三字符组
+    static String checkSource(String code) {
+        String rejected = checkSpliced(SPLICE.matcher(code).replaceAll(""));
+        if (rejected == null && code.contains("??")) {
+            rejected = checkSpliced(SPLICE.matcher(replaceTrigraphs(code)).replaceAll(""));
+        }
+        return rejected;
+    }
+
+    private static String checkSpliced(String code) {
+        for (Pattern pattern : new Pattern[]{INCLUDE, IMPORT}) {
+            Matcher matcher = pattern.matcher(code);
+            while (matcher.find()) {
+                String target = matcher.group(2);
+                String name = target.length() >= 2 && (target.charAt(0) == '<' || target.charAt(0) == '"')
+                        ? target.substring(1, target.length() - 1)
+                        : null;
+                if (name == null || !SAFE_HEADER.matcher(name).matches()
+                        || ("/" + name + "/").contains("/../")) {
+                    return "#" + matcher.group(1) + " 只能使用 <头文件> 或 \"相对路径\"，不能以 / 开头、包含 .. 或使用宏: "
+                            + (target.isEmpty() ? "（缺少文件名）" : target);
+                }
+            }
+        }
+        if (ASM.matcher(code).find()) {
+            return "不支持内联汇编（asm）";
+        }
+        return null;
+    }
+
+    private static String replaceTrigraphs(String code) {
+        String[][] trigraphs = {{"??=", "#"}, {"??/", "\\"}, {"??'", "^"}, {"??(", "["}, {"??)", "]"},
+                {"??!", "|"}, {"??<", "{"}, {"??>", "}"}, {"??-", "~"}};
+        for (String[] trigraph : trigraphs) {
+            code = code.replace(trigraph[0], trigraph[1]);
+        }
+        return code;
+    }
+
+    @Override
+    public String getStats() {
+        long total = runs.get();
+        long compiled = compiles.get();
+        return String.format(Locale.ROOT,
+                "C++（g++ %s）运行 %d 次（可执行文件缓存命中 %.1f%%），编译 %d 次（平均 %.0f ms），预编译头%s，超时 %d 次，超出内存 %d 次",
+                version, total, total == 0 ? 0.0 : cacheHits.get() * 100.0 / total, compiled,
+                compiled == 0 ? 0.0 : compileNanos.get() / 1e6 / compiled, headerReady ? "可用" : "未生成",
+                timeouts.get(), memoryLimits.get());
+    }
+
+    private void remember(String key, Compiled compiled) {
+        List<File> evicted = new ArrayList<>();
+        synchronized (cache) {
+            cache.put(key, compiled);
+            Iterator<Compiled> eldest = cache.values().iterator();
+            while (cache.size() > cacheEntries && eldest.hasNext()) {
+                Compiled entry = eldest.next();
+                if (entry.binary != null) {
+                    evicted.add(entry.binary);
+                }
+                eldest.remove();
+            }
+        }
+        // 正在运行的程序使用自己的硬链接，删除缓存中的文件不影响它们
+        for (File binary : evicted) {
+            binary.delete();
+        }
+    }
+
+    // 可执行文件已被删除，去掉对应的缓存条目（已被替换为新的编译结果时保留）
+    private void forget(String key, Compiled compiled) {
+        synchronized (cache) {
+            cache.remove(key, compiled);
+        }
+    }
+
+    private Compiled compile(String key, String code) throws InterruptedException {
+        long start = System.nanoTime();
+        File dir = null;
+        compiling.acquire();
+        try {
+            dir = sandbox.newDirectory("cpp-compile");
+            Files.write(new File(dir, "main.cpp").toPath(), code.getBytes(StandardCharsets.UTF_8));
+            List<String> command = new ArrayList<>();
+            command.add(compiler);
+            command.addAll(flags);
+            if (headerReady && code.contains(PRECOMPILED_HEADER)) {
+                command.add("-I");
+                command.add(headerDir.getPath());
+            }
+            command.addAll(Arrays.asList("-o", "main", "main.cpp"));
+            ProcessSandbox.Limits limits = ProcessSandbox.toolLimits(compileTimeoutMillis, compileMemoryBytes,
+                    compileFileBytes, maxOutputBytes);
+            ProcessSandbox.Outcome outcome = sandbox.await(sandbox.start(command, dir, limits), null, limits,
+                    System.nanoTime());
+            File output = new File(dir, "main");
+            if (outcome.isTimeout()) {
+                return new Compiled(null, "编译超时（超过 " + compileTimeoutMillis / 1000 + " 秒）");
+            }
+            if (outcome.exitCode != 0 || !output.isFile()) {
+                String error = (outcome.stdout + outcome.stderr).trim();
+                String signal = ProcessSandbox.describeSignal(outcome.exitCode);
+                if (signal != null || error.contains("out of memory") || error.contains("memory exhausted")
+                        || error.contains("File size limit exceeded")) {
+                    error = error + (error.isEmpty() ? "" : "\n") + "编译器超出资源限制（内存 " + compileMemoryBytes / (1024 * 1024)
+                            + " MB，输出文件 " + compileFileBytes / (1024 * 1024) + " MB），请检查模板递归或过大的数组初始化";
+                }
+                return new Compiled(null, error);
+            }
+            File binary = new File(cacheDir, key);
+            Files.createDirectories(cacheDir.toPath());
+            Files.move(output.toPath(), binary.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            return new Compiled(binary, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException("无法运行 C++ 编译器", e);
+        } finally {
+            compiling.release();
+            compiles.incrementAndGet();
+            compileNanos.addAndGet(System.nanoTime() - start);
+            if (dir != null) {
+                ProcessSandbox.deleteDirectory(dir);
+            }
+        }
+    }
+
+    // 先在运行目录中为可执行文件建立硬链接（不在同一文件系统时复制）再运行，运行期间缓存淘汰删除原文件也不受影响；
+    // 可执行文件已被删除时抛出 NoSuchFileException
+    private CodeRunResult execute(File binary, String stdin, long start, boolean cached)
+            throws InterruptedException, NoSuchFileException {
+        sandbox.acquire();
+        File dir = null;
+        try {
+            dir = sandbox.newDirectory("cpp-run");
+            File program = new File(dir, "main");
+            try {
+                Files.createLink(program.toPath(), binary.toPath());
+            } catch (NoSuchFileException e) {
+                throw e;
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(binary.toPath(), program.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+            }
+            ProcessSandbox.Limits limits = sandbox.programLimits(timeoutMillis, maxOutputBytes);
+            ProcessSandbox.Outcome outcome = sandbox.await(
+                    sandbox.start(Collections.singletonList(program.getPath()), dir, limits),
+                    stdin != null ? stdin.getBytes(StandardCharsets.UTF_8) : null, limits, System.nanoTime());
+
+            CodeRunResult.Status status;
+            String stderr = outcome.stderr;
+            if (outcome.outputLimited) {
+                status = CodeRunResult.Status.OUTPUT_LIMIT;
+            } else if (outcome.isTimeout()) {
+                status = CodeRunResult.Status.TIMEOUT;
+                timeouts.incrementAndGet();
+            } else if (outcome.exitCode != 0 && stderr.contains("std::bad_alloc")) {
+                status = CodeRunResult.Status.MEMORY_LIMIT;
+                memoryLimits.incrementAndGet();
+            } else if (outcome.exitCode != 0) {
+                status = CodeRunResult.Status.RUNTIME_ERROR;
+                String signal = ProcessSandbox.describeSignal(outcome.exitCode);
+                if (signal != null) {
+                    stderr = stderr + (stderr.isEmpty() ? "" : "\n") + signal;
+                }
+            } else {
+                status = CodeRunResult.Status.OK;
+            }
+            return new CodeRunResult(status, outcome.stdout, stderr, outcome.exitCode,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), cached, outcome.outputLimited);
+        } catch (NoSuchFileException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException("无法运行 C++ 程序", e);
+        } finally {
+            sandbox.release();
+            if (dir != null) {
+                ProcessSandbox.deleteDirectory(dir);
+            }
+        }
+    }
+
+    // 用包含 <bits/stdc++.h> 的头文件生成 headerDir/bits/stdc++.h.gch，编译时 -I headerDir 即可使用
+    private void buildPrecompiledHeader() throws IOException, InterruptedException {
+        File header = new File(headerDir, PRECOMPILED_HEADER + ".gch");
+        if (!header.isFile()) {
+            File dir = sandbox.newDirectory("cpp-pch");
+            try {
+                Files.write(new File(dir, "pch.h").toPath(),
+                        ("#include <" + PRECOMPILED_HEADER + ">\n").getBytes(StandardCharsets.UTF_8));
+                List<String> command = new ArrayList<>();
+                command.add(compiler);
+                command.addAll(flags);
+                command.addAll(Arrays.asList("-x", "c++-header", "-o", "pch.gch", "pch.h"));
+                // 预编译头约 100 MB，不限制写入文件的大小
+                ProcessSandbox.Limits limits = ProcessSandbox.toolLimits(compileTimeoutMillis * 4, compileMemoryBytes, 0,
+                        maxOutputBytes);
+                ProcessSandbox.Outcome outcome = sandbox.await(sandbox.start(command, dir, limits), null, limits,
+                        System.nanoTime());
+                File output = new File(dir, "pch.gch");
+                if (outcome.exitCode != 0 || !output.isFile()) {
+                    System.out.println("无法生成 C++ 预编译头: " + (outcome.stdout + outcome.stderr).trim());
+                    return;
+                }
+                Files.createDirectories(header.getParentFile().toPath());
+                Files.move(output.toPath(), header.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                ProcessSandbox.deleteDirectory(dir);
+            }
+        }
+        headerReady = true;
+    }
+
+    // 只保留最近生成的 cacheEntries 个可执行文件
+    private void pruneBinaries() {
+        File[] binaries = cacheDir.listFiles(File::isFile);
+        if (binaries == null || binaries.length <= cacheEntries) {
+            return;
+        }
+        Arrays.sort(binaries, Comparator.comparingLong(File::lastModified).reversed());
+        for (int i = cacheEntries; i < binaries.length; i++) {
+            binaries[i].delete();
+        }
+    }
+}
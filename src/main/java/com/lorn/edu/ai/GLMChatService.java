@@ -4,33 +4,46 @@ import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import okhttp3.*;
 
-import java.io.IOException;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
 
 public class GLMChatService {
-    private static final String API_KEY = "替换成您的API Key";
-    private static final String API_URL = "https://open.bigmodel.cn/api/paas/v4/chat/completions";
+    // 也可以通过 -Dzhipu.api.key 提供
+    private static final String API_KEY = System.getProperty("zhipu.api.key", "替换成您的API Key");
     private final OkHttpClient client;
+    private final String apiUrl;
+    // chat/completions 接口的限流器，与同一 API Key 下的其他聊天类服务共用
+    private final AdaptiveLimiter limiter;
+    private final RetryPolicy retryPolicy = RetryPolicy.forService("glm", RetryPolicy.DEFAULT);
+    // 每个请求由 ModelRouter 选择模型，只有复杂问题才使用 glm-4-plus
+    private final ModelRouter router = ModelRouter.getDefault();
 
     public GLMChatService() {
-        this.client = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(60, TimeUnit.SECONDS)
-                .writeTimeout(30, TimeUnit.SECONDS)
-                .retryOnConnectionFailure(true)
-                .build();
+        this(HttpTransport.getDefault().newClient(
+                HttpTransport.Timeouts.forService("glm", HttpTransport.Timeouts.DEFAULT)));
+    }
+
+    public GLMChatService(OkHttpClient client) {
+        this.client = client;
+        this.apiUrl = HttpTransport.apiUrl("glm", "/chat/completions");
+        this.limiter = AdaptiveLimiter.forEndpoint(API_KEY, "chat");
     }
 
     public String chat(List<JSONObject> messages) throws Exception {
+        return AsyncCalls.await(chatAsync(messages));
+    }
+
+    public CompletableFuture<String> chatAsync(List<JSONObject> messages) {
+        ChatService.ModelType type = router.route(messages);
+        String model = type.getValue();
         JSONObject requestBody = new JSONObject();
-        requestBody.put("model", "glm-4-plus");
+        requestBody.put("model", model);
         requestBody.put("messages", messages);
-        requestBody.put("temperature", 0.7);
-        requestBody.put("stream", false);
+        // 与 ChatService 使用相同的模型参数，路由到 codegeex-4 时带上它需要的 top_p、max_tokens 和 stop
+        requestBody.putAll(JSON.parseObject("{" + ChatService.modelParams(type, false).substring(1) + "}"));
 
         Request request = new Request.Builder()
-                .url(API_URL)
+                .url(apiUrl)
                 .addHeader("Authorization", "Bearer " + API_KEY)
                 .addHeader("Content-Type", "application/json; charset=utf-8")
                 .post(RequestBody.create(
@@ -39,18 +52,22 @@ public class GLMChatService {
                 ))
                 .build();
 
-        try (Response response = client.newCall(request).execute()) {
+        return retryPolicy.execute(() -> send(request, model));
+    }
+
+    private CompletableFuture<String> send(Request request, String model) {
+        ModelMetrics.Timer timer = ModelMetrics.getDefault().start("glm", model);
+
+        return timer.track(AsyncCalls.enqueue(client.newCall(request), limiter, response -> {
+            timer.status(response.code());
             if (!response.isSuccessful()) {
-                throw new IOException("请求失败，状态码: " + response.code());
+                throw ModelApiException.from(response, "请求失败");
             }
 
-            String responseBody = response.body().string();
-            JSONObject jsonResponse = JSON.parseObject(responseBody);
-            return jsonResponse.getJSONArray("choices")
-                    .getJSONObject(0)
-                    .getJSONObject("message")
-                    .getString("content");
-        }
+            ModelResponse result = ResponseExtractor.parse(response.body());
+            timer.usage(result);
+            return result.getContent();
+        }));
     }
 
     public String getSystemPrompt() {
@@ -0,0 +1,182 @@
+package com.lorn.edu.ai;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+import javax.net.SocketFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// 所有服务共享的 HTTP 传输层：各服务通过 newClient 派生自己的 OkHttpClient，
+// 派生出的客户端共用同一个 ConnectionPool 和 Dispatcher，到 open.bigmodel.cn 的连接可以跨服务复用，
+// 上游并发也只受这一处限制。-Dzhipu.executor.mode=virtual 时 Dispatcher 在虚拟线程中执行回调（见 ServiceExecutors）。
+// 系统属性示例：-Dzhipu.http.maxRequests=64 -Dzhipu.http.maxRequestsPerHost=16
+//              -Dzhipu.http.maxIdleConnections=16 -Dzhipu.http.keepAliveSeconds=300
+//              -Dzhipu.http.chat.readTimeoutSeconds=120
+public final class HttpTransport {
+    private static final String PROPERTY_PREFIX = "zhipu.http.";
+    private static final String API_PROPERTY_PREFIX = "zhipu.api.";
+    private static final String DEFAULT_API_BASE = "https://open.bigmodel.cn/api/paas/v4";
+
+    private static volatile HttpTransport defaultTransport;
+
+    private final OkHttpClient baseClient;
+
+    // 超时配置，单位为秒
+    public static final class Timeouts {
+        public static final Timeouts DEFAULT = new Timeouts(30, 60, 30);
+
+        private final long connectSeconds;
+        private final long readSeconds;
+        private final long writeSeconds;
+
+        public Timeouts(long connectSeconds, long readSeconds, long writeSeconds) {
+            this.connectSeconds = connectSeconds;
+            this.readSeconds = readSeconds;
+            this.writeSeconds = writeSeconds;
+        }
+
+        // 以给定值为默认，读取 zhipu.http.<service>.xxxTimeoutSeconds 形式的单服务覆盖配置
+        public static Timeouts forService(String service, Timeouts defaults) {
+            String prefix = PROPERTY_PREFIX + service + ".";
+            return new Timeouts(
+                    Long.getLong(prefix + "connectTimeoutSeconds", defaults.connectSeconds),
+                    Long.getLong(prefix + "readTimeoutSeconds", defaults.readSeconds),
+                    Long.getLong(prefix + "writeTimeoutSeconds", defaults.writeSeconds));
+        }
+
+        public long getConnectSeconds() {
+            return connectSeconds;
+        }
+
+        public long getReadSeconds() {
+            return readSeconds;
+        }
+
+        public long getWriteSeconds() {
+            return writeSeconds;
+        }
+    }
+
+    public HttpTransport(int maxRequests, int maxRequestsPerHost, int maxIdleConnections, long keepAliveSeconds) {
+        this(new OkHttpClient.Builder(), maxRequests, maxRequestsPerHost, maxIdleConnections, keepAliveSeconds);
+    }
+
+    // base 用于注入 SSL、事件监听等公共设置（例如基准测试中信任本地证书）
+    HttpTransport(OkHttpClient.Builder base, int maxRequests, int maxRequestsPerHost,
+                  int maxIdleConnections, long keepAliveSeconds) {
+        ExecutorService callbacks = ServiceExecutors.httpDispatcherExecutor();
+        Dispatcher dispatcher = callbacks != null ? new Dispatcher(callbacks) : new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+
+        this.baseClient = base
+                .socketFactory(new NoDelaySocketFactory(SocketFactory.getDefault()))
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS))
+                .retryOnConnectionFailure(true)
+                .build();
+    }
+
+    public static HttpTransport getDefault() {
+        HttpTransport transport = defaultTransport;
+        if (transport == null) {
+            synchronized (HttpTransport.class) {
+                transport = defaultTransport;
+                if (transport == null) {
+                    transport = new HttpTransport(
+                            Integer.getInteger(PROPERTY_PREFIX + "maxRequests", 64),
+                            Integer.getInteger(PROPERTY_PREFIX + "maxRequestsPerHost", 16),
+                            Integer.getInteger(PROPERTY_PREFIX + "maxIdleConnections", 16),
+                            Long.getLong(PROPERTY_PREFIX + "keepAliveSeconds", 300));
+                    defaultTransport = transport;
+                }
+            }
+        }
+        return transport;
+    }
+
+    // 需在创建任何服务之前调用，之后创建的服务才会使用新的传输层
+    public static void setDefault(HttpTransport transport) {
+        synchronized (HttpTransport.class) {
+            defaultTransport = transport;
+        }
+    }
+
+    // 上游接口地址。-Dzhipu.api.baseUrl 整体替换（例如指向本地模拟服务），
+    // -Dzhipu.api.<service>.baseUrl 只替换单个服务
+    public static String apiUrl(String service, String path) {
+        String base = System.getProperty(API_PROPERTY_PREFIX + service + ".baseUrl",
+                System.getProperty(API_PROPERTY_PREFIX + "baseUrl", DEFAULT_API_BASE));
+        if (base.endsWith("/")) {
+            base = base.substring(0, base.length() - 1);
+        }
+        return base + path;
+    }
+
+    public OkHttpClient newClient(Timeouts timeouts) {
+        return baseClient.newBuilder()
+                .connectTimeout(timeouts.getConnectSeconds(), TimeUnit.SECONDS)
+                .readTimeout(timeouts.getReadSeconds(), TimeUnit.SECONDS)
+                .writeTimeout(timeouts.getWriteSeconds(), TimeUnit.SECONDS)
+                .build();
+    }
+
+    public ConnectionPool getConnectionPool() {
+        return baseClient.connectionPool();
+    }
+
+    public Dispatcher getDispatcher() {
+        return baseClient.dispatcher();
+    }
+
+    public void shutdown() {
+        baseClient.dispatcher().executorService().shutdown();
+        baseClient.connectionPool().evictAll();
+    }
+
+    // OkHttp 默认不设置 TCP_NODELAY：请求头和较大的请求体（长对话历史）分段写出时，
+    // Nagle 算法会与服务端的延迟确认叠加出约 40ms 的等待
+    static final class NoDelaySocketFactory extends SocketFactory {
+        private final SocketFactory delegate;
+
+        NoDelaySocketFactory(SocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        private static Socket configure(Socket socket) throws IOException {
+            socket.setTcpNoDelay(true);
+            return socket;
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return configure(delegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return configure(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return configure(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return configure(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            return configure(delegate.createSocket(address, port, localAddress, localPort));
+        }
+    }
+}
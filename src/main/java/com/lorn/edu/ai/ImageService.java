@@ -1,21 +1,32 @@
 package com.lorn.edu.ai;
 
-import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import okhttp3.*;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ImageService {
-    private static final String API_KEY = "替换成您的API Key";
-    private static final String API_URL = "https://open.bigmodel.cn/api/paas/v4/images/generations";
-    private static final String IMAGE_SAVE_PATH = "E:\\WorkSpace\\cloud_resource\\static\\images\\";//将所生成的图片保存到您的本地磁盘
+    // 也可以通过 -Dzhipu.api.key 提供
+    private static final String API_KEY = System.getProperty("zhipu.api.key", "替换成您的API Key");
+    private static final String IMAGE_SAVE_PATH = System.getProperty("zhipu.image.saveDir",
+            "E:\\WorkSpace\\cloud_resource\\static\\images\\");//将所生成的图片保存到您的本地磁盘，目录需以分隔符结尾
     // 文生图使用示例   如：图片 一条哈士奇睡在沙发上
 
-    private static final int MAX_RETRIES = 3;
-    private static final long RETRY_INTERVAL = 5000; // 5秒
+    // 生成接口和图片下载都按此策略重试：最多 3 次，指数退避 1~10 秒
+    private static final RetryPolicy DEFAULT_RETRY = new RetryPolicy(3, 1000, 10_000, 300_000, true, false);
+
+    // 批量生成时同时进行的生成请求数，可通过 -Dzhipu.image.batchConcurrency 调整
+    private static final int BATCH_CONCURRENCY = Integer.getInteger("zhipu.image.batchConcurrency", 4);
+    // 并发的相同生成请求（同一模型、尺寸和描述）只生成一张，调用方共用保存后的文件
+    private static final SingleFlight<String> FLIGHTS = SingleFlight.named("image");
+    // 保存文件名中的序号
+    private static final AtomicLong FILE_SEQUENCE = new AtomicLong();
 
     // 修改默认模型为cogview-3-plus
     private static final String DEFAULT_MODEL = "cogview-3-plus";
@@ -42,14 +53,19 @@ public class ImageService {
     }
 
     private final OkHttpClient client;
+    private final String apiUrl;
+    private final AdaptiveLimiter limiter;
+    private final RetryPolicy retryPolicy = RetryPolicy.forService("image", DEFAULT_RETRY);
 
     public ImageService() {
-        this.client = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(60, TimeUnit.SECONDS)
-                .writeTimeout(30, TimeUnit.SECONDS)
-                .retryOnConnectionFailure(true)
-                .build();
+        this(HttpTransport.getDefault().newClient(
+                HttpTransport.Timeouts.forService("image", HttpTransport.Timeouts.DEFAULT)));
+    }
+
+    public ImageService(OkHttpClient client) {
+        this.client = client;
+        this.apiUrl = HttpTransport.apiUrl("image", "/images/generations");
+        this.limiter = AdaptiveLimiter.forEndpoint(API_KEY, "images");
     }
 
     public String generateImage(String prompt) throws Exception {
@@ -58,103 +74,238 @@ public class ImageService {
     }
 
     public String generateImage(String prompt, String model, ImageSize size) throws Exception {
-        Exception lastException = null;
+        return AsyncCalls.await(generateImageAsync(prompt, model, size));
+    }
 
-        for (int attempt = 0; attempt < MAX_RETRIES; attempt++) {
-            try {
-                if (attempt > 0) {
-                    System.out.println("等待" + (RETRY_INTERVAL/1000) + "秒后进行第" + (attempt + 1) + "次尝试...");
-                    Thread.sleep(RETRY_INTERVAL);
-                }
+    public CompletableFuture<String> generateImageAsync(String prompt) {
+        return generateImageAsync(prompt, DEFAULT_MODEL, ImageSize.DEFAULT);
+    }
 
-                // 准备请求体
-                JSONObject requestBody = new JSONObject();
-                requestBody.put("model", model);
-                requestBody.put("prompt", prompt);
-
-                // cogview-3-plus总是支持size参数
-                requestBody.put("size", size.getValue());
-
-                System.out.println("生成图片请求体: " + requestBody.toString());
-
-                Request request = new Request.Builder()
-                        .url(API_URL)
-                        .addHeader("Authorization", "Bearer " + API_KEY)
-                        .addHeader("Content-Type", "application/json")
-                        .post(RequestBody.create(MediaType.parse("application/json"), requestBody.toString()))
-                        .build();
-
-                try (Response response = client.newCall(request).execute()) {
-                    String responseBody = response.body() != null ? response.body().string() : "";
-                    System.out.println("服务器响应: " + responseBody);
-
-                    if (!response.isSuccessful()) {
-                        JSONObject errorJson = JSON.parseObject(responseBody);
-                        if (errorJson.containsKey("error")) {
-                            JSONObject error = errorJson.getJSONObject("error");
-                            String errorCode = error.getString("code");
-                            String errorMessage = error.getString("message");
-
-                            // 处理特定错误码
-                            switch (errorCode) {
-                                case "1113": // 欠费错误
-                                    throw new Exception("API账户状态异常: " + errorMessage);
-                                case "429": // 频率限制
-                                    if (attempt < MAX_RETRIES - 1) {
-                                        System.out.println("触发频率限制，将在" + (RETRY_INTERVAL/1000) + "秒后重试...");
-                                        continue;
-                                    }
-                                    throw new Exception("请求频率过高，请稍后再试");
-                                default:
-                                    throw new Exception("API错误: " + errorMessage);
-                            }
-                        }
-                        throw new IOException("请求失败，状态码: " + response.code());
-                    }
-
-                    JSONObject jsonResponse = JSON.parseObject(responseBody);
-                    String imageUrl = jsonResponse.getJSONArray("data")
-                            .getJSONObject(0)
-                            .getString("url");
-
-                    System.out.println("获取到图片URL: " + imageUrl);
-                    return downloadAndSaveImage(imageUrl);
-                }
-            } catch (Exception e) {
-                lastException = e;
-                if (attempt == MAX_RETRIES - 1) {
-                    throw new Exception("图片生成失败（尝试" + MAX_RETRIES + "次后）: " + e.getMessage(), e);
+    public CompletableFuture<String> generateImageAsync(String prompt, String model, ImageSize size) {
+        return FLIGHTS.execute(SingleFlight.key(null, apiUrl, model, size.getValue(), prompt),
+                () -> generateImageOnce(prompt, model, size));
+    }
+
+    private CompletableFuture<String> generateImageOnce(String prompt, String model, ImageSize size) {
+        CompletableFuture<String> imageUrl = requestImageUrlWithRetry(prompt, model, size);
+        return AsyncCalls.recover(downloadWithRetry(imageUrl, MediaDownloader.consoleProgress("图片")), e -> {
+            throw new Exception("图片生成失败: " + e.getMessage(), e);
+        });
+    }
+
+    // 批量生成：最多 batchConcurrency 个生成请求同时进行，每张图拿到地址后立即开始下载，
+    // 下载不占用生成名额。单张失败不影响其他图片，结果与 prompts 一一对应
+    public List<BatchResult> generateImages(List<String> prompts) throws Exception {
+        return generateImages(prompts, ImageSize.DEFAULT, DEFAULT_MODEL);
+    }
+
+    public List<BatchResult> generateImages(List<String> prompts, ImageSize size, String model) throws Exception {
+        return AsyncCalls.await(generateImagesAsync(prompts, size, model));
+    }
+
+    // 取消返回的 future 会取消所有尚未完成的生成和下载
+    public CompletableFuture<List<BatchResult>> generateImagesAsync(List<String> prompts, ImageSize size, String model) {
+        return new Batch(prompts, size, model, BATCH_CONCURRENCY).start();
+    }
+
+    // 生成和下载分别重试：下载失败时不必重新生成（也不会重复计费）
+    private CompletableFuture<String> requestImageUrlWithRetry(String prompt, String model, ImageSize size) {
+        return retryPolicy.execute(() -> requestImageUrl(prompt, model, size));
+    }
+
+    private CompletableFuture<String> downloadWithRetry(CompletableFuture<String> imageUrl,
+                                                        MediaDownloader.ProgressListener progress) {
+        return AsyncCalls.then(imageUrl,
+                url -> retryPolicy.execute(() -> downloadAndSaveImageAsync(url, progress)));
+    }
+
+    // 批量生成中一张图片的结果：成功时 path 为保存路径，失败时 error 为原因
+    public static final class BatchResult {
+        private final String prompt;
+        private final String path;
+        private final Throwable error;
+
+        BatchResult(String prompt, String path, Throwable error) {
+            this.prompt = prompt;
+            this.path = path;
+            this.error = error;
+        }
+
+        public String getPrompt() {
+            return prompt;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public Throwable getError() {
+            return error;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    // 一次批量生成：按 prompts 顺序发起生成请求，某个请求拿到地址（或失败）后再发起下一个
+    private final class Batch {
+        private final List<String> prompts;
+        private final ImageSize size;
+        private final String model;
+        private final int concurrency;
+        private final BatchResult[] results;
+        private final List<CompletableFuture<?>> inFlight = new ArrayList<>(); // 受 this 保护
+        private final AsyncCalls.LinkedFuture<List<BatchResult>> future = new AsyncCalls.LinkedFuture<>();
+        private int next;      // 受 this 保护
+        private int remaining; // 受 this 保护
+
+        Batch(List<String> prompts, ImageSize size, String model, int concurrency) {
+            this.prompts = new ArrayList<>(prompts);
+            this.size = size;
+            this.model = model;
+            this.concurrency = Math.max(1, concurrency);
+            this.results = new BatchResult[this.prompts.size()];
+            this.remaining = this.prompts.size();
+        }
+
+        CompletableFuture<List<BatchResult>> start() {
+            future.onCancel(this::cancelAll);
+            if (prompts.isEmpty()) {
+                future.complete(new ArrayList<>());
+                return future;
+            }
+            System.out.println("批量生成 " + prompts.size() + " 张图片，同时进行 " + concurrency + " 个生成请求");
+            for (int i = 0; i < concurrency; i++) {
+                launchNext();
+            }
+            return future;
+        }
+
+        private void launchNext() {
+            int index;
+            synchronized (this) {
+                if (next >= prompts.size() || future.isDone()) {
+                    return;
                 }
-                System.out.println("第" + (attempt + 1) + "次尝试失败: " + e.getMessage());
+                index = next++;
+            }
+            String prompt = prompts.get(index);
+            CompletableFuture<String> imageUrl = requestImageUrlWithRetry(prompt, model, size);
+            // 多张图片并发下载时不打印进度，避免输出交错
+            CompletableFuture<String> saved = downloadWithRetry(imageUrl, null);
+            synchronized (this) {
+                inFlight.add(saved);
+            }
+            if (future.isCancelled()) {
+                saved.cancel(true);
+            }
+            // 生成阶段结束即让出名额，下载与后续生成并行
+            imageUrl.whenComplete((url, error) -> launchNext());
+            saved.whenComplete((path, error) -> complete(index, path, error));
+        }
+
+        private void complete(int index, String path, Throwable error) {
+            Throwable cause = error != null ? AsyncCalls.unwrap(error) : null;
+            if (cause != null) {
+                System.out.println("图片「" + prompts.get(index) + "」生成失败: " + cause.getMessage());
+            }
+            boolean done;
+            synchronized (this) {
+                results[index] = new BatchResult(prompts.get(index), path, cause);
+                done = --remaining == 0;
+            }
+            if (done) {
+                future.complete(Arrays.asList(results));
             }
         }
 
-        throw lastException;
+        private void cancelAll() {
+            List<CompletableFuture<?>> snapshot;
+            synchronized (this) {
+                snapshot = new ArrayList<>(inFlight);
+            }
+            for (CompletableFuture<?> f : snapshot) {
+                f.cancel(true);
+            }
+        }
     }
 
-    private String downloadAndSaveImage(String imageUrl) throws Exception {
-        Request request = new Request.Builder().url(imageUrl).build();
+    private CompletableFuture<String> requestImageUrl(String prompt, String model, ImageSize size) {
+        // 准备请求体
+        JSONObject requestBody = new JSONObject();
+        requestBody.put("model", model);
+        requestBody.put("prompt", prompt);
+
+        // cogview-3-plus总是支持size参数
+        requestBody.put("size", size.getValue());
+
+        System.out.println("生成图片请求体: " + requestBody.toString());
 
-        try (Response response = client.newCall(request).execute()) {
+        Request request = new Request.Builder()
+                .url(apiUrl)
+                .addHeader("Authorization", "Bearer " + API_KEY)
+                .addHeader("Content-Type", "application/json")
+                .post(RequestBody.create(MediaType.parse("application/json"), requestBody.toString()))
+                .build();
+
+        // 每次尝试单独计时，只统计生成接口本身，不含图片下载
+        ModelMetrics.Timer timer = ModelMetrics.getDefault().start("image", model);
+
+        return timer.track(AsyncCalls.enqueue(client.newCall(request), limiter, response -> {
+            timer.status(response.code());
             if (!response.isSuccessful()) {
-                throw new IOException("下载失败，状态码: " + response.code());
+                ModelApiException error = ModelApiException.from(response, "图片生成请求失败");
+                if ("1113".equals(error.getErrorCode())) {
+                    // 欠费错误，不会重试
+                    throw new ModelApiException(error.getStatus(), error.getErrorCode(),
+                            "API账户状态异常: " + error.getMessage());
+                }
+                throw error;
             }
+            ModelResponse result = parseQuietly(response.body());
 
-            File directory = new File(IMAGE_SAVE_PATH);
-            if (!directory.exists()) {
-                directory.mkdirs();
+            if (result == null || result.getDataUrl() == null) {
+                throw new IOException("响应中没有图片地址");
             }
+            String imageUrl = result.getDataUrl();
 
+            System.out.println("获取到图片URL: " + imageUrl);
+            return imageUrl;
+        }));
+    }
+
+    // 响应可能不是 JSON，此时返回 null
+    private static ModelResponse parseQuietly(ResponseBody body) {
+        if (body == null) {
+            return null;
+        }
+        try {
+            return ResponseExtractor.parse(body);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private CompletableFuture<String> downloadAndSaveImageAsync(String imageUrl,
+                                                                MediaDownloader.ProgressListener progress) {
+        Request request = new Request.Builder().url(imageUrl).build();
+
+        return AsyncCalls.enqueue(client.newCall(request), response -> {
+            if (!response.isSuccessful()) {
+                throw new ModelApiException(response.code(), null, "下载失败，状态码: " + response.code());
+            }
+
+            // 时间戳只精确到秒，批量生成时同一秒会保存多张，加上序号避免互相覆盖
             String timestamp = new java.text.SimpleDateFormat("yyyyMMdd_HHmmss")
                     .format(new java.util.Date());
-            String fileName = IMAGE_SAVE_PATH + "image_" + timestamp + ".png";
+            String fileName = IMAGE_SAVE_PATH + "image_" + timestamp + "_" + FILE_SEQUENCE.incrementAndGet() + ".png";
 
-            try (java.io.FileOutputStream fos = new java.io.FileOutputStream(fileName)) {
-                fos.write(response.body().bytes());
-            }
+            // 分块写入临时文件后原子重命名，堆内存占用与文件大小无关
+            MediaDownloader.saveTo(response.body(), new File(fileName), progress);
 
             System.out.println("图片已保存到: " + fileName);
             return fileName;
-        }
+        });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,98 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// POST /api/image  {"prompt": "...", "size": "DEFAULT|PORTRAIT_LARGE|..."}  ->  {"path": "..."}
+// POST /api/image  {"prompts": ["...", "..."], "size": "..."}  ->  {"results": [{"prompt", "path"} | {"prompt", "error"}]}
+// 超时时间包含失败重试（见 ImageService 的重试策略）和图片下载的时间；批量生成时单张失败不影响其他图片
+@WebServlet(urlPatterns = "/api/image", asyncSupported = true)
+public class ImageServlet extends AsyncApiServlet {
+    private static final long serialVersionUID = 1L;
+
+    private static final String DEFAULT_MODEL = "cogview-3-plus";
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(
+            Long.getLong("zhipu.web.imageTimeoutSeconds", 240));
+    private static final long BATCH_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(
+            Long.getLong("zhipu.web.imageBatchTimeoutSeconds", 600));
+    private static final int MAX_BATCH_SIZE = Integer.getInteger("zhipu.web.imageBatchMaxSize", 16);
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        JSONObject body = readJson(req);
+        if (body == null) {
+            sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "prompt 不能为空");
+            return;
+        }
+        ImageService.ImageSize size = ImageService.ImageSize.DEFAULT;
+        String sizeName = body.getString("size");
+        if (sizeName != null) {
+            try {
+                size = ImageService.ImageSize.valueOf(sizeName);
+            } catch (IllegalArgumentException e) {
+                sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "不支持的图片尺寸: " + sizeName);
+                return;
+            }
+        }
+
+        JSONArray prompts = body.getJSONArray("prompts");
+        if (prompts != null) {
+            generateBatch(req, resp, prompts, size);
+            return;
+        }
+        String prompt = body.getString("prompt");
+        if (prompt == null || prompt.trim().isEmpty()) {
+            sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "prompt 不能为空");
+            return;
+        }
+
+        respondAsync(req, resp, TIMEOUT_MILLIS,
+                services().getImageService().generateImageAsync(prompt, DEFAULT_MODEL, size),
+                path -> Collections.singletonMap("path", path));
+    }
+
+    private void generateBatch(HttpServletRequest req, HttpServletResponse resp, JSONArray prompts,
+                               ImageService.ImageSize size) throws IOException {
+        if (prompts.isEmpty() || prompts.size() > MAX_BATCH_SIZE) {
+            sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "prompts 数量应在 1 到 " + MAX_BATCH_SIZE + " 之间");
+            return;
+        }
+        List<String> list = new ArrayList<>();
+        for (int i = 0; i < prompts.size(); i++) {
+            String prompt = prompts.getString(i);
+            if (prompt == null || prompt.trim().isEmpty()) {
+                sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "第 " + (i + 1) + " 个 prompt 为空");
+                return;
+            }
+            list.add(prompt);
+        }
+
+        respondAsync(req, resp, BATCH_TIMEOUT_MILLIS,
+                services().getImageService().generateImagesAsync(list, size, DEFAULT_MODEL),
+                results -> {
+                    List<Map<String, String>> items = new ArrayList<>();
+                    for (ImageService.BatchResult result : results) {
+                        Map<String, String> item = new LinkedHashMap<>();
+                        item.put("prompt", result.getPrompt());
+                        if (result.isSuccess()) {
+                            item.put("path", result.getPath());
+                        } else {
+                            item.put("error", result.getError().getMessage());
+                        }
+                        items.add(item);
+                    }
+                    return Collections.singletonMap("results", items);
+                });
+    }
+}
@@ -0,0 +1,549 @@
+package com.lorn.edu.ai;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// 在本机运行 Java 代码：用 javax.tools 在本进程中编译到内存，字节码按源码的 SHA-256 缓存，同一段代码再次运行时不再编译；
+// 运行交给子 JVM（入口为 JavaSnippetLauncher），学生代码不在服务进程中加载，可以随意创建线程、调用 System.exit。
+// 预先启动 poolSize 个子 JVM（已加载常用的类），阻塞在标准输入上等待字节码，提交时省去 JVM 启动；
+// 每个只运行一段代码，用完即结束，后台随即补充。
+// 子 JVM 在 ProcessSandbox 中运行，限制 CPU 时间、虚拟内存（堆上限 maxHeapMb 另加 512 MB 给 JIT、元空间和线程栈）和输出，
+// 超时后连同它创建的线程一起结束；运行时间从提交代码时开始计算。文件和网络访问的隔离同样需要 sandboxCommand。
+// 系统属性：-Dzhipu.run.java.enabled=true -Dzhipu.run.java.command=<java.home>/bin/java -Dzhipu.run.java.maxHeapMb=256
+//          -Dzhipu.run.java.poolSize=2 -Dzhipu.run.java.cacheEntries=256
+//          -Dzhipu.run.timeoutSeconds=5 -Dzhipu.run.maxOutputBytes=65536，其余见 ProcessSandbox
+public class JavaCodeRunner implements CodeRunner {
+    private static final String PROPERTY_PREFIX = "zhipu.run.";
+    private static final List<String> COMPILER_OPTIONS = Arrays.asList("-proc:none", "-g", "-nowarn", "-Xlint:none");
+    private static final long JVM_OVERHEAD_BYTES = 512L * 1024 * 1024;
+    private static final List<String> JVM_OPTIONS = Arrays.asList(
+            "-XX:+UseSerialGC", "-XX:TieredStopAtLevel=1", "-XX:ReservedCodeCacheSize=32m",
+            "-XX:CompressedClassSpaceSize=64m", "-XX:MaxMetaspaceSize=128m", "-XX:-UsePerfData",
+            "-Xshare:auto", "-Dfile.encoding=UTF-8");
+    // glibc 为每个线程预留 64 MB 的 malloc 区域，不限制时在虚拟内存上限下只能创建十几个线程
+    private static final Map<String, String> JVM_ENVIRONMENT = Collections.singletonMap("MALLOC_ARENA_MAX", "2");
+    private static final String LAUNCHER = JavaSnippetLauncher.class.getName();
+
+    private static final Pattern PACKAGE = Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*;", Pattern.MULTILINE);
+    private static final Pattern PUBLIC_TYPE = Pattern.compile(
+            "\\bpublic\\s+(?:(?:final|abstract|strictfp)\\s+)*(?:class|interface|enum|record)\\s+([A-Za-z_$][\\w$]*)");
+    private static final Pattern ANY_TYPE = Pattern.compile("\\b(?:class|interface|enum)\\s+[A-Za-z_$][\\w$]*");
+    private static final Pattern MAIN_METHOD = Pattern.compile("\\bstatic\\s+void\\s+main\\s*\\(");
+    private static final Pattern IMPORT = Pattern.compile("^\\s*import\\s+[\\w.*\\s]+;", Pattern.MULTILINE);
+
+    private static final String JAVA_VERSION = System.getProperty("java.version");
+
+    private static volatile JavaCodeRunner defaultRunner;
+
+    private final ProcessSandbox sandbox;
+    private final JavaCompiler compiler;
+    private final List<String> command;
+    private final String version; // java -version 的输出，被关闭或找不到 javac、java 时为 null
+    private final long timeoutMillis;
+    private final long maxMemoryBytes;
+    private final int maxOutputBytes;
+    private final int cacheEntries;
+    private final int poolSize;
+    private final File launcherDir;
+
+    private final Object compileLock = new Object();
+    private StandardJavaFileManager fileManager; // 受 compileLock 保护，复用以免每次重新索引 JDK 类
+    private final LinkedHashMap<String, Compiled> cache = new LinkedHashMap<>(16, 0.75f, true); // 受 cache 保护
+    private final AtomicBoolean launcherWritten = new AtomicBoolean();
+    private final AtomicBoolean compiledOnce = new AtomicBoolean();
+
+    private final BlockingQueue<Worker> idle = new LinkedBlockingQueue<>();
+    private final AtomicInteger starting = new AtomicInteger();
+    private final ExecutorService spawner = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "zhipu-java-pool");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean closed;
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong compiles = new AtomicLong();
+    private final AtomicLong compileNanos = new AtomicLong();
+    private final AtomicLong warmRuns = new AtomicLong();
+    private final AtomicLong spawns = new AtomicLong();
+    private final AtomicLong spawnNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong memoryLimits = new AtomicLong();
+
+    // 编译结果：成功时为发给子 JVM 的字节码（格式见 JavaSnippetLauncher），否则为给学生看的错误信息
+    private static final class Compiled {
+        final byte[] payload;
+        final String error;
+
+        Compiled(byte[] payload, String error) {
+            this.payload = payload;
+            this.error = error;
+        }
+    }
+
+    // 一个已经启动、等待字节码的子 JVM
+    private static final class Worker {
+        final Process process;
+        final File dir;
+
+        Worker(Process process, File dir) {
+            this.process = process;
+            this.dir = dir;
+        }
+    }
+
+    JavaCodeRunner(ProcessSandbox sandbox, boolean enabled, String java, long timeoutMillis, long maxHeapBytes,
+                   int maxOutputBytes, int cacheEntries, int poolSize) {
+        this.sandbox = sandbox;
+        this.compiler = ToolProvider.getSystemJavaCompiler();
+        this.version = enabled && compiler != null && sandbox.isSupported()
+                ? ProcessSandbox.probe(Arrays.asList(java, "-version"), 5_000)
+                : null;
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        command.add("-Xmx" + maxHeapBytes / (1024 * 1024) + "m");
+        command.addAll(JVM_OPTIONS);
+        if (version != null && !version.contains("version \"1.")) {
+            // JDK 9 起 JVM 的警告（如创建线程失败）默认写到标准输出，混在程序输出中
+            command.add("-Xlog:disable");
+        }
+        this.launcherDir = new File(sandbox.getWorkDir(), "java-launcher");
+        command.addAll(Arrays.asList("-cp", launcherDir.getPath(), LAUNCHER));
+        this.command = command;
+        this.timeoutMillis = timeoutMillis;
+        this.maxMemoryBytes = maxHeapBytes + JVM_OVERHEAD_BYTES;
+        this.maxOutputBytes = maxOutputBytes;
+        this.cacheEntries = cacheEntries;
+        this.poolSize = poolSize;
+    }
+
+    public static JavaCodeRunner getDefault() {
+        JavaCodeRunner runner = defaultRunner;
+        if (runner == null) {
+            synchronized (JavaCodeRunner.class) {
+                runner = defaultRunner;
+                if (runner == null) {
+                    runner = new JavaCodeRunner(ProcessSandbox.getDefault(),
+                            Boolean.parseBoolean(System.getProperty(PROPERTY_PREFIX + "java.enabled", "true")),
+                            System.getProperty(PROPERTY_PREFIX + "java.command",
+                                    new File(new File(System.getProperty("java.home"), "bin"), "java").getPath()),
+                            Long.getLong(PROPERTY_PREFIX + "timeoutSeconds", 5) * 1000,
+                            Long.getLong(PROPERTY_PREFIX + "java.maxHeapMb", 256) * 1024 * 1024,
+                            Integer.getInteger(PROPERTY_PREFIX + "maxOutputBytes", 64 * 1024),
+                            Integer.getInteger(PROPERTY_PREFIX + "java.cacheEntries", 256),
+                            Integer.getInteger(PROPERTY_PREFIX + "java.poolSize", 2));
+                    defaultRunner = runner;
+                }
+            }
+        }
+        return runner;
+    }
+
+    // 被关闭、运行在 JRE（没有 javac）上、没有 sh（Windows）或启动不了 java 时不可用
+    @Override
+    public boolean isAvailable() {
+        return version != null;
+    }
+
+    // 在后台启动子 JVM 直到空闲的达到 poolSize 个；第一次调用时还会编译一次代码，让 javac 的类提前加载
+    @Override
+    public void warmUp() {
+        if (!isAvailable() || closed) {
+            return;
+        }
+        if (!compiledOnce.getAndSet(true)) {
+            compile("public class Main { public static void main(String[] args) { System.out.println(args.length); } }");
+        }
+        while (true) {
+            int pending = starting.get();
+            if (idle.size() + pending >= poolSize) {
+                return;
+            }
+            if (starting.compareAndSet(pending, pending + 1)) {
+                try {
+                    spawner.execute(() -> {
+                        try {
+                            Worker worker = spawn();
+                            if (closed) {
+                                discard(worker);
+                            } else {
+                                idle.add(worker);
+                            }
+                        } catch (IOException e) {
+                            System.out.println("无法启动 Java 子进程: " + e.getMessage());
+                        } finally {
+                            starting.decrementAndGet();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // 已经 shutdown
+                    starting.decrementAndGet();
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public CodeRunResult run(String code, String stdin) throws InterruptedException {
+        long start = System.nanoTime();
+        runs.incrementAndGet();
+        String key = SingleFlight.key(null, "java", JAVA_VERSION, code);
+        Compiled compiled;
+        synchronized (cache) {
+            compiled = cache.get(key);
+        }
+        boolean cached = compiled != null;
+        if (cached) {
+            cacheHits.incrementAndGet();
+        } else {
+            compiled = compile(code);
+            synchronized (cache) {
+                cache.put(key, compiled);
+                Iterator<String> eldest = cache.keySet().iterator();
+                while (cache.size() > cacheEntries && eldest.hasNext()) {
+                    eldest.next();
+                    eldest.remove();
+                }
+            }
+        }
+        if (compiled.payload == null) {
+            return CodeRunResult.notRun(CodeRunResult.Status.COMPILE_ERROR, compiled.error,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), cached);
+        }
+        return execute(compiled, stdin, start, cached);
+    }
+
+    @Override
+    public String getStats() {
+        long total = runs.get();
+        long compiled = compiles.get();
+        long started = spawns.get();
+        return String.format(Locale.ROOT,
+                "Java 运行 %d 次（字节码缓存命中 %.1f%%，使用预先启动的 JVM %.1f%%），编译 %d 次（平均 %.0f ms），"
+                        + "空闲 JVM %d 个，启动 %d 次（平均 %.0f ms），超时 %d 次，超出内存 %d 次",
+                total, total == 0 ? 0.0 : cacheHits.get() * 100.0 / total,
+                total == 0 ? 0.0 : warmRuns.get() * 100.0 / total, compiled,
+                compiled == 0 ? 0.0 : compileNanos.get() / 1e6 / compiled, idle.size(), started,
+                started == 0 ? 0.0 : spawnNanos.get() / 1e6 / started, timeouts.get(), memoryLimits.get());
+    }
+
+    int getIdleWorkers() {
+        return idle.size();
+    }
+
+    // 结束空闲的子 JVM，之后的运行每次临时启动
+    @Override
+    public void shutdown() {
+        closed = true;
+        spawner.shutdown();
+        try {
+            spawner.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Worker worker;
+        while ((worker = idle.poll()) != null) {
+            discard(worker);
+        }
+    }
+
+    private Compiled compile(String code) {
+        long start = System.nanoTime();
+        Source source = Source.of(code);
+        Map<String, byte[]> classes = new ConcurrentHashMap<>();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        boolean success;
+        synchronized (compileLock) {
+            if (fileManager == null) {
+                fileManager = compiler.getStandardFileManager(null, Locale.SIMPLIFIED_CHINESE, StandardCharsets.UTF_8);
+                try {
+                    // 只能使用 JDK 自带的类
+                    fileManager.setLocation(StandardLocation.CLASS_PATH, Collections.emptyList());
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            JavaCompiler.CompilationTask task = compiler.getTask(null, new MemoryFileManager(fileManager, classes),
+                    diagnostics, COMPILER_OPTIONS, null,
+                    Collections.singletonList(new SourceFile(source.fileName, source.text)));
+            success = task.call();
+        }
+        compiles.incrementAndGet();
+        compileNanos.addAndGet(System.nanoTime() - start);
+
+        if (!success) {
+            StringBuilder errors = new StringBuilder();
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                if (diagnostic.getKind() != Diagnostic.Kind.ERROR) {
+                    continue;
+                }
+                if (diagnostic.getLineNumber() > 0) {
+                    errors.append("第 ").append(diagnostic.getLineNumber()).append(" 行: ");
+                }
+                errors.append(diagnostic.getMessage(Locale.SIMPLIFIED_CHINESE)).append('\n');
+            }
+            return new Compiled(null, errors.toString().trim());
+        }
+        return new Compiled(payload(classes, source.mainClass), null);
+    }
+
+    private CodeRunResult execute(Compiled compiled, String stdin, long start, boolean cached)
+            throws InterruptedException {
+        sandbox.acquire();
+        Worker worker = null;
+        try {
+            worker = idle.poll();
+            while (worker != null && !worker.process.isAlive()) {
+                discard(worker);
+                worker = idle.poll();
+            }
+            if (worker != null) {
+                warmRuns.incrementAndGet();
+            } else {
+                worker = spawn();
+            }
+
+            byte[] input = stdin != null ? stdin.getBytes(StandardCharsets.UTF_8) : new byte[0];
+            byte[] payload = Arrays.copyOf(compiled.payload, compiled.payload.length + input.length);
+            System.arraycopy(input, 0, payload, compiled.payload.length, input.length);
+            ProcessSandbox.Outcome outcome = sandbox.await(worker.process, payload,
+                    sandbox.programLimits(timeoutMillis, maxMemoryBytes, maxOutputBytes), System.nanoTime());
+            return toResult(outcome, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), cached);
+        } catch (IOException e) {
+            throw new UncheckedIOException("无法启动 Java 子进程", e);
+        } finally {
+            sandbox.release();
+            if (worker != null) {
+                ProcessSandbox.deleteDirectory(worker.dir);
+            }
+            // 运行结束后再补充，新 JVM 启动时不与这次运行争用 CPU
+            warmUp();
+        }
+    }
+
+    // 启动子 JVM 并等到它就绪
+    private Worker spawn() throws IOException {
+        long start = System.nanoTime();
+        writeLauncher();
+        File dir = sandbox.newDirectory("java");
+        Process process = null;
+        try {
+            // 空闲时不计运行时间，CPU 时间上限按一次运行给出
+            process = sandbox.start(command, dir, sandbox.programLimits(timeoutMillis, maxMemoryBytes, maxOutputBytes),
+                    JVM_ENVIRONMENT);
+            if (process.getInputStream().read() != JavaSnippetLauncher.READY) {
+                throw new IOException("JVM 没有就绪就退出了");
+            }
+            spawns.incrementAndGet();
+            spawnNanos.addAndGet(System.nanoTime() - start);
+            return new Worker(process, dir);
+        } catch (IOException e) {
+            if (process != null) {
+                sandbox.kill(process);
+            }
+            ProcessSandbox.deleteDirectory(dir);
+            throw e;
+        }
+    }
+
+    private void discard(Worker worker) {
+        sandbox.kill(worker.process);
+        ProcessSandbox.deleteDirectory(worker.dir);
+    }
+
+    // 把 JavaSnippetLauncher 的类文件从本应用的类路径复制到 launcherDir，子 JVM 只以它为类路径；每个进程写一次
+    private void writeLauncher() throws IOException {
+        if (launcherWritten.get()) {
+            return;
+        }
+        synchronized (launcherWritten) {
+            if (launcherWritten.get()) {
+                return;
+            }
+            String packageDir = LAUNCHER.substring(0, LAUNCHER.lastIndexOf('.')).replace('.', '/');
+            String simpleName = JavaSnippetLauncher.class.getSimpleName();
+            for (String className : Arrays.asList(simpleName, simpleName + "$SnippetClassLoader")) {
+                File target = new File(launcherDir, packageDir + "/" + className + ".class");
+                Files.createDirectories(target.getParentFile().toPath());
+                File temp = new File(target.getParentFile(), className + ".class.tmp");
+                try (InputStream in = JavaSnippetLauncher.class.getResourceAsStream(className + ".class")) {
+                    if (in == null) {
+                        throw new IOException("找不到 " + className + ".class");
+                    }
+                    Files.copy(in, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+            launcherWritten.set(true);
+        }
+    }
+
+    // 发给 JavaSnippetLauncher 的字节码：类的个数，每个类的名字、长度和内容，最后是 public 类名（没有时为空串）
+    private static byte[] payload(Map<String, byte[]> classes, String mainClass) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(classes.size());
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+            out.writeUTF(mainClass != null ? mainClass : "");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private CodeRunResult toResult(ProcessSandbox.Outcome outcome, long millis, boolean cached) {
+        CodeRunResult.Status status;
+        String stderr = outcome.stderr;
+        if (outcome.outputLimited) {
+            status = CodeRunResult.Status.OUTPUT_LIMIT;
+        } else if (outcome.isTimeout()) {
+            status = CodeRunResult.Status.TIMEOUT;
+            timeouts.incrementAndGet();
+        } else if (outcome.exitCode == JavaSnippetLauncher.MEMORY_ERROR_EXIT) {
+            status = CodeRunResult.Status.MEMORY_LIMIT;
+            memoryLimits.incrementAndGet();
+        } else if (outcome.exitCode == JavaSnippetLauncher.LOAD_ERROR_EXIT) {
+            status = CodeRunResult.Status.COMPILE_ERROR;
+        } else if (outcome.exitCode != 0) {
+            status = CodeRunResult.Status.RUNTIME_ERROR;
+            String signal = ProcessSandbox.describeSignal(outcome.exitCode);
+            if (signal != null) {
+                stderr = stderr + (stderr.isEmpty() ? "" : "\n") + signal;
+            }
+        } else {
+            status = CodeRunResult.Status.OK;
+        }
+        return new CodeRunResult(status, outcome.stdout, stderr, outcome.exitCode, millis, cached,
+                outcome.outputLimited);
+    }
+
+    // 把代码整理成可以编译的源文件。没有类声明时包进 Main 类（只有语句时再包进 main 方法），
+    // 包装内容放在第一行之前的同一行，编译错误的行号与学生看到的一致
+    private static final class Source {
+        final String fileName;
+        final String mainClass;
+        final String text;
+
+        private Source(String fileName, String mainClass, String text) {
+            this.fileName = fileName;
+            this.mainClass = mainClass;
+            this.text = text;
+        }
+
+        static Source of(String code) {
+            Matcher type = PUBLIC_TYPE.matcher(code);
+            if (type.find()) {
+                Matcher pkg = PACKAGE.matcher(code);
+                String name = type.group(1);
+                String qualified = pkg.find() ? pkg.group(1) + "." + name : name;
+                return new Source(qualified.replace('.', '/'), qualified, code);
+            }
+            if (ANY_TYPE.matcher(code).find()) {
+                Matcher pkg = PACKAGE.matcher(code);
+                String prefix = pkg.find() ? pkg.group(1).replace('.', '/') + "/" : "";
+                return new Source(prefix + "Main", null, code);
+            }
+            // import 语句移到包装之前，原位置留空
+            StringBuilder imports = new StringBuilder();
+            Matcher matcher = IMPORT.matcher(code);
+            StringBuffer body = new StringBuffer();
+            while (matcher.find()) {
+                imports.append(matcher.group().trim()).append(' ');
+                matcher.appendReplacement(body, "");
+            }
+            matcher.appendTail(body);
+            boolean hasMain = MAIN_METHOD.matcher(code).find();
+            String header = hasMain
+                    ? "public class Main { "
+                    : "public class Main { public static void main(String[] args) throws Exception { ";
+            return new Source("Main", "Main", imports + header + body + (hasMain ? "\n}\n" : "\n}}\n"));
+        }
+    }
+
+    private static final class SourceFile extends SimpleJavaFileObject {
+        private final String text;
+
+        SourceFile(String fileName, String text) {
+            super(URI.create("string:///" + fileName + Kind.SOURCE.extension), Kind.SOURCE);
+            this.text = text;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return text;
+        }
+    }
+
+    // 编译输出写入内存，键为类的二进制名
+    private static final class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        private final Map<String, byte[]> classes;
+
+        MemoryFileManager(StandardJavaFileManager delegate, Map<String, byte[]> classes) {
+            super(delegate);
+            this.classes = classes;
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location, String className,
+                                                   JavaFileObject.Kind kind, FileObject sibling) {
+            return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    return new ByteArrayOutputStream() {
+                        @Override
+                        public void close() {
+                            classes.put(className, toByteArray());
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
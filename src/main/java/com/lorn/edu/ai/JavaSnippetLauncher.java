@@ -0,0 +1,157 @@
+package com.lorn.edu.ai;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+
+// JavaCodeRunner 启动的子 JVM 的入口，只依赖 JDK（类文件被复制到工作目录单独运行）。
+// 加载常用的类后在标准输出写一个换行表示就绪，然后从标准输入读取字节码：类的个数，每个类的名字、长度和内容，
+// 最后是 public 类名（没有时为空串）；剩下的标准输入留给学生代码。
+// 学生代码由父加载器为平台类加载器的 ClassLoader 加载，看不到本类。
+final class JavaSnippetLauncher {
+    static final int READY = '\n';
+    static final int LOAD_ERROR_EXIT = 113;
+    static final int MEMORY_ERROR_EXIT = 114;
+
+    private JavaSnippetLauncher() {
+    }
+
+    public static void main(String[] args) throws Throwable {
+        warmUp();
+        System.out.write(READY);
+        System.out.flush();
+
+        DataInputStream in = new DataInputStream(System.in);
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        String mainClass;
+        try {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                classes.put(name, bytes);
+            }
+            mainClass = in.readUTF();
+        } catch (EOFException e) {
+            // 没有收到代码就关闭了标准输入（运行器关闭时丢弃空闲的 JVM）
+            return;
+        }
+
+        // 任何线程内存不足都结束整个程序，退出码告诉运行器这是超出内存限制
+        Thread.setDefaultUncaughtExceptionHandler((thread, error) -> {
+            if (error instanceof OutOfMemoryError) {
+                exitOutOfMemory(thread, error);
+            }
+            System.err.print("Exception in thread \"" + thread.getName() + "\" ");
+            error.printStackTrace();
+        });
+
+        Method main;
+        try {
+            main = findMain(new SnippetClassLoader(classes), mainClass, classes.keySet());
+        } catch (ReflectiveOperationException | LinkageError e) {
+            System.err.println(e.getMessage() != null ? e.getMessage() : e.toString());
+            System.exit(LOAD_ERROR_EXIT);
+            return;
+        }
+        try {
+            main.invoke(null, (Object) new String[0]);
+        } catch (InvocationTargetException e) {
+            Throwable error = e.getCause();
+            if (error instanceof OutOfMemoryError) {
+                exitOutOfMemory(Thread.currentThread(), error);
+            }
+            // 由 JVM 按普通程序的方式输出 Exception in thread "main"，等其余线程结束后以 1 退出
+            trimStackTrace(error);
+            throw error;
+        }
+    }
+
+    // 先用一次学生代码常用的类，省去它们第一次使用时的加载时间
+    private static void warmUp() {
+        Scanner scanner = new Scanner(new StringReader("1 2.5 word\nline"));
+        scanner.nextInt();
+        scanner.nextDouble();
+        scanner.next();
+        scanner.nextLine();
+        List<Integer> list = new ArrayList<>(Arrays.asList(3, 1, 2));
+        list.sort(null);
+        String.format("%d %.2f %s", 1, 2.5, list);
+        new StringBuilder().append(1).append('a').append(list).toString();
+        new LinkedHashMap<String, Integer>().merge("a", 1, Integer::sum);
+    }
+
+    private static void exitOutOfMemory(Thread thread, Throwable error) {
+        System.out.flush();
+        System.err.println("Exception in thread \"" + thread.getName() + "\" " + error);
+        System.err.flush();
+        Runtime.getRuntime().halt(MEMORY_ERROR_EXIT);
+    }
+
+    private static Method findMain(ClassLoader loader, String mainClass, Iterable<String> names)
+            throws ReflectiveOperationException {
+        List<String> candidates = new ArrayList<>();
+        if (!mainClass.isEmpty()) {
+            candidates.add(mainClass);
+        }
+        for (String name : names) {
+            candidates.add(name);
+        }
+        for (String name : candidates) {
+            try {
+                Method main = loader.loadClass(name).getMethod("main", String[].class);
+                if (Modifier.isStatic(main.getModifiers())) {
+                    main.setAccessible(true);
+                    return main;
+                }
+            } catch (NoSuchMethodException e) {
+                // 继续查找下一个类
+            }
+        }
+        throw new NoSuchMethodException("没有找到 public static void main(String[] args) 方法");
+    }
+
+    // 只保留学生代码的调用栈，去掉反射调用和本类的部分
+    private static void trimStackTrace(Throwable error) {
+        StackTraceElement[] trace = error.getStackTrace();
+        int end = trace.length;
+        for (int i = 0; i < trace.length; i++) {
+            String className = trace[i].getClassName();
+            if (className.startsWith("sun.reflect.") || className.startsWith("jdk.internal.reflect.")
+                    || className.equals("java.lang.reflect.Method")) {
+                end = i;
+                break;
+            }
+        }
+        error.setStackTrace(Arrays.copyOf(trace, end));
+    }
+
+    // 父加载器为平台（Java 8 为扩展）类加载器
+    private static final class SnippetClassLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
+
+        SnippetClassLoader(Map<String, byte[]> classes) {
+            super(ClassLoader.getSystemClassLoader().getParent());
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.lorn.edu.ai;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// 简单的 JDBC 连接池：最多 maxSize 个连接，按需创建，归还后复用。
+// 空闲超过 VALIDATE_AFTER_MILLIS 的连接在借出前先校验，MySQL 的 wait_timeout 断开的连接会被替换掉。
+public class JdbcConnectionPool implements AutoCloseable {
+    private static final long VALIDATE_AFTER_MILLIS = 30_000;
+    private static final int VALIDATE_TIMEOUT_SECONDS = 2;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final Semaphore permits;
+    private final BlockingQueue<PooledConnection> idle;
+    private volatile boolean closed;
+
+    public JdbcConnectionPool(String url, String user, String password, int maxSize) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.permits = new Semaphore(maxSize, true);
+        this.idle = new ArrayBlockingQueue<>(maxSize);
+    }
+
+    // 借出连接，池满时最多等待 timeoutMillis；用完必须调用 release
+    public Connection borrow(long timeoutMillis) throws SQLException {
+        if (closed) {
+            throw new SQLException("连接池已关闭");
+        }
+        try {
+            if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTimeoutException("等待数据库连接超时");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("等待数据库连接时被中断", e);
+        }
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.poll()) != null) {
+                if (System.currentTimeMillis() - pooled.releasedAt < VALIDATE_AFTER_MILLIS
+                        || pooled.connection.isValid(VALIDATE_TIMEOUT_SECONDS)) {
+                    return pooled.connection;
+                }
+                closeQuietly(pooled.connection);
+            }
+            return DriverManager.getConnection(url, user, password);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    // broken 为 true 时（执行出错）直接关闭连接，不再放回池中
+    public void release(Connection connection, boolean broken) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            if (broken || closed || connection.isClosed()
+                    || !idle.offer(new PooledConnection(connection, System.currentTimeMillis()))) {
+                closeQuietly(connection);
+            }
+        } catch (SQLException e) {
+            closeQuietly(connection);
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        PooledConnection pooled;
+        while ((pooled = idle.poll()) != null) {
+            closeQuietly(pooled.connection);
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // 连接已失效
+        }
+    }
+
+    private static final class PooledConnection {
+        final Connection connection;
+        final long releasedAt;
+
+        PooledConnection(Connection connection, long releasedAt) {
+            this.connection = connection;
+            this.releasedAt = releasedAt;
+        }
+    }
+}
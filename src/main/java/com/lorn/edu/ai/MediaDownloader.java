@@ -0,0 +1,115 @@
+package com.lorn.edu.ai;
+
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 将图片、视频等响应体按固定大小分块直接写入磁盘，不在堆上缓存整个文件。
+// 先写入同目录下的临时文件，完成后原子重命名，中途失败不会留下半个文件。
+// 临时文件按 umask 的默认权限创建（Files.createTempFile 只给所有者读写），保存的文件可以由其他用户的 Web 服务器读取。
+public final class MediaDownloader {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final AtomicInteger TEMP_SEQUENCE = new AtomicInteger();
+
+    private MediaDownloader() {
+    }
+
+    // totalBytes 为 -1 表示服务器未返回 Content-Length
+    public interface ProgressListener {
+        void onProgress(long bytesWritten, long totalBytes);
+    }
+
+    public static long saveTo(ResponseBody body, File target, ProgressListener listener) throws IOException {
+        File directory = target.getAbsoluteFile().getParentFile();
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+
+        long totalBytes = body.contentLength();
+        Path temp = createPartFile(directory.toPath(), target.getName());
+        boolean completed = false;
+        try {
+            long written = 0;
+            BufferedSource source = body.source();
+            // 堆上的缓冲区随下载结束回收；写入时 JDK 复用线程缓存的直接缓冲区
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (source.read(buffer) != -1) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        written += channel.write(buffer);
+                    }
+                    buffer.clear();
+                    if (listener != null) {
+                        listener.onProgress(written, totalBytes);
+                    }
+                }
+                channel.force(false);
+            }
+
+            if (totalBytes >= 0 && written != totalBytes) {
+                throw new IOException("下载不完整，期望 " + totalBytes + " 字节，实际 " + written + " 字节");
+            }
+
+            try {
+                Files.move(temp, target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            completed = true;
+            return written;
+        } finally {
+            if (!completed) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    // 在目标文件旁新建名字唯一的临时文件，同名文件已存在（其他进程的下载）时换一个序号
+    private static Path createPartFile(Path directory, String name) throws IOException {
+        while (true) {
+            Path temp = directory.resolve(name + "." + TEMP_SEQUENCE.incrementAndGet() + "-" + System.nanoTime() + ".part");
+            try {
+                return Files.createFile(temp);
+            } catch (FileAlreadyExistsException e) {
+                // 继续尝试下一个名字
+            }
+        }
+    }
+
+    // 在控制台按 10% 的步长打印进度；未知总大小时每 1MB 打印一次
+    public static ProgressListener consoleProgress(String label) {
+        return new ProgressListener() {
+            private long lastReported = -1;
+
+            @Override
+            public void onProgress(long bytesWritten, long totalBytes) {
+                if (totalBytes > 0) {
+                    long percent = bytesWritten * 100 / totalBytes;
+                    long step = percent / 10;
+                    if (step != lastReported) {
+                        lastReported = step;
+                        System.out.println(label + "下载进度: " + percent + "% (" + bytesWritten / 1024 + "KB)");
+                    }
+                } else {
+                    long step = bytesWritten / (1024 * 1024);
+                    if (step != lastReported) {
+                        lastReported = step;
+                        System.out.println(label + "已下载: " + bytesWritten / 1024 + "KB");
+                    }
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,54 @@
+package com.lorn.edu.ai;
+
+import okhttp3.Response;
+
+import java.io.IOException;
+
+// 上游返回非 2xx 状态码。errorCode 为响应体中的业务错误码（如 "1113" 欠费、"1302" 并发过高），
+// 响应体不是 JSON 或没有错误码时为 null；RetryPolicy 据此判断是否值得重试
+public class ModelApiException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+    private final String errorCode;
+
+    public ModelApiException(int status, String errorCode, String message) {
+        super(message);
+        this.status = status;
+        this.errorCode = errorCode;
+    }
+
+    // 读取错误响应体，429 时返回 AdaptiveLimiter.RateLimitedException
+    public static ModelApiException from(Response response, String prefix) {
+        ModelResponse error = null;
+        try {
+            if (response.body() != null) {
+                error = ResponseExtractor.parse(response.body());
+            }
+        } catch (IOException e) {
+            // 错误响应可能不是 JSON，只按状态码报错
+        }
+        String errorCode = error != null ? error.getErrorCode() : null;
+        StringBuilder message = new StringBuilder(prefix).append("，状态码: ").append(response.code());
+        if (error != null && error.hasError()) {
+            if (errorCode != null) {
+                message.append("，错误码 ").append(errorCode);
+            }
+            if (error.getErrorMessage() != null) {
+                message.append(": ").append(error.getErrorMessage());
+            }
+        }
+        if (response.code() == 429) {
+            return new AdaptiveLimiter.RateLimitedException(errorCode, message.toString());
+        }
+        return new ModelApiException(response.code(), errorCode, message.toString());
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getErrorCode() {
+        return errorCode;
+    }
+}
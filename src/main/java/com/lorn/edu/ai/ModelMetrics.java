@@ -0,0 +1,336 @@
+package com.lorn.edu.ai;
+
+import javax.management.ObjectName;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+// 模型调用指标：按 服务/模型/结果 分组统计调用次数、token 用量和延迟分布。
+// 计数使用 LongAdder，延迟记录在对数分桶的直方图中（HDR 风格，相对误差不超过 1/16），
+// 记录路径无锁，可以直接在 OkHttp 回调线程中调用。
+// 通过 JMX（com.lorn.edu.ai:type=ModelMetrics）和 getReport 的文本报告对外暴露，
+// -Dzhipu.metrics.jmx=false 可关闭 JMX 注册。
+public final class ModelMetrics implements ModelMetricsMXBean {
+    private static final String OBJECT_NAME = "com.lorn.edu.ai:type=ModelMetrics";
+
+    private static volatile ModelMetrics defaultMetrics;
+
+    private final Map<Key, Stats> stats = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // 每次调用记录后在记录线程中回调（通常是 OkHttp 回调线程），不能阻塞
+    public interface Listener {
+        void onCall(String service, String model, String outcome, long nanos);
+    }
+
+    public static ModelMetrics getDefault() {
+        ModelMetrics metrics = defaultMetrics;
+        if (metrics == null) {
+            synchronized (ModelMetrics.class) {
+                metrics = defaultMetrics;
+                if (metrics == null) {
+                    metrics = new ModelMetrics();
+                    if (Boolean.parseBoolean(System.getProperty("zhipu.metrics.jmx", "true"))) {
+                        metrics.registerMBean();
+                    }
+                    defaultMetrics = metrics;
+                }
+            }
+        }
+        return metrics;
+    }
+
+    private void registerMBean() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            }
+        } catch (Exception e) {
+            System.out.println("注册 JMX 指标失败: " + e.getMessage());
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    // 在发出请求前调用，返回的计时器在调用结束时记录一次
+    public Timer start(String service, String model) {
+        return new Timer(service, model);
+    }
+
+    // 一次调用的计时器：回调中可补充 HTTP 状态码和 usage，future 完成时按结果归类记录
+    public final class Timer {
+        private final String service;
+        private final String model;
+        private final long startNanos = System.nanoTime();
+        private volatile int status;
+        private volatile ModelResponse usage;
+
+        private Timer(String service, String model) {
+            this.service = service;
+            this.model = model;
+        }
+
+        public void status(int code) {
+            this.status = code;
+        }
+
+        public void usage(ModelResponse response) {
+            if (response != null && response.hasUsage()) {
+                this.usage = response;
+            }
+        }
+
+        // 返回原 future，不影响取消的传递
+        public <T> CompletableFuture<T> track(CompletableFuture<T> future) {
+            future.whenComplete((value, error) -> finish(error));
+            return future;
+        }
+
+        private void finish(Throwable error) {
+            record(service, model, outcome(error), System.nanoTime() - startNanos, usage);
+        }
+
+        private String outcome(Throwable error) {
+            if (error == null) {
+                return "ok";
+            }
+            Throwable cause = AsyncCalls.unwrap(error);
+            if (cause instanceof CancellationException) {
+                return "cancelled";
+            }
+            if (status >= 400) {
+                return "http_" + status;
+            }
+            if (cause instanceof InterruptedIOException) {
+                return "timeout";
+            }
+            return "error";
+        }
+    }
+
+    public void record(String service, String model, String outcome, long nanos, ModelResponse usage) {
+        Stats s = stats.computeIfAbsent(new Key(service, model, outcome), k -> new Stats());
+        s.calls.increment();
+        s.latency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        if (usage != null && usage.hasUsage()) {
+            if (usage.getPromptTokens() > 0) {
+                s.promptTokens.add(usage.getPromptTokens());
+            }
+            if (usage.getCompletionTokens() > 0) {
+                s.completionTokens.add(usage.getCompletionTokens());
+                s.generationNanos.add(nanos);
+            }
+        }
+        for (Listener listener : listeners) {
+            listener.onCall(service, model, outcome, nanos);
+        }
+    }
+
+    @Override
+    public String getReport() {
+        List<Map.Entry<Key, Stats>> rows = sortedRows();
+        if (rows.isEmpty()) {
+            return "暂无模型调用记录";
+        }
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-12s %-16s %-10s %8s %9s %9s %9s %9s %10s %10s %9s%n",
+                "服务", "模型", "结果", "次数", "p50(ms)", "p95(ms)", "p99(ms)", "max(ms)",
+                "输入token", "输出token", "token/s"));
+        for (Map.Entry<Key, Stats> row : rows) {
+            Key key = row.getKey();
+            Stats s = row.getValue();
+            report.append(String.format("%-12s %-16s %-10s %8d %9.1f %9.1f %9.1f %9.1f %10d %10d %9.1f%n",
+                    key.service, key.model, key.outcome, s.calls.sum(),
+                    s.latency.percentileMillis(0.50), s.latency.percentileMillis(0.95),
+                    s.latency.percentileMillis(0.99), s.latency.maxMillis(),
+                    s.promptTokens.sum(), s.completionTokens.sum(), s.tokensPerSecond()));
+        }
+        return report.toString();
+    }
+
+    @Override
+    public long getTotalCalls() {
+        long total = 0;
+        for (Stats s : stats.values()) {
+            total += s.calls.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public Map<String, Long> getCallCounts() {
+        return longView(s -> s.calls.sum());
+    }
+
+    @Override
+    public Map<String, Long> getPromptTokens() {
+        return longView(s -> s.promptTokens.sum());
+    }
+
+    @Override
+    public Map<String, Long> getCompletionTokens() {
+        return longView(s -> s.completionTokens.sum());
+    }
+
+    @Override
+    public Map<String, Double> getP50LatencyMillis() {
+        return doubleView(s -> s.latency.percentileMillis(0.50));
+    }
+
+    @Override
+    public Map<String, Double> getP99LatencyMillis() {
+        return doubleView(s -> s.latency.percentileMillis(0.99));
+    }
+
+    // 某服务、模型成功调用的延迟分位数，样本少于 minSamples 时返回 -1（用于决定对冲请求的发出时机）
+    public double successLatencyMillis(String service, String model, double quantile, long minSamples) {
+        Stats s = stats.get(new Key(service, model, "ok"));
+        if (s == null || s.calls.sum() < minSamples) {
+            return -1;
+        }
+        return s.latency.percentileMillis(quantile);
+    }
+
+    @Override
+    public void reset() {
+        stats.clear();
+    }
+
+    private List<Map.Entry<Key, Stats>> sortedRows() {
+        List<Map.Entry<Key, Stats>> rows = new ArrayList<>(stats.entrySet());
+        rows.sort(Comparator.comparing((Map.Entry<Key, Stats> e) -> e.getKey().toString()));
+        return rows;
+    }
+
+    private Map<String, Long> longView(ToLongFunction<Stats> value) {
+        Map<String, Long> view = new LinkedHashMap<>();
+        for (Map.Entry<Key, Stats> row : sortedRows()) {
+            view.put(row.getKey().toString(), value.applyAsLong(row.getValue()));
+        }
+        return view;
+    }
+
+    private Map<String, Double> doubleView(ToDoubleFunction<Stats> value) {
+        Map<String, Double> view = new LinkedHashMap<>();
+        for (Map.Entry<Key, Stats> row : sortedRows()) {
+            view.put(row.getKey().toString(), value.applyAsDouble(row.getValue()));
+        }
+        return view;
+    }
+
+    private static final class Key {
+        final String service;
+        final String model;
+        final String outcome;
+
+        Key(String service, String model, String outcome) {
+            this.service = service;
+            this.model = model;
+            this.outcome = outcome;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return service.equals(other.service) && model.equals(other.model) && outcome.equals(other.outcome);
+        }
+
+        @Override
+        public int hashCode() {
+            return (service.hashCode() * 31 + model.hashCode()) * 31 + outcome.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return service + "/" + model + "/" + outcome;
+        }
+    }
+
+    private static final class Stats {
+        final LongAdder calls = new LongAdder();
+        final LongAdder promptTokens = new LongAdder();
+        final LongAdder completionTokens = new LongAdder();
+        // 带 usage 的调用的总耗时，用于计算输出 token/s
+        final LongAdder generationNanos = new LongAdder();
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        double tokensPerSecond() {
+            long nanos = generationNanos.sum();
+            return nanos == 0 ? 0.0 : completionTokens.sum() * 1e9 / nanos;
+        }
+    }
+
+    // 对数-线性分桶直方图，单位微秒：小于 32 的值每个值一个桶，
+    // 之后每个 2 的幂区间再线性分成 16 个桶，超过约 9 小时的值计入最后一个桶
+    static final class LatencyHistogram {
+        private static final int SUB_BUCKET_HALF = 16;
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int BUCKETS = 512;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+        void record(long micros) {
+            long value = Math.max(0, micros);
+            counts.incrementAndGet(Math.min(index(value), BUCKETS - 1));
+            total.increment();
+            max.accumulate(value);
+        }
+
+        static int index(long value) {
+            int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+            return shift * SUB_BUCKET_HALF + (int) (value >>> shift);
+        }
+
+        // 桶内取中点
+        static long midpoint(int index) {
+            if (index < 2 * SUB_BUCKET_HALF) {
+                return index;
+            }
+            int shift = index / SUB_BUCKET_HALF - 1;
+            long lower = (long) (index - shift * SUB_BUCKET_HALF) << shift;
+            return lower + ((1L << shift) >> 1);
+        }
+
+        double percentileMillis(double quantile) {
+            long n = total.sum();
+            if (n == 0) {
+                return 0.0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return Math.min(midpoint(i), max.get()) / 1000.0;
+                }
+            }
+            return maxMillis();
+        }
+
+        double maxMillis() {
+            return max.get() / 1000.0;
+        }
+    }
+}
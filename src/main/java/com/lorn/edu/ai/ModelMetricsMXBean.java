@@ -0,0 +1,23 @@
+package com.lorn.edu.ai;
+
+import java.util.Map;
+
+// ModelMetrics 的 JMX 视图，对象名 com.lorn.edu.ai:type=ModelMetrics。
+// Map 的键为 "服务/模型/结果"，例如 "chat/glm-4/ok"（流式为 "chat-stream/glm-4/ok"）、"image/cogview-3-plus/http_429"。
+public interface ModelMetricsMXBean {
+    String getReport();
+
+    long getTotalCalls();
+
+    Map<String, Long> getCallCounts();
+
+    Map<String, Long> getPromptTokens();
+
+    Map<String, Long> getCompletionTokens();
+
+    Map<String, Double> getP50LatencyMillis();
+
+    Map<String, Double> getP99LatencyMillis();
+
+    void reset();
+}
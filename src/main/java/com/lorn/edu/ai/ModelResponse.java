@@ -0,0 +1,76 @@
+package com.lorn.edu.ai;
+
+// 从模型接口响应中提取出的字段，未出现的字段为 null（token 数为 -1）
+public class ModelResponse {
+    String id;
+    String content;
+    String finishReason;
+    long promptTokens = -1;
+    long completionTokens = -1;
+    long totalTokens = -1;
+    String dataUrl;
+    String taskStatus;
+    String videoUrl;
+    String coverImageUrl;
+    String errorCode;
+    String errorMessage;
+
+    public String getId() {
+        return id;
+    }
+
+    // choices[0].message.content，流式分片中为 choices[0].delta.content
+    public String getContent() {
+        return content;
+    }
+
+    public String getFinishReason() {
+        return finishReason;
+    }
+
+    public long getPromptTokens() {
+        return promptTokens;
+    }
+
+    public long getCompletionTokens() {
+        return completionTokens;
+    }
+
+    public long getTotalTokens() {
+        return totalTokens;
+    }
+
+    public boolean hasUsage() {
+        return totalTokens >= 0 || completionTokens >= 0;
+    }
+
+    // 图片接口的 data[0].url
+    public String getDataUrl() {
+        return dataUrl;
+    }
+
+    public String getTaskStatus() {
+        return taskStatus;
+    }
+
+    // 视频任务的 video_result[0].url
+    public String getVideoUrl() {
+        return videoUrl;
+    }
+
+    public String getCoverImageUrl() {
+        return coverImageUrl;
+    }
+
+    public boolean hasError() {
+        return errorCode != null || errorMessage != null;
+    }
+
+    public String getErrorCode() {
+        return errorCode;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+}
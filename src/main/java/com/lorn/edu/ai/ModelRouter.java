@@ -0,0 +1,326 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSONObject;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+// 按请求自动选择模型。
+// 先用本地规则给最后一条用户消息分类：含代码块、代码语法或编程语言关键字的是代码问题，
+// 很长或带"证明""推导""对比"等推理类关键词的是复杂问题，其余为简单问题；很短的追问沿用上一个问题的分类。
+// 再按各模型最近的表现选择：每次上游调用（含所有服务、流式和重试）由 ModelMetrics 回调，
+// 按模型维护成功延迟和错误率（429、5xx、超时）的指数移动平均。满足 SLO（平均延迟不超过该类目标、错误率不超过上限）
+// 的候选中，简单问题选最快的（相差 10% 以内时选便宜的），代码和复杂问题按偏好顺序选第一个；
+// 都不满足时选错误率最低、其次延迟最短的。简单问题默认只在 glm-4 和 codegeex-4 之间选，不为其支付 glm-4-plus 的费用。
+// 超过 staleSeconds 没有新样本的模型统计作废，视为满足 SLO、延迟等于目标，故障恢复后可以重新被选中。
+// 系统属性：-Dzhipu.router.simple.models=glm-4,codegeex-4 -Dzhipu.router.simple.latencyMillis=5000
+//          -Dzhipu.router.code.models=codegeex-4,glm-4-plus -Dzhipu.router.code.latencyMillis=15000
+//          -Dzhipu.router.hard.models=glm-4-plus,glm-4 -Dzhipu.router.hard.latencyMillis=30000
+//          -Dzhipu.router.maxErrorRate=0.2 -Dzhipu.router.hardChars=400 -Dzhipu.router.staleSeconds=120
+//          -Dzhipu.router.cost.glm-4=1 -Dzhipu.router.cost.glm-4-plus=5 -Dzhipu.router.cost.codegeex-4=1
+public class ModelRouter {
+    private static final String PROPERTY_PREFIX = "zhipu.router.";
+
+    private static final double LATENCY_ALPHA = 0.2;
+    private static final double ERROR_ALPHA = 0.1;
+    private static final double TIE_RATIO = 1.1;
+    // 短于此长度的追问沿用上一个问题的分类
+    private static final int FOLLOW_UP_CHARS = 30;
+
+    private static final Pattern CODE_SYNTAX = Pattern.compile(
+            "(?m)(^\\s*(#include|import |package |def |class |public |private |static |function |var |let |const )"
+                    + "|System\\.out|printf\\(|console\\.log|print\\(|=>|::|[;{}]\\s*$)");
+    // 英文关键字要求前后不是字母，避免 "trust"、"access" 之类误判
+    private static final Pattern CODE_WORDS = Pattern.compile(
+            "(?<![a-z])(java|python|c\\+\\+|c#|javascript|typescript|golang|rust|sql|html|css|bug|debug)(?![a-z])");
+    private static final String[] CODE_KEYWORDS = {
+            "代码", "编程", "报错", "编译", "调试", "函数", "变量", "数组", "指针", "递归", "链表", "算法实现"
+    };
+    private static final String[] HARD_KEYWORDS = {
+            "证明", "推导", "详细分析", "深入", "对比", "比较", "优缺点", "利弊", "设计一个", "架构", "方案", "权衡", "论述"
+    };
+
+    private static volatile ModelRouter defaultRouter;
+
+    public enum TaskClass {
+        SIMPLE("simple", "简单问题"),
+        CODE("code", "代码问题"),
+        HARD("hard", "复杂问题");
+
+        private final String key;
+        private final String label;
+
+        TaskClass(String key, String label) {
+            this.key = key;
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private final Map<TaskClass, List<ChatService.ModelType>> candidates = new EnumMap<>(TaskClass.class);
+    private final Map<TaskClass, Long> latencyTargets = new EnumMap<>(TaskClass.class);
+    private final Map<ChatService.ModelType, Double> costs = new EnumMap<>(ChatService.ModelType.class);
+    private final Map<ChatService.ModelType, ModelStats> stats = new EnumMap<>(ChatService.ModelType.class);
+    private final Map<TaskClass, Map<ChatService.ModelType, Long>> routed = new EnumMap<>(TaskClass.class); // 受 this 保护
+    private final double maxErrorRate;
+    private final int hardChars;
+    private final long staleNanos;
+
+    public ModelRouter(double maxErrorRate, int hardChars, long staleSeconds) {
+        this.maxErrorRate = maxErrorRate;
+        this.hardChars = hardChars;
+        this.staleNanos = TimeUnit.SECONDS.toNanos(staleSeconds);
+        for (ChatService.ModelType model : ChatService.ModelType.values()) {
+            stats.put(model, new ModelStats());
+            costs.put(model, model == ChatService.ModelType.GLM4PLUS ? 5.0 : 1.0);
+        }
+        setCandidates(TaskClass.SIMPLE, 5_000, ChatService.ModelType.GLM4, ChatService.ModelType.CODEGEEX4);
+        setCandidates(TaskClass.CODE, 15_000, ChatService.ModelType.CODEGEEX4, ChatService.ModelType.GLM4PLUS);
+        setCandidates(TaskClass.HARD, 30_000, ChatService.ModelType.GLM4PLUS, ChatService.ModelType.GLM4);
+    }
+
+    // 进程内共用一个路由器，创建时读取系统属性并开始接收 ModelMetrics 的调用记录
+    public static ModelRouter getDefault() {
+        ModelRouter router = defaultRouter;
+        if (router == null) {
+            synchronized (ModelRouter.class) {
+                router = defaultRouter;
+                if (router == null) {
+                    router = fromSystemProperties();
+                    ModelMetrics.getDefault().addListener(router::observe);
+                    defaultRouter = router;
+                }
+            }
+        }
+        return router;
+    }
+
+    static ModelRouter fromSystemProperties() {
+        ModelRouter router = new ModelRouter(
+                Double.parseDouble(System.getProperty(PROPERTY_PREFIX + "maxErrorRate", "0.2")),
+                Integer.getInteger(PROPERTY_PREFIX + "hardChars", 400),
+                Long.getLong(PROPERTY_PREFIX + "staleSeconds", 120));
+        for (TaskClass taskClass : TaskClass.values()) {
+            String prefix = PROPERTY_PREFIX + taskClass.key + ".";
+            String models = System.getProperty(prefix + "models");
+            List<ChatService.ModelType> list = new ArrayList<>();
+            if (models != null) {
+                for (String name : models.split(",")) {
+                    ChatService.ModelType model = modelOf(name.trim());
+                    if (model == null) {
+                        throw new IllegalArgumentException("未知模型: " + name);
+                    }
+                    list.add(model);
+                }
+            }
+            router.setCandidates(taskClass,
+                    Long.getLong(prefix + "latencyMillis", router.latencyTargets.get(taskClass)),
+                    list.isEmpty() ? router.candidates.get(taskClass).toArray(new ChatService.ModelType[0])
+                            : list.toArray(new ChatService.ModelType[0]));
+        }
+        for (ChatService.ModelType model : ChatService.ModelType.values()) {
+            String cost = System.getProperty(PROPERTY_PREFIX + "cost." + model.getValue());
+            if (cost != null) {
+                router.costs.put(model, Double.parseDouble(cost));
+            }
+        }
+        return router;
+    }
+
+    // 某类问题的候选模型（按偏好排序）和平均延迟目标
+    public void setCandidates(TaskClass taskClass, long latencyMillis, ChatService.ModelType... models) {
+        if (models.length == 0) {
+            throw new IllegalArgumentException(taskClass.label + "至少需要一个候选模型");
+        }
+        List<ChatService.ModelType> list = new ArrayList<>();
+        for (ChatService.ModelType model : models) {
+            list.add(model);
+        }
+        candidates.put(taskClass, list);
+        latencyTargets.put(taskClass, latencyMillis);
+    }
+
+    public ChatService.ModelType route(List<JSONObject> messages) {
+        return choose(classify(messages));
+    }
+
+    public TaskClass classify(List<JSONObject> messages) {
+        String last = null;
+        String previous = null;
+        for (int i = messages.size() - 1; i >= 0 && previous == null; i--) {
+            JSONObject message = messages.get(i);
+            if ("user".equals(message.getString("role"))) {
+                String content = message.getString("content");
+                if (last == null) {
+                    last = content != null ? content : "";
+                } else {
+                    previous = content;
+                }
+            }
+        }
+        if (last == null) {
+            return TaskClass.SIMPLE;
+        }
+        TaskClass taskClass = classify(last);
+        if (taskClass == TaskClass.SIMPLE && previous != null && last.trim().length() < FOLLOW_UP_CHARS) {
+            return classify(previous);
+        }
+        return taskClass;
+    }
+
+    TaskClass classify(String text) {
+        String lower = text.toLowerCase(Locale.ROOT);
+        if (lower.contains("```") || CODE_SYNTAX.matcher(text).find()) {
+            return TaskClass.CODE;
+        }
+        if (text.length() > hardChars) {
+            return TaskClass.HARD;
+        }
+        for (String keyword : HARD_KEYWORDS) {
+            if (lower.contains(keyword)) {
+                return TaskClass.HARD;
+            }
+        }
+        if (CODE_WORDS.matcher(lower).find()) {
+            return TaskClass.CODE;
+        }
+        for (String keyword : CODE_KEYWORDS) {
+            if (lower.contains(keyword)) {
+                return TaskClass.CODE;
+            }
+        }
+        return TaskClass.SIMPLE;
+    }
+
+    public ChatService.ModelType choose(TaskClass taskClass) {
+        long now = System.nanoTime();
+        long target = latencyTargets.get(taskClass);
+        ChatService.ModelType chosen = null;
+        double chosenLatency = 0;
+        ChatService.ModelType fallback = null;
+        double fallbackError = 0;
+        double fallbackLatency = 0;
+
+        for (ChatService.ModelType model : candidates.get(taskClass)) {
+            ModelStats s = stats.get(model);
+            double latency;
+            double errorRate;
+            synchronized (s) {
+                boolean known = s.samples > 0 && now - s.lastSample < staleNanos;
+                latency = known && s.latencyMillis >= 0 ? s.latencyMillis : target;
+                errorRate = known ? s.errorRate : 0;
+            }
+            if (latency <= target && errorRate <= maxErrorRate) {
+                if (taskClass != TaskClass.SIMPLE) {
+                    chosen = model;
+                    break;
+                }
+                // 最快的候选；延迟相差不到 10% 时选便宜的
+                if (chosen == null || latency * TIE_RATIO < chosenLatency
+                        || (latency < chosenLatency * TIE_RATIO && costs.get(model) < costs.get(chosen))) {
+                    chosen = model;
+                    chosenLatency = latency;
+                }
+            } else if (fallback == null || errorRate < fallbackError
+                    || (errorRate == fallbackError && latency < fallbackLatency)) {
+                fallback = model;
+                fallbackError = errorRate;
+                fallbackLatency = latency;
+            }
+        }
+        ChatService.ModelType model = chosen != null ? chosen : fallback;
+        synchronized (this) {
+            routed.computeIfAbsent(taskClass, k -> new EnumMap<>(ChatService.ModelType.class))
+                    .merge(model, 1L, Long::sum);
+        }
+        return model;
+    }
+
+    // ModelMetrics 回调：取消（含输掉的对冲请求）和其他 4xx 与模型负载无关，不计入
+    void observe(String service, String modelName, String outcome, long nanos) {
+        ChatService.ModelType model = modelOf(modelName);
+        if (model == null) {
+            return;
+        }
+        boolean ok = "ok".equals(outcome);
+        boolean failed = "timeout".equals(outcome) || "error".equals(outcome) || "http_429".equals(outcome)
+                || outcome.startsWith("http_5");
+        if (!ok && !failed) {
+            return;
+        }
+        ModelStats s = stats.get(model);
+        synchronized (s) {
+            long now = System.nanoTime();
+            if (s.samples > 0 && now - s.lastSample >= staleNanos) {
+                s.samples = 0;
+                s.latencyMillis = -1;
+                s.errorRate = 0;
+            }
+            s.errorRate = s.samples == 0 ? (failed ? 1 : 0) : s.errorRate + ERROR_ALPHA * ((failed ? 1 : 0) - s.errorRate);
+            if (ok) {
+                double millis = nanos / 1e6;
+                s.latencyMillis = s.latencyMillis < 0 ? millis : s.latencyMillis + LATENCY_ALPHA * (millis - s.latencyMillis);
+            }
+            s.samples++;
+            s.lastSample = now;
+        }
+    }
+
+    static ChatService.ModelType modelOf(String name) {
+        for (ChatService.ModelType model : ChatService.ModelType.values()) {
+            if (model.getValue().equals(name)) {
+                return model;
+            }
+        }
+        return null;
+    }
+
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        long now = System.nanoTime();
+        for (ChatService.ModelType model : ChatService.ModelType.values()) {
+            ModelStats s = stats.get(model);
+            synchronized (s) {
+                if (s.samples == 0 || now - s.lastSample >= staleNanos) {
+                    report.append(String.format("%-12s 暂无近期样本，相对成本 %.1f%n", model.getValue(), costs.get(model)));
+                } else {
+                    report.append(String.format("%-12s 平均延迟 %.0fms，错误率 %.1f%%，样本 %d，相对成本 %.1f%n",
+                            model.getValue(), Math.max(0, s.latencyMillis), s.errorRate * 100, s.samples,
+                            costs.get(model)));
+                }
+            }
+        }
+        synchronized (this) {
+            double cost = 0;
+            long total = 0;
+            for (TaskClass taskClass : TaskClass.values()) {
+                Map<ChatService.ModelType, Long> counts = routed.get(taskClass);
+                report.append(taskClass.label).append("（目标 ").append(latencyTargets.get(taskClass)).append("ms）: ")
+                        .append(counts == null ? "{}" : counts.toString()).append('\n');
+                if (counts != null) {
+                    for (Map.Entry<ChatService.ModelType, Long> e : counts.entrySet()) {
+                        cost += costs.get(e.getKey()) * e.getValue();
+                        total += e.getValue();
+                    }
+                }
+            }
+            report.append(String.format("共路由 %d 次，平均相对成本 %.2f", total, total == 0 ? 0.0 : cost / total));
+        }
+        return report.toString();
+    }
+
+    private static final class ModelStats {
+        long samples;
+        long lastSample;
+        double latencyMillis = -1;
+        double errorRate;
+    }
+}
@@ -4,29 +4,133 @@ import com.alibaba.fastjson.JSONObject;
 
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+// 运行学生代码：有本地运行器时在本机执行（Java 在本进程编译、在预先启动的子 JVM 中运行，Python 使用预先启动的解释器，
+// C++ 由 g++ 编译并缓存可执行文件），输出是真实的运行结果，只在出错时请模型解释原因；
+// 运行环境缺少编译器或解释器时仍由模型分析代码并给出预期输出。
+// 本地运行在 ServiceExecutors 中执行，不占用调用方线程；各运行器在创建时于后台预热。
+// 系统属性：-Dzhipu.run.explainErrors=true（出错时是否请模型解释），其余见 JavaCodeRunner、PythonCodeRunner、CppCodeRunner
 public class OnlineCodeService {
+    private static final String DEFAULT_EXECUTE_MESSAGE = "请执行这段代码并返回运行结果。如果有错误，请指出错误并给出修改建议。";
+    private static final boolean EXPLAIN_ERRORS =
+            Boolean.parseBoolean(System.getProperty("zhipu.run.explainErrors", "true"));
+
     private final ChatService chatService;
-    private final ExecutorService executorService;
+    private final ModelRouter router = ModelRouter.getDefault();
+    private final Map<String, CodeRunner> runners = new LinkedHashMap<>();
 
     public OnlineCodeService() {
-        this.chatService = new ChatService();
+        this(new ChatService());
+    }
+
+    // 每次按代码问题由 ModelRouter 选择模型（默认 CodeGeeX-4，其延迟或错误率超出目标时改用 GLM-4-Plus）；
+    // 传入的 ChatService 的默认模型会被固定为 CodeGeeX-4，不要与聊天模式共用同一个实例
+    public OnlineCodeService(ChatService chatService) {
+        this.chatService = chatService;
         this.chatService.setModel(ChatService.ModelType.CODEGEEX4);
-        this.executorService = Executors.newCachedThreadPool();
+        runners.put("java", JavaCodeRunner.getDefault());
+        runners.put("python3", PythonCodeRunner.getDefault());
+        runners.put("cpp", CppCodeRunner.getDefault());
+        for (CodeRunner runner : runners.values()) {
+            if (runner.isAvailable()) {
+                ServiceExecutors.supplyAsync(() -> {
+                    runner.warmUp();
+                    return null;
+                });
+            }
+        }
     }
 
     public String executeCode(String code, String language, String versionIndex) throws Exception {
-        // 创建一个空的历史记录列表
-        List<JSONObject> emptyHistory = new ArrayList<>();
-        // 构建默认的分析消息
-        String defaultMessage = "请执行这段代码并返回运行结果。如果有错误，请指出错误并给出修改建议。";
-        return executeCode(code, language, defaultMessage, emptyHistory);
+        return executeCode(code, language, DEFAULT_EXECUTE_MESSAGE, new ArrayList<>());
     }
 
     public String executeCode(String code, String language, String message, List<JSONObject> history) throws Exception {
+        return AsyncCalls.await(executeCodeAsync(code, language, message, history));
+    }
+
+    public CompletableFuture<String> executeCodeAsync(String code, String language) {
+        return executeCodeAsync(code, language, DEFAULT_EXECUTE_MESSAGE, new ArrayList<>());
+    }
+
+    // 本地运行时 message 不使用；history 在请模型解释错误时一并发送
+    public CompletableFuture<String> executeCodeAsync(String code, String language, String message,
+                                                      List<JSONObject> history) {
+        CodeRunner runner = runners.get(language);
+        if (runner == null || !runner.isAvailable()) {
+            return askModelToRun(code, language, message, history);
+        }
+        return AsyncCalls.then(runLocally(code, language, null), result -> {
+            String output = result.format();
+            // 被拒绝的代码附带的说明已经足够，不再请模型解释
+            if (result.isSuccess() || !EXPLAIN_ERRORS || result.getStatus() == CodeRunResult.Status.REJECTED) {
+                return CompletableFuture.completedFuture(output);
+            }
+            // 解释失败时仍返回运行结果
+            return AsyncCalls.recover(
+                    AsyncCalls.then(explainError(code, language, result, history),
+                            explanation -> CompletableFuture.completedFuture(output + "\n\n" + explanation.trim())),
+                    error -> CompletableFuture.completedFuture(output));
+        });
+    }
+
+    // 只在本地运行，不请模型解释；语言没有可用的本地运行器时以 UnsupportedOperationException 结束
+    public CompletableFuture<CodeRunResult> runLocally(String code, String language, String stdin) {
+        CodeRunner runner = runners.get(language);
+        if (runner == null || !runner.isAvailable()) {
+            return AsyncCalls.failed(new UnsupportedOperationException("本机不能运行 " + language + " 代码"));
+        }
+        return ServiceExecutors.supplyAsync(() -> runner.run(code, stdin));
+    }
+
+    public String getRunnerStats() {
+        StringBuilder stats = new StringBuilder();
+        for (Map.Entry<String, CodeRunner> entry : runners.entrySet()) {
+            CodeRunner runner = entry.getValue();
+            stats.append(runner.isAvailable() ? runner.getStats() : entry.getKey() + " 本地运行不可用，由模型分析")
+                    .append('\n');
+        }
+        stats.append(ProcessSandbox.getDefault().getStats());
+        return stats.toString().trim();
+    }
+
+    // 结束预先启动的子 JVM 和解释器
+    public void shutdown() {
+        for (CodeRunner runner : runners.values()) {
+            runner.shutdown();
+        }
+    }
+
+    private CompletableFuture<String> explainError(String code, String language, CodeRunResult result,
+                                                   List<JSONObject> history) {
+        List<JSONObject> messages = new ArrayList<>();
+        JSONObject systemMessage = new JSONObject();
+        systemMessage.put("role", "system");
+        systemMessage.put("content", "你是一个编程助教。学生的代码已经在本机实际运行过，请根据真实的错误信息" +
+                "简要解释出错原因，并给出修改建议，不要编造运行结果。");
+        messages.add(systemMessage);
+        if (history != null) {
+            messages.addAll(history);
+        }
+
+        StringBuilder prompt = new StringBuilder();
+        prompt.append("下面的").append(language).append("代码").append(result.getStatus().getLabel()).append("：\n\n");
+        prompt.append("```").append(language).append("\n").append(code).append("\n```\n\n");
+        prompt.append("错误信息：\n```\n").append(result.getStderr().trim()).append("\n```");
+
+        JSONObject userMessage = new JSONObject();
+        userMessage.put("role", "user");
+        userMessage.put("content", prompt.toString());
+        messages.add(userMessage);
+        return chatService.sendMessageAsync(router.choose(ModelRouter.TaskClass.CODE), messages);
+    }
+
+    private CompletableFuture<String> askModelToRun(String code, String language, String message,
+                                                    List<JSONObject> history) {
         List<JSONObject> messages = new ArrayList<>();
         
         // 添加系统角色提示
@@ -54,14 +158,13 @@ public class OnlineCodeService {
         userMessage.put("content", prompt.toString());
         messages.add(userMessage);
 
-        // 使用 CodeGeeX-4 生成回复
-        String response = chatService.sendMessage(messages);
-        
-        // 格式化输出结果
-        return formatExecutionResult(response);
+        // 生成回复，格式化输出结果
+        return AsyncCalls.then(chatService.sendMessageAsync(router.choose(ModelRouter.TaskClass.CODE), messages),
+                response -> CompletableFuture.completedFuture(formatExecutionResult(response)));
     }
 
-    private String formatExecutionResult(String aiResponse) {
+    // 取回复中第一个代码块作为运行结果，回复提到错误或警告时附上代码块前的说明
+    static String formatExecutionResult(String aiResponse) {
         StringBuilder result = new StringBuilder();
         
         // 提取代码执行结果
@@ -0,0 +1,416 @@
+package com.lorn.edu.ai;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 以子进程运行编译器、解释器和学生程序（JavaCodeRunner、PythonCodeRunner、CppCodeRunner 共用）：
+// 进程经 setsid 成为新进程组的组长，用 sh 的 ulimit 限制 CPU 时间、虚拟内存和写入文件的大小后 exec 目标程序；
+// 环境变量只保留 PATH 和 LANG，工作目录为每次运行新建的临时目录，结束后删除。
+// 超过运行时间或输出字节数时杀掉整个进程组（学生程序启动的子进程一起结束），正常结束后同样清理进程组。
+// 这只限制学生代码占用的资源，不是安全边界；需要隔离时用 -Dzhipu.run.sandboxCommand 指定包装命令（如 bwrap、nsjail、firejail 及其参数），
+// 没有指定时 isIsolated 返回 false，Web 接口不运行学生代码。
+// 系统属性：-Dzhipu.run.workDir=<临时目录>/zhipu-run -Dzhipu.run.sandboxCommand= -Dzhipu.run.process.maxMemoryMb=256
+//          -Dzhipu.run.process.maxFileMb=16 -Dzhipu.run.process.maxConcurrent=<CPU 数的两倍>
+final class ProcessSandbox {
+    private static final String PROPERTY_PREFIX = "zhipu.run.";
+    private static final String PATH = "/usr/local/bin:/usr/bin:/bin";
+    private static final long PUMP_GRACE_MILLIS = 1_000;
+    private static final int SIGXCPU = 24;
+
+    private static final AtomicInteger DIRECTORY_SEQUENCE = new AtomicInteger();
+    // 读写子进程管道的线程，每次运行三个（标准输入、输出、错误）
+    private static final ExecutorService PUMPS = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "zhipu-run-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static volatile ProcessSandbox defaultSandbox;
+
+    private final File workDir;
+    private final List<String> wrapper;
+    private final long maxMemoryBytes;
+    private final long maxFileBytes;
+    private final boolean setsid;
+    private final Semaphore running;
+    private final int maxConcurrent;
+    private final AtomicLong waitingNanos = new AtomicLong();
+
+    // 一次运行的资源限制；maxMemoryBytes、maxFileBytes 为 0 时不限制
+    static final class Limits {
+        final long timeoutMillis;
+        final long maxMemoryBytes;
+        final long maxFileBytes;
+        final int maxOutputBytes;
+
+        Limits(long timeoutMillis, long maxMemoryBytes, long maxFileBytes, int maxOutputBytes) {
+            this.timeoutMillis = timeoutMillis;
+            this.maxMemoryBytes = maxMemoryBytes;
+            this.maxFileBytes = maxFileBytes;
+            this.maxOutputBytes = maxOutputBytes;
+        }
+    }
+
+    // 进程结束后的输出和状态
+    static final class Outcome {
+        final int exitCode;
+        final String stdout;
+        final String stderr;
+        final boolean timedOut;
+        final boolean outputLimited;
+
+        Outcome(int exitCode, String stdout, String stderr, boolean timedOut, boolean outputLimited) {
+            this.exitCode = exitCode;
+            this.stdout = stdout;
+            this.stderr = stderr;
+            this.timedOut = timedOut;
+            this.outputLimited = outputLimited;
+        }
+
+        // 超过墙钟时间，或 CPU 时间达到 ulimit -t 后被 SIGXCPU 结束
+        boolean isTimeout() {
+            return timedOut || exitCode == 128 + SIGXCPU;
+        }
+    }
+
+    ProcessSandbox(File workDir, List<String> wrapper, long maxMemoryBytes, long maxFileBytes, int maxConcurrent) {
+        this.workDir = workDir;
+        this.wrapper = wrapper;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxFileBytes = maxFileBytes;
+        this.setsid = new File("/usr/bin/setsid").canExecute() || new File("/bin/setsid").canExecute();
+        this.maxConcurrent = maxConcurrent;
+        this.running = new Semaphore(maxConcurrent, true);
+    }
+
+    static ProcessSandbox getDefault() {
+        ProcessSandbox sandbox = defaultSandbox;
+        if (sandbox == null) {
+            synchronized (ProcessSandbox.class) {
+                sandbox = defaultSandbox;
+                if (sandbox == null) {
+                    String command = System.getProperty(PROPERTY_PREFIX + "sandboxCommand", "").trim();
+                    sandbox = new ProcessSandbox(
+                            new File(System.getProperty(PROPERTY_PREFIX + "workDir",
+                                    new File(System.getProperty("java.io.tmpdir"), "zhipu-run").getPath())),
+                            command.isEmpty() ? Collections.<String>emptyList() : Arrays.asList(command.split("\\s+")),
+                            Long.getLong(PROPERTY_PREFIX + "process.maxMemoryMb", 256) * 1024 * 1024,
+                            Long.getLong(PROPERTY_PREFIX + "process.maxFileMb", 16) * 1024 * 1024,
+                            Integer.getInteger(PROPERTY_PREFIX + "process.maxConcurrent",
+                                    Math.max(2, Runtime.getRuntime().availableProcessors() * 2)));
+                    defaultSandbox = sandbox;
+                }
+            }
+        }
+        return sandbox;
+    }
+
+    // 需要 POSIX sh 提供 ulimit；Windows 上不可用
+    boolean isSupported() {
+        return new File("/bin/sh").canExecute();
+    }
+
+    // 是否配置了包装命令；没有时学生代码能以服务进程的用户身份读写文件、访问网络
+    boolean isIsolated() {
+        return !wrapper.isEmpty();
+    }
+
+    File getWorkDir() {
+        return workDir;
+    }
+
+    // 学生程序的限制：内存和写入文件的上限为 process.maxMemoryMb、process.maxFileMb
+    Limits programLimits(long timeoutMillis, int maxOutputBytes) {
+        return new Limits(timeoutMillis, maxMemoryBytes, maxFileBytes, maxOutputBytes);
+    }
+
+    // 虚拟内存上限另行给出的学生程序（JVM 启动时就要预留数百 MB 地址空间）
+    Limits programLimits(long timeoutMillis, long maxMemoryBytes, int maxOutputBytes) {
+        return new Limits(timeoutMillis, maxMemoryBytes, maxFileBytes, maxOutputBytes);
+    }
+
+    // 编译器的限制：内存和写入文件的上限由调用方给出，为 0 时不限制
+    static Limits toolLimits(long timeoutMillis, long maxMemoryBytes, long maxFileBytes, int maxOutputBytes) {
+        return new Limits(timeoutMillis, maxMemoryBytes, maxFileBytes, maxOutputBytes);
+    }
+
+    // 运行一个不受限制的短命令（查询编译器、解释器版本），失败或超时时返回 null
+    static String probe(List<String> command, long timeoutMillis) {
+        try {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            process.getOutputStream().close();
+            if (!process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly();
+                return null;
+            }
+            String output = new String(readAll(process.getInputStream()), StandardCharsets.UTF_8).trim();
+            return process.exitValue() == 0 ? output : null;
+        } catch (IOException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    // 新建一个空的工作目录
+    File newDirectory(String prefix) throws IOException {
+        File dir = new File(workDir, prefix + "-" + DIRECTORY_SEQUENCE.incrementAndGet() + "-" + System.nanoTime());
+        Files.createDirectories(dir.toPath());
+        return dir;
+    }
+
+    // 在 dir 中启动受限制的进程；CPU 时间上限为 limits.timeoutMillis 向上取整到秒（ulimit -t 以秒为单位）
+    Process start(List<String> command, File dir, Limits limits) throws IOException {
+        return start(command, dir, limits, Collections.<String, String>emptyMap());
+    }
+
+    // environment 为 PATH、LANG、HOME 之外另外设置的环境变量
+    Process start(List<String> command, File dir, Limits limits, Map<String, String> environment)
+            throws IOException {
+        // 软限制先到，进程收到 SIGXCPU（isTimeout 据此判断）；软硬限制相同时内核直接发 SIGKILL，
+        // 多线程的程序 CPU 时间比墙钟走得快，会先于墙钟超时被当作普通的强制结束。硬限制多留一秒给忽略 SIGXCPU 的进程
+        long cpuSeconds = Math.max(1, (limits.timeoutMillis + 999) / 1000);
+        StringBuilder script = new StringBuilder();
+        script.append("ulimit -c 0; ulimit -S -t ").append(cpuSeconds).append("; ulimit -H -t ").append(cpuSeconds + 1);
+        if (limits.maxFileBytes > 0) {
+            script.append("; ulimit -f ").append(Math.max(1, limits.maxFileBytes / 512));
+        }
+        if (limits.maxMemoryBytes > 0) {
+            script.append("; ulimit -v ").append(limits.maxMemoryBytes / 1024);
+        }
+        script.append("; exec \"$@\"");
+
+        List<String> full = new ArrayList<>(wrapper);
+        if (setsid && wrapper.isEmpty()) {
+            full.add("setsid");
+        }
+        full.addAll(Arrays.asList("/bin/sh", "-c", script.toString(), "sh"));
+        full.addAll(command);
+        ProcessBuilder builder = new ProcessBuilder(full).directory(dir);
+        Map<String, String> env = builder.environment();
+        env.clear();
+        env.put("PATH", PATH);
+        env.put("LANG", "C.UTF-8");
+        env.put("HOME", dir.getPath());
+        env.putAll(environment);
+        return builder.start();
+    }
+
+    // 限制同时运行的学生程序数，超出时排队；返回后调用方必须 release
+    void acquire() throws InterruptedException {
+        long start = System.nanoTime();
+        running.acquire();
+        waitingNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    void release() {
+        running.release();
+    }
+
+    // 写入 input 后关闭标准输入，收集输出直到进程结束、超时或输出超出 limits.maxOutputBytes（之后的输出丢弃），
+    // 返回前杀掉进程组中剩下的进程。startNanos 为计时起点，已经启动好的解释器从提交代码时开始计时
+    Outcome await(Process process, byte[] input, Limits limits, long startNanos) throws InterruptedException {
+        Capture capture = new Capture(process, limits.maxOutputBytes);
+        Future<?> writer = PUMPS.submit(() -> {
+            try (OutputStream stdin = process.getOutputStream()) {
+                if (input != null) {
+                    stdin.write(input);
+                }
+            } catch (IOException e) {
+                // 程序没有读完输入就结束了
+            }
+        });
+        Future<?> out = PUMPS.submit(() -> capture.pump(process.getInputStream(), capture.stdout));
+        Future<?> err = PUMPS.submit(() -> capture.pump(process.getErrorStream(), capture.stderr));
+
+        boolean exited = false;
+        try {
+            long remaining = limits.timeoutMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            exited = process.waitFor(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+        } finally {
+            writer.cancel(true);
+            if (exited) {
+                // 自行结束时在后台清理它留下的子进程，不增加这次运行的耗时
+                PUMPS.execute(() -> kill(process));
+            } else {
+                // 超时、输出超出限制或调用方取消
+                kill(process);
+            }
+        }
+        boolean timedOut = !exited && !capture.limited;
+        process.waitFor();
+        finishPump(out);
+        finishPump(err);
+        return new Outcome(process.exitValue(), capture.stdout.text(), capture.stderr.text(), timedOut,
+                capture.limited);
+    }
+
+    private static void finishPump(Future<?> pump) throws InterruptedException {
+        try {
+            pump.get(PUMP_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // 学生程序的子进程脱离了进程组，仍持有输出管道
+            pump.cancel(true);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // 杀掉进程所在的进程组；没有 setsid 或使用了包装命令时只杀掉进程本身
+    void kill(Process process) {
+        long pid = setsid && wrapper.isEmpty() ? pid(process) : -1;
+        if (pid > 0) {
+            try {
+                new ProcessBuilder("kill", "-KILL", "--", "-" + pid).redirectErrorStream(true)
+                        .redirectOutput(ProcessBuilder.Redirect.appendTo(new File("/dev/null"))).start().waitFor();
+            } catch (IOException e) {
+                // kill 命令不可用时退回只杀掉进程本身
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        process.destroyForcibly();
+    }
+
+    // 删除工作目录，忽略删除失败
+    static void deleteDirectory(File dir) {
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory() && !Files.isSymbolicLink(child.toPath())) {
+                    deleteDirectory(child);
+                } else {
+                    child.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+
+    // 进程被信号结束时（退出码为 128 + 信号编号）给学生看的说明，否则返回 null
+    static String describeSignal(int exitCode) {
+        if (exitCode <= 128 || exitCode > 128 + 64) {
+            return null;
+        }
+        int signal = exitCode - 128;
+        switch (signal) {
+            case 6:
+                return "程序异常终止（SIGABRT），常见原因是断言失败或异常没有被捕获";
+            case 8:
+                return "算术错误（SIGFPE），常见原因是整数除以零";
+            case 9:
+                return "程序被强制结束（SIGKILL）";
+            case 11:
+                return "段错误（SIGSEGV），常见原因是数组越界、使用空指针或递归过深";
+            case 25:
+                return "写入的文件超出大小限制（SIGXFSZ）";
+            default:
+                return "程序被信号 " + signal + " 结束";
+        }
+    }
+
+    String getStats() {
+        return String.format("子进程同时运行 %d/%d，排队共 %d ms", maxConcurrent - running.availablePermits(),
+                maxConcurrent, TimeUnit.NANOSECONDS.toMillis(waitingNanos.get()));
+    }
+
+    // Java 9 起为 Process.pid()，Java 8 读取 UNIXProcess 的 pid 字段；都不可用时返回 -1
+    private static long pid(Process process) {
+        try {
+            return (Long) Process.class.getMethod("pid").invoke(process);
+        } catch (NoSuchMethodException e) {
+            try {
+                Field field = process.getClass().getDeclaredField("pid");
+                field.setAccessible(true);
+                return field.getInt(process);
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                return -1;
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+
+    // 标准输出和错误合计不超过 maxOutputBytes，超出时杀掉进程
+    private final class Capture {
+        final Process process;
+        final int maxOutputBytes;
+        final Buffer stdout = new Buffer();
+        final Buffer stderr = new Buffer();
+        private int total; // 受 this 保护
+        volatile boolean limited;
+
+        Capture(Process process, int maxOutputBytes) {
+            this.process = process;
+            this.maxOutputBytes = maxOutputBytes;
+        }
+
+        void pump(InputStream in, ByteArrayOutputStream target) {
+            byte[] buffer = new byte[8192];
+            try {
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    if (!append(target, buffer, n)) {
+                        kill(process);
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                // 进程被杀掉后管道关闭
+            }
+        }
+
+        private synchronized boolean append(ByteArrayOutputStream target, byte[] buffer, int n) {
+            if (limited) {
+                return false;
+            }
+            int room = maxOutputBytes - total;
+            if (n > room) {
+                target.write(buffer, 0, Math.max(0, room));
+                total = maxOutputBytes;
+                limited = true;
+                return false;
+            }
+            target.write(buffer, 0, n);
+            total += n;
+            return true;
+        }
+    }
+
+    private static final class Buffer extends ByteArrayOutputStream {
+        synchronized String text() {
+            return new String(buf, 0, count, StandardCharsets.UTF_8);
+        }
+    }
+}
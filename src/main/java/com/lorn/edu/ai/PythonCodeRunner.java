@@ -0,0 +1,306 @@
+package com.lorn.edu.ai;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 在本机运行 Python 代码：预先启动 poolSize 个 python3 解释器（已导入常用的标准库模块），阻塞在标准输入上等待代码，
+// 提交时省去解释器启动和模块导入。每个解释器只运行一段代码，用完即结束，后台随即补充新的，学生代码之间互不影响。
+// 代码按 main.py 编译，语法错误作为编译错误返回，运行时错误的调用栈只包含学生代码。
+// 进程在 ProcessSandbox 中运行，限制 CPU 时间、内存和输出；运行时间从提交代码时开始计算。
+// 系统属性：-Dzhipu.run.python.enabled=true -Dzhipu.run.python.command=python3 -Dzhipu.run.python.poolSize=2
+//          -Dzhipu.run.timeoutSeconds=5 -Dzhipu.run.maxOutputBytes=65536，其余见 ProcessSandbox
+public class PythonCodeRunner implements CodeRunner {
+    private static final String PROPERTY_PREFIX = "zhipu.run.";
+    private static final int SYNTAX_ERROR_EXIT = 113;
+    private static final int MEMORY_ERROR_EXIT = 114;
+    private static final int READY = '\n';
+    // 导入完成后在标准输出写一个换行表示就绪；读取第一行的字节数和随后的代码，剩下的标准输入留给学生代码
+    private static final String BOOTSTRAP = String.join("\n",
+            "import sys, os, types, linecache, traceback",
+            "import math, random, collections, itertools, functools, heapq, bisect, re, string",
+            "os.write(1, b'\\n')",
+            "def _run():",
+            "    header = sys.stdin.buffer.readline()",
+            "    if not header.strip():",
+            "        os._exit(0)",
+            "    source = sys.stdin.buffer.read(int(header)).decode('utf-8', 'replace')",
+            "    linecache.cache['main.py'] = (len(source), None, source.splitlines(True), 'main.py')",
+            "    try:",
+            "        code = compile(source, 'main.py', 'exec')",
+            "    except (SyntaxError, ValueError) as e:",
+            "        traceback.print_exception(type(e), e, None)",
+            "        sys.stderr.flush()",
+            "        os._exit(" + SYNTAX_ERROR_EXIT + ")",
+            "    main = types.ModuleType('__main__')",
+            "    main.__file__ = 'main.py'",
+            "    sys.modules['__main__'] = main",
+            "    sys.argv = ['main.py']",
+            "    sys.stdout.reconfigure(line_buffering=True)",
+            "    try:",
+            "        exec(code, main.__dict__)",
+            "    except MemoryError:",
+            "        sys.stdout.flush()",
+            "        os.write(2, b'MemoryError\\n')",
+            "        os._exit(" + MEMORY_ERROR_EXIT + ")",
+            "    except SystemExit:",
+            "        raise",
+            "    except BaseException as e:",
+            "        traceback.print_exception(type(e), e, e.__traceback__.tb_next)",
+            "        sys.exit(1)",
+            "_run()",
+            "");
+
+    private static volatile PythonCodeRunner defaultRunner;
+
+    private final ProcessSandbox sandbox;
+    private final List<String> command;
+    private final String version; // 找不到解释器时为 null
+    private final long timeoutMillis;
+    private final int maxOutputBytes;
+    private final int poolSize;
+
+    private final BlockingQueue<Worker> idle = new LinkedBlockingQueue<>();
+    private final AtomicInteger starting = new AtomicInteger();
+    private final ExecutorService spawner = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "zhipu-python-pool");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean closed;
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong warmRuns = new AtomicLong();
+    private final AtomicLong spawns = new AtomicLong();
+    private final AtomicLong spawnNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong memoryLimits = new AtomicLong();
+
+    // 一个已经启动、等待代码的解释器
+    private static final class Worker {
+        final Process process;
+        final File dir;
+
+        Worker(Process process, File dir) {
+            this.process = process;
+            this.dir = dir;
+        }
+    }
+
+    PythonCodeRunner(ProcessSandbox sandbox, boolean enabled, String interpreter, long timeoutMillis,
+                     int maxOutputBytes, int poolSize) {
+        this.sandbox = sandbox;
+        this.command = Arrays.asList(interpreter, "-I", "-X", "utf8", "-c", BOOTSTRAP);
+        this.version = enabled && sandbox.isSupported()
+                ? ProcessSandbox.probe(Arrays.asList(interpreter, "-I", "-c",
+                "import sys; print(sys.version.split()[0])"), 5_000)
+                : null;
+        this.timeoutMillis = timeoutMillis;
+        this.maxOutputBytes = maxOutputBytes;
+        this.poolSize = poolSize;
+    }
+
+    public static PythonCodeRunner getDefault() {
+        PythonCodeRunner runner = defaultRunner;
+        if (runner == null) {
+            synchronized (PythonCodeRunner.class) {
+                runner = defaultRunner;
+                if (runner == null) {
+                    runner = new PythonCodeRunner(ProcessSandbox.getDefault(),
+                            Boolean.parseBoolean(System.getProperty(PROPERTY_PREFIX + "python.enabled", "true")),
+                            System.getProperty(PROPERTY_PREFIX + "python.command", "python3"),
+                            Long.getLong(PROPERTY_PREFIX + "timeoutSeconds", 5) * 1000,
+                            Integer.getInteger(PROPERTY_PREFIX + "maxOutputBytes", 64 * 1024),
+                            Integer.getInteger(PROPERTY_PREFIX + "python.poolSize", 2));
+                    defaultRunner = runner;
+                }
+            }
+        }
+        return runner;
+    }
+
+    // 被关闭、没有 sh（Windows）或找不到 python3 时不可用
+    @Override
+    public boolean isAvailable() {
+        return version != null;
+    }
+
+    // 在后台启动解释器直到空闲的达到 poolSize 个
+    @Override
+    public void warmUp() {
+        if (!isAvailable() || closed) {
+            return;
+        }
+        while (true) {
+            int pending = starting.get();
+            if (idle.size() + pending >= poolSize) {
+                return;
+            }
+            if (starting.compareAndSet(pending, pending + 1)) {
+                try {
+                    spawner.execute(() -> {
+                        try {
+                            Worker worker = spawn();
+                            if (closed) {
+                                discard(worker);
+                            } else {
+                                idle.add(worker);
+                            }
+                        } catch (IOException e) {
+                            System.out.println("无法启动 Python 解释器: " + e.getMessage());
+                        } finally {
+                            starting.decrementAndGet();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // 已经 shutdown
+                    starting.decrementAndGet();
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public CodeRunResult run(String code, String stdin) throws InterruptedException {
+        long start = System.nanoTime();
+        runs.incrementAndGet();
+        sandbox.acquire();
+        Worker worker = null;
+        try {
+            worker = idle.poll();
+            while (worker != null && !worker.process.isAlive()) {
+                discard(worker);
+                worker = idle.poll();
+            }
+            boolean warm = worker != null;
+            if (warm) {
+                warmRuns.incrementAndGet();
+            } else {
+                worker = spawn();
+            }
+
+            ProcessSandbox.Outcome outcome = sandbox.await(worker.process, payload(code, stdin),
+                    sandbox.programLimits(timeoutMillis, maxOutputBytes), System.nanoTime());
+            return toResult(outcome, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), warm);
+        } catch (IOException e) {
+            throw new UncheckedIOException("无法启动 Python 解释器", e);
+        } finally {
+            sandbox.release();
+            if (worker != null) {
+                ProcessSandbox.deleteDirectory(worker.dir);
+            }
+            // 运行结束后再补充，新解释器启动时不与这次运行争用 CPU
+            warmUp();
+        }
+    }
+
+    @Override
+    public String getStats() {
+        long total = runs.get();
+        long started = spawns.get();
+        return String.format(Locale.ROOT,
+                "Python %s 运行 %d 次（使用预先启动的解释器 %.1f%%），空闲解释器 %d 个，启动 %d 次（平均 %.0f ms），超时 %d 次，超出内存 %d 次",
+                version, total, total == 0 ? 0.0 : warmRuns.get() * 100.0 / total, idle.size(), started,
+                started == 0 ? 0.0 : spawnNanos.get() / 1e6 / started, timeouts.get(), memoryLimits.get());
+    }
+
+    int getIdleWorkers() {
+        return idle.size();
+    }
+
+    // 结束空闲的解释器，之后的运行每次临时启动
+    @Override
+    public void shutdown() {
+        closed = true;
+        spawner.shutdown();
+        try {
+            spawner.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Worker worker;
+        while ((worker = idle.poll()) != null) {
+            discard(worker);
+        }
+    }
+
+    // 启动解释器并等到它就绪
+    private Worker spawn() throws IOException {
+        long start = System.nanoTime();
+        File dir = sandbox.newDirectory("python");
+        Process process = null;
+        try {
+            // 空闲时不计运行时间，CPU 时间上限按一次运行给出
+            process = sandbox.start(command, dir, sandbox.programLimits(timeoutMillis, maxOutputBytes));
+            if (process.getInputStream().read() != READY) {
+                throw new IOException("解释器没有就绪就退出了");
+            }
+            spawns.incrementAndGet();
+            spawnNanos.addAndGet(System.nanoTime() - start);
+            return new Worker(process, dir);
+        } catch (IOException e) {
+            if (process != null) {
+                sandbox.kill(process);
+            }
+            ProcessSandbox.deleteDirectory(dir);
+            throw e;
+        }
+    }
+
+    private void discard(Worker worker) {
+        sandbox.kill(worker.process);
+        ProcessSandbox.deleteDirectory(worker.dir);
+    }
+
+    private static byte[] payload(String code, String stdin) {
+        byte[] source = code.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(source.length + 16);
+        byte[] header = (source.length + "\n").getBytes(StandardCharsets.US_ASCII);
+        bytes.write(header, 0, header.length);
+        bytes.write(source, 0, source.length);
+        if (stdin != null) {
+            byte[] input = stdin.getBytes(StandardCharsets.UTF_8);
+            bytes.write(input, 0, input.length);
+        }
+        return bytes.toByteArray();
+    }
+
+    private CodeRunResult toResult(ProcessSandbox.Outcome outcome, long millis, boolean warm) {
+        CodeRunResult.Status status;
+        String stderr = outcome.stderr;
+        if (outcome.outputLimited) {
+            status = CodeRunResult.Status.OUTPUT_LIMIT;
+        } else if (outcome.isTimeout()) {
+            status = CodeRunResult.Status.TIMEOUT;
+            timeouts.incrementAndGet();
+        } else if (outcome.exitCode == MEMORY_ERROR_EXIT) {
+            status = CodeRunResult.Status.MEMORY_LIMIT;
+            memoryLimits.incrementAndGet();
+        } else if (outcome.exitCode == SYNTAX_ERROR_EXIT) {
+            status = CodeRunResult.Status.COMPILE_ERROR;
+        } else if (outcome.exitCode != 0) {
+            status = CodeRunResult.Status.RUNTIME_ERROR;
+            String signal = ProcessSandbox.describeSignal(outcome.exitCode);
+            if (signal != null) {
+                stderr = stderr + (stderr.isEmpty() ? "" : "\n") + signal;
+            }
+        } else {
+            status = CodeRunResult.Status.OK;
+        }
+        return new CodeRunResult(status, outcome.stdout, stderr, outcome.exitCode, millis, warm, outcome.outputLimited);
+    }
+}
@@ -0,0 +1,188 @@
+package com.lorn.edu.ai;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// 基于 Jackson 流式解析器的响应字段提取，所有服务共用。
+// 直接从响应字节流中按需读取 content、usage、finish_reason、data[0].url、task_status 等字段，
+// 其余字段整段跳过，不生成响应字符串，也不构建 JSON 树。
+public final class ResponseExtractor {
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private ResponseExtractor() {
+    }
+
+    private interface ElementReader {
+        void read(JsonParser parser) throws IOException;
+    }
+
+    public static ModelResponse parse(ResponseBody body) throws IOException {
+        try (InputStream in = body.byteStream(); JsonParser parser = FACTORY.createParser(in)) {
+            return parse(parser);
+        }
+    }
+
+    public static ModelResponse parse(String json) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(json)) {
+            return parse(parser);
+        }
+    }
+
+    public static ModelResponse parse(byte[] json) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(json)) {
+            return parse(parser);
+        }
+    }
+
+    private static ModelResponse parse(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("响应格式错误：不是 JSON 对象");
+        }
+        ModelResponse result = new ModelResponse();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            switch (name) {
+                case "id":
+                    result.id = parser.getValueAsString();
+                    break;
+                case "choices":
+                    readFirstElement(parser, p -> readChoice(p, result));
+                    break;
+                case "usage":
+                    readUsage(parser, result);
+                    break;
+                case "data":
+                    readFirstElement(parser, p -> readObject(p, field -> {
+                        if ("url".equals(field)) {
+                            result.dataUrl = p.getValueAsString();
+                            return true;
+                        }
+                        return false;
+                    }));
+                    break;
+                case "task_status":
+                    result.taskStatus = parser.getValueAsString();
+                    break;
+                case "video_result":
+                    readFirstElement(parser, p -> readObject(p, field -> {
+                        if ("url".equals(field)) {
+                            result.videoUrl = p.getValueAsString();
+                            return true;
+                        }
+                        if ("cover_image_url".equals(field)) {
+                            result.coverImageUrl = p.getValueAsString();
+                            return true;
+                        }
+                        return false;
+                    }));
+                    break;
+                case "error":
+                    readError(parser, result);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return result;
+    }
+
+    private static void readChoice(JsonParser parser, ModelResponse result) throws IOException {
+        readObject(parser, field -> {
+            switch (field) {
+                case "finish_reason":
+                    result.finishReason = parser.getValueAsString();
+                    return true;
+                case "message":
+                case "delta":
+                    readObject(parser, inner -> {
+                        if ("content".equals(inner)) {
+                            result.content = parser.getValueAsString();
+                            return true;
+                        }
+                        return false;
+                    });
+                    return true;
+                default:
+                    return false;
+            }
+        });
+    }
+
+    private static void readUsage(JsonParser parser, ModelResponse result) throws IOException {
+        readObject(parser, field -> {
+            switch (field) {
+                case "prompt_tokens":
+                    result.promptTokens = parser.getValueAsLong(-1);
+                    return true;
+                case "completion_tokens":
+                    result.completionTokens = parser.getValueAsLong(-1);
+                    return true;
+                case "total_tokens":
+                    result.totalTokens = parser.getValueAsLong(-1);
+                    return true;
+                default:
+                    return false;
+            }
+        });
+    }
+
+    // error 可能是 {"code":..,"message":..}，视频任务失败时也可能直接是字符串
+    private static void readError(JsonParser parser, ModelResponse result) throws IOException {
+        if (parser.currentToken() == JsonToken.START_OBJECT) {
+            readObject(parser, field -> {
+                if ("code".equals(field)) {
+                    result.errorCode = parser.getValueAsString();
+                    return true;
+                }
+                if ("message".equals(field)) {
+                    result.errorMessage = parser.getValueAsString();
+                    return true;
+                }
+                return false;
+            });
+        } else if (parser.currentToken() != JsonToken.VALUE_NULL) {
+            result.errorMessage = parser.getValueAsString();
+            parser.skipChildren();
+        }
+    }
+
+    private interface FieldReader {
+        // 已定位到字段值上；读取了该值返回 true，返回 false 时由调用方跳过
+        boolean read(String field) throws IOException;
+    }
+
+    private static void readObject(JsonParser parser, FieldReader reader) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if (!reader.read(field)) {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    // 只读取数组的第一个元素，其余元素跳过
+    private static void readFirstElement(JsonParser parser, ElementReader reader) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+        if (parser.nextToken() == JsonToken.END_ARRAY) {
+            return;
+        }
+        reader.read(parser);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            parser.skipChildren();
+        }
+    }
+}
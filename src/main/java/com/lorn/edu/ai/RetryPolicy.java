@@ -0,0 +1,260 @@
+package com.lorn.edu.ai;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+// 各服务共用的重试与对冲策略。
+// 错误分类：账户、鉴权、内容审核类错误码（如 1113 欠费）和其他 4xx 不重试；429、408 和连接不上总是重试；
+// 5xx 和读超时只在请求可重复（idempotent）时重试，非幂等请求（如提交视频任务）重试可能产生重复任务。
+// 重试间隔为指数退避加随机抖动（等待 [cap/2, cap]，cap = baseDelay * 2^(n-1)，不超过 maxDelay），
+// 多个客户端同时失败时不会同步重试；整个调用（含所有重试）受 deadline 限制，到时取消进行中的请求。
+// 对冲：开启后，一次尝试超过给定时间（通常取成功调用的 p95）仍未返回时再发一个相同请求，先成功的为准，另一个取消。
+// 系统属性：-Dzhipu.retry.<service>.maxAttempts=3 -Dzhipu.retry.<service>.baseDelayMillis=500
+//          -Dzhipu.retry.<service>.maxDelayMillis=8000 -Dzhipu.retry.<service>.deadlineSeconds=180
+//          -Dzhipu.retry.<service>.hedge=false
+public final class RetryPolicy {
+    private static final String PROPERTY_PREFIX = "zhipu.retry.";
+
+    // 重试也不会成功的业务错误码：鉴权失败、账户锁定、欠费、内容安全
+    private static final Set<String> FATAL_ERROR_CODES = new HashSet<>(Arrays.asList(
+            "1000", "1001", "1002", "1003", "1004", "1110", "1111", "1112", "1113", "1120", "1121", "1301"));
+
+    public static final RetryPolicy DEFAULT = new RetryPolicy(3, 500, 8_000, 180_000, true, false);
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final long deadlineMillis;
+    private final boolean idempotent;
+    private final boolean hedge;
+
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, long deadlineMillis,
+                       boolean idempotent, boolean hedge) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.deadlineMillis = deadlineMillis;
+        this.idempotent = idempotent;
+        this.hedge = hedge;
+    }
+
+    // 以给定值为默认，读取 zhipu.retry.<service>.xxx 形式的单服务覆盖配置
+    public static RetryPolicy forService(String service, RetryPolicy defaults) {
+        String prefix = PROPERTY_PREFIX + service + ".";
+        return new RetryPolicy(
+                Integer.getInteger(prefix + "maxAttempts", defaults.maxAttempts),
+                Long.getLong(prefix + "baseDelayMillis", defaults.baseDelayMillis),
+                Long.getLong(prefix + "maxDelayMillis", defaults.maxDelayMillis),
+                Long.getLong(prefix + "deadlineSeconds", defaults.deadlineMillis / 1000) * 1000,
+                defaults.idempotent,
+                Boolean.parseBoolean(System.getProperty(prefix + "hedge", String.valueOf(defaults.hedge))));
+    }
+
+    public RetryPolicy nonIdempotent() {
+        return new RetryPolicy(maxAttempts, baseDelayMillis, maxDelayMillis, deadlineMillis, false, hedge);
+    }
+
+    public RetryPolicy withHedging(boolean enabled) {
+        return new RetryPolicy(maxAttempts, baseDelayMillis, maxDelayMillis, deadlineMillis, idempotent, enabled);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public boolean isHedgingEnabled() {
+        return hedge;
+    }
+
+    public boolean isRetryable(Throwable error) {
+        Throwable cause = AsyncCalls.unwrap(error);
+        if (cause instanceof CancellationException) {
+            return false;
+        }
+        if (cause instanceof ModelApiException) {
+            ModelApiException api = (ModelApiException) cause;
+            if (api.getErrorCode() != null && FATAL_ERROR_CODES.contains(api.getErrorCode())) {
+                return false;
+            }
+            int status = api.getStatus();
+            if (status == 429 || status == 408 || status == 503) {
+                // 请求未被处理
+                return true;
+            }
+            return status >= 500 && idempotent;
+        }
+        if (cause instanceof ConnectException || cause instanceof UnknownHostException
+                || cause instanceof NoRouteToHostException) {
+            // 请求没有发出
+            return true;
+        }
+        if (cause instanceof IOException) {
+            // 读超时、连接中断：服务端可能已经处理
+            return idempotent;
+        }
+        return false;
+    }
+
+    // 第 attempt 次失败后的等待时间
+    public long backoffMillis(int attempt) {
+        long cap = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 20));
+        return cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1);
+    }
+
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> attempt) {
+        return execute(attempt, () -> true);
+    }
+
+    // mayRetry 在每次失败后调用，返回 false 时不再重试（例如流式回复已经输出了部分内容）
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> attempt, BooleanSupplier mayRetry) {
+        AsyncCalls.LinkedFuture<T> result = new AsyncCalls.LinkedFuture<>();
+        long deadline = System.currentTimeMillis() + deadlineMillis;
+        CompletableFuture<Void> timer = AsyncCalls.delay(deadlineMillis);
+        timer.thenRun(() -> {
+            if (result.completeExceptionally(new InterruptedIOException(
+                    "调用超出时限 " + deadlineMillis / 1000 + " 秒"))) {
+                result.cancelCurrent();
+            }
+        });
+        result.whenComplete((value, error) -> timer.cancel(false));
+        run(result, attempt, mayRetry, 1, deadline);
+        return result;
+    }
+
+    // 与 execute 相同，但每次尝试超过 hedgeAfterMillis 未返回时发出一个对冲请求；hedgeAfterMillis <= 0 或未开启对冲时不对冲
+    public <T> CompletableFuture<T> executeHedged(Supplier<CompletableFuture<T>> attempt, long hedgeAfterMillis) {
+        if (!hedge || hedgeAfterMillis <= 0) {
+            return execute(attempt);
+        }
+        return execute(() -> hedged(attempt, hedgeAfterMillis));
+    }
+
+    private <T> void run(AsyncCalls.LinkedFuture<T> result, Supplier<CompletableFuture<T>> attempt,
+                         BooleanSupplier mayRetry, int n, long deadline) {
+        if (result.isDone()) {
+            return;
+        }
+        CompletableFuture<T> current;
+        try {
+            current = attempt.get();
+        } catch (Throwable e) {
+            result.completeExceptionally(e);
+            return;
+        }
+        result.track(current);
+        current.whenComplete((value, error) -> {
+            if (result.isDone()) {
+                return;
+            }
+            if (error == null) {
+                result.complete(value);
+                return;
+            }
+            Throwable cause = AsyncCalls.unwrap(error);
+            long delay = backoffMillis(n);
+            if (n >= maxAttempts || !isRetryable(cause) || !mayRetry.getAsBoolean()
+                    || System.currentTimeMillis() + delay >= deadline) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            System.out.println("第" + n + "次调用失败（" + cause.getMessage() + "），" + delay + "ms 后重试");
+            CompletableFuture<Void> wait = AsyncCalls.delay(delay);
+            result.track(wait);
+            wait.thenRun(() -> run(result, attempt, mayRetry, n + 1, deadline));
+        });
+    }
+
+    // 两路请求中先成功的为准；都失败时以后失败的错误结束，交给外层决定是否重试
+    private static <T> CompletableFuture<T> hedged(Supplier<CompletableFuture<T>> attempt, long hedgeAfterMillis) {
+        return new HedgedCall<>(attempt, hedgeAfterMillis).start();
+    }
+
+    private static final class HedgedCall<T> {
+        private final Supplier<CompletableFuture<T>> attempt;
+        private final long hedgeAfterMillis;
+        private final AsyncCalls.LinkedFuture<T> race = new AsyncCalls.LinkedFuture<>();
+        private final List<CompletableFuture<T>> calls = new ArrayList<>(2); // 受 this 保护
+        private CompletableFuture<Void> timer;
+        private int running;
+        private boolean hedgeAllowed = true;
+
+        HedgedCall(Supplier<CompletableFuture<T>> attempt, long hedgeAfterMillis) {
+            this.attempt = attempt;
+            this.hedgeAfterMillis = hedgeAfterMillis;
+        }
+
+        CompletableFuture<T> start() {
+            race.onCancel(this::cancelAll);
+            launch();
+            timer = AsyncCalls.delay(hedgeAfterMillis);
+            timer.thenRun(this::hedge);
+            return race;
+        }
+
+        private void hedge() {
+            synchronized (this) {
+                if (!hedgeAllowed || race.isDone()) {
+                    return;
+                }
+                hedgeAllowed = false;
+            }
+            System.out.println("请求超过 " + hedgeAfterMillis + "ms 未返回，发出对冲请求");
+            launch();
+        }
+
+        private void launch() {
+            CompletableFuture<T> call = attempt.get();
+            synchronized (this) {
+                calls.add(call);
+                running++;
+            }
+            if (race.isDone()) {
+                call.cancel(true);
+            }
+            call.whenComplete((value, error) -> {
+                if (error == null) {
+                    if (race.complete(value)) {
+                        cancelAll();
+                    }
+                    return;
+                }
+                boolean failed;
+                synchronized (this) {
+                    running--;
+                    // 对冲前就失败时不再对冲，直接交给外层重试
+                    hedgeAllowed = false;
+                    failed = running == 0;
+                }
+                if (failed && race.completeExceptionally(AsyncCalls.unwrap(error))) {
+                    cancelAll();
+                }
+            });
+        }
+
+        private void cancelAll() {
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            List<CompletableFuture<T>> snapshot;
+            synchronized (this) {
+                snapshot = new ArrayList<>(calls);
+            }
+            for (CompletableFuture<T> call : snapshot) {
+                call.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.lorn.edu.ai;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+// 执行阻塞操作（同步等待上游结果、读写文件、编译和运行代码）的共享线程层，由 -Dzhipu.executor.mode 选择：
+//   bounded  固定数量的平台线程加有界队列，队列满时拒绝（RejectedExecutionException），默认
+//   forkjoin ForkJoinPool，任务阻塞在 CompletableFuture.get/join 上时池会临时补充线程，适合提交后等待上游结果的任务
+//            （JDK 19 起 ForkJoinPool.shutdown 会中断阻塞等待中的任务，停止前应先等任务结束）
+//   virtual  每个任务一个虚拟线程，阻塞时不占用平台线程；需要用 -Pjava21 构建并在 JDK 21 上运行，否则退回 bounded。
+//            该模式下 OkHttp 的回调（读取流式回复、下载图片视频）也在虚拟线程中执行，见 HttpTransport
+// 系统属性：-Dzhipu.executor.mode=bounded -Dzhipu.executor.threads=64 -Dzhipu.executor.queue=10000
+public final class ServiceExecutors {
+    private static final String PROPERTY_PREFIX = "zhipu.executor.";
+    // 只在 -Pjava21 构建时编译（src/java21/java），Java 8 构建中不存在
+    private static final String VIRTUAL_FACTORY = "com.lorn.edu.ai.VirtualThreadExecutors";
+
+    public enum Mode {
+        BOUNDED, FORKJOIN, VIRTUAL;
+
+        public static Mode parse(String value) {
+            try {
+                return valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("未知的执行模式: " + value + "（可选 bounded、forkjoin、virtual）");
+            }
+        }
+    }
+
+    private static volatile ExecutorService defaultExecutor;
+    private static volatile Mode defaultMode;
+    private static volatile Function<String, ExecutorService> virtualFactory;
+    private static volatile boolean virtualFactoryLoaded;
+
+    private ServiceExecutors() {
+    }
+
+    public static ExecutorService getDefault() {
+        ExecutorService executor = defaultExecutor;
+        if (executor == null) {
+            synchronized (ServiceExecutors.class) {
+                executor = defaultExecutor;
+                if (executor == null) {
+                    Mode mode = configuredMode();
+                    executor = create(mode, Integer.getInteger(PROPERTY_PREFIX + "threads", 64),
+                            Integer.getInteger(PROPERTY_PREFIX + "queue", 10_000), "zhipu-blocking");
+                    defaultExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    // 实际使用的模式：配置为 virtual 但当前构建或 JDK 不支持时为 bounded
+    public static Mode getMode() {
+        Mode mode = defaultMode;
+        if (mode == null) {
+            mode = configuredMode();
+            if (mode == Mode.VIRTUAL && virtualFactory() == null) {
+                mode = Mode.BOUNDED;
+            }
+            defaultMode = mode;
+        }
+        return mode;
+    }
+
+    private static Mode configuredMode() {
+        return Mode.parse(System.getProperty(PROPERTY_PREFIX + "mode", "bounded"));
+    }
+
+    // threads 和 queueCapacity 对 virtual 模式无效；forkjoin 模式的 threads 为并行度
+    public static ExecutorService create(Mode mode, int threads, int queueCapacity, String namePrefix) {
+        if (mode == Mode.VIRTUAL) {
+            Function<String, ExecutorService> factory = virtualFactory();
+            if (factory != null) {
+                return factory.apply(namePrefix);
+            }
+            System.out.println("当前构建或 JDK 不支持虚拟线程（需要 -Pjava21 构建并在 JDK 21 上运行），改用 bounded 模式");
+            mode = Mode.BOUNDED;
+        }
+        if (mode == Mode.FORKJOIN) {
+            AtomicInteger sequence = new AtomicInteger();
+            return new ForkJoinPool(threads, pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName(namePrefix + "-" + sequence.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }, null, true);
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), daemonThreads(namePrefix), new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public static boolean isVirtualThreadSupported() {
+        return virtualFactory() != null;
+    }
+
+    // OkHttp Dispatcher 使用的线程：virtual 模式下为虚拟线程，否则返回 null，使用 OkHttp 自带的线程池
+    static ExecutorService httpDispatcherExecutor() {
+        if (getMode() != Mode.VIRTUAL) {
+            return null;
+        }
+        return virtualFactory().apply("OkHttp");
+    }
+
+    // 在默认执行器中运行阻塞任务；返回的 future 被取消时中断正在执行的任务，执行器拒绝时以 RejectedExecutionException 结束
+    public static <T> CompletableFuture<T> supplyAsync(Callable<T> task) {
+        return supplyAsync(getDefault(), task);
+    }
+
+    public static <T> CompletableFuture<T> supplyAsync(ExecutorService executor, Callable<T> task) {
+        AsyncCalls.LinkedFuture<T> result = new AsyncCalls.LinkedFuture<>();
+        try {
+            Future<?> running = executor.submit(() -> {
+                if (result.isDone()) {
+                    return;
+                }
+                try {
+                    result.complete(task.call());
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+            result.track(running);
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    public static String getStats() {
+        ExecutorService executor = defaultExecutor;
+        if (executor == null) {
+            return "执行器 " + getMode().name().toLowerCase() + "（未使用）";
+        }
+        if (executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            return String.format("执行器 bounded 线程 %d/%d（活动 %d），排队 %d，已完成 %d",
+                    pool.getPoolSize(), pool.getMaximumPoolSize(), pool.getActiveCount(),
+                    pool.getQueue().size(), pool.getCompletedTaskCount());
+        }
+        if (executor instanceof ForkJoinPool) {
+            ForkJoinPool pool = (ForkJoinPool) executor;
+            return String.format("执行器 forkjoin 并行度 %d，线程 %d（活动 %d），排队 %d",
+                    pool.getParallelism(), pool.getPoolSize(), pool.getActiveThreadCount(),
+                    pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount());
+        }
+        return "执行器 " + getMode().name().toLowerCase();
+    }
+
+    public static void shutdown() {
+        synchronized (ServiceExecutors.class) {
+            if (defaultExecutor != null) {
+                defaultExecutor.shutdownNow();
+                defaultExecutor = null;
+            }
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String namePrefix) {
+        AtomicInteger sequence = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, namePrefix + "-" + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // 类不存在（Java 8 构建）或类文件版本高于当前 JDK 时返回 null
+    @SuppressWarnings("unchecked")
+    private static Function<String, ExecutorService> virtualFactory() {
+        if (!virtualFactoryLoaded) {
+            synchronized (ServiceExecutors.class) {
+                if (!virtualFactoryLoaded) {
+                    try {
+                        virtualFactory = (Function<String, ExecutorService>) Class.forName(VIRTUAL_FACTORY)
+                                .getDeclaredConstructor().newInstance();
+                    } catch (ReflectiveOperationException | LinkageError e) {
+                        virtualFactory = null;
+                    }
+                    virtualFactoryLoaded = true;
+                }
+            }
+        }
+        return virtualFactory;
+    }
+}
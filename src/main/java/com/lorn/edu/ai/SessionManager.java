@@ -0,0 +1,356 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSONObject;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// 多用户会话存储：按会话 ID 保存对话上下文、模式和模型选择。
+// 查找走 ConcurrentHashMap，不需要全局锁；后台线程定期淘汰空闲会话。
+// 所有会话保留的历史总字节数有硬上限，超出时按最近访问时间淘汰最旧的会话；
+// 老年代在 GC 后仍超过阈值（内存压力）时，也会立即淘汰最旧的一部分会话。
+// 配置了 ConversationStore 时，消息通过 record 异步持久化，会话首次访问（包括被淘汰后再次访问）时从数据库恢复最近的历史；
+// Web 请求用 getOrCreateAsync 在 ServiceExecutors 中恢复，不占用容器线程。
+// 系统属性：-Dzhipu.session.idleMinutes=30 -Dzhipu.session.maxTotalBytes=268435456
+//          -Dzhipu.session.heapPressureRatio=0.85 -Dzhipu.session.sweepSeconds=30
+//          -Dzhipu.session.restoreMessages=40
+public class SessionManager {
+    private static final String PROPERTY_PREFIX = "zhipu.session.";
+    // 超出上限时一次淘汰到上限的 90%，避免每条消息都触发淘汰
+    private static final double EVICT_TARGET_RATIO = 0.9;
+    // 内存压力下每次淘汰的会话比例（按保留字节数）
+    private static final double PRESSURE_EVICT_FRACTION = 0.25;
+    // 恢复前等待写线程处理完该会话已入队的消息和删除的最长时间
+    private static final long RESTORE_FLUSH_MILLIS = 5000;
+
+    private final Map<String, TutoringSession> sessions = new ConcurrentHashMap<>();
+    private final Supplier<ConversationContext> contextFactory;
+    private final ConversationStore store;
+    private final int restoreMessages;
+    private final long idleTimeoutMillis;
+    private final long maxTotalBytes;
+    private final double heapPressureRatio;
+    private final ScheduledExecutorService sweeper;
+    private final NotificationListener pressureListener = this::onMemoryNotification;
+
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong idleEvictions = new AtomicLong();
+    private final AtomicLong capacityEvictions = new AtomicLong();
+    private final AtomicLong pressureEvictions = new AtomicLong();
+
+    public SessionManager(Supplier<ConversationContext> contextFactory, long idleTimeoutMillis,
+                          long maxTotalBytes, double heapPressureRatio, long sweepIntervalMillis) {
+        this(contextFactory, null, 0, idleTimeoutMillis, maxTotalBytes, heapPressureRatio, sweepIntervalMillis);
+    }
+
+    // store 为 null 时不持久化；restoreMessages 为恢复会话时读取的最近消息条数
+    public SessionManager(Supplier<ConversationContext> contextFactory, ConversationStore store, int restoreMessages,
+                          long idleTimeoutMillis, long maxTotalBytes, double heapPressureRatio,
+                          long sweepIntervalMillis) {
+        this.contextFactory = contextFactory;
+        this.store = store;
+        this.restoreMessages = restoreMessages;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxTotalBytes = maxTotalBytes;
+        this.heapPressureRatio = heapPressureRatio;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "session-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+        if (heapPressureRatio > 0) {
+            registerPressureListener();
+        }
+    }
+
+    public static SessionManager fromSystemProperties(Supplier<ConversationContext> contextFactory,
+                                                      ConversationStore store) {
+        return new SessionManager(contextFactory, store,
+                Integer.getInteger(PROPERTY_PREFIX + "restoreMessages", 40),
+                TimeUnit.MINUTES.toMillis(Long.getLong(PROPERTY_PREFIX + "idleMinutes", 30)),
+                Long.getLong(PROPERTY_PREFIX + "maxTotalBytes", 256L * 1024 * 1024),
+                Double.parseDouble(System.getProperty(PROPERTY_PREFIX + "heapPressureRatio", "0.85")),
+                TimeUnit.SECONDS.toMillis(Long.getLong(PROPERTY_PREFIX + "sweepSeconds", 30)));
+    }
+
+    // 取出会话并刷新访问时间，不存在或已被淘汰时创建新会话并从数据库恢复历史（在调用线程中读取数据库）
+    public TutoringSession getOrCreate(String id) {
+        TutoringSession session = sessions.computeIfAbsent(id, k -> new TutoringSession(k, contextFactory.get()));
+        session.touch();
+        if (store != null) {
+            restore(session);
+        }
+        return session;
+    }
+
+    // 同 getOrCreate，需要恢复历史时在 ServiceExecutors 中读取数据库，已恢复过的会话直接返回
+    public CompletableFuture<TutoringSession> getOrCreateAsync(String id) {
+        TutoringSession session = sessions.computeIfAbsent(id, k -> new TutoringSession(k, contextFactory.get()));
+        session.touch();
+        synchronized (session) {
+            if (store == null || session.restored) {
+                return CompletableFuture.completedFuture(session);
+            }
+        }
+        return ServiceExecutors.supplyAsync(() -> {
+            restore(session);
+            return session;
+        });
+    }
+
+    // 批量预加载多个会话（例如服务重启后恢复活跃用户），一条查询读取所有会话的历史
+    public void preload(Collection<String> ids) throws SQLException {
+        if (store == null) {
+            return;
+        }
+        List<TutoringSession> pending = new ArrayList<>();
+        for (String id : ids) {
+            TutoringSession session = sessions.computeIfAbsent(id, k -> new TutoringSession(k, contextFactory.get()));
+            synchronized (session) {
+                if (!session.restored) {
+                    pending.add(session);
+                }
+            }
+        }
+        List<String> pendingIds = new ArrayList<>();
+        for (TutoringSession session : pending) {
+            pendingIds.add(session.getId());
+        }
+        if (!flushStore(pendingIds)) {
+            return;
+        }
+        Map<String, List<JSONObject>> histories = store.loadHistories(pendingIds, restoreMessages);
+        for (TutoringSession session : pending) {
+            synchronized (session) {
+                if (session.restored) {
+                    continue;
+                }
+                List<JSONObject> history = histories.get(session.getId());
+                if (history != null) {
+                    session.getContext().restore(history);
+                }
+                session.restored = true;
+            }
+            updateUsage(session);
+        }
+    }
+
+    // 追加到持久化队列，不等待写入；未配置数据库时什么也不做
+    public void record(TutoringSession session, String role, String content) {
+        if (store != null) {
+            store.append(session.getId(), role, content);
+        }
+    }
+
+    // 清空会话的对话历史，包括已持久化的部分
+    public void clear(String id) {
+        remove(id);
+        if (store != null) {
+            store.deleteSession(id);
+        }
+    }
+
+    public TutoringSession get(String id) {
+        TutoringSession session = sessions.get(id);
+        if (session != null) {
+            session.touch();
+        }
+        return session;
+    }
+
+    public void remove(String id) {
+        TutoringSession session = sessions.get(id);
+        if (session != null) {
+            evict(session);
+        }
+    }
+
+    // 会话新增消息后调用，更新占用统计并在超出总上限时淘汰最久未访问的会话
+    public void updateUsage(TutoringSession session) {
+        long bytes = session.getContext().estimateRetainedBytes();
+        synchronized (session) {
+            if (session.evicted) {
+                return;
+            }
+            totalBytes.addAndGet(bytes - session.retainedBytes);
+            session.retainedBytes = bytes;
+        }
+        if (totalBytes.get() > maxTotalBytes) {
+            long evicted = evictOldest((long) (maxTotalBytes * EVICT_TARGET_RATIO), session);
+            capacityEvictions.addAndGet(evicted);
+        }
+    }
+
+    // 同一会话的并发请求只恢复一次；读取失败时这次当作新会话继续，下次访问时再恢复。
+    // 先等写线程处理完该会话已入队的消息：被淘汰的会话最近几条消息可能还在队列中，
+    // 刚清空的会话的删除也可能还没执行，直接读取会漏掉消息或读回已清空的历史。
+    private void restore(TutoringSession session) {
+        synchronized (session) {
+            if (session.restored) {
+                return;
+            }
+            if (!flushStore(Collections.singletonList(session.getId()))) {
+                return;
+            }
+            try {
+                List<JSONObject> history = store.loadHistory(session.getId(), restoreMessages);
+                if (!history.isEmpty()) {
+                    session.getContext().restore(history);
+                }
+                session.restored = true;
+            } catch (SQLException e) {
+                System.out.println("恢复会话历史失败: " + e.getMessage());
+                return;
+            }
+        }
+        updateUsage(session);
+    }
+
+    // 等待超时或被中断时放弃恢复，宁可当作新会话也不读回不完整或已删除的历史
+    private boolean flushStore(Collection<String> ids) {
+        try {
+            if (store.flush(ids, RESTORE_FLUSH_MILLIS)) {
+                return true;
+            }
+            System.out.println("等待对话写入超时，跳过恢复会话历史");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    public long getRetainedBytes() {
+        return totalBytes.get();
+    }
+
+    public String getStats() {
+        return String.format("会话 %d 个，保留历史约 %.1f MB（上限 %.1f MB），已淘汰：空闲 %d，超出上限 %d，内存压力 %d",
+                size(), totalBytes.get() / 1048576.0, maxTotalBytes / 1048576.0,
+                idleEvictions.get(), capacityEvictions.get(), pressureEvictions.get());
+    }
+
+    public void shutdown() {
+        sweeper.shutdownNow();
+        if (heapPressureRatio > 0) {
+            try {
+                ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(pressureListener);
+            } catch (Exception e) {
+                // 监听器未注册成功
+            }
+        }
+    }
+
+    private void sweep() {
+        try {
+            long idleBefore = System.currentTimeMillis() - idleTimeoutMillis;
+            for (TutoringSession session : sessions.values()) {
+                if (session.getLastAccess() < idleBefore && evict(session)) {
+                    idleEvictions.incrementAndGet();
+                }
+            }
+            if (isUnderMemoryPressure()) {
+                relieveMemoryPressure();
+            }
+        } catch (RuntimeException e) {
+            // 不让异常终止定时任务
+            System.out.println("会话清理失败: " + e.getMessage());
+        }
+    }
+
+    private void relieveMemoryPressure() {
+        long target = (long) (totalBytes.get() * (1 - PRESSURE_EVICT_FRACTION));
+        pressureEvictions.addAndGet(evictOldest(target, null));
+    }
+
+    // 按最近访问时间从旧到新淘汰，直到总字节数不超过 targetBytes；keep 为当前正在使用的会话，最后才考虑
+    private synchronized long evictOldest(long targetBytes, TutoringSession keep) {
+        if (totalBytes.get() <= targetBytes) {
+            return 0;
+        }
+        List<TutoringSession> candidates = new ArrayList<>(sessions.values());
+        candidates.sort(Comparator.comparingLong(TutoringSession::getLastAccess));
+        long evicted = 0;
+        for (TutoringSession session : candidates) {
+            if (totalBytes.get() <= targetBytes) {
+                break;
+            }
+            if (session != keep && evict(session)) {
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    private boolean evict(TutoringSession session) {
+        if (!sessions.remove(session.getId(), session)) {
+            return false;
+        }
+        synchronized (session) {
+            session.evicted = true;
+            totalBytes.addAndGet(-session.retainedBytes);
+            session.retainedBytes = 0;
+        }
+        // 取消进行中的摘要并释放历史
+        session.getContext().clear();
+        return true;
+    }
+
+    // 老年代 GC 后的占用超过阈值：说明存活对象确实过多，而不是尚未回收的垃圾
+    private boolean isUnderMemoryPressure() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP || !pool.isCollectionUsageThresholdSupported()) {
+                continue;
+            }
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null && usage.getMax() > 0 && usage.getUsed() > usage.getMax() * heapPressureRatio) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void registerPressureListener() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()) {
+                long max = pool.getUsage().getMax();
+                if (max > 0 && pool.getCollectionUsageThreshold() == 0) {
+                    pool.setCollectionUsageThreshold((long) (max * heapPressureRatio));
+                }
+            }
+        }
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean())
+                .addNotificationListener(pressureListener, null, null);
+    }
+
+    // 在 GC 通知线程中回调，淘汰交给清理线程执行
+    private void onMemoryNotification(Notification notification, Object handback) {
+        if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+            sweeper.execute(this::relieveMemoryPressure);
+        }
+    }
+}
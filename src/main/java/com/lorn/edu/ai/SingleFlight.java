@@ -0,0 +1,193 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// 合并并发的相同请求：同一个键的请求正在进行时，后来的调用方不再发起上游调用，而是等待同一个结果。
+// 每个调用方拿到各自的 future，成功或失败（含重试后的最终错误）都会传给所有调用方；
+// 取消只让该调用方离开，所有调用方都取消后才取消上游调用。请求结束即移除，不缓存结果。
+// 系统属性：-Dzhipu.singleFlight.enabled=true
+public class SingleFlight<V> {
+    private static final Map<String, SingleFlight<?>> INSTANCES = new ConcurrentHashMap<>();
+    private static final boolean ENABLED =
+            Boolean.parseBoolean(System.getProperty("zhipu.singleFlight.enabled", "true"));
+
+    private final String name;
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong joined = new AtomicLong();
+
+    private SingleFlight(String name) {
+        this.name = name;
+    }
+
+    // 同名实例全局共用，不同服务实例发出的相同请求也能合并
+    @SuppressWarnings("unchecked")
+    public static <V> SingleFlight<V> named(String name) {
+        return (SingleFlight<V>) INSTANCES.computeIfAbsent(name, SingleFlight::new);
+    }
+
+    public static String getReport() {
+        if (INSTANCES.isEmpty()) {
+            return "暂无请求合并记录";
+        }
+        StringBuilder report = new StringBuilder();
+        for (SingleFlight<?> flight : INSTANCES.values()) {
+            report.append(flight.getStats()).append('\n');
+        }
+        return report.toString().trim();
+    }
+
+    // 没有相同请求在进行时调用 call 发起请求，否则加入已有请求
+    public CompletableFuture<V> execute(String key, Supplier<CompletableFuture<V>> call) {
+        if (!ENABLED) {
+            return call.get();
+        }
+        while (true) {
+            Flight flight = flights.get(key);
+            if (flight == null) {
+                Flight created = new Flight(key);
+                flight = flights.putIfAbsent(key, created);
+                if (flight == null) {
+                    started.incrementAndGet();
+                    CompletableFuture<V> view = created.join();
+                    created.start(call);
+                    return view;
+                }
+            }
+            CompletableFuture<V> view = flight.join();
+            if (view != null) {
+                joined.incrementAndGet();
+                System.out.println("相同请求正在进行，合并等待其结果");
+                return view;
+            }
+            // 该请求的调用方已全部取消，正在撤销，重新发起
+            flights.remove(key, flight);
+        }
+    }
+
+    public int getInFlight() {
+        return flights.size();
+    }
+
+    public long getJoined() {
+        return joined.get();
+    }
+
+    public String getStats() {
+        long total = started.get() + joined.get();
+        return String.format("%s 上游调用 %d 次，合并 %d 次（%.1f%%），进行中 %d 个",
+                name, started.get(), joined.get(), total == 0 ? 0.0 : joined.get() * 100.0 / total,
+                flights.size());
+    }
+
+    // 一个进行中的上游请求及其等待者
+    private final class Flight {
+        private final String key;
+        private final AsyncCalls.LinkedFuture<V> shared = new AsyncCalls.LinkedFuture<>();
+        private int waiters;     // 受 this 保护
+        private boolean closed;  // 受 this 保护，所有等待者都已离开
+
+        Flight(String key) {
+            this.key = key;
+            shared.whenComplete((value, error) -> flights.remove(key, this));
+        }
+
+        void start(Supplier<CompletableFuture<V>> call) {
+            CompletableFuture<V> upstream;
+            try {
+                upstream = call.get();
+            } catch (Throwable e) {
+                shared.completeExceptionally(e);
+                return;
+            }
+            shared.track(upstream);
+            upstream.whenComplete((value, error) -> {
+                if (error != null) {
+                    shared.completeExceptionally(AsyncCalls.unwrap(error));
+                } else {
+                    shared.complete(value);
+                }
+            });
+        }
+
+        // 返回 null 表示该请求已被撤销，不能再加入
+        CompletableFuture<V> join() {
+            synchronized (this) {
+                if (closed) {
+                    return null;
+                }
+                waiters++;
+            }
+            AsyncCalls.LinkedFuture<V> view = new AsyncCalls.LinkedFuture<>();
+            view.onCancel(this::leave);
+            shared.whenComplete((value, error) -> {
+                if (error != null) {
+                    view.completeExceptionally(AsyncCalls.unwrap(error));
+                } else {
+                    view.complete(value);
+                }
+            });
+            return view;
+        }
+
+        private void leave() {
+            synchronized (this) {
+                if (--waiters > 0 || shared.isDone()) {
+                    return;
+                }
+                closed = true;
+            }
+            flights.remove(key, this);
+            shared.cancel(true);
+        }
+    }
+
+    // 请求键：各部分与消息列表（按字段名排序后的全部字段）的 SHA-256
+    public static String key(List<JSONObject> messages, String... parts) {
+        MessageDigest digest = newDigest();
+        for (String part : parts) {
+            update(digest, part);
+        }
+        if (messages != null) {
+            for (JSONObject message : messages) {
+                for (Map.Entry<String, Object> field : new TreeMap<>(message).entrySet()) {
+                    update(digest, field.getKey());
+                    Object value = field.getValue();
+                    update(digest, value instanceof String ? (String) value : JSONObject.toJSONString(value));
+                }
+                digest.update((byte) 1);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        if (value != null) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) 0);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
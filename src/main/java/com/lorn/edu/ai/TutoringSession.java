@@ -0,0 +1,85 @@
+package com.lorn.edu.ai;
+
+// 一个学生的辅导会话：对话上下文、当前模式（自动选择、代码或聊天）、模型选择和是否使用答案缓存。
+// 这些选项为 volatile 字段，可在任意线程读取；对话上下文自身是线程安全的。
+// 被 SessionManager 淘汰后 isEvicted 返回 true，之后的请求会拿到一个新的会话。
+public class TutoringSession {
+    private final String id;
+    private final ConversationContext context;
+    private final long createdAt = System.currentTimeMillis();
+    private volatile long lastAccess = createdAt;
+    private volatile boolean autoModel = true;
+    private volatile boolean codeMode;
+    private volatile ChatService.ModelType chatModel = ChatService.ModelType.GLM4;
+    private volatile boolean answerCacheEnabled = true;
+
+    // 以下三个字段由 SessionManager 在 synchronized (this) 中维护
+    long retainedBytes;
+    boolean evicted;
+    // 是否已从 ConversationStore 恢复过历史
+    boolean restored;
+
+    TutoringSession(String id, ConversationContext context) {
+        this.id = id;
+        this.context = context;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public ConversationContext getContext() {
+        return context;
+    }
+
+    // 为 true 时每个请求由 ModelRouter 选择模型，忽略 codeMode 和 chatModel
+    public boolean isAutoModel() {
+        return autoModel;
+    }
+
+    public void setAutoModel(boolean autoModel) {
+        this.autoModel = autoModel;
+    }
+
+    public boolean isCodeMode() {
+        return codeMode;
+    }
+
+    public void setCodeMode(boolean codeMode) {
+        this.codeMode = codeMode;
+    }
+
+    // 通用聊天模式使用的模型；代码模式固定为 CodeGeeX-4
+    public ChatService.ModelType getChatModel() {
+        return chatModel;
+    }
+
+    public void setChatModel(ChatService.ModelType chatModel) {
+        this.chatModel = chatModel;
+    }
+
+    // 关闭后该会话的首轮提问总是请求模型，回答也不写入答案缓存
+    public boolean isAnswerCacheEnabled() {
+        return answerCacheEnabled;
+    }
+
+    public void setAnswerCacheEnabled(boolean answerCacheEnabled) {
+        this.answerCacheEnabled = answerCacheEnabled;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getLastAccess() {
+        return lastAccess;
+    }
+
+    void touch() {
+        lastAccess = System.currentTimeMillis();
+    }
+
+    public synchronized boolean isEvicted() {
+        return evicted;
+    }
+}
@@ -1,31 +1,49 @@
 package com.lorn.edu.ai;
 
-import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import okhttp3.*;
 
 import java.io.File;
-import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 public class VideoService {
-    private static final String API_KEY = "替换成您的API Key";
-    private static final String GENERATE_API_URL = "https://open.bigmodel.cn/api/paas/v4/videos/generations";
-    private static final String QUERY_API_URL = "https://open.bigmodel.cn/api/paas/v4/async-result";
-    private static final String VIDEO_SAVE_PATH = "E:\\WorkSpace\\cloud_resource\\static\\videos\\";//将所生成的视频保存到您的本地磁盘
+    // 也可以通过 -Dzhipu.api.key 提供
+    private static final String API_KEY = System.getProperty("zhipu.api.key", "替换成您的API Key");
+    private static final String MODEL = "cogvideox";
+    private static final String VIDEO_SAVE_PATH = System.getProperty("zhipu.video.saveDir",
+            "E:\\WorkSpace\\cloud_resource\\static\\videos\\");//将所生成的视频保存到您的本地磁盘，目录需以分隔符结尾
     //文生视使用示例   如：视频 一只小狗在开心的奔跑
+    // 已提交任务的日志，可通过 -Dzhipu.video.journal 指定位置
+    private static final String JOURNAL_PATH =
+            System.getProperty("zhipu.video.journal", VIDEO_SAVE_PATH + "video-tasks.journal");
 
     private final OkHttpClient client;
-    private static final long QUERY_INTERVAL = 10000; // 10秒
-    private static final int MAX_QUERY_TIMES = 60; // 10分钟
+    private final String generateUrl;
+    private final AdaptiveLimiter limiter;
+    private final RetryPolicy submitPolicy = RetryPolicy.forService("video", RetryPolicy.DEFAULT).nonIdempotent();
+    private final RetryPolicy downloadPolicy = RetryPolicy.forService("video-download", RetryPolicy.DEFAULT);
+    // 所有待完成任务共用一个轮询调度线程，同一进程中的 VideoService 共用同一个轮询器
+    private final VideoTaskPoller poller;
+    private final VideoTaskJournal journal;
 
     public VideoService() {
-        this.client = new OkHttpClient.Builder()
-                .connectTimeout(30, java.util.concurrent.TimeUnit.SECONDS)
-                .readTimeout(60, java.util.concurrent.TimeUnit.SECONDS)
-                .writeTimeout(30, java.util.concurrent.TimeUnit.SECONDS)
-                .retryOnConnectionFailure(true)
-                .build();
+        this(HttpTransport.getDefault().newClient(
+                HttpTransport.Timeouts.forService("video", HttpTransport.Timeouts.DEFAULT)));
+    }
+
+    public VideoService(OkHttpClient client) {
+        this(client, VideoTaskJournal.forPath(new File(JOURNAL_PATH)));
+    }
+
+    public VideoService(OkHttpClient client, VideoTaskJournal journal) {
+        this.client = client;
+        this.generateUrl = HttpTransport.apiUrl("video", "/videos/generations");
+        this.limiter = AdaptiveLimiter.forEndpoint(API_KEY, "videos");
+        this.poller = VideoTaskPoller.forEndpoint(client, HttpTransport.apiUrl("video", "/async-result"), API_KEY);
+        this.journal = journal;
     }
 
     public String generateVideo(String prompt) throws Exception {
@@ -33,13 +51,21 @@ public class VideoService {
     }
 
     public String generateVideo(String prompt, String imageUrl) throws Exception {
+        return AsyncCalls.await(generateVideoAsync(prompt, imageUrl));
+    }
+
+    public CompletableFuture<String> generateVideoAsync(String prompt) {
+        return generateVideoAsync(prompt, null);
+    }
+
+    public CompletableFuture<String> generateVideoAsync(String prompt, String imageUrl) {
         // 生成请求ID
         String requestId = UUID.randomUUID().toString();
         System.out.println("开始生成视频，请求ID: " + requestId);
 
         // 准备请求体
         JSONObject requestBody = new JSONObject();
-        requestBody.put("model", "cogvideox");
+        requestBody.put("model", MODEL);
         requestBody.put("prompt", prompt);
         requestBody.put("request_id", requestId);
 
@@ -51,117 +77,86 @@ public class VideoService {
 
         // 发送生成请求
         Request request = new Request.Builder()
-                .url(GENERATE_API_URL)
+                .url(generateUrl)
                 .addHeader("Authorization", "Bearer " + API_KEY)
                 .addHeader("Content-Type", "application/json")
                 .post(RequestBody.create(MediaType.parse("application/json"), requestBody.toString()))
                 .build();
 
-        try (Response response = client.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                throw new IOException("视频生成请求失败，状态码: " + response.code());
-            }
-
-            JSONObject jsonResponse = JSON.parseObject(response.body().string());
-            String taskId = jsonResponse.getString("id");
-
-            // 轮询查询结果
-            return pollVideoResult(taskId);
-        }
-    }
+        // 视频按提交到下载完成的端到端耗时统计，生成排队时间占绝大部分
+        ModelMetrics.Timer timer = ModelMetrics.getDefault().start("video", MODEL);
 
-    private String pollVideoResult(String taskId) throws Exception {
-        System.out.println("获取到任务ID: " + taskId);
-
-        for (int i = 0; i < MAX_QUERY_TIMES; i++) {
-            Thread.sleep(QUERY_INTERVAL);
+        // 提交不是幂等的：只在确定请求未被处理（429、连接失败等）时重试，避免生成重复任务
+        CompletableFuture<String> taskId = submitPolicy.execute(() ->
+                AsyncCalls.enqueue(client.newCall(request), limiter, response -> {
+                    timer.status(response.code());
+                    if (!response.isSuccessful()) {
+                        throw ModelApiException.from(response, "视频生成请求失败");
+                    }
 
-            // 构建查询URL
-            String queryUrl = QUERY_API_URL + "/" + taskId;
-            System.out.println("第" + (i + 1) + "次查询，URL: " + queryUrl);
+                    return ResponseExtractor.parse(response.body()).getId();
+                }));
 
-            Request request = new Request.Builder()
-                    .url(queryUrl)
-                    .addHeader("Authorization", "Bearer " + API_KEY)
-                    .get()
-                    .build();
+        // 先写入任务日志，再交给轮询器跟踪，成功后下载
+        return timer.track(AsyncCalls.then(taskId, id -> {
+            System.out.println("获取到任务ID: " + id);
+            journal.recordSubmitted(requestId, id, prompt);
+            return awaitAndDownload(id, System.currentTimeMillis());
+        }));
+    }
 
-            try (Response response = client.newCall(request).execute()) {
-                String responseBody = response.body().string();
-                System.out.println("查询响应: " + responseBody);
+    // 恢复上次运行时已提交但未完成的任务，继续轮询和下载，不会重新提交生成请求
+    public Map<VideoTaskJournal.Entry, CompletableFuture<String>> resumeUnfinishedTasks() {
+        Map<VideoTaskJournal.Entry, CompletableFuture<String>> resumed = new LinkedHashMap<>();
+        for (VideoTaskJournal.Entry entry : journal.loadUnfinished()) {
+            System.out.println("恢复视频任务，请求ID: " + entry.getRequestId() + "，任务ID: " + entry.getTaskId());
+            resumed.put(entry, awaitAndDownload(entry.getTaskId(), entry.getSubmittedAt()));
+        }
+        return resumed;
+    }
 
-                if (!response.isSuccessful()) {
-                    if (i < MAX_QUERY_TIMES - 1) {
-                        System.out.println("查询失败，将在" + (QUERY_INTERVAL / 1000) + "秒后重试...");
-                        continue;
-                    }
-                    throw new IOException("查询请求失败，状态码: " + response.code());
-                }
-
-                JSONObject jsonResponse = JSON.parseObject(responseBody);
-                String status = jsonResponse.getString("task_status");
-                System.out.println("任务状态: " + status);
-
-                switch (status) {
-                    case "SUCCESS":
-                        // 从video_result数组中获取视频URL
-                        JSONObject videoResult = jsonResponse.getJSONArray("video_result")
-                                .getJSONObject(0);
-                        String videoUrl = videoResult.getString("url");
-                        String coverUrl = videoResult.getString("cover_image_url");
-
-                        System.out.println("视频生成成功！");
-                        System.out.println("视频URL: " + videoUrl);
-                        System.out.println("封面URL: " + coverUrl);
-
-                        return downloadAndSaveVideo(videoUrl);
-
-                    case "FAIL":
-                        String errorMessage = jsonResponse.containsKey("error") ?
-                                jsonResponse.getString("error") : "未知错误";
-                        throw new Exception("视频生成失败: " + errorMessage);
-
-                    case "PROCESSING":
-                        System.out.println("视频正在生成中，已等待" +
-                                (i + 1) * (QUERY_INTERVAL / 1000) + "秒...");
-                        continue;
-
-                    default:
-                        throw new Exception("未知的任务状态: " + status);
-                }
-            } catch (Exception e) {
-                if (i == MAX_QUERY_TIMES - 1) {
-                    throw e;
-                }
-                System.out.println("查询出错: " + e.getMessage());
+    private CompletableFuture<String> awaitAndDownload(String taskId, long submittedAt) {
+        CompletableFuture<String> saved = AsyncCalls.then(poller.track(taskId, submittedAt),
+                result -> downloadPolicy.execute(() -> downloadAndSaveVideoAsync(taskId, result.getVideoUrl())));
+        saved.whenComplete((fileName, error) -> {
+            if (error == null) {
+                journal.recordDone(taskId, fileName);
+            } else if (AsyncCalls.unwrap(error) instanceof VideoTaskPoller.TaskFailedException) {
+                journal.recordFailed(taskId, AsyncCalls.unwrap(error).getMessage());
             }
-        }
+            // 超时、下载失败或取消时保留记录，下次启动会继续处理
+        });
+        return saved;
+    }
+
+    // 当前等待中的视频任务数
+    public int getPendingTaskCount() {
+        return poller.getPendingCount();
+    }
 
-        throw new Exception("视频生成超时，请稍后使用相同的请求ID重试");
+    // 停止共用的轮询线程（Web 应用卸载或程序退出时）；等待中的任务保留在日志中，下次启动时恢复
+    public void shutdown() {
+        poller.shutdown();
     }
 
-    private String downloadAndSaveVideo(String videoUrl) throws Exception {
+    private CompletableFuture<String> downloadAndSaveVideoAsync(String taskId, String videoUrl) {
         Request request = new Request.Builder().url(videoUrl).build();
 
-        try (Response response = client.newCall(request).execute()) {
+        return AsyncCalls.enqueue(client.newCall(request), response -> {
             if (!response.isSuccessful()) {
-                throw new IOException("视频下载失败，状态码: " + response.code());
-            }
-
-            File directory = new File(VIDEO_SAVE_PATH);
-            if (!directory.exists()) {
-                directory.mkdirs();
+                throw new ModelApiException(response.code(), null, "视频下载失败，状态码: " + response.code());
             }
 
             String timestamp = new java.text.SimpleDateFormat("yyyyMMdd_HHmmss")
                     .format(new java.util.Date());
-            String fileName = VIDEO_SAVE_PATH + "video_" + timestamp + ".mp4";
+            // 文件名带上任务ID：同一秒内完成的多个任务不会互相覆盖，重试下载同一任务时覆盖的也是自己的文件
+            String fileName = VIDEO_SAVE_PATH + "video_" + timestamp + "_"
+                    + taskId.replaceAll("[^A-Za-z0-9_-]", "_") + ".mp4";
 
-            try (java.io.FileOutputStream fos = new java.io.FileOutputStream(fileName)) {
-                fos.write(response.body().bytes());
-            }
+            // 分块写入临时文件后原子重命名，堆内存占用与文件大小无关
+            MediaDownloader.saveTo(response.body(), new File(fileName), MediaDownloader.consoleProgress("视频"));
 
             return fileName;
-        }
+        });
     }
-}
\ No newline at end of file
+}
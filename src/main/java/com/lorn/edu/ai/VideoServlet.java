@@ -0,0 +1,34 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSONObject;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+// POST /api/video  {"prompt": "...", "imageUrl": "..."}  ->  {"path": "..."}
+// 视频生成通常需要几分钟，等待期间不占用容器线程；超时后任务仍记录在日志中，重启后会继续处理
+@WebServlet(urlPatterns = "/api/video", asyncSupported = true)
+public class VideoServlet extends AsyncApiServlet {
+    private static final long serialVersionUID = 1L;
+
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(
+            Long.getLong("zhipu.web.videoTimeoutSeconds", 720));
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        JSONObject body = readJson(req);
+        String prompt = body != null ? body.getString("prompt") : null;
+        if (prompt == null || prompt.trim().isEmpty()) {
+            sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "prompt 不能为空");
+            return;
+        }
+
+        respondAsync(req, resp, TIMEOUT_MILLIS,
+                services().getVideoService().generateVideoAsync(prompt, body.getString("imageUrl")),
+                path -> Collections.singletonMap("path", path));
+    }
+}
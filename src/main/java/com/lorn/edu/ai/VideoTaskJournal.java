@@ -0,0 +1,204 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// 视频任务的追加写日志，每行一条 JSON 记录：
+// {"type":"SUBMIT","requestId":...,"taskId":...,"prompt":...,"time":...}
+// {"type":"DONE","taskId":...,"file":...} / {"type":"FAIL","taskId":...,"error":...}
+// 程序重启后据此找出已提交但尚未完成的任务，继续轮询和下载而不必重新提交生成请求。
+// 提交超过 maxAgeHours 的任务不再恢复（服务端的结果早已过期），在压缩日志时丢弃。
+// 同一个日志文件只对应一个实例（forPath），多个 VideoService 共用时写入和压缩不会互相覆盖。
+// 系统属性：-Dzhipu.video.journalMaxAgeHours=24
+public class VideoTaskJournal {
+    private static final String SUBMIT = "SUBMIT";
+    private static final String DONE = "DONE";
+    private static final String FAIL = "FAIL";
+    private static final long MAX_AGE_MILLIS =
+            TimeUnit.HOURS.toMillis(Long.getLong("zhipu.video.journalMaxAgeHours", 24));
+    private static final Map<String, VideoTaskJournal> JOURNALS = new ConcurrentHashMap<>();
+
+    private final File file;
+    private final long maxAgeMillis;
+
+    public static final class Entry {
+        private final String requestId;
+        private final String taskId;
+        private final String prompt;
+        private final long submittedAt;
+
+        Entry(String requestId, String taskId, String prompt, long submittedAt) {
+            this.requestId = requestId;
+            this.taskId = taskId;
+            this.prompt = prompt;
+            this.submittedAt = submittedAt;
+        }
+
+        public String getRequestId() {
+            return requestId;
+        }
+
+        public String getTaskId() {
+            return taskId;
+        }
+
+        public String getPrompt() {
+            return prompt;
+        }
+
+        public long getSubmittedAt() {
+            return submittedAt;
+        }
+    }
+
+    VideoTaskJournal(File file, long maxAgeMillis) {
+        this.file = file;
+        this.maxAgeMillis = maxAgeMillis;
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+    }
+
+    // 返回该路径共用的日志实例
+    public static VideoTaskJournal forPath(File file) {
+        String key;
+        try {
+            key = file.getCanonicalPath();
+        } catch (IOException e) {
+            key = file.getAbsolutePath();
+        }
+        return JOURNALS.computeIfAbsent(key, k -> new VideoTaskJournal(new File(k), MAX_AGE_MILLIS));
+    }
+
+    public void recordSubmitted(String requestId, String taskId, String prompt) {
+        JSONObject record = new JSONObject();
+        record.put("type", SUBMIT);
+        record.put("requestId", requestId);
+        record.put("taskId", taskId);
+        record.put("prompt", prompt);
+        record.put("time", System.currentTimeMillis());
+        append(record);
+    }
+
+    public void recordDone(String taskId, String fileName) {
+        JSONObject record = new JSONObject();
+        record.put("type", DONE);
+        record.put("taskId", taskId);
+        record.put("file", fileName);
+        append(record);
+    }
+
+    public void recordFailed(String taskId, String error) {
+        JSONObject record = new JSONObject();
+        record.put("type", FAIL);
+        record.put("taskId", taskId);
+        record.put("error", error);
+        append(record);
+    }
+
+    // 读取尚未完成的任务，并把日志压缩为只包含这些任务的记录
+    public synchronized List<Entry> loadUnfinished() {
+        Map<String, Entry> unfinished = new LinkedHashMap<>();
+        if (!file.isFile()) {
+            return new ArrayList<>();
+        }
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(Files.newInputStream(file.toPath()), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                JSONObject record;
+                try {
+                    record = JSON.parseObject(line);
+                } catch (RuntimeException e) {
+                    // 进程在写入过程中退出时，最后一行可能不完整
+                    System.out.println("跳过损坏的视频任务记录: " + line);
+                    continue;
+                }
+                String taskId = record.getString("taskId");
+                if (SUBMIT.equals(record.getString("type"))) {
+                    unfinished.put(taskId, new Entry(record.getString("requestId"), taskId,
+                            record.getString("prompt"), record.getLongValue("time")));
+                } else {
+                    unfinished.remove(taskId);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("读取视频任务日志失败: " + e.getMessage());
+            return new ArrayList<>();
+        }
+
+        long oldest = System.currentTimeMillis() - maxAgeMillis;
+        for (Iterator<Entry> it = unfinished.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry.getSubmittedAt() < oldest) {
+                System.out.println("视频任务 " + entry.getTaskId() + " 已提交超过 "
+                        + TimeUnit.MILLISECONDS.toHours(maxAgeMillis) + " 小时，不再恢复");
+                it.remove();
+            }
+        }
+
+        compact(unfinished.values());
+        return new ArrayList<>(unfinished.values());
+    }
+
+    private void compact(Iterable<Entry> entries) {
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+                for (Entry entry : entries) {
+                    JSONObject record = new JSONObject();
+                    record.put("type", SUBMIT);
+                    record.put("requestId", entry.getRequestId());
+                    record.put("taskId", entry.getTaskId());
+                    record.put("prompt", entry.getPrompt());
+                    record.put("time", entry.getSubmittedAt());
+                    writer.write(record.toJSONString());
+                    writer.write('\n');
+                }
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            System.out.println("压缩视频任务日志失败: " + e.getMessage());
+            temp.delete();
+        }
+    }
+
+    // 每条记录写入后立即刷盘，保证进程异常退出时已提交的任务不会丢失
+    private synchronized void append(JSONObject record) {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write((record.toJSONString() + "\n").getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException e) {
+            System.out.println("写入视频任务日志失败: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.lorn.edu.ai;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// CogVideoX 异步任务轮询器。
+// 所有待完成任务由一个调度线程统一安排查询时间，查询本身通过 OkHttp 异步发出，
+// 因此同时等待的视频数量不再决定占用的线程数。轮询间隔自适应：
+// 刚提交时快速查询（尽早发现立即失败），随后随任务变老拉长间隔，
+// 接近预计完成时间时重新加快，超过预计时间后再逐步放缓。
+// 同一查询地址和 API Key 只对应一个实例（forEndpoint），进程中的 VideoService 共用一个调度线程；
+// 停止服务（如 Web 应用卸载）时调用 shutdown 结束该线程。
+public class VideoTaskPoller {
+    private static final long MIN_INTERVAL = 2_000;
+    private static final long MAX_INTERVAL = 30_000;
+    private static final long FAST_PHASE = 10_000;       // 提交后前 10 秒按最小间隔查询
+    private static final long MAX_WAIT = 10 * 60_000;     // 10分钟
+    private static final double EXPECTED_WEIGHT = 0.2;   // 预计耗时的指数滑动平均权重
+    private static final Map<String, VideoTaskPoller> POLLERS = new ConcurrentHashMap<>();
+
+    private final OkHttpClient client;
+    private final String queryUrl;
+    private final AdaptiveLimiter limiter;
+    // 只用于查询出错时的分类和退避，轮询本身按自适应间隔进行
+    private final RetryPolicy queryPolicy = RetryPolicy.forService("async-result",
+            new RetryPolicy(Integer.MAX_VALUE, MIN_INTERVAL, MAX_INTERVAL, MAX_WAIT, true, false));
+    private final String apiKey;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, PendingTask> pending = new ConcurrentHashMap<>();
+
+    // 根据已完成任务的实际耗时不断修正
+    private volatile long expectedMillis = Long.getLong("zhipu.video.expectedSeconds", 120) * 1000;
+
+    public static final class VideoResult {
+        private final String videoUrl;
+        private final String coverImageUrl;
+
+        VideoResult(String videoUrl, String coverImageUrl) {
+            this.videoUrl = videoUrl;
+            this.coverImageUrl = coverImageUrl;
+        }
+
+        public String getVideoUrl() {
+            return videoUrl;
+        }
+
+        public String getCoverImageUrl() {
+            return coverImageUrl;
+        }
+    }
+
+    // 任务不会再完成：服务端返回 FAIL 或无法识别的状态，或者查询遇到不可重试的错误（任务不存在、欠费等）
+    public static class TaskFailedException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        TaskFailedException(String message) {
+            super(message);
+        }
+
+        TaskFailedException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private final class PendingTask {
+        final String taskId;
+        final long submittedAt;
+        final long deadline;
+        final boolean resumed;
+        final AsyncCalls.LinkedFuture<VideoResult> future = new AsyncCalls.LinkedFuture<>();
+        int queries;
+        int consecutiveErrors;
+
+        PendingTask(String taskId, long submittedAt) {
+            this.taskId = taskId;
+            this.submittedAt = submittedAt;
+            // 超时从开始跟踪时算起，重启后恢复的任务同样有完整的等待时间
+            long now = System.currentTimeMillis();
+            this.deadline = Math.max(submittedAt, now) + MAX_WAIT;
+            this.resumed = submittedAt + FAST_PHASE < now;
+            future.onCancel(() -> pending.remove(taskId));
+        }
+    }
+
+    public VideoTaskPoller(OkHttpClient client, String queryUrl, String apiKey) {
+        this.client = client;
+        this.queryUrl = queryUrl;
+        this.limiter = AdaptiveLimiter.forEndpoint(apiKey, "async-result");
+        this.apiKey = apiKey;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "video-task-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // 返回该查询地址和 API Key 共用的轮询器，已经 shutdown 的不再返回；client 只在第一次创建时使用
+    public static VideoTaskPoller forEndpoint(OkHttpClient client, String queryUrl, String apiKey) {
+        return POLLERS.computeIfAbsent(queryUrl + '\0' + apiKey, k -> new VideoTaskPoller(client, queryUrl, apiKey));
+    }
+
+    // 开始跟踪任务，任务成功时返回视频地址；同一任务重复跟踪时返回同一个 future
+    public CompletableFuture<VideoResult> track(String taskId) {
+        return track(taskId, System.currentTimeMillis());
+    }
+
+    // submittedAt 用于恢复重启前提交的任务，使自适应间隔和超时仍按真实提交时间计算
+    public CompletableFuture<VideoResult> track(String taskId, long submittedAt) {
+        PendingTask task = new PendingTask(taskId, submittedAt);
+        PendingTask existing = pending.putIfAbsent(taskId, task);
+        if (existing != null) {
+            return existing.future;
+        }
+        schedule(task);
+        return task.future;
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    // 停止调度线程，之后不能再跟踪任务；仍在等待的任务以失败结束，任务日志中的记录保留，下次启动时恢复
+    public void shutdown() {
+        POLLERS.values().remove(this);
+        scheduler.shutdownNow();
+        for (PendingTask task : pending.values()) {
+            finish(task, null, new Exception("视频任务轮询已停止，任务ID " + task.taskId + " 已记录，重启程序后会自动继续查询"));
+        }
+    }
+
+    private void schedule(PendingTask task) {
+        long now = System.currentTimeMillis();
+        long age = now - task.submittedAt;
+        if (now >= task.deadline) {
+            finish(task, null, new Exception("视频生成超时，任务ID " + task.taskId + " 已记录，重启程序后会自动继续查询"));
+            return;
+        }
+        // 恢复的任务可能早已完成，先立即查询一次
+        long interval = task.resumed && task.queries == 0 ? 0 : nextInterval(age);
+        if (task.consecutiveErrors > 0) {
+            // 连续查询出错时按指数退避拉长间隔，不在服务异常期间密集查询
+            interval = Math.max(interval, queryPolicy.backoffMillis(task.consecutiveErrors));
+        }
+        long delay = Math.min(interval, task.deadline - now);
+        scheduler.schedule(() -> query(task), delay, TimeUnit.MILLISECONDS);
+    }
+
+    long nextInterval(long age) {
+        if (age < FAST_PHASE) {
+            return MIN_INTERVAL;
+        }
+        long expected = expectedMillis;
+        long remaining = expected - age;
+        long window = expected / 5;
+        long interval;
+        if (Math.abs(remaining) <= window) {
+            // 预计完成前后，快速查询以尽早拿到结果
+            interval = MIN_INTERVAL;
+        } else if (remaining > 0) {
+            // 距预计完成还早：间隔为剩余时间的 1/4，越接近越密
+            interval = remaining / 4;
+        } else {
+            // 已超过预计时间：随超时时长逐步放缓
+            interval = (-remaining) / 4;
+        }
+        return Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, interval));
+    }
+
+    private void query(PendingTask task) {
+        if (task.future.isDone()) {
+            return;
+        }
+        task.queries++;
+        long waited = (System.currentTimeMillis() - task.submittedAt) / 1000;
+        System.out.println("第" + task.queries + "次查询任务 " + task.taskId + "，已等待" + waited + "秒");
+
+        Request request = new Request.Builder()
+                .url(queryUrl + "/" + task.taskId)
+                .addHeader("Authorization", "Bearer " + apiKey)
+                .get()
+                .build();
+
+        CompletableFuture<ModelResponse> result = AsyncCalls.enqueue(client.newCall(request), limiter, response -> {
+            if (!response.isSuccessful()) {
+                throw ModelApiException.from(response, "查询请求失败");
+            }
+            return ResponseExtractor.parse(response.body());
+        });
+        task.future.track(result);
+
+        result.whenComplete((json, error) -> {
+            if (task.future.isDone()) {
+                return;
+            }
+            if (error != null) {
+                Throwable cause = AsyncCalls.unwrap(error);
+                if (!queryPolicy.isRetryable(cause)) {
+                    // 欠费、鉴权失败、任务不存在等：继续查询也不会有结果，重启后也不再恢复
+                    finish(task, null, new TaskFailedException("查询视频任务失败: " + cause.getMessage(), cause));
+                    return;
+                }
+                // 暂时性错误不影响任务本身，退避后继续轮询直到超时
+                task.consecutiveErrors++;
+                System.out.println("查询出错: " + cause.getMessage());
+                schedule(task);
+                return;
+            }
+            task.consecutiveErrors = 0;
+            handleStatus(task, json);
+        });
+    }
+
+    private void handleStatus(PendingTask task, ModelResponse jsonResponse) {
+        String status = jsonResponse.getTaskStatus();
+        switch (status == null ? "" : status) {
+            case "SUCCESS":
+                // 从video_result数组中获取视频URL
+                VideoResult result = new VideoResult(jsonResponse.getVideoUrl(), jsonResponse.getCoverImageUrl());
+                long elapsed = System.currentTimeMillis() - task.submittedAt;
+                if (!task.resumed) {
+                    // 恢复的任务耗时包含程序停机时间，不参与修正
+                    expectedMillis = (long) (expectedMillis * (1 - EXPECTED_WEIGHT) + elapsed * EXPECTED_WEIGHT);
+                }
+
+                System.out.println("视频生成成功！耗时" + elapsed / 1000 + "秒，查询" + task.queries + "次");
+                System.out.println("视频URL: " + result.getVideoUrl());
+                System.out.println("封面URL: " + result.getCoverImageUrl());
+                finish(task, result, null);
+                break;
+
+            case "FAIL":
+                String errorMessage = jsonResponse.getErrorMessage() != null ?
+                        jsonResponse.getErrorMessage() : "未知错误";
+                finish(task, null, new TaskFailedException("视频生成失败: " + errorMessage));
+                break;
+
+            case "PROCESSING":
+                schedule(task);
+                break;
+
+            default:
+                finish(task, null, new TaskFailedException("未知的任务状态: " + status));
+        }
+    }
+
+    private void finish(PendingTask task, VideoResult result, Exception error) {
+        pending.remove(task.taskId);
+        if (error != null) {
+            task.future.completeExceptionally(error);
+        } else {
+            task.future.complete(result);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.lorn.edu.ai;
+
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveLimiterTest {
+
+    @Test
+    void concurrencyLimitQueuesExtraRequestsInOrder() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 100, 0.2, 100, 2, 4);
+        CompletableFuture<AdaptiveLimiter.Permit> first = limiter.acquire();
+        CompletableFuture<AdaptiveLimiter.Permit> second = limiter.acquire();
+        CompletableFuture<AdaptiveLimiter.Permit> third = limiter.acquire();
+        CompletableFuture<AdaptiveLimiter.Permit> fourth = limiter.acquire();
+        assertTrue(first.isDone() && second.isDone());
+        assertFalse(third.isDone() || fourth.isDone());
+
+        first.get().release();
+        assertTrue(third.isDone());
+        assertFalse(fourth.isDone());
+        // 重复归还无效
+        first.get().release();
+        assertFalse(fourth.isDone());
+    }
+
+    @Test
+    void cancelledWaiterLeavesTheQueue() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 100, 0.2, 100, 1, 4);
+        CompletableFuture<AdaptiveLimiter.Permit> first = limiter.acquire();
+        CompletableFuture<AdaptiveLimiter.Permit> cancelled = limiter.acquire();
+        CompletableFuture<AdaptiveLimiter.Permit> next = limiter.acquire();
+        cancelled.cancel(true);
+
+        first.get().release();
+        assertTrue(next.isDone());
+    }
+
+    @Test
+    void throttlingHalvesRateAndShrinksConcurrencyOncePerBurst() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 10, 0.2, 100, 4, 8);
+        AdaptiveLimiter.Permit first = limiter.acquire().get();
+        AdaptiveLimiter.Permit second = limiter.acquire().get();
+
+        first.release(response(429, null));
+        assertEquals(5.0, limiter.getRate(), 1e-9);
+        assertEquals(2, limiter.getConcurrencyLimit());
+
+        // 同一次突发中的第二个 429 不再收缩
+        second.release(response(429, null));
+        assertEquals(5.0, limiter.getRate(), 1e-9);
+        assertEquals(2, limiter.getConcurrencyLimit());
+    }
+
+    @Test
+    void serverErrorsShrinkOnlyConcurrency() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 10, 0.2, 100, 4, 8);
+        limiter.acquire().get().release(response(503, null));
+        assertEquals(10.0, limiter.getRate(), 1e-9);
+        assertEquals(2, limiter.getConcurrencyLimit());
+    }
+
+    @Test
+    void successGrowsLimitsOnlyWhenSaturated() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 10, 0.2, 100, 2, 8);
+        limiter.acquire().get().release(response(200, null));
+        assertEquals(2, limiter.getConcurrencyLimit());
+        assertEquals(10.0, limiter.getRate(), 1e-9);
+
+        AdaptiveLimiter.Permit first = limiter.acquire().get();
+        AdaptiveLimiter.Permit second = limiter.acquire().get();
+        CompletableFuture<AdaptiveLimiter.Permit> waiting = limiter.acquire();
+        first.release(response(200, null));
+        assertTrue(limiter.getConcurrencyLimit() >= 2);
+        assertTrue(limiter.getRate() > 10.0);
+        waiting.get().release();
+        second.release();
+    }
+
+    @Test
+    void retryAfterPausesNewPermits() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 100, 0.2, 100, 4, 8);
+        limiter.acquire().get().release(response(429, "0.3"));
+        long start = System.nanoTime();
+        limiter.acquire().get(5, TimeUnit.SECONDS);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 250);
+    }
+
+    @Test
+    void rateLimitsPermitsPerSecond() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 5, 0.2, 5, 100, 100);
+        long start = System.nanoTime();
+        // 初始最多积攒 5 个令牌，之后每 200ms 一个
+        for (int i = 0; i < 7; i++) {
+            limiter.acquire().get(5, TimeUnit.SECONDS).release();
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 300);
+    }
+
+    private static Response response(int code, String retryAfter) {
+        Response.Builder builder = new Response.Builder()
+                .request(new Request.Builder().url("http://localhost/").build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(code)
+                .message("test");
+        if (retryAfter != null) {
+            builder.header("Retry-After", retryAfter);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,141 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AnswerCacheTest {
+    private static final String MODEL = "glm-4";
+    private static final String PARAMS = ",\"temperature\":0.7";
+
+    private AnswerCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new AnswerCache(0.75, 100, 1 << 20, 60_000, 200);
+    }
+
+    @Test
+    void fillerWordsAndPunctuationDoNotMatter() {
+        cache.put(MODEL, PARAMS, question("什么是快速排序"), "answer");
+        assertEquals("answer", cache.get(MODEL, PARAMS, question("快速排序是什么？")));
+        assertEquals("answer", cache.get(MODEL, PARAMS, question("请问 什么是快速排序呢")));
+    }
+
+    @Test
+    void reorderedQuestionIsANearHit() {
+        cache.put(MODEL, PARAMS, question("快速排序和归并排序的区别"), "answer");
+        assertEquals("answer", cache.get(MODEL, PARAMS, question("归并排序和快速排序的区别")));
+    }
+
+    @Test
+    void reversedComparisonIsAMiss() {
+        cache.put(MODEL, PARAMS, question("快速排序比冒泡排序快吗？"), "是的，快速排序更快");
+        assertNull(cache.get(MODEL, PARAMS, question("冒泡排序比快速排序快吗？")));
+        // 只差虚词和标点时仍然命中
+        assertEquals("是的，快速排序更快", cache.get(MODEL, PARAMS, question("请问快速排序比冒泡排序快吗")));
+
+        cache.put(MODEL, PARAMS, question("int 转换成 string"), "answer");
+        assertNull(cache.get(MODEL, PARAMS, question("string 转换成 int")));
+        cache.put(MODEL, PARAMS, question("convert int to string"), "answer");
+        assertNull(cache.get(MODEL, PARAMS, question("convert string to int")));
+    }
+
+    @Test
+    void directionalWordsAreDetected() {
+        assertTrue(AnswerCache.isDirectional("a 大于 b", AnswerCache.normalize("a 大于 b")));
+        assertTrue(AnswerCache.isDirectional("a -> b", AnswerCache.normalize("a -> b")));
+        assertFalse(AnswerCache.isDirectional("比较快速排序和归并排序", AnswerCache.normalize("比较快速排序和归并排序")));
+        assertFalse(AnswerCache.isDirectional("tomcat 是什么", AnswerCache.normalize("tomcat 是什么")));
+    }
+
+    @Test
+    void oneDifferentCharacterIsAMiss() {
+        cache.put(MODEL, PARAMS, question("进程与线程的区别"), "answer");
+        assertNull(cache.get(MODEL, PARAMS, question("进程与协程的区别")));
+        assertNull(cache.get(MODEL, PARAMS, question("进程与线程的联系")));
+
+        // 问题越长，一个字的差别对 2-gram 相似度的影响越小
+        cache.put(MODEL, PARAMS, question("请详细解释一下操作系统中进程与线程的区别和联系"), "answer");
+        assertNull(cache.get(MODEL, PARAMS, question("请详细解释一下操作系统中进程与协程的区别和联系")));
+        assertNull(cache.get(MODEL, PARAMS, question("请详细解释一下操作系统中进程与线程的区别和用途")));
+    }
+
+    @Test
+    void differentNumbersOrWordsAreAMiss() {
+        cache.put(MODEL, PARAMS, question("1 到 100 的和是多少"), "5050");
+        assertNull(cache.get(MODEL, PARAMS, question("1 到 1000 的和是多少")));
+
+        cache.put(MODEL, PARAMS, question("java 中的 hashmap 原理"), "answer");
+        assertNull(cache.get(MODEL, PARAMS, question("java 中的 treemap 原理")));
+    }
+
+    @Test
+    void onlyFirstTurnQuestionsAreCached() {
+        List<JSONObject> messages = question("什么是快速排序");
+        messages.add(message("assistant", "..."));
+        messages.add(message("user", "时间复杂度呢"));
+        cache.put(MODEL, PARAMS, messages, "answer");
+        assertEquals(0, cache.size());
+        assertNull(cache.get(MODEL, PARAMS, messages));
+    }
+
+    @Test
+    void scopeIncludesModelParamsAndSystemPrompt() {
+        cache.put(MODEL, PARAMS, question("什么是快速排序"), "answer");
+        assertNull(cache.get("glm-4-plus", PARAMS, question("什么是快速排序")));
+        assertNull(cache.get(MODEL, ",\"temperature\":0.8", question("什么是快速排序")));
+
+        List<JSONObject> withSystem = new ArrayList<>();
+        withSystem.add(message("system", "你是助教"));
+        withSystem.addAll(question("什么是快速排序"));
+        assertNull(cache.get(MODEL, PARAMS, withSystem));
+    }
+
+    @Test
+    void expiredEntriesAreNotReturned() {
+        AnswerCache expiring = new AnswerCache(0.75, 100, 1 << 20, -1, 200);
+        expiring.put(MODEL, PARAMS, question("什么是快速排序"), "answer");
+        assertNull(expiring.get(MODEL, PARAMS, question("什么是快速排序")));
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() {
+        AnswerCache small = new AnswerCache(0.75, 2, 1 << 20, 60_000, 200);
+        small.put(MODEL, PARAMS, question("什么是快速排序"), "a");
+        small.put(MODEL, PARAMS, question("什么是二分查找"), "b");
+        assertEquals("a", small.get(MODEL, PARAMS, question("什么是快速排序")));
+        small.put(MODEL, PARAMS, question("什么是动态规划"), "c");
+        assertEquals(2, small.size());
+        assertEquals("a", small.get(MODEL, PARAMS, question("什么是快速排序")));
+        assertNull(small.get(MODEL, PARAMS, question("什么是二分查找")));
+    }
+
+    @Test
+    void normalizeKeepsWhyAndDropsFillers() {
+        assertEquals("快速排序", AnswerCache.normalize("请问什么是快速排序？"));
+        assertEquals("为什么是快速排序", AnswerCache.normalize("为什么是快速排序"));
+        assertEquals(AnswerCache.characters("排序进程"), AnswerCache.characters("进程排序"));
+    }
+
+    private static List<JSONObject> question(String content) {
+        List<JSONObject> messages = new ArrayList<>();
+        messages.add(message("user", content));
+        return messages;
+    }
+
+    private static JSONObject message(String role, String content) {
+        JSONObject message = new JSONObject();
+        message.put("role", role);
+        message.put("content", content);
+        return message;
+    }
+}
@@ -0,0 +1,153 @@
+package com.lorn.edu.ai;
+
+import org.junit.jupiter.api.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsyncApiServletTest {
+
+    @Test
+    void timeoutWaitsForTheDeltaBeingWrittenAndDropsLaterOnes() throws Exception {
+        FakeResponse response = new FakeResponse();
+        AsyncApiServlet.Exchange exchange = new AsyncApiServlet.Exchange(response.context());
+        PrintWriter writer = response.writer;
+        CountDownLatch writing = new CountDownLatch(1);
+
+        Thread deltas = new Thread(() -> {
+            for (int i = 0; i < 50; i++) {
+                exchange.write(() -> {
+                    writer.write("delta");
+                    writing.countDown();
+                    // 超时在这段增量写到一半时触发
+                    pause(50);
+                    writer.write("\n");
+                    writer.flush();
+                });
+            }
+        });
+        deltas.start();
+        writing.await();
+        exchange.onTimeout(null);
+        deltas.join();
+        exchange.write(() -> writer.write("late"));
+
+        assertTrue(exchange.isFinished());
+        assertEquals(1, response.completions.get());
+        assertFalse(response.out.writtenAfterComplete);
+        // 每段增量都完整写出；已经开始输出，超时不再追加 504
+        assertTrue(response.out.text.toString().matches("(delta\n)+"), response.out.text.toString());
+    }
+
+    @Test
+    void timeoutBeforeTheFirstDeltaSends504() {
+        FakeResponse response = new FakeResponse();
+        AsyncApiServlet.Exchange exchange = new AsyncApiServlet.Exchange(response.context());
+
+        exchange.onTimeout(null);
+        exchange.write(() -> response.writer.write("late"));
+
+        assertEquals(HttpServletResponse.SC_GATEWAY_TIMEOUT, response.status);
+        assertTrue(response.out.text.toString().contains("上游响应超时"));
+        assertFalse(response.out.writtenAfterComplete);
+        assertEquals(1, response.completions.get());
+    }
+
+    @Test
+    void failedWriteFinishesTheRequest() {
+        FakeResponse response = new FakeResponse();
+        AsyncApiServlet.Exchange exchange = new AsyncApiServlet.Exchange(response.context());
+
+        exchange.write(() -> {
+            throw new IOException("客户端已断开");
+        });
+
+        assertTrue(exchange.isFinished());
+        assertEquals(1, response.completions.get());
+    }
+
+    private static void pause(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    // complete 之后容器会回收响应对象，此后的写出记为错误
+    private static final class FakeResponse {
+        final RecordingWriter out = new RecordingWriter();
+        final PrintWriter writer = new PrintWriter(out);
+        final AtomicInteger completions = new AtomicInteger();
+        volatile int status = HttpServletResponse.SC_OK;
+
+        AsyncContext context() {
+            HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(
+                    getClass().getClassLoader(), new Class<?>[]{HttpServletResponse.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "isCommitted":
+                                return out.flushed;
+                            case "getWriter":
+                                return writer;
+                            case "setStatus":
+                                status = (Integer) args[0];
+                                return null;
+                            default:
+                                return null;
+                        }
+                    });
+            return (AsyncContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{AsyncContext.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "getResponse":
+                                return response;
+                            case "complete":
+                                completions.incrementAndGet();
+                                out.recycled = true;
+                                return null;
+                            default:
+                                return null;
+                        }
+                    });
+        }
+    }
+
+    private static final class RecordingWriter extends Writer {
+        final StringBuffer text = new StringBuffer();
+        volatile boolean recycled;
+        volatile boolean flushed;
+        volatile boolean writtenAfterComplete;
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            if (recycled) {
+                writtenAfterComplete = true;
+            }
+            text.append(buffer, offset, length);
+        }
+
+        @Override
+        public void flush() {
+            if (recycled) {
+                writtenAfterComplete = true;
+            }
+            flushed = true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChatRequestEncoderTest {
+
+    @Test
+    void bodyMatchesTheJsonItEncodes() throws Exception {
+        List<JSONObject> messages = Arrays.asList(
+                message("system", "你是一名编程老师"),
+                message("user", "换行\n引号\"反斜杠\\制表\t控制\u0001分隔 "),
+                message("assistant", null));
+
+        RequestBody body = new ChatRequestEncoder(1 << 20).encode("glm-4", messages, ",\"temperature\":0.7");
+        String json = write(body);
+
+        JSONObject parsed = JSON.parseObject(json);
+        assertEquals("glm-4", parsed.getString("model"));
+        assertEquals(0.7, parsed.getDoubleValue("temperature"));
+        assertEquals(3, parsed.getJSONArray("messages").size());
+        for (int i = 0; i < messages.size(); i++) {
+            JSONObject sent = parsed.getJSONArray("messages").getJSONObject(i);
+            assertEquals(messages.get(i).getString("role"), sent.getString("role"));
+            assertEquals(messages.get(i).getString("content"), sent.getString("content"));
+        }
+        // contentLength 与实际写出的字节数一致，可以不用分块传输
+        assertEquals(json.getBytes(StandardCharsets.UTF_8).length, body.contentLength());
+    }
+
+    @Test
+    void cachedMessagesAreReencodedWhenTheirContentIsReplaced() throws Exception {
+        ChatRequestEncoder encoder = new ChatRequestEncoder(1 << 20);
+        JSONObject user = message("user", "第一版");
+        List<JSONObject> messages = new ArrayList<>(Arrays.asList(message("system", "提示"), user));
+
+        write(encoder.encode("glm-4", messages, ""));
+        assertEquals(2, encoder.getCachedMessageCount());
+
+        user.put("content", "第二版");
+        String json = write(encoder.encode("glm-4", messages, ""));
+        assertEquals("第二版", JSON.parseObject(json).getJSONArray("messages").getJSONObject(1).getString("content"));
+        assertEquals(2, encoder.getCachedMessageCount());
+    }
+
+    @Test
+    void cacheIsBoundedByBytes() throws Exception {
+        ChatRequestEncoder encoder = new ChatRequestEncoder(200);
+        List<JSONObject> messages = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            messages.add(message("user", "第 " + i + " 个问题"));
+        }
+
+        String json = write(encoder.encode("glm-4", messages, ""));
+
+        // 超出上限的部分被淘汰，但请求体仍然完整
+        assertEquals(20, JSON.parseObject(json).getJSONArray("messages").size());
+        assertTrue(encoder.getCachedMessageCount() < 20);
+    }
+
+    private static JSONObject message(String role, String content) {
+        JSONObject message = new JSONObject();
+        message.put("role", role);
+        message.put("content", content);
+        return message;
+    }
+
+    private static String write(RequestBody body) throws Exception {
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+        return buffer.readUtf8();
+    }
+}
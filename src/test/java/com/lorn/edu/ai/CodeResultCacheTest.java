@@ -0,0 +1,102 @@
+package com.lorn.edu.ai;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class CodeResultCacheTest {
+
+    @Test
+    void cFamilyCommentsAndFormattingAreIgnored() {
+        String a = "int main() {\n    // 入口\n    return 0; /* 结束 */\n}\n";
+        String b = "int main(){\n\n    return 0;\n}\n";
+        assertEquals(CodeResultCache.normalize(b, "cpp"), CodeResultCache.normalize(a, "cpp"));
+        assertEquals("int main(){\n    return 0;\n}\n", CodeResultCache.normalize(a, "java"));
+    }
+
+    @Test
+    void preprocessorDirectivesAreNotComments() {
+        assertEquals("#include<stdio.h>\n#define N 10\n",
+                CodeResultCache.normalize("#include <stdio.h>\n# define N 10\n", "c"));
+    }
+
+    @Test
+    void pythonKeepsIntegerDivisionAndStripsHashComments() {
+        assertEquals("x=a//b\n", CodeResultCache.normalize("x = a // b  # 整除\n", "python3"));
+        assertEquals("def f():\n    return 1\n",
+                CodeResultCache.normalize("def f():\n    #注释\n    return 1\n", "python"));
+    }
+
+    @Test
+    void pythonTripleQuotedStringsAreKeptVerbatim() {
+        String code = "s = \"\"\"a\n  # not a comment\n\nb\"\"\"\n";
+        assertEquals("s=\"\"\"a\n  # not a comment\n\nb\"\"\"\n", CodeResultCache.normalize(code, "python3"));
+    }
+
+    @Test
+    void shellVariablesWithHashAreNotComments() {
+        assertEquals("echo $#\n", CodeResultCache.normalize("echo $# # 参数个数\n", "bash"));
+    }
+
+    @Test
+    void unknownLanguageOnlyNormalizesWhitespace() {
+        assertEquals("x=a//b\n#c\n", CodeResultCache.normalize("x = a // b\n# c\n", null));
+        assertEquals("x=a//b\n", CodeResultCache.normalize("x  =  a // b\n\n", "brainfuck"));
+    }
+
+    @Test
+    void stringLiteralsAreKept() {
+        assertEquals("s=\"a  // b\";\n", CodeResultCache.normalize("s = \"a  // b\"; // c\n", "java"));
+        assertEquals("s='a  # b'\n", CodeResultCache.normalize("s = 'a  # b'  # c\n", "python3"));
+    }
+
+    @Test
+    void indentationIsKept() {
+        assertNotEquals(CodeResultCache.normalize("if x:\n    y()\nz()\n", "python3"),
+                CodeResultCache.normalize("if x:\n    y()\n    z()\n", "python3"));
+    }
+
+    @Test
+    void keyDependsOnOperationParamsAndNormalizedCode() {
+        String key = CodeResultCache.key("analyze", "p", "java", "int x = 1; // a\n");
+        assertEquals(key, CodeResultCache.key("analyze", "p", "java", "int x=1;\n"));
+        assertNotEquals(key, CodeResultCache.key("optimize", "p", "java", "int x=1;\n"));
+        assertNotEquals(key, CodeResultCache.key("analyze", "q", "java", "int x=1;\n"));
+    }
+
+    @Test
+    void secondRequestForEquivalentCodeIsServedFromMemory() throws Exception {
+        CodeResultCache cache = new CodeResultCache(10, 1 << 20, 60_000, null);
+        AtomicInteger loads = new AtomicInteger();
+        cache.getOrCompute("analyze", "p", "java", "int x = 1;", () -> {
+            loads.incrementAndGet();
+            return CompletableFuture.completedFuture("result");
+        }).get();
+        String cached = cache.getOrCompute("analyze", "p", "java", "int x=1; // 注释", () -> {
+            loads.incrementAndGet();
+            return CompletableFuture.completedFuture("other");
+        }).get();
+
+        assertEquals("result", cached);
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getMemoryHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() {
+        CodeResultCache cache = new CodeResultCache(2, 1 << 20, 60_000, null);
+        cache.put("a", "1", 0);
+        cache.put("b", "2", 0);
+        assertEquals("1", cache.get("a"));
+        cache.put("c", "3", 0);
+        assertEquals(2, cache.size());
+        assertEquals("1", cache.get("a"));
+        assertEquals(null, cache.get("b"));
+        assertEquals(1, cache.getEvictions());
+    }
+}
@@ -0,0 +1,32 @@
+package com.lorn.edu.ai;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CodeRunServletTest {
+
+    @Test
+    void onlyOneRunAtATime() {
+        CodeRunServlet.RunQuota quota = new CodeRunServlet.RunQuota(10);
+        assertEquals(0, quota.tryAcquire(1_000));
+        assertEquals(-1, quota.tryAcquire(1_000));
+        quota.release();
+        assertEquals(0, quota.tryAcquire(1_000));
+    }
+
+    @Test
+    void tokensRefillOverAMinute() {
+        CodeRunServlet.RunQuota quota = new CodeRunServlet.RunQuota(2);
+        assertEquals(0, quota.tryAcquire(1_000));
+        quota.release();
+        assertEquals(0, quota.tryAcquire(1_000));
+        quota.release();
+
+        // 每 30 秒补充一个
+        long wait = quota.tryAcquire(11_000);
+        assertTrue(wait > 19_000 && wait <= 20_001, String.valueOf(wait));
+        assertEquals(0, quota.tryAcquire(31_000));
+    }
+}
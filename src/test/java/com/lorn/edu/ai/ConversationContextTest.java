@@ -0,0 +1,143 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConversationContextTest {
+
+    @Test
+    void systemPromptComesFirstAndHistoryFollowsInOrder() {
+        ConversationContext context = new ConversationContext("sys", 4000, 6, null);
+        context.addUserMessage("q1");
+        context.addAssistantMessage("a1");
+        context.addUserMessage("q2");
+
+        List<JSONObject> messages = context.buildRequestMessages();
+        assertEquals("system", messages.get(0).getString("role"));
+        assertEquals("sys", messages.get(0).getString("content"));
+        assertEquals(listOf("q1", "a1", "q2"), contents(messages.subList(1, messages.size())));
+    }
+
+    @Test
+    void withoutSummarizerOldTurnsAreDropped() {
+        ConversationContext context = new ConversationContext(null, 4000, 2, null);
+        addTurns(context, 3);
+        assertEquals(4, context.size());
+        assertEquals(listOf("q1", "a1", "q2", "a2"), contents(context.buildRequestMessages()));
+    }
+
+    @Test
+    void tokenBudgetKeepsTheLatestMessagesAndNeverStartsWithAnAnswer() {
+        ConversationContext context = new ConversationContext(null, 30, 100, null);
+        context.addUserMessage("一二三四五六七八九十");
+        context.addAssistantMessage("一二三四五六七八九十");
+        context.addUserMessage("一二三四五六七八九十");
+
+        List<JSONObject> messages = context.buildRequestMessages();
+        assertEquals("user", messages.get(0).getString("role"));
+        assertEquals(1, messages.size());
+    }
+
+    @Test
+    void oldTurnsAreSummarizedInTheBackground() {
+        List<CompletableFuture<String>> requests = new ArrayList<>();
+        ConversationContext context = new ConversationContext(null, 4000, 1, request -> {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            requests.add(future);
+            return future;
+        });
+        addTurns(context, 2);
+        assertEquals(1, requests.size());
+
+        // 摘要完成前只发送最近一轮
+        assertEquals(listOf("q1", "a1"), contents(context.buildRequestMessages()));
+
+        requests.get(0).complete("学生问了 q0");
+        List<JSONObject> messages = context.buildRequestMessages();
+        assertEquals("system", messages.get(0).getString("role"));
+        assertTrue(messages.get(0).getString("content").contains("学生问了 q0"));
+        assertEquals(listOf("q1", "a1"), contents(messages.subList(1, messages.size())));
+        assertEquals(2, context.size());
+    }
+
+    @Test
+    void failedSummaryStillDropsTheOldTurns() {
+        CompletableFuture<String> summary = new CompletableFuture<>();
+        ConversationContext context = new ConversationContext(null, 4000, 1, request -> summary);
+        addTurns(context, 2);
+        summary.completeExceptionally(new IllegalStateException("down"));
+
+        assertNull(context.getSummary());
+        assertEquals(listOf("q1", "a1"), contents(context.buildRequestMessages()));
+    }
+
+    @Test
+    void clearCancelsThePendingSummary() {
+        CompletableFuture<String> summary = new CompletableFuture<>();
+        ConversationContext context = new ConversationContext(null, 4000, 1, request -> summary);
+        addTurns(context, 2);
+        context.clear();
+
+        assertTrue(summary.isCancelled());
+        assertEquals(0, context.size());
+        assertEquals(0, context.estimateRetainedBytes());
+    }
+
+    @Test
+    void restoreReplacesTheHistory() {
+        ConversationContext context = new ConversationContext(null, 4000, 6, null);
+        addTurns(context, 1);
+        List<JSONObject> saved = new ArrayList<>();
+        saved.add(message("user", "x"));
+        saved.add(message("assistant", "y"));
+        context.restore(saved);
+
+        assertEquals(listOf("x", "y"), contents(context.buildRequestMessages()));
+        assertTrue(context.estimateRetainedBytes() > 0);
+    }
+
+    @Test
+    void tokenEstimateCountsCjkCharactersSeparately() {
+        assertEquals(4 + 4, ConversationContext.estimateTokens(message("user", "四个汉字")));
+        assertEquals(4 + 2, ConversationContext.estimateTokens(message("user", "abcdefgh")));
+        assertEquals(4, ConversationContext.estimateTokens(new JSONObject()));
+    }
+
+    private static void addTurns(ConversationContext context, int turns) {
+        for (int i = 0; i < turns; i++) {
+            context.addUserMessage("q" + i);
+            context.addAssistantMessage("a" + i);
+        }
+    }
+
+    private static List<String> listOf(String... values) {
+        List<String> list = new ArrayList<>();
+        for (String value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    private static List<String> contents(List<JSONObject> messages) {
+        List<String> contents = new ArrayList<>();
+        for (JSONObject message : messages) {
+            contents.add(message.getString("content"));
+        }
+        return contents;
+    }
+
+    private static JSONObject message(String role, String content) {
+        JSONObject message = new JSONObject();
+        message.put("role", role);
+        message.put("content", content);
+        return message;
+    }
+}
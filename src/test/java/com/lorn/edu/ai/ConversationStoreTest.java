@@ -0,0 +1,178 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 使用 H2 的 MySQL 兼容模式，每个测试一个独立的内存数据库
+class ConversationStoreTest {
+    private ConversationStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = newStore(3);
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.shutdown(5_000);
+    }
+
+    static ConversationStore newStore(int batchSize) {
+        String url = "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+        return new ConversationStore(new JdbcConnectionPool(url, "sa", "", 2), 100, batchSize);
+    }
+
+    @Test
+    void messagesAreWrittenInBatchesAndLoadedInOrder() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            assertTrue(store.append("s1", i % 2 == 0 ? "user" : "assistant", "m" + i));
+        }
+        assertTrue(store.flush(5_000));
+
+        assertEquals(Arrays.asList("m0", "m1", "m2", "m3", "m4", "m5", "m6", "m7", "m8", "m9"),
+                contents(store.loadHistory("s1", 100)));
+        assertEquals("user", store.loadHistory("s1", 100).get(0).getString("role"));
+    }
+
+    @Test
+    void loadHistoryReturnsTheMostRecentMessages() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            store.append("s1", "user", "m" + i);
+        }
+        assertTrue(store.flush(5_000));
+
+        assertEquals(Arrays.asList("m3", "m4", "m5"), contents(store.loadHistory("s1", 3)));
+        assertTrue(store.loadHistory("unknown", 3).isEmpty());
+    }
+
+    @Test
+    void deleteAppliesOnlyToMessagesQueuedBeforeIt() throws Exception {
+        // 同一批中：删除之前的追加被删掉，之后的保留
+        store.append("s1", "user", "before");
+        store.deleteSession("s1");
+        store.append("s1", "user", "after");
+        store.append("s2", "user", "other");
+        assertTrue(store.flush(5_000));
+
+        assertEquals(Arrays.asList("after"), contents(store.loadHistory("s1", 10)));
+        assertEquals(Arrays.asList("other"), contents(store.loadHistory("s2", 10)));
+    }
+
+    @Test
+    void loadHistoriesReadsManySessionsAtOnce() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            store.append("a", "user", "a" + i);
+            store.append("b", "user", "b" + i);
+        }
+        assertTrue(store.flush(5_000));
+
+        Map<String, List<JSONObject>> histories = store.loadHistories(Arrays.asList("a", "b", "missing"), 2);
+        assertEquals(2, histories.size());
+        assertEquals(Arrays.asList("a2", "a3"), contents(histories.get("a")));
+        assertEquals(Arrays.asList("b2", "b3"), contents(histories.get("b")));
+        assertFalse(histories.containsKey("missing"));
+        assertTrue(store.loadHistories(new ArrayList<>(), 2).isEmpty());
+    }
+
+    @Test
+    void sessionManagerDoesNotRestoreAClearedSession() throws Exception {
+        SessionManager sessions = new SessionManager(() -> new ConversationContext(null, 4000, 6, null),
+                store, 40, 60_000, 1 << 20, 0, 60_000);
+        try {
+            TutoringSession session = sessions.getOrCreate("s1");
+            session.getContext().addUserMessage("q");
+            sessions.record(session, "user", "q");
+            session.getContext().addAssistantMessage("a");
+            sessions.record(session, "assistant", "a");
+
+            // 删除只是入队，restore 必须先等它执行
+            sessions.clear("s1");
+            assertEquals(0, sessions.getOrCreate("s1").getContext().size());
+        } finally {
+            sessions.shutdown();
+        }
+    }
+
+    @Test
+    void sessionManagerRestoresQueuedMessagesAfterEviction() throws Exception {
+        SessionManager sessions = new SessionManager(() -> new ConversationContext(null, 4000, 6, null),
+                store, 40, 60_000, 1 << 20, 0, 60_000);
+        try {
+            TutoringSession session = sessions.getOrCreate("s1");
+            sessions.record(session, "user", "q");
+            sessions.record(session, "assistant", "a");
+            sessions.remove("s1");
+
+            TutoringSession restored = sessions.getOrCreate("s1");
+            assertEquals(2, restored.getContext().size());
+        } finally {
+            sessions.shutdown();
+        }
+    }
+
+    @Test
+    void flushOfOneSessionDoesNotWaitForOthers() throws Exception {
+        // 数据库不可用：写线程在重试，s1 的消息一直排在队列中
+        ConversationStore unreachable = new ConversationStore(
+                new JdbcConnectionPool("jdbc:h2:tcp://127.0.0.1:1/missing", "sa", "", 1), 100, 3);
+        try {
+            unreachable.append("s1", "user", "q");
+            assertTrue(unreachable.flush(Arrays.asList("s2"), 0));
+            assertFalse(unreachable.flush(Arrays.asList("s1"), 100));
+        } finally {
+            unreachable.shutdown(5_000);
+        }
+    }
+
+    @Test
+    void failedRestoreIsRetriedOnTheNextAccess() throws Exception {
+        ConversationStore unreachable = new ConversationStore(
+                new JdbcConnectionPool("jdbc:h2:tcp://127.0.0.1:1/missing", "sa", "", 1), 100, 3);
+        SessionManager sessions = new SessionManager(() -> new ConversationContext(null, 4000, 6, null),
+                unreachable, 40, 60_000, 1 << 20, 0, 60_000);
+        try {
+            TutoringSession session = sessions.getOrCreateAsync("s1").get();
+            assertFalse(session.restored);
+        } finally {
+            sessions.shutdown();
+            unreachable.shutdown(5_000);
+        }
+    }
+
+    @Test
+    void asyncRestoreReadsTheQueuedHistory() throws Exception {
+        SessionManager sessions = new SessionManager(() -> new ConversationContext(null, 4000, 6, null),
+                store, 40, 60_000, 1 << 20, 0, 60_000);
+        try {
+            TutoringSession session = sessions.getOrCreateAsync("s1").get();
+            assertTrue(session.restored);
+            sessions.record(session, "user", "q");
+            sessions.record(session, "assistant", "a");
+            sessions.remove("s1");
+
+            assertEquals(2, sessions.getOrCreateAsync("s1").get().getContext().size());
+        } finally {
+            sessions.shutdown();
+        }
+    }
+
+    private static List<String> contents(List<JSONObject> messages) {
+        List<String> contents = new ArrayList<>();
+        for (JSONObject message : messages) {
+            contents.add(message.getString("content"));
+        }
+        return contents;
+    }
+}
@@ -0,0 +1,44 @@
+package com.lorn.edu.ai;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CppCodeRunnerTest {
+
+    @Test
+    void ordinaryHeadersAreAccepted() {
+        assertNull(CppCodeRunner.checkSource("#include <bits/stdc++.h>\n#include<cstdio>\n#include \"sys/types.h\"\n"
+                + "int main() { printf(\"#include <x>\"); }\n"));
+    }
+
+    @Test
+    void absoluteAndParentPathsAreRejected() {
+        assertNotNull(CppCodeRunner.checkSource("#include \"/etc/passwd\"\n"));
+        assertNotNull(CppCodeRunner.checkSource("#include </dev/stdin>\n"));
+        assertNotNull(CppCodeRunner.checkSource("#include <sys/../../../etc/passwd>\n"));
+        assertNotNull(CppCodeRunner.checkSource("#include_next \"/etc/passwd\"\n"));
+        assertNotNull(CppCodeRunner.checkSource("import \"/etc/passwd\";\n"));
+    }
+
+    @Test
+    void macroFileNamesAreRejected() {
+        assertNotNull(CppCodeRunner.checkSource("#define F \"/etc/passwd\"\n#include F\n"));
+    }
+
+    @Test
+    void alternativeSpellingsOfTheDirectiveAreRejected() {
+        assertNotNull(CppCodeRunner.checkSource("# /* x */ include /* y */ \"/etc/passwd\"\n"));
+        assertNotNull(CppCodeRunner.checkSource("%:include \"/etc/passwd\"\n"));
+        assertNotNull(CppCodeRunner.checkSource("??=include \"/etc/passwd\"\n"));
+        assertNotNull(CppCodeRunner.checkSource("#inc\\\nlude \"/etc/passwd\"\n"));
+        assertNotNull(CppCodeRunner.checkSource("#include \"/etc/pa\\ \r\nsswd\"\n"));
+    }
+
+    @Test
+    void inlineAssemblyIsRejected() {
+        assertNotNull(CppCodeRunner.checkSource("asm(\".incbin \\\"/etc/passwd\\\"\");\nint main() {}\n"));
+        assertNotNull(CppCodeRunner.checkSource("int main() { __asm__(\"nop\"); }\n"));
+    }
+}
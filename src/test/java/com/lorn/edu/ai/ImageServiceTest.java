@@ -0,0 +1,141 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSON;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageServiceTest {
+    private static final String BASE_URL_PROPERTY = "zhipu.api.image.baseUrl";
+
+    @TempDir
+    static Path saveDir;
+
+    private static HttpServer server;
+    private static ExecutorService serverThreads;
+    private static String baseUrl;
+    private static final AtomicInteger active = new AtomicInteger();
+    private static final AtomicInteger maxActive = new AtomicInteger();
+
+    @BeforeAll
+    static void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        server.createContext("/images/generations", ImageServiceTest::generate);
+        server.createContext("/files/", exchange -> send(exchange, 200, fileBytes(exchange.getRequestURI().getPath())));
+        server.start();
+
+        System.setProperty(BASE_URL_PROPERTY, baseUrl);
+        // API Key 和保存目录在 ImageService 类初始化时读取
+        System.setProperty("zhipu.api.key", "test-key");
+        System.setProperty("zhipu.image.saveDir", saveDir.toString() + File.separator);
+    }
+
+    @AfterAll
+    static void stopServer() {
+        System.clearProperty(BASE_URL_PROPERTY);
+        System.clearProperty("zhipu.api.key");
+        System.clearProperty("zhipu.image.saveDir");
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    @Test
+    void batchKeepsPromptOrderIsolatesFailuresAndBoundsGeneration() throws Exception {
+        List<String> prompts = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            prompts.add(i == 3 ? "fail-" + i : "cat-" + i);
+        }
+
+        List<ImageService.BatchResult> results = new ImageService(new OkHttpClient()).generateImages(
+                prompts, ImageService.ImageSize.DEFAULT, "cogview-3-plus");
+
+        assertEquals(prompts.size(), results.size());
+        for (int i = 0; i < prompts.size(); i++) {
+            ImageService.BatchResult result = results.get(i);
+            assertEquals(prompts.get(i), result.getPrompt());
+            if (i == 3) {
+                // 单张失败（400 不重试）不影响其他图片
+                assertFalse(result.isSuccess());
+            } else {
+                assertTrue(result.isSuccess(), String.valueOf(result.getError()));
+                assertArrayEquals(fileBytes("/files/" + prompts.get(i)),
+                        Files.readAllBytes(new File(result.getPath()).toPath()));
+            }
+        }
+        // 默认最多 4 个生成请求同时进行，且确实并行
+        assertTrue(maxActive.get() <= 4, "max concurrent generations " + maxActive.get());
+        assertTrue(maxActive.get() >= 2, "max concurrent generations " + maxActive.get());
+    }
+
+    private static void generate(HttpExchange exchange) throws IOException {
+        int now = active.incrementAndGet();
+        maxActive.accumulateAndGet(now, Math::max);
+        try {
+            String prompt = JSON.parseObject(new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8))
+                    .getString("prompt");
+            Thread.sleep(100);
+            if (prompt.startsWith("fail")) {
+                send(exchange, 400, "{\"error\":{\"code\":\"1214\",\"message\":\"参数错误\"}}"
+                        .getBytes(StandardCharsets.UTF_8));
+            } else {
+                send(exchange, 200, ("{\"data\":[{\"url\":\"" + baseUrl + "/files/" + prompt + "\"}]}")
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            active.decrementAndGet();
+        }
+    }
+
+    private static byte[] fileBytes(String path) {
+        byte[] bytes = new byte[4096];
+        Arrays.fill(bytes, (byte) path.hashCode());
+        return bytes;
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
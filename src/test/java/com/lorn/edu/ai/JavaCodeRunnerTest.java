@@ -0,0 +1,99 @@
+package com.lorn.edu.ai;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class JavaCodeRunnerTest {
+    @TempDir
+    static File workDir;
+
+    private static JavaCodeRunner runner;
+
+    @BeforeAll
+    static void start() {
+        ProcessSandbox sandbox = new ProcessSandbox(workDir, Collections.<String>emptyList(),
+                256L * 1024 * 1024, 1024 * 1024, 4);
+        runner = new JavaCodeRunner(sandbox, true,
+                new File(new File(System.getProperty("java.home"), "bin"), "java").getPath(),
+                3_000, 64L * 1024 * 1024, 64 * 1024, 16, 1);
+    }
+
+    @AfterAll
+    static void stop() {
+        if (runner != null) {
+            runner.shutdown();
+        }
+    }
+
+    @Test
+    void printsWhatItReads() throws Exception {
+        assumeTrue(runner.isAvailable());
+        CodeRunResult result = runner.run("import java.util.Scanner;\n"
+                + "public class Main { public static void main(String[] args) {\n"
+                + "  Scanner in = new Scanner(System.in);\n"
+                + "  System.out.println(in.nextInt() + in.nextInt());\n"
+                + "} }", "2 3\n");
+
+        assertEquals(CodeRunResult.Status.OK, result.getStatus(), result.format());
+        assertEquals("5", result.getStdout().trim());
+
+        // 第二次运行同一段代码使用缓存的字节码
+        assertTrue(runner.run("import java.util.Scanner;\n"
+                + "public class Main { public static void main(String[] args) {\n"
+                + "  Scanner in = new Scanner(System.in);\n"
+                + "  System.out.println(in.nextInt() + in.nextInt());\n"
+                + "} }", "4 5\n").isCached());
+    }
+
+    @Test
+    void compileErrorsAreReportedWithoutRunning() throws Exception {
+        assumeTrue(runner.isAvailable());
+        CodeRunResult result = runner.run("public class Main { public static void main(String[] args) { int x = ; } }", "");
+
+        assertEquals(CodeRunResult.Status.COMPILE_ERROR, result.getStatus());
+    }
+
+    @Test
+    void endlessLoopTimesOut() throws Exception {
+        assumeTrue(runner.isAvailable());
+        CodeRunResult result = runner.run("public class Main { public static void main(String[] args) {\n"
+                + "  new Thread(() -> { while (true) { } }).start();\n"
+                + "  while (true) { }\n"
+                + "} }", "");
+
+        assertEquals(CodeRunResult.Status.TIMEOUT, result.getStatus(), result.format());
+    }
+
+    @Test
+    void exceedingTheHeapIsAMemoryLimit() throws Exception {
+        assumeTrue(runner.isAvailable());
+        CodeRunResult result = runner.run("import java.util.*;\n"
+                + "public class Main { public static void main(String[] args) {\n"
+                + "  List<long[]> blocks = new ArrayList<>();\n"
+                + "  while (true) { blocks.add(new long[1 << 20]); }\n"
+                + "} }", "");
+
+        assertEquals(CodeRunResult.Status.MEMORY_LIMIT, result.getStatus(), result.format());
+    }
+
+    @Test
+    void systemExitOnlyEndsTheChildJvm() throws Exception {
+        assumeTrue(runner.isAvailable());
+        CodeRunResult result = runner.run("public class Main { public static void main(String[] args) {\n"
+                + "  System.out.println(\"bye\");\n"
+                + "  System.exit(3);\n"
+                + "} }", "");
+
+        assertEquals(3, result.getExitCode(), result.format());
+        assertEquals("bye", result.getStdout().trim());
+    }
+}
@@ -0,0 +1,78 @@
+package com.lorn.edu.ai;
+
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class MediaDownloaderTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void completeDownloadReplacesTheTarget() throws Exception {
+        byte[] content = bytes(200 * 1024 + 7);
+        File target = dir.resolve("video.mp4").toFile();
+        Files.write(target.toPath(), new byte[]{9});
+        List<Long> progress = new ArrayList<>();
+
+        long written = MediaDownloader.saveTo(ResponseBody.create(content, null), target,
+                (bytesWritten, totalBytes) -> {
+                    assertEquals(content.length, totalBytes);
+                    progress.add(bytesWritten);
+                });
+
+        assertEquals(content.length, written);
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        // 按块报告进度，最后一次为总大小
+        assertEquals(content.length, (long) progress.get(progress.size() - 1));
+        assertEquals(1, dir.toFile().list().length);
+    }
+
+    @Test
+    void truncatedDownloadKeepsTheOldFileAndLeavesNoPartFile() throws Exception {
+        File target = dir.resolve("video.mp4").toFile();
+        Files.write(target.toPath(), new byte[]{9});
+        // 声明的长度比实际收到的多，相当于连接中途断开
+        ResponseBody body = ResponseBody.create(new Buffer().write(bytes(1000)), null, 5000);
+
+        IOException e = assertThrows(IOException.class, () -> MediaDownloader.saveTo(body, target, null));
+
+        assertFalse(e.getMessage().isEmpty());
+        assertArrayEquals(new byte[]{9}, Files.readAllBytes(target.toPath()));
+        assertEquals(1, dir.toFile().list().length);
+    }
+
+    @Test
+    void savedFileGetsTheDefaultPermissions() throws Exception {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        File target = dir.resolve("image.png").toFile();
+        MediaDownloader.saveTo(ResponseBody.create(new byte[]{1, 2, 3}, null), target, null);
+
+        // 与直接新建的文件相同（由 umask 决定），不是临时文件的 0600
+        Path reference = Files.createFile(dir.resolve("reference"));
+        assertEquals(Files.getPosixFilePermissions(reference), Files.getPosixFilePermissions(target.toPath()));
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * 31);
+        }
+        return bytes;
+    }
+}
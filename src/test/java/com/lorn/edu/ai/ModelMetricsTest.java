@@ -0,0 +1,91 @@
+package com.lorn.edu.ai;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModelMetricsTest {
+
+    @Test
+    void callsAreGroupedByServiceModelAndOutcome() {
+        ModelMetrics metrics = new ModelMetrics();
+        ModelResponse usage = new ModelResponse();
+        usage.promptTokens = 10;
+        usage.completionTokens = 40;
+
+        metrics.record("chat", "glm-4", "ok", TimeUnit.MILLISECONDS.toNanos(20), usage);
+        metrics.record("chat", "glm-4", "ok", TimeUnit.MILLISECONDS.toNanos(30), usage);
+        metrics.record("chat", "glm-4", "http_429", TimeUnit.MILLISECONDS.toNanos(5), null);
+
+        assertEquals(3, metrics.getTotalCalls());
+        assertEquals(2L, metrics.getCallCounts().get("chat/glm-4/ok"));
+        assertEquals(1L, metrics.getCallCounts().get("chat/glm-4/http_429"));
+        assertEquals(20L, metrics.getPromptTokens().get("chat/glm-4/ok"));
+        assertEquals(80L, metrics.getCompletionTokens().get("chat/glm-4/ok"));
+        assertEquals(0L, metrics.getCompletionTokens().get("chat/glm-4/http_429"));
+
+        metrics.reset();
+        assertEquals(0, metrics.getTotalCalls());
+    }
+
+    @Test
+    void percentilesStayWithinTheBucketError() {
+        ModelMetrics metrics = new ModelMetrics();
+        for (int millis = 1; millis <= 1000; millis++) {
+            metrics.record("chat", "glm-4", "ok", TimeUnit.MILLISECONDS.toNanos(millis), null);
+        }
+
+        // 分桶的相对误差不超过 1/16
+        assertWithin(500, metrics.getP50LatencyMillis().get("chat/glm-4/ok"));
+        assertWithin(990, metrics.getP99LatencyMillis().get("chat/glm-4/ok"));
+        assertEquals(-1, metrics.successLatencyMillis("chat", "glm-4", 0.5, 2000));
+        assertWithin(950, metrics.successLatencyMillis("chat", "glm-4", 0.95, 100));
+    }
+
+    @Test
+    void histogramBucketsAreMonotonic() {
+        int previous = -1;
+        for (long value = 0; value < 1_000_000; value = value * 2 + 1) {
+            int index = ModelMetrics.LatencyHistogram.index(value);
+            assertTrue(index > previous || value == 0);
+            long midpoint = ModelMetrics.LatencyHistogram.midpoint(index);
+            assertTrue(Math.abs(midpoint - value) <= value / 16 + 1, value + " -> " + midpoint);
+            previous = index;
+        }
+    }
+
+    @Test
+    void timerClassifiesTheOutcome() {
+        ModelMetrics metrics = new ModelMetrics();
+        List<String> outcomes = new ArrayList<>();
+        metrics.addListener((service, model, outcome, nanos) -> outcomes.add(outcome));
+
+        metrics.start("chat", "glm-4").track(CompletableFuture.completedFuture("ok"));
+        ModelMetrics.Timer rejected = metrics.start("chat", "glm-4");
+        rejected.status(429);
+        rejected.track(failed(new Exception("限流")));
+        metrics.start("chat", "glm-4").track(failed(new InterruptedIOException("timeout")));
+        metrics.start("chat", "glm-4").track(new CompletableFuture<>()).cancel(true);
+        metrics.start("chat", "glm-4").track(failed(new IllegalStateException()));
+
+        assertEquals(Arrays.asList("ok", "http_429", "timeout", "cancelled", "error"), outcomes);
+    }
+
+    private static void assertWithin(double expected, double actual) {
+        assertTrue(Math.abs(actual - expected) <= expected / 16, expected + " vs " + actual);
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+}
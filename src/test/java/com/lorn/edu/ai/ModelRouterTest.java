@@ -0,0 +1,96 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ModelRouterTest {
+    private final ModelRouter router = new ModelRouter(0.2, 400, 120);
+
+    @Test
+    void codeIsRecognizedBySyntaxAndKeywords() {
+        assertEquals(ModelRouter.TaskClass.CODE, router.classify("```java\nint x;\n```"));
+        assertEquals(ModelRouter.TaskClass.CODE, router.classify("public static void main 报什么错"));
+        assertEquals(ModelRouter.TaskClass.CODE, router.classify("#include <stdio.h>\nint main() {"));
+        assertEquals(ModelRouter.TaskClass.CODE, router.classify("python 怎么读文件"));
+        assertEquals(ModelRouter.TaskClass.CODE, router.classify("递归和循环哪个好"));
+    }
+
+    @Test
+    void englishKeywordsMustBeWholeWords() {
+        assertEquals(ModelRouter.TaskClass.SIMPLE, router.classify("trust and access"));
+    }
+
+    @Test
+    void longOrReasoningQuestionsAreHard() {
+        assertEquals(ModelRouter.TaskClass.HARD, router.classify("请证明根号2是无理数"));
+        assertEquals(ModelRouter.TaskClass.HARD, router.classify("对比一下两种学习方法的优缺点"));
+        StringBuilder longQuestion = new StringBuilder();
+        for (int i = 0; i < 401; i++) {
+            longQuestion.append('字');
+        }
+        assertEquals(ModelRouter.TaskClass.HARD, router.classify(longQuestion.toString()));
+        assertEquals(ModelRouter.TaskClass.SIMPLE, router.classify("今天学什么"));
+    }
+
+    @Test
+    void shortFollowUpKeepsThePreviousClass() {
+        List<JSONObject> messages = new ArrayList<>();
+        messages.add(message("user", "用 java 实现快速排序"));
+        messages.add(message("assistant", "..."));
+        messages.add(message("user", "为什么这样"));
+        assertEquals(ModelRouter.TaskClass.CODE, router.classify(messages));
+
+        messages.add(message("assistant", "..."));
+        messages.add(message("user", "换个话题，今天天气怎么样，适合出去散步还是在家里看书呢？顺便推荐几本书"));
+        assertEquals(ModelRouter.TaskClass.SIMPLE, router.classify(messages));
+        assertEquals(ModelRouter.TaskClass.SIMPLE, router.classify(new ArrayList<>()));
+    }
+
+    @Test
+    void preferredModelIsUsedWhileItMeetsTheSlo() {
+        assertEquals(ChatService.ModelType.CODEGEEX4, router.choose(ModelRouter.TaskClass.CODE));
+        assertEquals(ChatService.ModelType.GLM4PLUS, router.choose(ModelRouter.TaskClass.HARD));
+        assertEquals(ChatService.ModelType.GLM4, router.choose(ModelRouter.TaskClass.SIMPLE));
+    }
+
+    @Test
+    void failingModelIsSkipped() {
+        for (int i = 0; i < 5; i++) {
+            router.observe("code", "codegeex-4", "http_500", TimeUnit.MILLISECONDS.toNanos(100));
+        }
+        assertEquals(ChatService.ModelType.GLM4PLUS, router.choose(ModelRouter.TaskClass.CODE));
+        // 与模型负载无关的结果不计入
+        router.observe("chat", "glm-4-plus", "http_400", TimeUnit.MILLISECONDS.toNanos(100));
+        router.observe("chat", "glm-4-plus", "cancelled", TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(ChatService.ModelType.GLM4PLUS, router.choose(ModelRouter.TaskClass.CODE));
+    }
+
+    @Test
+    void simpleQuestionsGoToTheFastestModel() {
+        router.observe("chat", "glm-4", "ok", TimeUnit.MILLISECONDS.toNanos(3000));
+        router.observe("code", "codegeex-4", "ok", TimeUnit.MILLISECONDS.toNanos(1000));
+        assertEquals(ChatService.ModelType.CODEGEEX4, router.choose(ModelRouter.TaskClass.SIMPLE));
+    }
+
+    @Test
+    void slowestFallbackIsTheLeastFailingModel() {
+        for (int i = 0; i < 3; i++) {
+            router.observe("chat", "glm-4-plus", "timeout", TimeUnit.SECONDS.toNanos(60));
+            router.observe("chat", "glm-4", "ok", TimeUnit.SECONDS.toNanos(40));
+        }
+        assertEquals(ChatService.ModelType.GLM4, router.choose(ModelRouter.TaskClass.HARD));
+    }
+
+    private static JSONObject message(String role, String content) {
+        JSONObject message = new JSONObject();
+        message.put("role", role);
+        message.put("content", content);
+        return message;
+    }
+}
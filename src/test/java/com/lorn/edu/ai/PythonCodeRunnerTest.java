@@ -0,0 +1,66 @@
+package com.lorn.edu.ai;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class PythonCodeRunnerTest {
+    @TempDir
+    static File workDir;
+
+    private static PythonCodeRunner runner;
+
+    @BeforeAll
+    static void start() {
+        ProcessSandbox sandbox = new ProcessSandbox(workDir, Collections.<String>emptyList(),
+                256L * 1024 * 1024, 1024 * 1024, 4);
+        runner = new PythonCodeRunner(sandbox, true, "python3", 3_000, 64 * 1024, 1);
+    }
+
+    @AfterAll
+    static void stop() {
+        if (runner != null) {
+            runner.shutdown();
+        }
+    }
+
+    @Test
+    void printsWhatItReads() throws Exception {
+        assumeTrue(runner.isAvailable());
+        CodeRunResult result = runner.run("a, b = map(int, input().split())\nprint(a + b)\n", "2 3\n");
+
+        assertEquals(CodeRunResult.Status.OK, result.getStatus(), result.format());
+        assertEquals("5", result.getStdout().trim());
+    }
+
+    @Test
+    void syntaxErrorsAreCompileErrors() throws Exception {
+        assumeTrue(runner.isAvailable());
+        CodeRunResult result = runner.run("print(\n", "");
+
+        assertEquals(CodeRunResult.Status.COMPILE_ERROR, result.getStatus(), result.format());
+    }
+
+    @Test
+    void endlessLoopTimesOut() throws Exception {
+        assumeTrue(runner.isAvailable());
+        CodeRunResult result = runner.run("while True:\n    pass\n", "");
+
+        assertEquals(CodeRunResult.Status.TIMEOUT, result.getStatus(), result.format());
+    }
+
+    @Test
+    void exceedingTheSandboxMemoryIsAMemoryLimit() throws Exception {
+        assumeTrue(runner.isAvailable());
+        CodeRunResult result = runner.run("blocks = []\nwhile True:\n    blocks.append(bytearray(1 << 24))\n", "");
+
+        assertEquals(CodeRunResult.Status.MEMORY_LIMIT, result.getStatus(), result.format());
+    }
+}
@@ -0,0 +1,73 @@
+package com.lorn.edu.ai;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResponseExtractorTest {
+
+    @Test
+    void chatCompletionFieldsAreExtracted() throws IOException {
+        ModelResponse response = ResponseExtractor.parse("{\"id\":\"c1\",\"created\":1,"
+                + "\"choices\":[{\"index\":0,\"finish_reason\":\"stop\","
+                + "\"message\":{\"role\":\"assistant\",\"content\":\"你好\",\"tool_calls\":[{\"a\":[1,2]}]}},"
+                + "{\"message\":{\"content\":\"second\"}}],"
+                + "\"usage\":{\"prompt_tokens\":3,\"completion_tokens\":5,\"total_tokens\":8},"
+                + "\"extra\":{\"nested\":[{\"content\":\"ignored\"}]}}");
+
+        assertEquals("c1", response.getId());
+        assertEquals("你好", response.getContent());
+        assertEquals("stop", response.getFinishReason());
+        assertTrue(response.hasUsage());
+        assertEquals(3, response.getPromptTokens());
+        assertEquals(5, response.getCompletionTokens());
+        assertEquals(8, response.getTotalTokens());
+        assertFalse(response.hasError());
+    }
+
+    @Test
+    void streamDeltaContentIsExtracted() throws IOException {
+        ModelResponse response = ResponseExtractor.parse("{\"choices\":[{\"delta\":{\"content\":\"片段\"}}]}");
+        assertEquals("片段", response.getContent());
+        assertFalse(response.hasUsage());
+        assertEquals(-1, response.getTotalTokens());
+    }
+
+    @Test
+    void imageAndVideoResultsAreExtracted() throws IOException {
+        assertEquals("http://img/1.png",
+                ResponseExtractor.parse("{\"data\":[{\"url\":\"http://img/1.png\"},{\"url\":\"x\"}]}").getDataUrl());
+
+        ModelResponse video = ResponseExtractor.parse("{\"task_status\":\"SUCCESS\",\"video_result\":"
+                + "[{\"url\":\"http://v/1.mp4\",\"cover_image_url\":\"http://v/1.jpg\"}]}");
+        assertEquals("SUCCESS", video.getTaskStatus());
+        assertEquals("http://v/1.mp4", video.getVideoUrl());
+        assertEquals("http://v/1.jpg", video.getCoverImageUrl());
+    }
+
+    @Test
+    void errorObjectsAndStringsAreExtracted() throws IOException {
+        ModelResponse error = ResponseExtractor.parse("{\"error\":{\"code\":\"1113\",\"message\":\"欠费\"}}");
+        assertTrue(error.hasError());
+        assertEquals("1113", error.getErrorCode());
+        assertEquals("欠费", error.getErrorMessage());
+
+        ModelResponse failed = ResponseExtractor.parse("{\"task_status\":\"FAIL\",\"error\":\"生成失败\"}");
+        assertEquals("生成失败", failed.getErrorMessage());
+        assertNull(failed.getErrorCode());
+
+        assertFalse(ResponseExtractor.parse("{\"error\":null}").hasError());
+    }
+
+    @Test
+    void nonObjectResponsesAreRejected() {
+        assertThrows(IOException.class, () -> ResponseExtractor.parse("[1,2]"));
+        assertThrows(IOException.class, () -> ResponseExtractor.parse(""));
+    }
+}
@@ -0,0 +1,115 @@
+package com.lorn.edu.ai;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetryPolicyTest {
+    private final RetryPolicy idempotent = new RetryPolicy(3, 10, 80, 10_000, true, false);
+    private final RetryPolicy nonIdempotent = idempotent.nonIdempotent();
+
+    @Test
+    void accountAndClientErrorsAreNotRetried() {
+        assertFalse(idempotent.isRetryable(new ModelApiException(400, "1113", "欠费")));
+        assertFalse(idempotent.isRetryable(new ModelApiException(401, "1000", "鉴权失败")));
+        assertFalse(idempotent.isRetryable(new ModelApiException(400, null, "bad request")));
+        // 业务错误码优先于状态码
+        assertFalse(idempotent.isRetryable(new ModelApiException(500, "1301", "内容安全")));
+    }
+
+    @Test
+    void unprocessedRequestsAreAlwaysRetried() {
+        for (RetryPolicy policy : new RetryPolicy[]{idempotent, nonIdempotent}) {
+            assertTrue(policy.isRetryable(new AdaptiveLimiter.RateLimitedException(null, "429")));
+            assertTrue(policy.isRetryable(new ModelApiException(408, null, "timeout")));
+            assertTrue(policy.isRetryable(new ModelApiException(503, null, "unavailable")));
+            assertTrue(policy.isRetryable(new ConnectException("refused")));
+        }
+    }
+
+    @Test
+    void serverErrorsAndReadTimeoutsAreRetriedOnlyWhenIdempotent() {
+        assertTrue(idempotent.isRetryable(new ModelApiException(500, null, "error")));
+        assertFalse(nonIdempotent.isRetryable(new ModelApiException(500, null, "error")));
+        assertTrue(idempotent.isRetryable(new SocketTimeoutException("read timed out")));
+        assertFalse(nonIdempotent.isRetryable(new SocketTimeoutException("read timed out")));
+    }
+
+    @Test
+    void wrappedErrorsAreClassifiedByTheirCause() {
+        assertTrue(idempotent.isRetryable(new CompletionException(new ConnectException("refused"))));
+        assertFalse(idempotent.isRetryable(new ExecutionException(new ModelApiException(400, "1113", "欠费"))));
+    }
+
+    @Test
+    void cancellationAndProgrammingErrorsAreNotRetried() {
+        assertFalse(idempotent.isRetryable(new CancellationException()));
+        assertFalse(idempotent.isRetryable(new IllegalStateException()));
+    }
+
+    @Test
+    void backoffGrowsExponentiallyWithJitterUpToTheCap() {
+        for (int i = 0; i < 100; i++) {
+            assertBetween(5, 10, idempotent.backoffMillis(1));
+            assertBetween(10, 20, idempotent.backoffMillis(2));
+            assertBetween(20, 40, idempotent.backoffMillis(3));
+            assertBetween(40, 80, idempotent.backoffMillis(4));
+            assertBetween(40, 80, idempotent.backoffMillis(5));
+            assertBetween(40, 80, idempotent.backoffMillis(100));
+        }
+    }
+
+    @Test
+    void executeRetriesRetryableErrorsUntilSuccess() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        String result = idempotent.execute(() -> attempts.incrementAndGet() < 3
+                ? AsyncCalls.<String>failed(new ConnectException("refused"))
+                : CompletableFuture.completedFuture("ok")).get();
+        assertEquals("ok", result);
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    void executeStopsAtMaxAttemptsOrOnFatalErrors() {
+        AtomicInteger attempts = new AtomicInteger();
+        ExecutionException error = assertThrows(ExecutionException.class, () -> idempotent.execute(() -> {
+            attempts.incrementAndGet();
+            return AsyncCalls.<String>failed(new ConnectException("refused"));
+        }).get());
+        assertTrue(error.getCause() instanceof ConnectException);
+        assertEquals(3, attempts.get());
+
+        attempts.set(0);
+        assertThrows(ExecutionException.class, () -> idempotent.execute(() -> {
+            attempts.incrementAndGet();
+            return AsyncCalls.<String>failed(new ModelApiException(400, "1113", "欠费"));
+        }).get());
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void mayRetryCanStopRetries() {
+        AtomicInteger attempts = new AtomicInteger();
+        assertThrows(ExecutionException.class, () -> idempotent.execute(() -> {
+            attempts.incrementAndGet();
+            return AsyncCalls.<String>failed(new IOException("stream broken"));
+        }, () -> false).get());
+        assertEquals(1, attempts.get());
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual >= min && actual <= max, actual + " 不在 [" + min + ", " + max + "] 内");
+    }
+}
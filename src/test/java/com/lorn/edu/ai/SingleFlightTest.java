@@ -0,0 +1,102 @@
+package com.lorn.edu.ai;
+
+import com.alibaba.fastjson.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightTest {
+
+    @Test
+    void concurrentCallsWithTheSameKeyShareOneUpstreamCall() throws Exception {
+        SingleFlight<String> flights = SingleFlight.named("test-share");
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+        AtomicInteger calls = new AtomicInteger();
+
+        CompletableFuture<String> first = flights.execute("k", () -> {
+            calls.incrementAndGet();
+            return upstream;
+        });
+        CompletableFuture<String> second = flights.execute("k", () -> {
+            calls.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        assertEquals(1, calls.get());
+        assertEquals(1, flights.getInFlight());
+
+        upstream.complete("v");
+        assertEquals("v", first.get());
+        assertEquals("v", second.get());
+        assertEquals(0, flights.getInFlight());
+        assertEquals(1, flights.getJoined());
+    }
+
+    @Test
+    void resultsAreNotCachedAfterTheCallEnds() throws Exception {
+        SingleFlight<String> flights = SingleFlight.named("test-no-cache");
+        AtomicInteger calls = new AtomicInteger();
+        flights.execute("k", () -> CompletableFuture.completedFuture("v" + calls.incrementAndGet())).get();
+        assertEquals("v2", flights.execute("k", () ->
+                CompletableFuture.completedFuture("v" + calls.incrementAndGet())).get());
+    }
+
+    @Test
+    void failuresReachEveryCaller() {
+        SingleFlight<String> flights = SingleFlight.named("test-failure");
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+        CompletableFuture<String> first = flights.execute("k", () -> upstream);
+        CompletableFuture<String> second = flights.execute("k", CompletableFuture::new);
+
+        IllegalStateException error = new IllegalStateException("boom");
+        upstream.completeExceptionally(error);
+        assertSame(error, assertThrows(ExecutionException.class, first::get).getCause());
+        assertSame(error, assertThrows(ExecutionException.class, second::get).getCause());
+        assertEquals(0, flights.getInFlight());
+    }
+
+    @Test
+    void upstreamIsCancelledOnlyWhenEveryCallerLeaves() {
+        SingleFlight<String> flights = SingleFlight.named("test-cancel");
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+        CompletableFuture<String> first = flights.execute("k", () -> upstream);
+        CompletableFuture<String> second = flights.execute("k", CompletableFuture::new);
+
+        first.cancel(true);
+        assertFalse(upstream.isCancelled());
+        second.cancel(true);
+        assertTrue(upstream.isCancelled());
+        assertEquals(0, flights.getInFlight());
+    }
+
+    @Test
+    void keyCoversPartsAndAllMessageFields() {
+        List<JSONObject> messages = new ArrayList<>();
+        messages.add(message("user", "hi"));
+        String key = SingleFlight.key(messages, "url", "glm-4");
+
+        assertEquals(key, SingleFlight.key(Collections.singletonList(message("user", "hi")), "url", "glm-4"));
+        assertNotEquals(key, SingleFlight.key(messages, "url", "glm-4-plus"));
+        assertNotEquals(key, SingleFlight.key(Collections.singletonList(message("user", "hi!")), "url", "glm-4"));
+        // 各部分之间有分隔，拼接结果相同的不同部分不会冲突
+        assertNotEquals(SingleFlight.key(null, "ab", "c"), SingleFlight.key(null, "a", "bc"));
+    }
+
+    private static JSONObject message(String role, String content) {
+        JSONObject message = new JSONObject();
+        message.put("role", role);
+        message.put("content", content);
+        return message;
+    }
+}
@@ -0,0 +1,64 @@
+package com.lorn.edu.ai;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VideoTaskJournalTest {
+    @TempDir
+    File dir;
+
+    @Test
+    void unfinishedTasksAreResumedAfterRestart() {
+        File file = new File(dir, "video-tasks.log");
+        VideoTaskJournal journal = new VideoTaskJournal(file, TimeUnit.HOURS.toMillis(24));
+        journal.recordSubmitted("req-1", "task-1", "一只猫");
+        journal.recordSubmitted("req-2", "task-2", "一只狗");
+        journal.recordSubmitted("req-3", "task-3", "一只鸟");
+        journal.recordDone("task-1", "video_1.mp4");
+        journal.recordFailed("task-3", "内容审核未通过");
+
+        // 模拟重启：新实例读取同一个文件
+        List<VideoTaskJournal.Entry> unfinished = new VideoTaskJournal(file, TimeUnit.HOURS.toMillis(24)).loadUnfinished();
+
+        assertEquals(1, unfinished.size());
+        VideoTaskJournal.Entry entry = unfinished.get(0);
+        assertEquals("req-2", entry.getRequestId());
+        assertEquals("task-2", entry.getTaskId());
+        assertEquals("一只狗", entry.getPrompt());
+        assertTrue(entry.getSubmittedAt() > 0);
+    }
+
+    @Test
+    void loadCompactsTheLogAndSkipsTornAndExpiredRecords() throws Exception {
+        File file = new File(dir, "video-tasks.log");
+        VideoTaskJournal journal = new VideoTaskJournal(file, TimeUnit.HOURS.toMillis(1));
+        journal.recordSubmitted("req-1", "task-1", "一只猫");
+        journal.recordDone("task-1", "video_1.mp4");
+        journal.recordSubmitted("req-2", "task-2", "一只狗");
+        Files.write(file.toPath(), ("{\"type\":\"SUBMIT\",\"requestId\":\"old\",\"taskId\":\"task-old\",\"time\":1}\n"
+                + "{\"type\":\"SUBMIT\",\"taskId\":\"task-3").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        assertEquals(1, journal.loadUnfinished().size());
+
+        // 压缩后只剩未完成任务的一条 SUBMIT 记录，再次读取结果不变
+        assertEquals(1, Files.readAllLines(file.toPath()).size());
+        assertEquals("task-2", journal.loadUnfinished().get(0).getTaskId());
+    }
+
+    @Test
+    void journalsAreSharedPerPath() {
+        File file = new File(dir, "shared.log");
+        assertSame(VideoTaskJournal.forPath(file), VideoTaskJournal.forPath(new File(dir, "./shared.log")));
+    }
+}
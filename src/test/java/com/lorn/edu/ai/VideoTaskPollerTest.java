@@ -0,0 +1,48 @@
+package com.lorn.edu.ai;
+
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VideoTaskPollerTest {
+    // 不会有服务监听的端口，查询一直失败，任务保持等待
+    private static final String QUERY_URL = "http://127.0.0.1:1/async-result";
+
+    @Test
+    void pollersAreSharedPerEndpointUntilShutdown() {
+        OkHttpClient client = new OkHttpClient();
+        VideoTaskPoller poller = VideoTaskPoller.forEndpoint(client, QUERY_URL, "key-a");
+        assertSame(poller, VideoTaskPoller.forEndpoint(client, QUERY_URL, "key-a"));
+        assertNotSame(poller, VideoTaskPoller.forEndpoint(client, QUERY_URL, "key-b"));
+
+        poller.shutdown();
+        VideoTaskPoller next = VideoTaskPoller.forEndpoint(client, QUERY_URL, "key-a");
+        assertNotSame(poller, next);
+        next.shutdown();
+        VideoTaskPoller.forEndpoint(client, QUERY_URL, "key-b").shutdown();
+    }
+
+    @Test
+    void shutdownFailsWaitingTasksWithoutMarkingThemFailed() {
+        VideoTaskPoller poller = VideoTaskPoller.forEndpoint(new OkHttpClient(), QUERY_URL, "key-shutdown");
+        CompletableFuture<VideoTaskPoller.VideoResult> result = poller.track("task-1");
+        assertEquals(1, poller.getPendingCount());
+
+        poller.shutdown();
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        // 不是 TaskFailedException：任务日志保留这条记录，重启后继续查询
+        assertFalse(e.getCause() instanceof VideoTaskPoller.TaskFailedException);
+        assertTrue(e.getCause().getMessage().contains("task-1"));
+    }
+}